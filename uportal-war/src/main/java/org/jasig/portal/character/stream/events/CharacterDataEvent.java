@@ -25,4 +25,10 @@ package org.jasig.portal.character.stream.events;
  */
 public interface CharacterDataEvent extends CharacterEvent {
     public String getData();
+    
+    /**
+     * @return The data encoded as UTF-8. The returned array may be shared and MUST NOT be modified. Implementations
+     * hold only one of the String or encoded forms so the other may be computed on each call.
+     */
+    public byte[] getEncodedData();
 }
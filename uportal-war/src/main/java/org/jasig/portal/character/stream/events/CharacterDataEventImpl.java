@@ -21,6 +21,7 @@ package org.jasig.portal.character.stream.events;
 
 import org.springframework.util.Assert;
 
+import com.google.common.base.Charsets;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -83,6 +84,15 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
         return this.data;
     }
 
+    /* (non-Javadoc)
+     * @see org.jasig.portal.character.stream.events.CharacterDataEvent#getEncodedData()
+     */
+    @Override
+    public byte[] getEncodedData() {
+        //Not retained, character data that is written repeatedly is cached as an EncodedCharacterDataEventImpl
+        return this.data.getBytes(Charsets.UTF_8);
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.portal.character.stream.events.CharacterEvent#getEventType()
      */
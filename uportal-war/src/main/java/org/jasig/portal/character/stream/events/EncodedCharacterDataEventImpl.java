@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.character.stream.events;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Character data that is held only in its UTF-8 encoded form, used for character data that is cached and written to
+ * many responses. {@link #getData()} decodes the data on every call.
+ */
+public final class EncodedCharacterDataEventImpl implements CharacterDataEvent {
+    private static final long serialVersionUID = 1L;
+    
+    public static CharacterDataEvent create(String data) {
+        if (data.length() == 0) {
+            return CharacterDataEventImpl.EMPTY_CHARACTER_DATA;
+        }
+        
+        return new EncodedCharacterDataEventImpl(data);
+    }
+    
+    private final byte[] encodedData;
+    private final int hash;
+    
+    private EncodedCharacterDataEventImpl(String data) {
+        Assert.notNull(data);
+        this.encodedData = data.getBytes(Charsets.UTF_8);
+        
+        //Same hash as CharacterDataEventImpl so equal events from either implementation have equal hashes
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + getEventType().hashCode();
+        result = prime * result + data.hashCode();
+        this.hash = result;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.character.stream.events.CharacterDataEvent#getData()
+     */
+    @Override
+    public String getData() {
+        return new String(this.encodedData, Charsets.UTF_8);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.character.stream.events.CharacterDataEvent#getEncodedData()
+     */
+    @Override
+    public byte[] getEncodedData() {
+        return this.encodedData;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.character.stream.events.CharacterEvent#getEventType()
+     */
+    @Override
+    public CharacterEventTypes getEventType() {
+        return CharacterEventTypes.CHARACTER;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedCharacterDataEvent [data=" + this.getData() + "]";
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (obj instanceof EncodedCharacterDataEventImpl) {
+            final EncodedCharacterDataEventImpl other = (EncodedCharacterDataEventImpl) obj;
+            return this.hash == other.hash && Arrays.equals(this.encodedData, other.encodedData);
+        }
+        if (!(obj instanceof CharacterDataEvent))
+            return false;
+        
+        final CharacterDataEvent other = (CharacterDataEvent) obj;
+        return getEventType() == other.getEventType() && this.getData().equals(other.getData());
+    }
+}
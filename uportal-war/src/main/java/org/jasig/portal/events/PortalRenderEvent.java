@@ -19,6 +19,7 @@
 
 package org.jasig.portal.events;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +54,11 @@ public final class PortalRenderEvent extends PortalEvent {
     @Deprecated
     private Long executionTime;
     private long executionTimeNano;
+    /**
+     * Execution times of other renders of the same tab folded into this event before it was stored
+     */
+    @JsonInclude(Include.NON_NULL)
+    private long[] foldedExecutionTimesNano;
 
     PortalRenderEvent() {
         super();
@@ -101,6 +107,32 @@ public final class PortalRenderEvent extends PortalEvent {
         return this.executionTimeNano;
     }
     
+    /**
+     * @return Execution times in nanoseconds of the other executions folded into this event, empty if the event represents a single execution
+     */
+    public long[] getFoldedExecutionTimesNano() {
+        final long[] folded = this.foldedExecutionTimesNano;
+        if (folded == null) {
+            return new long[0];
+        }
+        return folded.clone();
+    }
+    
+    /**
+     * Fold the execution times of other events of the same type into this event, only used by
+     * {@link org.jasig.portal.events.handlers.db.PortalEventPreAggregator} before the event is stored.
+     * 
+     * @param foldedExecutionTimesNano Execution times in nanoseconds, replaces any previously folded times
+     */
+    public void setFoldedExecutionTimesNano(long[] foldedExecutionTimesNano) {
+        if (foldedExecutionTimesNano == null || foldedExecutionTimesNano.length == 0) {
+            this.foldedExecutionTimesNano = null;
+        }
+        else {
+            this.foldedExecutionTimesNano = Arrays.copyOf(foldedExecutionTimesNano, foldedExecutionTimesNano.length);
+        }
+    }
+    
     /**
      * @return the requestPathInfo
      */
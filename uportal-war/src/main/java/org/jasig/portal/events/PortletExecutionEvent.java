@@ -19,6 +19,7 @@
 
 package org.jasig.portal.events;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +58,11 @@ public abstract class PortletExecutionEvent extends PortalEvent {
     @Deprecated
     private Long executionTime;
     private long executionTimeNano;
+    /**
+     * Execution times of other executions of the same portlet folded into this event before it was stored
+     */
+    @JsonInclude(Include.NON_NULL)
+    private long[] foldedExecutionTimesNano;
     private final Map<String, List<String>> parameters;
 
     PortletExecutionEvent() {
@@ -109,6 +115,32 @@ public abstract class PortletExecutionEvent extends PortalEvent {
         return this.executionTimeNano;
     }
     
+    /**
+     * @return Execution times in nanoseconds of the other executions folded into this event, empty if the event represents a single execution
+     */
+    public long[] getFoldedExecutionTimesNano() {
+        final long[] folded = this.foldedExecutionTimesNano;
+        if (folded == null) {
+            return new long[0];
+        }
+        return folded.clone();
+    }
+    
+    /**
+     * Fold the execution times of other events of the same type into this event, only used by
+     * {@link org.jasig.portal.events.handlers.db.PortalEventPreAggregator} before the event is stored.
+     * 
+     * @param foldedExecutionTimesNano Execution times in nanoseconds, replaces any previously folded times
+     */
+    public void setFoldedExecutionTimesNano(long[] foldedExecutionTimesNano) {
+        if (foldedExecutionTimesNano == null || foldedExecutionTimesNano.length == 0) {
+            this.foldedExecutionTimesNano = null;
+        }
+        else {
+            this.foldedExecutionTimesNano = Arrays.copyOf(foldedExecutionTimesNano, foldedExecutionTimesNano.length);
+        }
+    }
+    
     /**
      * @return the fname
      */
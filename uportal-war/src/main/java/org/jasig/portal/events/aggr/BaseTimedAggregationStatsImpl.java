@@ -25,6 +25,7 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
+import javax.persistence.Lob;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
@@ -32,6 +33,7 @@ import javax.persistence.Transient;
 
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
 
 /**
  * Base for aggregate entities that track timed statistics
@@ -80,6 +82,10 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Column(name = "SECOND_MOMENT_TIME", nullable = false)
     private double secondMoment;
     
+    @Lob
+    @Column(name = "HISTOGRAM_TIME")
+    private byte[] histogramData;
+    
     @Embedded
     private JpaStatisticalSummary statisticalSummary;
     
@@ -89,6 +95,12 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Transient
     private boolean modified = false;
     
+    @Transient
+    private LatencyHistogram histogram;
+    
+    @Transient
+    private boolean histogramModified = false;
+    
     
     protected BaseTimedAggregationStatsImpl() {
         super();
@@ -159,6 +171,47 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         updateStats();
         return this.secondMoment;
     }
+    
+    /**
+     * Returns an estimate of the value at the specified percentile of the values that have been added,
+     * accurate to within about 1.5%.
+     * <p>
+     * Double.NaN is returned if no values have been added or if values were added to the interval before
+     * histograms were tracked.
+     * </p>
+     * @param percentile The percentile, between 0 and 100
+     * @return the value at the percentile
+     */
+    public final double getPercentile(double percentile) {
+        final LatencyHistogram histogram = this.getStoredHistogram();
+        if (histogram == null) {
+            return Double.NaN;
+        }
+        return histogram.getValueAtPercentile(percentile);
+    }
+    
+    /**
+     * @return A copy of the histogram of the values added to the aggregation, null if values were added to the
+     * aggregation before histograms were tracked. Histograms of aggregations for smaller intervals can be merged to get the
+     * histogram of a larger interval.
+     */
+    public final LatencyHistogram getHistogram() {
+        final LatencyHistogram histogram = this.getStoredHistogram();
+        if (histogram == null) {
+            return null;
+        }
+        
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(histogram);
+        return copy;
+    }
+    
+    private LatencyHistogram getStoredHistogram() {
+        if (this.histogram == null && this.histogramData != null) {
+            this.histogram = LatencyHistogram.fromByteArray(this.histogramData);
+        }
+        return this.histogram;
+    }
 
     /**
      * Check if the interval is complete, must be called by super classes if overridden
@@ -193,17 +246,41 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
             this.statisticalSummary = new JpaStatisticalSummary();
         }
         
+        //An interval that had values added before histograms were tracked never gets a histogram, percentiles of
+        //only the later values would be wrong
+        LatencyHistogram histogram = this.getStoredHistogram();
+        if (histogram == null && this.statisticalSummary.getN() == 0) {
+            histogram = new LatencyHistogram();
+            this.histogram = histogram;
+        }
+        if (histogram != null) {
+            histogram.recordValue(Math.round(v));
+            this.histogramModified = true;
+        }
+        
         this.statisticalSummary.addValue(v);
         
         this.modified = true;
     }
 
     /**
-     * Update the individual statistic fields if the {@link JpaStatisticalSummary} has been modified, called
-     * automatically by the getter of each field
+     * Update the statistic fields and encode the histogram if values have been added since the last flush
      */
     @PrePersist
     @PreUpdate
+    final void beforeFlush() {
+        updateStats();
+        
+        if (this.histogramModified) {
+            this.histogramData = this.histogram.toByteArray();
+            this.histogramModified = false;
+        }
+    }
+
+    /**
+     * Update the individual statistic fields if the {@link JpaStatisticalSummary} has been modified, called
+     * automatically by the getter of each field
+     */
     final void updateStats() {
         if (!this.modified || this.statisticalSummary == null) {
             return;
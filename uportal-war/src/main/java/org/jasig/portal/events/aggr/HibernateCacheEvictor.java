@@ -19,6 +19,7 @@
 package org.jasig.portal.events.aggr;
 
 import java.io.Serializable;
+import java.util.concurrent.Callable;
 
 import org.hibernate.Cache;
 
@@ -32,4 +33,10 @@ public interface HibernateCacheEvictor {
      * @see Cache#evictEntity(Class, Serializable)
      */
     void evictEntity(Class<?> entityClass, Serializable identifier);
+    
+    /**
+     * Wrap a {@link Callable} that will run on a different thread so that entities evicted by it
+     * are tracked with the evictions of the thread calling this method.
+     */
+    <V> Callable<V> trackEvictions(Callable<V> callable);
 }
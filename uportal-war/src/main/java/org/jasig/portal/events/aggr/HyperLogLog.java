@@ -0,0 +1,185 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * HyperLogLog sketch used to estimate the number of unique strings added to it. The sketch is backed by a
+ * single byte array of 2^precision registers that can be persisted as-is, so memory and storage use is
+ * constant no matter how many strings are counted. Two sketches of the same precision can be merged to get
+ * the estimate for the union of the strings added to both.
+ * <p/>
+ * The standard error of the estimate is about 1.04/sqrt(2^precision), 2.3% for the default precision of 11.
+ * <p/>
+ * Not thread safe.
+ */
+public final class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 11;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private final byte[] registers;
+    private final int precision;
+    
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+    
+    /**
+     * @param precision log2 of the number of registers to use, must be between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+    
+    private HyperLogLog(byte[] registers, int precision) {
+        this.registers = registers;
+        this.precision = precision;
+    }
+    
+    /**
+     * Create a sketch backed by the specified registers, changes to the sketch are written directly to the array.
+     * 
+     * @param registers Registers from {@link #getRegisters()} of a previous sketch
+     */
+    public static HyperLogLog wrap(byte[] registers) {
+        final int precision = Integer.numberOfTrailingZeros(registers.length);
+        if (Integer.bitCount(registers.length) != 1 || precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("registers length must be a power of two between 2^" + MIN_PRECISION + " and 2^" + MAX_PRECISION + ": " + registers.length);
+        }
+        return new HyperLogLog(registers, precision);
+    }
+    
+    /**
+     * @return The registers backing the sketch, not copied
+     */
+    public byte[] getRegisters() {
+        return this.registers;
+    }
+    
+    public int getPrecision() {
+        return this.precision;
+    }
+    
+    /**
+     * @return true if the sketch changed, false means the string has very likely been added before
+     */
+    public boolean add(String value) {
+        final long hash = HASH_FUNCTION.hashString(value, Charsets.UTF_8).asLong();
+        
+        //First precision bits select the register, rank is the position of the first set bit in the remaining bits
+        final int index = (int) (hash >>> (Long.SIZE - this.precision));
+        final long remaining = (hash << this.precision) | (1L << (this.precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        
+        if (rank > this.registers[index]) {
+            this.registers[index] = rank;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Add all strings counted by the other sketch to this sketch
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Cannot merge sketch with precision " + other.precision + " into sketch with precision " + this.precision);
+        }
+        
+        for (int i = 0; i < this.registers.length; i++) {
+            if (other.registers[i] > this.registers[i]) {
+                this.registers[i] = other.registers[i];
+            }
+        }
+    }
+    
+    /**
+     * @return The estimated number of unique strings added to the sketch
+     */
+    public long cardinality() {
+        final int m = this.registers.length;
+        
+        double sum = 0;
+        int zeroRegisters = 0;
+        for (final byte register : this.registers) {
+            sum += 1d / (1L << register);
+            if (register == 0) {
+                zeroRegisters++;
+            }
+        }
+        
+        final double estimate = getAlpha(m) * m * m / sum;
+        
+        //Small range correction, use linear counting while there are empty registers
+        if (estimate <= 2.5 * m && zeroRegisters > 0) {
+            return Math.round(m * Math.log((double) m / zeroRegisters));
+        }
+        
+        //64 bit hashes don't need the large range correction
+        return Math.round(estimate);
+    }
+    
+    private static double getAlpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.registers);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        HyperLogLog other = (HyperLogLog) obj;
+        return Arrays.equals(this.registers, other.registers);
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + this.precision + ", cardinality=" + this.cardinality() + "]";
+    }
+}
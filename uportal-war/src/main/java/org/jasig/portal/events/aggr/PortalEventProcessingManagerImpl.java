@@ -20,11 +20,13 @@
 package org.jasig.portal.events.aggr;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
@@ -37,6 +39,7 @@ import org.jasig.portal.concurrency.locking.IClusterLockService.TryLockFunctionR
 import org.jasig.portal.concurrency.locking.LockOptions;
 import org.jasig.portal.jpa.BaseAggrEventsJpaDao;
 import org.jasig.portal.jpa.BaseRawEventsJpaDao;
+import org.jasig.portal.utils.ConcurrentMapUtils;
 import org.jasig.portal.version.dao.VersionDao;
 import org.jasig.portal.version.om.Version;
 import org.joda.time.DateTime;
@@ -66,10 +69,11 @@ public class PortalEventProcessingManagerImpl implements IPortalEventProcessingM
     private long purgeRawEventsPeriod = 0;
     private long purgeEventSessionsPeriod = 0;
     
-    private final ThreadLocal<Map<Class<?>, Collection<Serializable>>> evictedEntitiesHolder = new ThreadLocal<Map<Class<?>, Collection<Serializable>>>() {
+    //Concurrent collections as partitioned aggregation records evictions from worker threads, see trackEvictions
+    private final ThreadLocal<ConcurrentMap<Class<?>, Collection<Serializable>>> evictedEntitiesHolder = new ThreadLocal<ConcurrentMap<Class<?>, Collection<Serializable>>>() {
         @Override
-        protected Map<Class<?>, Collection<Serializable>> initialValue() {
-            return new HashMap<Class<?>, Collection<Serializable>>();
+        protected ConcurrentMap<Class<?>, Collection<Serializable>> initialValue() {
+            return new ConcurrentHashMap<Class<?>, Collection<Serializable>>();
         }
     };
     private volatile boolean shutdown = false;
@@ -379,15 +383,32 @@ public class PortalEventProcessingManagerImpl implements IPortalEventProcessingM
     
     @Override
     public void evictEntity(Class<?> entityClass, Serializable identifier) {
-        final Map<Class<?>, Collection<Serializable>> evictedEntities = evictedEntitiesHolder.get();
+        final ConcurrentMap<Class<?>, Collection<Serializable>> evictedEntities = evictedEntitiesHolder.get();
         Collection<Serializable> ids = evictedEntities.get(entityClass);
         if (ids == null) {
-            ids = new ArrayList<Serializable>();
-            evictedEntities.put(entityClass, ids);
+            ids = ConcurrentMapUtils.putIfAbsent(evictedEntities, entityClass, new ConcurrentLinkedQueue<Serializable>());
         }
         ids.add(identifier);
     }
     
+    @Override
+    public <V> Callable<V> trackEvictions(final Callable<V> callable) {
+        //Capture the calling thread's evictions so they are visible to it once the callable completes
+        final ConcurrentMap<Class<?>, Collection<Serializable>> evictedEntities = evictedEntitiesHolder.get();
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                evictedEntitiesHolder.set(evictedEntities);
+                try {
+                    return callable.call();
+                }
+                finally {
+                    evictedEntitiesHolder.remove();
+                }
+            }
+        };
+    }
+    
     /**
      * Check if the database and software versions match
      */
@@ -24,6 +24,7 @@ import org.jasig.portal.concurrency.locking.IClusterLockService;
 import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PersistentPortalEvent;
 import org.jasig.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
@@ -99,6 +100,10 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
         final DateTime lastAggregated = eventAggregatorStatus.getLastEventDate();
         DateTime purgeEnd = lastAggregated.minus(this.purgeDelay);
         
+        if (this.portalEventDao.isBucketPurgeEnabled()) {
+            return this.doPurgeRawEventBuckets(eventPurgerStatus, purgeEnd);
+        }
+        
         //Determine the DateTime of the oldest event
         DateTime oldestEventDate = eventPurgerStatus.getLastEventDate();
         if (oldestEventDate == null) {
@@ -134,4 +139,55 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
         
         return new EventProcessingResult(events, oldestEventDate, purgeEnd, complete);
     }
+    
+    /**
+     * Purges the oldest time bucket of raw events if the whole bucket is before the purge end date. Events newer than
+     * the end of the last expired bucket are kept until their whole bucket expires.
+     */
+    private EventProcessingResult doPurgeRawEventBuckets(IEventAggregatorStatus eventPurgerStatus, DateTime purgeEnd) {
+        //Determine the first bucket that has not been purged
+        final DateTime lastPurged = eventPurgerStatus.getLastEventDate();
+        final DateTime oldestEventDate;
+        if (lastPurged != null) {
+            //Undo the 100ms decrement, a partially purged bucket still needs to be purged
+            oldestEventDate = lastPurged.plusMillis(100);
+        }
+        else {
+            oldestEventDate = this.portalEventDao.getOldestPortalEventTimestamp();
+        }
+        
+        //Only buckets that end before the purge end have expired
+        final int expiredBucket = PersistentPortalEvent.getBucket(purgeEnd) - 1;
+        if (oldestEventDate == null || PersistentPortalEvent.getBucket(oldestEventDate) > expiredBucket) {
+            eventPurgerStatus.setLastEnd(new DateTime());
+            eventAggregationManagementDao.updateEventAggregatorStatus(eventPurgerStatus);
+            
+            return new EventProcessingResult(0, oldestEventDate, oldestEventDate, true);
+        }
+        
+        final int bucket = PersistentPortalEvent.getBucket(oldestEventDate);
+        final DateTime bucketEnd = PersistentPortalEvent.getBucketStart(bucket + 1);
+        
+        final Thread currentThread = Thread.currentThread();
+        final String currentName = currentThread.getName();
+        final int events;
+        try {
+            currentThread.setName(currentName + "-" + bucketEnd);
+        
+            //Purge the bucket
+            logger.debug("Starting purge of event bucket {} ending at {}", bucket, bucketEnd);
+            events = portalEventDao.deletePortalEventBucket(bucket);
+        }
+        finally {
+            currentThread.setName(currentName);
+        }
+        
+        //Update the status object and store it, using the same 100ms decrement as deletePortalEventsBefore
+        final DateTime purged = bucketEnd.minusMillis(100);
+        eventPurgerStatus.setLastEventDate(purged); 
+        eventPurgerStatus.setLastEnd(new DateTime());
+        eventAggregationManagementDao.updateEventAggregatorStatus(eventPurgerStatus);
+        
+        return new EventProcessingResult(Math.max(events, 0), oldestEventDate, purged, bucket == expiredBucket);
+    }
 }
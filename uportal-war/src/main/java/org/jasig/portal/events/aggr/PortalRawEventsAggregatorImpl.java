@@ -20,6 +20,7 @@
 package org.jasig.portal.events.aggr;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
@@ -30,6 +31,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
@@ -76,9 +82,15 @@ import com.google.common.collect.Sets;
 @Service
 public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implements PortalRawEventsAggregator, DisposableBean {
     private static final String EVENT_SESSION_CACHE_KEY_SOURCE = AggregateEventsHandler.class.getName() + "-EventSession";
+    
+    /**
+     * Name of the partition status that tracks event session processing when aggregation is partitioned
+     */
+    private static final String EVENT_SESSION_PARTITION = "EventSessions";
 
     private IClusterLockService clusterLockService;
     private IPortalEventProcessingManager portalEventAggregationManager;
+    private HibernateCacheEvictor hibernateCacheEvictor;
     private PortalEventDimensionPopulator portalEventDimensionPopulator;
     private IEventAggregationManagementDao eventAggregationManagementDao;
     private IPortalInfoProvider portalInfoProvider;
@@ -88,7 +100,9 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     private DateDimensionDao dateDimensionDao;
     private Set<IPortalEventAggregator<PortalEvent>> portalEventAggregators = Collections.emptySet();
     private List<ApplicationEventFilter<PortalEvent>> applicationEventFilters = Collections.emptyList();
+    private ExecutorService aggregationExecutor;
     
+    private int aggregationThreads = 1;
     private int eventAggregationBatchSize = 10000;
     private int intervalAggregationBatchSize = 5;
     private int cleanUnclosedAggregationsBatchSize = 1000;
@@ -108,6 +122,11 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         this.portalEventAggregationManager = portalEventAggregationManager;
     }
 
+    @Autowired
+    public void setHibernateCacheEvictor(HibernateCacheEvictor hibernateCacheEvictor) {
+        this.hibernateCacheEvictor = hibernateCacheEvictor;
+    }
+
     @Autowired
     public void setClusterLockService(IClusterLockService clusterLockService) {
         this.clusterLockService = clusterLockService;
@@ -153,6 +172,21 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         this.applicationEventFilters = applicationEventFilters;
     }
 
+    @Resource(name="eventAggregationThreadPool")
+    public void setAggregationExecutor(ExecutorService aggregationExecutor) {
+        this.aggregationExecutor = aggregationExecutor;
+    }
+
+    /**
+     * Number of threads to aggregate with. When greater than 1 the aggregators are partitioned by type and each partition
+     * aggregates concurrently on the {@link #setAggregationExecutor(ExecutorService)} pool, tracking its own progress.
+     * Defaults to 1, all aggregators run serially on the thread holding the aggregation lock.
+     */
+    @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.aggregationThreads:1}")
+    public void setAggregationThreads(int aggregationThreads) {
+        this.aggregationThreads = aggregationThreads;
+    }
+
     @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.aggregationDelay:PT30S}")
     public void setAggregationDelay(ReadablePeriod aggregationDelay) {
         this.aggregationDelay = aggregationDelay;
@@ -198,6 +232,11 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     @RawEventsTransactional
     @Override
     public EventProcessingResult doAggregateRawEvents() {
+        if (this.aggregationThreads > 1) {
+            //Each partition runs its own AggrTX on a worker thread, the RawTX commits the event session pass at the end of the run
+            return this.doAggregateRawEventsPartitioned();
+        }
+        
         //Do RawTX around AggrTX. The AggrTX is MUCH more likely to fail than the RawTX and this results in both rolling back
         return this.getTransactionOperations().execute(new TransactionCallback<EventProcessingResult>() {
             @Override
@@ -394,7 +433,13 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         return collectionRoles;
     }
     
-    private EventProcessingResult doAggregateRawEventsInternal() {
+    /**
+     * Verifies the aggregation lock is held and the dimensions are populated, then loads the aggregation status and
+     * marks it as being updated by this server.
+     * 
+     * @return The aggregation status, null if aggregation should not be run
+     */
+    private IEventAggregatorStatus prepareAggregation() {
         if (!this.clusterLockService.isLockOwner(AGGREGATION_LOCK_NAME)) {
             throw new IllegalStateException("The cluster lock " + AGGREGATION_LOCK_NAME + " must be owned by the current thread and server");
         }
@@ -427,6 +472,36 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         
         eventAggregatorStatus.setServerName(serverName);
         
+        return eventAggregatorStatus;
+    }
+    
+    private EventProcessingResult doAggregateRawEventsInternal() {
+        final IEventAggregatorStatus eventAggregatorStatus = this.prepareAggregation();
+        if (eventAggregatorStatus == null) {
+            return null;
+        }
+        
+        //A partitioned run left partition statuses behind, they have to catch up before single threaded aggregation resumes
+        final IEventAggregatorStatus eventSessionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, EVENT_SESSION_PARTITION, false);
+        if (eventSessionStatus != null) {
+            return this.doRetirePartitions(eventAggregatorStatus, eventSessionStatus);
+        }
+        
+        return this.doAggregateRawEvents(eventAggregatorStatus, this.portalEventAggregators);
+    }
+    
+    /**
+     * Aggregates the next batch of un-aggregated raw events with the specified aggregators, the un-aggregated events
+     * are marked as aggregated and the status is updated with the progress made.
+     */
+    private EventProcessingResult doAggregateRawEvents(IEventAggregatorStatus eventAggregatorStatus, Collection<IPortalEventAggregator<PortalEvent>> aggregators) {
+        return this.doAggregateRawEvents(eventAggregatorStatus, aggregators, this.getNewestEventTime());
+    }
+    
+    /**
+     * Aggregates the next batch of un-aggregated raw events older than newestEventTime with the specified aggregators.
+     */
+    private EventProcessingResult doAggregateRawEvents(IEventAggregatorStatus eventAggregatorStatus, Collection<IPortalEventAggregator<PortalEvent>> aggregators, DateTime newestEventTime) {
         //Calculate date range for aggregation
         DateTime lastAggregated = eventAggregatorStatus.getLastEventDate();
         if (lastAggregated == null) {
@@ -444,8 +519,6 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             eventAggregationManagementDao.updateEventAggregatorStatus(cleanUnclosedStatus);
         }
         
-        final DateTime newestEventTime = DateTime.now().minus(this.aggregationDelay).secondOfMinute().roundFloorCopy();
-        
         final Thread currentThread = Thread.currentThread();
         final String currentName = currentThread.getName();
         final MutableInt events = new MutableInt();
@@ -462,7 +535,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             
             complete = portalEventDao.aggregatePortalEvents(
             		lastAggregated, newestEventTime, this.eventAggregationBatchSize, 
-            		new AggregateEventsHandler(events, lastEventDate, eventAggregatorStatus));
+            		new AggregateEventsHandler(events, lastEventDate, eventAggregatorStatus, aggregators, true));
             
             eventAggregatorStatus.setLastEventDate((DateTime)lastEventDate.getValue());
             eventAggregatorStatus.setLastEnd(DateTime.now());
@@ -478,6 +551,322 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         return new EventProcessingResult(events.intValue(), lastAggregated, eventAggregatorStatus.getLastEventDate(), complete);
     }
     
+    /**
+     * @return The exclusive upper bound on event dates to aggregate, events newer than this may still be arriving
+     */
+    private DateTime getNewestEventTime() {
+        return DateTime.now().minus(this.aggregationDelay).secondOfMinute().roundFloorCopy();
+    }
+    
+    /**
+     * Partitioned aggregation. Each partition of aggregators first catches up to the event sessions resolved by
+     * previous runs on the aggregation thread pool, then the event sessions for the next batch of raw events are
+     * resolved. Catching up first means the partitions never read raw events that this thread has locked for update.
+     * The overall aggregation status tracks the oldest partition so purging and unclosed aggregation cleanup never get
+     * ahead of any aggregator.
+     * <p>
+     * The partitions read raw events by date without regard to the aggregated flag, so the event session status only
+     * ever moves to an exact boundary: every raw event before it is marked as aggregated and none after it are. This is
+     * what lets the partitions, and single threaded aggregation once the partitions are retired, pick up at that date
+     * without re-reading or skipping events that share a millisecond.
+     */
+    private EventProcessingResult doAggregateRawEventsPartitioned() {
+        final Map<String, List<IPortalEventAggregator<PortalEvent>>> partitions = this.getAggregatorPartitions();
+        
+        final MutableObject partitionEndHolder = new MutableObject();
+        final MutableObject catchUpResultHolder = new MutableObject();
+        final IEventAggregatorStatus preparedStatus = this.getTransactionOperations().execute(new TransactionCallback<IEventAggregatorStatus>() {
+            @Override
+            public IEventAggregatorStatus doInTransaction(TransactionStatus status) {
+                final IEventAggregatorStatus eventAggregatorStatus = prepareAggregation();
+                if (eventAggregatorStatus == null) {
+                    return null;
+                }
+                
+                IEventAggregatorStatus eventSessionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, EVENT_SESSION_PARTITION, false);
+                if (eventSessionStatus == null || eventSessionStatus.getLastEventDate() == null) {
+                    //First partitioned run, single threaded aggregation has to catch up to a fixed date so the
+                    //partitions start from an exact boundary instead of the date of the last aggregated event
+                    final DateTime newestEventTime = getNewestEventTime();
+                    final EventProcessingResult catchUpResult = doAggregateRawEvents(eventAggregatorStatus, portalEventAggregators, newestEventTime);
+                    if (!catchUpResult.isComplete() || catchUpResult.getStart() == null || !newestEventTime.isAfter(catchUpResult.getStart())) {
+                        catchUpResultHolder.setValue(catchUpResult);
+                        return eventAggregatorStatus;
+                    }
+                    
+                    logger.info("Single threaded aggregation caught up to {}, switching to partitioned aggregation", newestEventTime);
+                    eventSessionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, EVENT_SESSION_PARTITION, true);
+                    eventSessionStatus.setLastEventDate(newestEventTime);
+                    eventAggregationManagementDao.updateEventAggregatorStatus(eventSessionStatus);
+                    
+                    eventAggregatorStatus.setLastEventDate(newestEventTime);
+                    eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+                }
+                
+                final DateTime partitionEnd = eventSessionStatus.getLastEventDate();
+                initializePartitionStatuses(partitions.keySet(), partitionEnd);
+                partitionEndHolder.setValue(partitionEnd);
+                
+                return eventAggregatorStatus;
+            }
+        });
+        if (preparedStatus == null) {
+            return null;
+        }
+        
+        //Still catching up before the switch to partitioned aggregation
+        final EventProcessingResult catchUpResult = (EventProcessingResult)catchUpResultHolder.getValue();
+        if (catchUpResult != null) {
+            return catchUpResult;
+        }
+        
+        //Aggregate each partition up to the event sessions resolved by previous runs
+        final DateTime partitionEnd = (DateTime)partitionEndHolder.getValue();
+        int partitionEvents = 0;
+        boolean partitionsComplete = true;
+        final Map<String, Future<MutableInt>> partitionResults = new TreeMap<String, Future<MutableInt>>();
+        for (final Map.Entry<String, List<IPortalEventAggregator<PortalEvent>>> partitionEntry : partitions.entrySet()) {
+            final String partition = partitionEntry.getKey();
+            final List<IPortalEventAggregator<PortalEvent>> aggregators = partitionEntry.getValue();
+            
+            //Track the aggregations evicted by the pool thread with this thread's evictions
+            partitionResults.put(partition, this.aggregationExecutor.submit(this.hibernateCacheEvictor.trackEvictions(new Callable<MutableInt>() {
+                @Override
+                public MutableInt call() throws Exception {
+                    return doAggregatePartition(partition, aggregators, partitionEnd);
+                }
+            })));
+        }
+        
+        //Wait for all of the partitions, a failed partition is retried from its status on the next run
+        try {
+            for (final Map.Entry<String, Future<MutableInt>> partitionResultEntry : partitionResults.entrySet()) {
+                try {
+                    final MutableInt events = partitionResultEntry.getValue().get();
+                    if (events == null) {
+                        //Partition was stopped before reaching the end date
+                        partitionsComplete = false;
+                    }
+                    else {
+                        partitionEvents = Math.max(partitionEvents, events.intValue());
+                    }
+                }
+                catch (ExecutionException e) {
+                    logger.warn("Aggregation of partition " + partitionResultEntry.getKey() + " failed, it will be retried on the next aggregation run", e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            for (final Future<MutableInt> partitionResult : partitionResults.values()) {
+                partitionResult.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for aggregation partitions to complete", e);
+        }
+        
+        //Resolve the event sessions for the next batch of raw events, the partitions aggregate them on the next run
+        final EventProcessingResult eventSessionResult = this.getTransactionOperations().execute(new TransactionCallback<EventProcessingResult>() {
+            @Override
+            public EventProcessingResult doInTransaction(TransactionStatus status) {
+                getEntityManager().setFlushMode(FlushModeType.COMMIT);
+                
+                final IEventAggregatorStatus eventSessionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, EVENT_SESSION_PARTITION, false);
+                eventSessionStatus.setServerName(portalInfoProvider.getUniqueServerName());
+                
+                final EventProcessingResult result = doResolveEventSessions(eventSessionStatus);
+                
+                //Everything before the oldest partition's last event date has been aggregated by every partition
+                DateTime lastEventDate = partitionEnd;
+                for (final String partition : partitions.keySet()) {
+                    final IEventAggregatorStatus partitionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, partition, false);
+                    if (partitionStatus != null && (lastEventDate == null || partitionStatus.getLastEventDate().isBefore(lastEventDate))) {
+                        lastEventDate = partitionStatus.getLastEventDate();
+                    }
+                }
+                
+                final IEventAggregatorStatus eventAggregatorStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true);
+                eventAggregatorStatus.setServerName(eventSessionStatus.getServerName());
+                eventAggregatorStatus.setLastEventDate(lastEventDate);
+                eventAggregatorStatus.setLastEnd(DateTime.now());
+                eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+                
+                return result;
+            }
+        });
+        
+        //Complete only once no new events were found and every partition has caught up to the last resolved sessions
+        final boolean complete = eventSessionResult.isComplete() && eventSessionResult.getProcessed() == 0 && partitionsComplete;
+        return new EventProcessingResult(Math.max(eventSessionResult.getProcessed(), partitionEvents), partitionEnd, eventSessionResult.getEnd(), complete);
+    }
+    
+    /**
+     * Resolves the event sessions for the next batch of raw events, marking them as aggregated. When the batch size is
+     * reached the rest of the last event's millisecond is resolved as well so the event session status can be moved to
+     * an exact boundary.
+     */
+    private EventProcessingResult doResolveEventSessions(IEventAggregatorStatus eventSessionStatus) {
+        final DateTime start = eventSessionStatus.getLastEventDate();
+        final DateTime newestEventTime = this.getNewestEventTime();
+        if (!start.isBefore(newestEventTime)) {
+            return new EventProcessingResult(0, start, start, true);
+        }
+        
+        final MutableInt events = new MutableInt();
+        final MutableObject lastEventDate = new MutableObject(newestEventTime);
+        final AggregateEventsHandler handler = new AggregateEventsHandler(events, lastEventDate, eventSessionStatus, 
+                Collections.<IPortalEventAggregator<PortalEvent>>emptySet(), true);
+        
+        logger.debug("Starting event session resolution between {} (inc) and {} (exc)", start, newestEventTime);
+        eventSessionStatus.setLastStart(DateTime.now());
+        
+        boolean complete = portalEventDao.aggregatePortalEvents(start, newestEventTime, this.eventAggregationBatchSize, handler);
+        complete = complete && (this.eventAggregationBatchSize <= 0 || events.intValue() < this.eventAggregationBatchSize);
+        
+        final DateTime end;
+        if (complete) {
+            end = newestEventTime;
+        }
+        else {
+            //No handled intervals so only the batch size stops the handler, finish off the last event's millisecond
+            final DateTime lastEvent = (DateTime)lastEventDate.getValue();
+            end = lastEvent.plusMillis(1);
+            portalEventDao.aggregatePortalEvents(lastEvent, end, 0, handler);
+        }
+        
+        eventSessionStatus.setLastEventDate(end);
+        eventSessionStatus.setLastEnd(DateTime.now());
+        eventAggregationManagementDao.updateEventAggregatorStatus(eventSessionStatus);
+        
+        return new EventProcessingResult(events.intValue(), start, end, complete);
+    }
+    
+    /**
+     * Create the status for any partition that does not have one yet, starting it at the specified date
+     */
+    private void initializePartitionStatuses(Set<String> partitions, DateTime start) {
+        for (final String partition : partitions) {
+            final IEventAggregatorStatus partitionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, partition, true);
+            if (partitionStatus.getLastEventDate() == null) {
+                partitionStatus.setLastEventDate(start);
+                eventAggregationManagementDao.updateEventAggregatorStatus(partitionStatus);
+            }
+        }
+    }
+    
+    /**
+     * Aggregates a single partition in its own transaction, called on an aggregation pool thread
+     * 
+     * @return The number of events processed, null if the partition stopped before reaching the end date
+     */
+    private MutableInt doAggregatePartition(final String partition, final Collection<IPortalEventAggregator<PortalEvent>> aggregators, final DateTime end) {
+        final Thread currentThread = Thread.currentThread();
+        final String currentName = currentThread.getName();
+        try {
+            currentThread.setName(currentName + "-" + partition);
+            
+            return this.getTransactionOperations().execute(new TransactionCallback<MutableInt>() {
+                @Override
+                public MutableInt doInTransaction(TransactionStatus status) {
+                    getEntityManager().setFlushMode(FlushModeType.COMMIT);
+                    
+                    final IEventAggregatorStatus partitionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, partition, false);
+                    final int events = doAggregatePartition(partitionStatus, aggregators, end);
+                    if (partitionStatus.getLastEventDate().isBefore(end)) {
+                        return null;
+                    }
+                    return new MutableInt(events);
+                }
+            });
+        }
+        finally {
+            currentThread.setName(currentName);
+        }
+    }
+    
+    /**
+     * Aggregates the raw events from the partition's last event date (inclusive) to the end date (exclusive) with
+     * the partition's aggregators. Partitions do not change the aggregated flag of the raw events, their progress is
+     * only tracked by the partition status.
+     * 
+     * @return The number of events processed
+     */
+    private int doAggregatePartition(IEventAggregatorStatus partitionStatus, Collection<IPortalEventAggregator<PortalEvent>> aggregators, DateTime end) {
+        final DateTime start = partitionStatus.getLastEventDate();
+        if (!start.isBefore(end)) {
+            return 0;
+        }
+        
+        final MutableInt events = new MutableInt();
+        final MutableObject lastEventDate = new MutableObject(end);
+        
+        partitionStatus.setServerName(this.portalInfoProvider.getUniqueServerName());
+        partitionStatus.setLastStart(DateTime.now());
+        
+        logger.debug("Starting aggregation of partition {} between {} (inc) and {} (exc)", new Object[] { partitionStatus, start, end });
+        final boolean complete = portalEventDao.processPortalEvents(start, end, 
+                new AggregateEventsHandler(events, lastEventDate, partitionStatus, aggregators, false));
+        
+        //When stopped early the last event date is the first event that was not aggregated
+        partitionStatus.setLastEventDate(complete ? end : (DateTime)lastEventDate.getValue());
+        partitionStatus.setLastEnd(DateTime.now());
+        eventAggregationManagementDao.updateEventAggregatorStatus(partitionStatus);
+        
+        return events.intValue();
+    }
+    
+    /**
+     * Brings every partition up to the event session partition then removes the partition statuses so single threaded
+     * aggregation can resume from where the partitions stopped.
+     */
+    private EventProcessingResult doRetirePartitions(IEventAggregatorStatus eventAggregatorStatus, IEventAggregatorStatus eventSessionStatus) {
+        final DateTime start = eventAggregatorStatus.getLastEventDate();
+        final DateTime end = eventSessionStatus.getLastEventDate();
+        
+        int events = 0;
+        boolean caughtUp = true;
+        if (end != null) {
+            for (final Map.Entry<String, List<IPortalEventAggregator<PortalEvent>>> partitionEntry : this.getAggregatorPartitions().entrySet()) {
+                final IEventAggregatorStatus partitionStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, partitionEntry.getKey(), false);
+                if (partitionStatus == null || partitionStatus.getLastEventDate() == null) {
+                    continue;
+                }
+                
+                events += this.doAggregatePartition(partitionStatus, partitionEntry.getValue(), end);
+                caughtUp = caughtUp && !partitionStatus.getLastEventDate().isBefore(end);
+            }
+        }
+        
+        if (caughtUp) {
+            logger.info("All aggregation partitions have caught up to {}, resuming single threaded aggregation", end);
+            eventAggregationManagementDao.deleteEventAggregatorPartitionStatuses(ProcessingType.AGGREGATION);
+            if (end != null) {
+                eventAggregatorStatus.setLastEventDate(end);
+            }
+        }
+        eventAggregatorStatus.setLastEnd(DateTime.now());
+        eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+        
+        //Never complete, events after the partitions still need single threaded aggregation
+        return new EventProcessingResult(events, start, end, false);
+    }
+    
+    /**
+     * @return The aggregators grouped into partitions by aggregator type, keyed and sorted by the type name
+     */
+    private Map<String, List<IPortalEventAggregator<PortalEvent>>> getAggregatorPartitions() {
+        final Map<String, List<IPortalEventAggregator<PortalEvent>>> partitions = new TreeMap<String, List<IPortalEventAggregator<PortalEvent>>>();
+        for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : this.portalEventAggregators) {
+            final String partition = this.getClass(portalEventAggregator).getName();
+            List<IPortalEventAggregator<PortalEvent>> aggregators = partitions.get(partition);
+            if (aggregators == null) {
+                aggregators = new ArrayList<IPortalEventAggregator<PortalEvent>>();
+                partitions.put(partition, aggregators);
+            }
+            aggregators.add(portalEventAggregator);
+        }
+        return partitions;
+    }
+    
     /**
      * Helper class that loads and caches the interval configuration for each aggregator as well as the union of intervals handled by the set of aggregators.
      */
@@ -487,12 +876,16 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         private final Set<AggregationInterval> handledIntervals;
         
         public IntervalsForAggregatorHelper() {
+            this(portalEventAggregators);
+        }
+        
+        public IntervalsForAggregatorHelper(Collection<IPortalEventAggregator<PortalEvent>> aggregators) {
         	this.defaultAggregatedIntervalConfig = eventAggregationManagementDao.getDefaultAggregatedIntervalConfig();
         	
     		//Create the set of intervals that are actually being aggregated
     		final Set<AggregationInterval> handledIntervalsNotIncluded = EnumSet.allOf(AggregationInterval.class);
     		final Set<AggregationInterval> handledIntervalsBuilder = EnumSet.noneOf(AggregationInterval.class);
-    		for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
+    		for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : aggregators) {
     		    final Class<? extends IPortalEventAggregator<?>> aggregatorType = PortalRawEventsAggregatorImpl.this.getClass(portalEventAggregator);
     		    
     		    //Get aggregator specific interval info config
@@ -541,21 +934,31 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         private final MutableInt eventCounter;
         private final MutableObject lastEventDate;
         private final IEventAggregatorStatus eventAggregatorStatus;
+        private final Collection<IPortalEventAggregator<PortalEvent>> aggregators;
+        private final boolean trackEventSessions;
         private int intervalsCrossed = 0;
 
         //Local tracking of the current aggregation interval and info about said interval
         private final Map<AggregationInterval, AggregationIntervalInfo> currentIntervalInfo = new EnumMap<AggregationInterval, AggregationIntervalInfo>(AggregationInterval.class);
         
         //Local caches of per-aggregator config data, shouldn't ever change for the duration of an aggregation run
-        private final IntervalsForAggregatorHelper intervalsForAggregatorHelper = new IntervalsForAggregatorHelper();
+        private final IntervalsForAggregatorHelper intervalsForAggregatorHelper;
         private final Map<Class<? extends IPortalEventAggregator<?>>, AggregatedGroupConfig> aggregatorGroupConfigs = new HashMap<Class<? extends IPortalEventAggregator<?>>, AggregatedGroupConfig>();
         private final Map<Class<? extends IPortalEventAggregator<?>>, Map<AggregationInterval, AggregationIntervalInfo>> aggregatorReadOnlyIntervalInfo = new HashMap<Class<? extends IPortalEventAggregator<?>>, Map<AggregationInterval,AggregationIntervalInfo>>();
         private final AggregatedGroupConfig defaultAggregatedGroupConfig;
         
-        private AggregateEventsHandler(MutableInt eventCounter, MutableObject lastEventDate, IEventAggregatorStatus eventAggregatorStatus) {
+        /**
+         * @param aggregators The aggregators to pass events to
+         * @param trackEventSessions If event session access should be recorded, only one handler may do this for each event
+         */
+        private AggregateEventsHandler(MutableInt eventCounter, MutableObject lastEventDate, IEventAggregatorStatus eventAggregatorStatus,
+                Collection<IPortalEventAggregator<PortalEvent>> aggregators, boolean trackEventSessions) {
             this.eventCounter = eventCounter;
             this.lastEventDate = lastEventDate;
             this.eventAggregatorStatus = eventAggregatorStatus;
+            this.aggregators = aggregators;
+            this.trackEventSessions = trackEventSessions;
+            this.intervalsForAggregatorHelper = new IntervalsForAggregatorHelper(aggregators);
             this.defaultAggregatedGroupConfig = eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
         }
 
@@ -647,12 +1050,22 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             }
             logger.trace("Aggregating event {} - {}", eventCounter, item);
             
-            //Load or create the event session
-            EventSession eventSession = getEventSession(item);
+            //Load or create the event session, when not tracking sessions only load it if an aggregator needs it
+            EventSession eventSession = null;
+            boolean eventSessionLoaded = false;
+            if (this.trackEventSessions) {
+                eventSession = getEventSession(item);
+                eventSessionLoaded = true;
+            }
             
             //Give each aggregator a chance at the event
-            for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
+            for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : this.aggregators) {
                 if (checkSupports(portalEventAggregator, item)) {
+                    if (!eventSessionLoaded) {
+                        eventSession = getEventSession(item);
+                        eventSessionLoaded = true;
+                    }
+                    
                     final Class<? extends IPortalEventAggregator<?>> aggregatorType = PortalRawEventsAggregatorImpl.this.getClass(portalEventAggregator);
                     
                     //Get aggregator specific interval info map
@@ -703,14 +1116,16 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             }
             
             //Record the session access
-            eventSession.recordAccess(item.getTimestampAsDate());
-            eventSessionDao.storeEventSession(eventSession);
+            if (this.trackEventSessions) {
+                eventSession.recordAccess(item.getTimestampAsDate());
+                eventSessionDao.storeEventSession(eventSession);
+            }
             
             return eventSession;
         }
         
         private void doHandleIntervalBoundary(AggregationInterval interval, Map<AggregationInterval, AggregationIntervalInfo> intervals) {
-            for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
+            for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : this.aggregators) {
                 
                 final Class<? extends IPortalEventAggregator<?>> aggregatorType = PortalRawEventsAggregatorImpl.this.getClass(portalEventAggregator);
                 final AggregatedIntervalConfig aggregatorIntervalConfig = this.intervalsForAggregatorHelper.getAggregatorIntervalConfig(aggregatorType);
@@ -30,6 +30,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -46,6 +47,7 @@ import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.BaseAggregationImpl;
 import org.jasig.portal.events.aggr.BaseGroupedAggregationDiscriminator;
 import org.jasig.portal.events.aggr.DateDimension;
+import org.jasig.portal.events.aggr.HyperLogLog;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.UniqueStrings;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
@@ -98,6 +100,13 @@ public final class ConcurrentUserAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
     
+    @Lob
+    @Column(name = "UNIQUE_STRINGS_SKETCH")
+    private byte[] uniqueStringsSketch;
+    
+    @Transient
+    private HyperLogLog uniqueStringsEstimator;
+    
     @Transient
     private ConcurrentUserAggregationKey aggregationKey;
     @Transient
@@ -147,27 +156,60 @@ public final class ConcurrentUserAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.concurrentUsers > 0 && this.uniqueStrings == null;
+        return this.concurrentUsers > 0 && this.uniqueStrings == null && this.uniqueStringsSketch == null;
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        this.uniqueStringsSketch = null;
+        this.uniqueStringsEstimator = null;
     }
     
     void countSession(String eventSessionId) {
+        this.countSession(eventSessionId, false);
+    }
+    
+    /**
+     * @param approximate If true and the interval isn't already counting exactly, unique event sessions are estimated with a {@link HyperLogLog} sketch instead of storing every event session
+     */
+    void countSession(String eventSessionId, boolean approximate) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the event session {} will be ignored on: {}", this.getClass().getSimpleName(), eventSessionId, this);
             return;
         }
         
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        //Keep counting with the method the interval was started with
+        if (this.uniqueStrings == null && (approximate || this.uniqueStringsSketch != null)) {
+            final HyperLogLog estimator = this.getUniqueStringsEstimator();
+            if (estimator.add(eventSessionId)) {
+                this.concurrentUsers = (int) estimator.cardinality();
+            }
         }
-        
-        if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+        else {
+            if (this.uniqueStrings == null) {
+                this.uniqueStrings = new UniqueStrings();
+            }
+            
+            if (this.uniqueStrings.add(eventSessionId)) {
+                this.concurrentUsers++;
+            }
+        }
+    }
+
+    private HyperLogLog getUniqueStringsEstimator() {
+        HyperLogLog estimator = this.uniqueStringsEstimator;
+        if (estimator == null) {
+            if (this.uniqueStringsSketch == null) {
+                estimator = new HyperLogLog();
+                this.uniqueStringsSketch = estimator.getRegisters();
+            }
+            else {
+                estimator = HyperLogLog.wrap(this.uniqueStringsSketch);
+            }
+            this.uniqueStringsEstimator = estimator;
         }
+        return estimator;
     }
 
     @Override
@@ -19,6 +19,9 @@
 
 package org.jasig.portal.events.aggr.concuser;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalInfo;
@@ -26,10 +29,13 @@ import org.jasig.portal.events.aggr.BaseAggregationPrivateDao;
 import org.jasig.portal.events.aggr.BasePortalEventAggregator;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.EventAggregationContext;
+import org.jasig.portal.events.aggr.HyperLogLog;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.collect.Sets;
+
 /**
  * Event aggregator that uses {@link ConcurrentUserAggregationPrivateDao} to aggregate concurrent user data 
  * 
@@ -38,12 +44,21 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 public class ConcurrentUserAggregator extends BasePortalEventAggregator<PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
+    private Set<AggregationInterval> approximateUniqueIntervals = Collections.emptySet();
 
     @Autowired
     public void setConcurrentUserAggregationDao(ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao) {
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    /**
+     * Aggregation intervals that estimate the number of concurrent users with a {@link HyperLogLog} sketch instead of storing every event session id.
+     * Intended for long intervals where the exact set gets large, defaults to none so all intervals count exactly.
+     */
+    public void setApproximateUniqueIntervals(Set<AggregationInterval> approximateUniqueIntervals) {
+        this.approximateUniqueIntervals = Sets.immutableEnumSet(approximateUniqueIntervals);
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> getAggregationDao() {
         return this.concurrentUserAggregationDao;
@@ -60,7 +75,8 @@ public class ConcurrentUserAggregator extends BasePortalEventAggregator<PortalEv
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        final AggregationInterval aggregationInterval = intervalInfo.getAggregationInterval();
+        aggregation.countSession(eventSessionId, this.approximateUniqueIntervals.contains(aggregationInterval));
     }
     
     @Override
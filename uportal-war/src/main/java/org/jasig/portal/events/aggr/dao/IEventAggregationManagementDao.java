@@ -41,10 +41,21 @@ public interface IEventAggregationManagementDao {
      */
     IEventAggregatorStatus getEventAggregatorStatus(IEventAggregatorStatus.ProcessingType processingType, boolean create);
     
+    /**
+     * Get the aggregation status for a single partition of the specified processing type, used when processing
+     * is split into partitions that track their progress independently
+     */
+    IEventAggregatorStatus getEventAggregatorStatus(IEventAggregatorStatus.ProcessingType processingType, String partition, boolean create);
+    
     /**
      * Update changes to the aggregation status object
      */
     void updateEventAggregatorStatus(IEventAggregatorStatus eventAggregatorStatus);
+    
+    /**
+     * Delete the status of every partition of the specified processing type
+     */
+    void deleteEventAggregatorPartitionStatuses(IEventAggregatorStatus.ProcessingType processingType);
 
     
     /**
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -67,11 +68,19 @@ public class JpaEventAggregationManagementDao extends BaseAggrEventsJpaDao imple
     private CriteriaQuery<QuarterDetailImpl> findAllQuarterDetailsQuery;
     private CriteriaQuery<AcademicTermDetailImpl> findAllAcademicTermDetailsQuery;
 
+    private String deletePartitionStatusesQuery;
+
     private ParameterExpression<Class> aggregatorTypeParameter;
+    private ParameterExpression<ProcessingType> processingTypeParameter;
 
     @Override
     public void afterPropertiesSet() throws Exception {
         this.aggregatorTypeParameter = this.createParameterExpression(Class.class, "aggregatorType");
+        this.processingTypeParameter = this.createParameterExpression(ProcessingType.class, "processingType");
+        
+        this.deletePartitionStatusesQuery = 
+                "DELETE FROM " + EventAggregatorPartitionStatusImpl.class.getName() + " e " +
+                "WHERE e." + EventAggregatorPartitionStatusImpl_.processingType.getName() + " = :" + this.processingTypeParameter.getName();
         
         this.findAllGroupConfigsQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<AggregatedGroupConfigImpl>>() {
             @Override
@@ -182,12 +191,43 @@ public class JpaEventAggregationManagementDao extends BaseAggrEventsJpaDao imple
         return status;
     }
 
+    @OpenEntityManager(unitName = PERSISTENCE_UNIT_NAME)
+    @Override
+    public IEventAggregatorStatus getEventAggregatorStatus(final ProcessingType processingType, final String partition, boolean create) {
+        final NaturalIdQuery<EventAggregatorPartitionStatusImpl> query = this.createNaturalIdQuery(EventAggregatorPartitionStatusImpl.class);
+        query.using(EventAggregatorPartitionStatusImpl_.processingType, processingType);
+        query.using(EventAggregatorPartitionStatusImpl_.partition, partition);
+        EventAggregatorPartitionStatusImpl status = query.load();
+        
+        //Create the status object if it doesn't yet exist
+        if (status == null && create) {
+            status = this.getTransactionOperations().execute(new TransactionCallback<EventAggregatorPartitionStatusImpl>() {
+                @Override
+                public EventAggregatorPartitionStatusImpl doInTransaction(TransactionStatus status) {
+                    final EventAggregatorPartitionStatusImpl eventAggregatorStatus = new EventAggregatorPartitionStatusImpl(processingType, partition);
+                    getEntityManager().persist(eventAggregatorStatus);
+                    return eventAggregatorStatus;
+                }
+            });
+        }
+        
+        return status;
+    }
+
     @Override
     @AggrEventsTransactional
     public void updateEventAggregatorStatus(IEventAggregatorStatus eventAggregatorStatus) {
         this.getEntityManager().persist(eventAggregatorStatus);
     }
 
+    @Override
+    @AggrEventsTransactional
+    public void deleteEventAggregatorPartitionStatuses(ProcessingType processingType) {
+        final Query query = this.getEntityManager().createQuery(this.deletePartitionStatusesQuery);
+        query.setParameter(this.processingTypeParameter.getName(), processingType);
+        query.executeUpdate();
+    }
+
     @Override
     public AggregatedGroupConfig getDefaultAggregatedGroupConfig() {
         AggregatedGroupConfig groupConfig = this.getAggregatedGroupConfig(DEFAULT_AGGREGATOR_TYPE);
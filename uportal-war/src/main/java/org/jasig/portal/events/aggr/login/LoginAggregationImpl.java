@@ -30,6 +30,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -45,6 +46,7 @@ import org.hibernate.annotations.NaturalIdCache;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.BaseAggregationImpl;
 import org.jasig.portal.events.aggr.DateDimension;
+import org.jasig.portal.events.aggr.HyperLogLog;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.UniqueStrings;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
@@ -96,6 +98,13 @@ public final class LoginAggregationImpl
     @JoinColumn(name = "UNIQUE_STRINGS_ID")
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
+    
+    @Lob
+    @Column(name = "UNIQUE_STRINGS_SKETCH")
+    private byte[] uniqueStringsSketch;
+    
+    @Transient
+    private HyperLogLog uniqueStringsEstimator;
 
     @Transient
     private LoginAggregationKeyImpl aggregationKey;
@@ -150,30 +159,63 @@ public final class LoginAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.loginCount > 0 && this.uniqueStrings == null;
+        return this.loginCount > 0 && this.uniqueStrings == null && this.uniqueStringsSketch == null;
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        this.uniqueStringsSketch = null;
+        this.uniqueStringsEstimator = null;
     }
 
     void countUser(String userName) {
+        this.countUser(userName, false);
+    }
+    
+    /**
+     * @param approximate If true and the interval isn't already counting exactly, unique user names are estimated with a {@link HyperLogLog} sketch instead of storing every user name
+     */
+    void countUser(String userName, boolean approximate) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the user name {} will be ignored on: {}", this.getClass().getSimpleName(), userName, this);
             return;
         }
         
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        //Keep counting with the method the interval was started with
+        if (this.uniqueStrings == null && (approximate || this.uniqueStringsSketch != null)) {
+            final HyperLogLog estimator = this.getUniqueStringsEstimator();
+            if (estimator.add(userName)) {
+                this.uniqueLoginCount = (int) estimator.cardinality();
+            }
         }
-        
-        if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+        else {
+            if (this.uniqueStrings == null) {
+                this.uniqueStrings = new UniqueStrings();
+            }
+            
+            if (this.uniqueStrings.add(userName)) {
+                this.uniqueLoginCount++;
+            }
         }
         this.loginCount++;
     }
 
+    private HyperLogLog getUniqueStringsEstimator() {
+        HyperLogLog estimator = this.uniqueStringsEstimator;
+        if (estimator == null) {
+            if (this.uniqueStringsSketch == null) {
+                estimator = new HyperLogLog();
+                this.uniqueStringsSketch = estimator.getRegisters();
+            }
+            else {
+                estimator = HyperLogLog.wrap(this.uniqueStringsSketch);
+            }
+            this.uniqueStringsEstimator = estimator;
+        }
+        return estimator;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
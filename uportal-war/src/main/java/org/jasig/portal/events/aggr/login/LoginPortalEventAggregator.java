@@ -19,6 +19,9 @@
 
 package org.jasig.portal.events.aggr.login;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.jasig.portal.events.LoginEvent;
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.AggregationInterval;
@@ -27,10 +30,13 @@ import org.jasig.portal.events.aggr.BaseAggregationPrivateDao;
 import org.jasig.portal.events.aggr.BasePortalEventAggregator;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.EventAggregationContext;
+import org.jasig.portal.events.aggr.HyperLogLog;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.collect.Sets;
+
 /**
  * Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events 
  * 
@@ -39,12 +45,21 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 public class LoginPortalEventAggregator extends BasePortalEventAggregator<LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
+    private Set<AggregationInterval> approximateUniqueIntervals = Collections.emptySet();
 
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * Aggregation intervals that estimate the number of unique logins with a {@link HyperLogLog} sketch instead of storing every user name.
+     * Intended for long intervals where the exact set gets large, defaults to none so all intervals count exactly.
+     */
+    public void setApproximateUniqueIntervals(Set<AggregationInterval> approximateUniqueIntervals) {
+        this.approximateUniqueIntervals = Sets.immutableEnumSet(approximateUniqueIntervals);
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey> getAggregationDao() {
         return this.loginAggregationDao;
@@ -70,6 +85,7 @@ public class LoginPortalEventAggregator extends BasePortalEventAggregator<LoginE
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        final AggregationInterval aggregationInterval = intervalInfo.getAggregationInterval();
+        aggregation.countUser(userName, this.approximateUniqueIntervals.contains(aggregationInterval));
     }
 }
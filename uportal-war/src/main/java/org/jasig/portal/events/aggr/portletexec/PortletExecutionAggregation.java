@@ -47,4 +47,10 @@ public interface PortletExecutionAggregation
      * @return Number of times portlet was executed
      */
     int getExecutionCount();
+
+    /**
+     * @return Estimate of the execution time at the percentile (0 to 100), accurate to within about 1.5%. Double.NaN
+     * if no executions were recorded or the aggregation was in progress when percentile tracking was added
+     */
+    double getPercentile(double percentile);
 }
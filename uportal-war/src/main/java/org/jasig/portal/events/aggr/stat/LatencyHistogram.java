@@ -0,0 +1,213 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Mergeable histogram of non-negative long values, typically latencies in nanoseconds. Values are counted in
+ * log-linear buckets: each power of two range is split into 32 equal sized buckets, so any value is tracked with
+ * a relative error of at most about 1.5% no matter its magnitude. The bucket layout is fixed which means two
+ * histograms can be merged by adding their bucket counts, so histograms for short intervals can be rolled up
+ * into longer intervals without access to the original values.
+ * <p/>
+ * {@link #toByteArray()} writes only the non-empty buckets using variable length integers, a typical latency
+ * distribution encodes to a few hundred bytes.
+ * <p/>
+ * Not thread safe.
+ */
+public final class LatencyHistogram {
+    private static final byte ENCODING_VERSION = 1;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = getBucketIndex(Long.MAX_VALUE) + 1;
+    
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    
+    /**
+     * Decode a histogram written by {@link #toByteArray()}
+     */
+    public static LatencyHistogram fromByteArray(byte[] data) {
+        if (data.length < 2 || data[0] != ENCODING_VERSION || data[1] != SUB_BUCKET_BITS) {
+            throw new IllegalArgumentException("Unsupported LatencyHistogram encoding");
+        }
+        
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int[] position = { 2 };
+        int index = -1;
+        while (position[0] < data.length) {
+            index += (int) readVarLong(data, position);
+            final long count = readVarLong(data, position);
+            if (index >= BUCKET_COUNT) {
+                throw new IllegalArgumentException("Invalid LatencyHistogram bucket index: " + index);
+            }
+            histogram.counts[index] = count;
+            histogram.totalCount += count;
+        }
+        return histogram;
+    }
+    
+    /**
+     * Record a value, negative values are recorded as 0
+     */
+    public void recordValue(long value) {
+        this.counts[getBucketIndex(Math.max(0, value))]++;
+        this.totalCount++;
+    }
+    
+    /**
+     * Add all values recorded in the other histogram to this histogram
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+    }
+    
+    /**
+     * @return The number of values recorded
+     */
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+    
+    /**
+     * @param percentile The percentile to get, between 0 and 100
+     * @return The estimated value at the percentile, {@link Double#NaN} if no values have been recorded
+     */
+    public double getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        if (this.totalCount == 0) {
+            return Double.NaN;
+        }
+        
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                //Middle of the bucket minimizes the error for any value in it
+                final long lowerBound = getBucketLowerBound(i);
+                final long width = getBucketLowerBound(i + 1) - lowerBound;
+                return lowerBound + (width - 1) / 2d;
+            }
+        }
+        
+        throw new IllegalStateException("Bucket counts do not add up to the total count of " + this.totalCount);
+    }
+    
+    /**
+     * @return Compact encoding of the histogram that can be read with {@link #fromByteArray(byte[])}
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ENCODING_VERSION);
+        out.write(SUB_BUCKET_BITS);
+        
+        //Write the index delta and count of each non-empty bucket
+        int lastIndex = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long count = this.counts[i];
+            if (count != 0) {
+                writeVarLong(out, i - lastIndex);
+                writeVarLong(out, count);
+                lastIndex = i;
+            }
+        }
+        
+        return out.toByteArray();
+    }
+    
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        
+        //Top SUB_BUCKET_BITS + 1 bits of the value select the bucket
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+    
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        
+        //Upper bound of the last bucket
+        if (shift + SUB_BUCKET_BITS >= 63 && subBucket == SUB_BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+        return subBucket << shift;
+    }
+    
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private static long readVarLong(byte[] data, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= data.length) {
+                throw new IllegalArgumentException("Truncated LatencyHistogram encoding");
+            }
+            final byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed LatencyHistogram encoding");
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.counts);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        LatencyHistogram other = (LatencyHistogram) obj;
+        return this.totalCount == other.totalCount && Arrays.equals(this.counts, other.counts);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [totalCount=" + this.totalCount + ", p50=" + this.getValueAtPercentile(50) + ", p99=" + this.getValueAtPercentile(99) + "]";
+    }
+}
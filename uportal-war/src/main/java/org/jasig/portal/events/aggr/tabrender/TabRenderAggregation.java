@@ -40,4 +40,10 @@ public interface TabRenderAggregation
      * @return The name of the tab
      */
     AggregatedTabMapping getTabMapping();
+
+    /**
+     * @return Estimate of the render time at the percentile (0 to 100), accurate to within about 1.5%. Double.NaN
+     * if no renders were recorded or the aggregation was in progress when percentile tracking was added
+     */
+    double getPercentile(double percentile);
 }
@@ -75,6 +75,11 @@ public class TabRenderAggregator extends BasePortalEventAggregator<PortalRenderE
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
         aggregation.addValue(executionTime);
+        
+        //Include any executions that were pre-aggregated into the event
+        for (final long foldedExecutionTime : e.getFoldedExecutionTimesNano()) {
+            aggregation.addValue(foldedExecutionTime);
+        }
     }
 
     @Override
@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -34,16 +36,24 @@ import org.springframework.context.ApplicationEvent;
  * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the configured
  * {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used with some external
  * timer that will call {@link #flush()} at regular intervals
+ * <p/>
+ * The queue is bounded by {@link #setMaxQueueSize(int)}, events published while the queue is full are dropped
+ * and counted so that a slow or unavailable event store can never block or exhaust memory on request threads.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent> 
-        extends FilteringApplicationListener<E> implements DisposableBean {
+        extends FilteringApplicationListener<E> implements DisposableBean, QueueingEventHandlerMXBean {
     
     private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong flushedEvents = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
     private final Lock flushLock = new ReentrantLock();
     private int batchSize = 25;
+    private volatile int maxQueueSize = Integer.MAX_VALUE;
     
     //Used to hold events to flush, MUST only be read/written from within the flushLock 
     private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
@@ -58,6 +68,44 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
     
+    @Override
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    
+    /**
+     * The maximum number of events that can be waiting to be flushed, once reached new events are dropped.
+     */
+    @Override
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    @Override
+    public int getMaxQueueSize() {
+        return this.maxQueueSize;
+    }
+    
+    @Override
+    public int getQueueSize() {
+        return this.queueSize.get();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return this.droppedEvents.get();
+    }
+
+    @Override
+    public long getFlushedEvents() {
+        return this.flushedEvents.get();
+    }
+
+    @Override
+    public long getFailedEvents() {
+        return this.failedEvents.get();
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
@@ -71,6 +119,17 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
+        if (this.queueSize.incrementAndGet() > this.maxQueueSize) {
+            this.queueSize.decrementAndGet();
+            
+            //Only log the first drop and then every 1000th to avoid flooding the log while the queue is full
+            final long dropped = this.droppedEvents.incrementAndGet();
+            if (dropped % 1000 == 1) {
+                this.logger.warn("Event queue is full with " + this.maxQueueSize + " events, " + dropped + " events have been dropped. Dropping: " + event);
+            }
+            return;
+        }
+        
         this.eventQueue.offer(event);
     }
     
@@ -111,6 +170,7 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                 //Pop events off the queue into the buffer
                 while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
                     final E event = eventQueue.poll();
+                    this.queueSize.decrementAndGet();
                     eventBuffer.add(event);
                 }
 
@@ -121,8 +181,10 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                 //Write events out to batching listener
                 try {
                     this.onApplicationEvents(eventBuffer);
+                    this.flushedEvents.addAndGet(eventBuffer.size());
                 }
                 catch (Throwable t) {
+                    this.failedEvents.addAndGet(eventBuffer.size());
                     this.logger.error("An exception was thrown while trying to flush " + eventBuffer.size() + " events", t);
 
                     final StringBuilder failedEvents = new StringBuilder();
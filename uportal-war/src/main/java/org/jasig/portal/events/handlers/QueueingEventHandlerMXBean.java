@@ -0,0 +1,61 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers;
+
+/**
+ * JMX interface for monitoring the event queue of a {@link QueueingEventHandler}
+ */
+public interface QueueingEventHandlerMXBean {
+    
+    /**
+     * @return Maximum number of events flushed per call to the event store
+     */
+    int getBatchSize();
+    
+    /**
+     * @param maxQueueSize Maximum number of events that can wait to be flushed
+     */
+    void setMaxQueueSize(int maxQueueSize);
+    
+    /**
+     * @return Maximum number of events that can wait to be flushed
+     */
+    int getMaxQueueSize();
+    
+    /**
+     * @return Number of events waiting to be flushed
+     */
+    int getQueueSize();
+    
+    /**
+     * @return Number of events dropped because the queue was full
+     */
+    long getDroppedEvents();
+    
+    /**
+     * @return Number of events successfully flushed
+     */
+    long getFlushedEvents();
+    
+    /**
+     * @return Number of events in batches that failed to flush
+     */
+    long getFailedEvents();
+}
@@ -66,6 +66,19 @@ public interface IPortalEventDao {
      */
     boolean aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler);
     
+    /**
+     * Gets all persisted events in the time range, aggregated or not, without changing their aggregated state. Used
+     * when more than one consumer tracks its own progress through the events. To deal with memory and data access issues
+     * the results are not returned but passed in order to the provided {@link Function} handler. If processing should
+     * stop the handler should return false.
+     * 
+     * @param startTime The inclusive start time to get events for
+     * @param endTime The exclusive end time to get events for
+     * @param handler Function which will be called for each event.
+     * @return true if all events were handled successfully, false if the handler returns false for any event to signal processing should be stopped
+     */
+    boolean processPortalEvents(DateTime startTime, DateTime endTime, Function<PortalEvent, Boolean> handler);
+    
     /**
      * @return The timestamp of the oldest event in the persitent store
      */
@@ -80,4 +93,17 @@ public interface IPortalEventDao {
      * Delete events with timestamps from before the specified date (exclusive)
      */
     int deletePortalEventsBefore(DateTime endTime);
+    
+    /**
+     * @return true if expired events can be purged a whole time bucket at a time with {@link #deletePortalEventBucket(int)}
+     */
+    boolean isBucketPurgeEnabled();
+    
+    /**
+     * Delete every event in the time bucket, see {@link PersistentPortalEvent#getBucket(DateTime)}. Events stored
+     * before buckets were tracked are deleted if they are older than the end of the bucket.
+     * 
+     * @return The number of events deleted, -1 if the store can not determine the number of events deleted
+     */
+    int deletePortalEventBucket(int bucket);
 }
@@ -19,9 +19,9 @@
 
 package org.jasig.portal.events.handlers.db;
 
-import java.io.IOException;
 import java.util.List;
 
+import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -29,6 +29,7 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 
+import org.apache.commons.lang.StringUtils;
 import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
@@ -42,8 +43,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 
@@ -59,7 +58,14 @@ import com.google.common.base.Function;
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
 
     private ObjectMapper mapper;
+    private PortalEventCodec jsonEventCodec;
+    private PortalEventCodec binaryEventCodec;
+    private boolean binaryEventData = false;
     private String deleteQuery;
+    private String deleteBucketQuery;
+    private String deleteUnbucketedQuery;
+    private String findUnbucketedQuery;
+    private String bucketPurgeStatement;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
@@ -67,6 +73,9 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
     private ParameterExpression<DateTime> endTimeParameter;
+    private ParameterExpression<Integer> bucketParameter;
+    //Set to false once no events stored before buckets were tracked are left
+    private volatile boolean unbucketedEvents = true;
 
     
     @Autowired
@@ -74,6 +83,15 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.mapper = mapper;
     }
 
+    /**
+     * If events should be stored in the compact binary format of {@link SmilePortalEventCodec} instead of as JSON
+     * text. Events in both formats are always readable. Defaults to false.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.binaryEventData:false}")
+    public void setBinaryEventData(boolean binaryEventData) {
+        this.binaryEventData = binaryEventData;
+    }
+
     /**
      * Frequency that updated events should be flushed during a call to {@link #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)}, defaults to 1000.
      */
@@ -82,10 +100,24 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
     
+    /**
+     * Native SQL statement that drops or truncates a time bucket of events, "{bucket}" is replaced with the bucket
+     * number. Used when UP_RAW_EVENTS is partitioned by EVENT_BUCKET so expired events can be purged by dropping
+     * whole partitions instead of deleting rows. Defaults to empty, whole buckets are not purged.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.bucketPurgeStatement:}")
+    public void setBucketPurgeStatement(String bucketPurgeStatement) {
+        this.bucketPurgeStatement = StringUtils.trimToNull(bucketPurgeStatement);
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
+        this.jsonEventCodec = new JsonPortalEventCodec(this.mapper);
+        this.binaryEventCodec = new SmilePortalEventCodec(this.mapper);
+        
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
         this.endTimeParameter = this.createParameterExpression(DateTime.class, "endTime");
+        this.bucketParameter = this.createParameterExpression(Integer.class, "bucket");
         
         this.selectQuery = 
                 "SELECT e " +
@@ -106,6 +138,19 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                 "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
         		"WHERE e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName();
         
+        this.deleteBucketQuery = 
+                "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.bucket.getName() + " = :" + this.bucketParameter.getName();
+        
+        this.deleteUnbucketedQuery = 
+                "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.bucket.getName() + " is null " +
+                    "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName();
+        
+        this.findUnbucketedQuery = 
+                "SELECT e." + PersistentPortalEvent_.id.getName() + " FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.bucket.getName() + " is null";
+        
         this.findNewestPersistentPortalEventTimestampQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<DateTime>>() {
             @Override
             public CriteriaQuery<DateTime> apply(CriteriaBuilder cb) {
@@ -201,7 +246,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
             final PortalEvent portalEvent;
             try {
-                portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+                portalEvent = this.toPortalEvent(persistentPortalEvent);
             }
             catch (RuntimeException e) {
                 this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, e);
@@ -234,6 +279,38 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return true;
     }
     
+    @Override
+    @RawEventsTransactional
+    public boolean processPortalEvents(DateTime startTime, DateTime endTime, Function<PortalEvent, Boolean> handler) {
+        final Session session = this.getEntityManager().unwrap(Session.class);
+        final org.hibernate.Query query = session.createQuery(this.selectQuery);
+        query.setParameter(this.startTimeParameter.getName(), startTime);
+        query.setParameter(this.endTimeParameter.getName(), endTime);
+        query.setReadOnly(true);
+
+        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
+            final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
+            session.evict(persistentPortalEvent);
+            
+            final PortalEvent portalEvent;
+            try {
+                portalEvent = this.toPortalEvent(persistentPortalEvent);
+            }
+            catch (RuntimeException e) {
+                this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, e);
+                continue;
+            }
+            
+            final Boolean eventHandled = handler.apply(portalEvent);
+            if (!eventHandled) {
+                this.logger.debug("Processing stop requested before processing event {}", portalEvent);
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
     @Override
     public void getPortalEvents(DateTime startTime, DateTime endTime, FunctionWithoutResult<PortalEvent> handler) {
         this.getPortalEvents(startTime, endTime, -1, handler);
@@ -251,7 +328,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
         for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent);
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
@@ -266,38 +343,67 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return query.executeUpdate();
     }
     
-    protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
-        final String portalEventData = this.toString(event);
-        return new PersistentPortalEvent(event, portalEventData);
+    @Override
+    public boolean isBucketPurgeEnabled() {
+        return this.bucketPurgeStatement != null;
     }
 
-    protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
-        try {
-            return mapper.readValue(eventData, eventType);
-        }
-        catch (JsonParseException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+    @Override
+    @RawEventsTransactional
+    public int deletePortalEventBucket(int bucket) {
+        final EntityManager entityManager = this.getEntityManager();
+        
+        int events;
+        if (this.bucketPurgeStatement != null) {
+            //Dropping a partition doesn't report a useful row count
+            final String statement = this.bucketPurgeStatement.replace("{bucket}", Integer.toString(bucket));
+            logger.debug("Purging event bucket {} with: {}", bucket, statement);
+            entityManager.createNativeQuery(statement).executeUpdate();
+            events = -1;
         }
-        catch (JsonMappingException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        else {
+            final Query query = entityManager.createQuery(this.deleteBucketQuery);
+            query.setParameter(this.bucketParameter.getName(), bucket);
+            events = query.executeUpdate();
         }
-        catch (IOException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        
+        //Clean up events stored before buckets were tracked, new events always have a bucket so once none are left
+        //there is no need to look for them again
+        if (this.unbucketedEvents) {
+            final Query query = entityManager.createQuery(this.deleteUnbucketedQuery);
+            query.setParameter(this.endTimeParameter.getName(), PersistentPortalEvent.getBucketStart(bucket + 1));
+            final int deletedUnbucketedEvents = query.executeUpdate();
+            if (deletedUnbucketedEvents > 0) {
+                if (events >= 0) {
+                    events += deletedUnbucketedEvents;
+                }
+            }
+            else {
+                //Nothing old enough to delete, a single row is enough to tell if newer unbucketed events are left
+                final Query findQuery = entityManager.createQuery(this.findUnbucketedQuery);
+                findQuery.setMaxResults(1);
+                if (findQuery.getResultList().isEmpty()) {
+                    logger.info("All events stored before event buckets were tracked have been purged");
+                    this.unbucketedEvents = false;
+                }
+            }
         }
+        
+        return events;
     }
     
-    protected String toString(PortalEvent event) {
-        try {
-            return mapper.writeValueAsString(event);
-        }
-        catch (JsonParseException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
-        }
-        catch (JsonMappingException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+    protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
+        if (this.binaryEventData) {
+            return this.binaryEventCodec.encode(event);
         }
-        catch (IOException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        return this.jsonEventCodec.encode(event);
+    }
+
+    protected PortalEvent toPortalEvent(PersistentPortalEvent persistentPortalEvent) {
+        final Class<PortalEvent> eventType = persistentPortalEvent.getEventType();
+        if (this.binaryEventCodec.canDecode(persistentPortalEvent)) {
+            return this.binaryEventCodec.decode(persistentPortalEvent, eventType);
         }
+        return this.jsonEventCodec.decode(persistentPortalEvent, eventType);
     }
 }
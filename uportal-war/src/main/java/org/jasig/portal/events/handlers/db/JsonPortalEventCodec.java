@@ -0,0 +1,62 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.IOException;
+
+import org.jasig.portal.events.PortalEvent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Stores events as JSON text in the EVENT_DATA column, the original raw event format
+ */
+public class JsonPortalEventCodec implements PortalEventCodec {
+    private final ObjectMapper mapper;
+    
+    public JsonPortalEventCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean canDecode(PersistentPortalEvent persistentPortalEvent) {
+        return persistentPortalEvent.getEventDataBinary() == null;
+    }
+
+    @Override
+    public PersistentPortalEvent encode(PortalEvent portalEvent) {
+        try {
+            return new PersistentPortalEvent(portalEvent, this.mapper.writeValueAsString(portalEvent));
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
+
+    @Override
+    public <E extends PortalEvent> E decode(PersistentPortalEvent persistentPortalEvent, Class<E> eventType) {
+        try {
+            return this.mapper.readValue(persistentPortalEvent.getEventData(), eventType);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        }
+    }
+}
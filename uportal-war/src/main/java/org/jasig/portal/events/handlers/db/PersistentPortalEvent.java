@@ -36,6 +36,7 @@ import org.hibernate.annotations.Index;
 import org.hibernate.annotations.Type;
 import org.jasig.portal.events.PortalEvent;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 
 /**
  * Persistent wrapper for storing portal events
@@ -58,6 +59,11 @@ import org.joda.time.DateTime;
     )
 public class PersistentPortalEvent implements Serializable {
     private static final long serialVersionUID = 1L;
+    
+    /**
+     * Duration of the time buckets events are stored in, the bucket is the number of whole durations since the epoch
+     */
+    public static final Duration BUCKET_DURATION = Duration.standardDays(1);
    
     @Id
     @GeneratedValue(generator = "UP_RAW_EVENTS_GEN")
@@ -68,22 +74,22 @@ public class PersistentPortalEvent implements Serializable {
     @Index(name = "IDX_UP_RAW_EVENTS_TIMESTAMP")
     @Column(name="TIMESTAMP", nullable=false, updatable=false)
     @Type(type = "dateTime")
-    @SuppressWarnings("unused")
     private final DateTime timestamp;
     
+    @Index(name = "IDX_UP_RAW_EVENTS_BUCKET")
+    @Column(name="EVENT_BUCKET", updatable=false)
+    private final Integer bucket;
+    
     @Index(name = "IDX_UP_RAW_EVENTS_SERVER_ID")
     @Column(name="SERVER_ID", length=200, nullable=false, updatable=false)
-    @SuppressWarnings("unused")
     private final String serverId;
     
     @Index(name = "IDX_UP_RAW_EVENTS_SESSION_ID")
     @Column(name="SESSION_ID", length=500, nullable=false, updatable=false)
-    @SuppressWarnings("unused")
     private final String eventSessionId;
     
     @Index(name = "IDX_UP_RAW_EVENTS_USER_NAME")
     @Column(name="USER_NAME", length=35, nullable=false, updatable=false)
-    @SuppressWarnings("unused")
     private final String userName;
     
     @Column(name="EVENT_TYPE", length=200, nullable=false, updatable=false)
@@ -94,6 +100,10 @@ public class PersistentPortalEvent implements Serializable {
     @Lob
     private final String eventData; 
     
+    @Column(name = "EVENT_DATA_BINARY", updatable=false, length=10000)
+    @Lob
+    private final byte[] eventDataBinary;
+    
     @Index(name = "IDX_UP_RAW_EVENTS_AGGREGATED")
     @Column(name = "AGGREGATED") 
     private Boolean aggregated = false;
@@ -105,18 +115,26 @@ public class PersistentPortalEvent implements Serializable {
     private PersistentPortalEvent() {
         this.id = -1;
         this.eventData = null;
+        this.eventDataBinary = null;
         this.timestamp = null;
+        this.bucket = null;
         this.serverId = null;
         this.eventSessionId = null;
         this.userName = null;
         this.eventType = null;
     }
     
-    @SuppressWarnings("unchecked")
     PersistentPortalEvent(PortalEvent portalEvent, String eventData) {
+        this(portalEvent, eventData, null);
+    }
+    
+    @SuppressWarnings("unchecked")
+    PersistentPortalEvent(PortalEvent portalEvent, String eventData, byte[] eventDataBinary) {
         this.id = -1;
         this.eventData = eventData;
+        this.eventDataBinary = eventDataBinary;
         this.timestamp = new DateTime(portalEvent.getTimestamp());
+        this.bucket = getBucket(this.timestamp);
         this.serverId = portalEvent.getServerId();
         this.eventSessionId = portalEvent.getEventSessionId();
         this.userName = portalEvent.getUserName();
@@ -127,12 +145,42 @@ public class PersistentPortalEvent implements Serializable {
         return this.eventType;
     }
 
+    public DateTime getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return The time bucket the event is stored in, null for events stored before buckets were tracked
+     */
+    public Integer getBucket() {
+        return this.bucket;
+    }
+
+    public String getServerId() {
+        return this.serverId;
+    }
+
+    public String getEventSessionId() {
+        return this.eventSessionId;
+    }
+
+    public String getUserName() {
+        return this.userName;
+    }
+
     /**
      * @return the eventData
      */
     public String getEventData() {
         return this.eventData;
     }
+
+    /**
+     * @return the binary eventData, null if the event data was stored as text
+     */
+    public byte[] getEventDataBinary() {
+        return this.eventDataBinary;
+    }
     
     public boolean isAggregated() {
         Boolean a = this.aggregated;
@@ -147,11 +195,28 @@ public class PersistentPortalEvent implements Serializable {
         this.aggregated = aggregated;
     }
 
+    /**
+     * @return The time bucket that contains the timestamp
+     */
+    public static int getBucket(DateTime timestamp) {
+        return (int) (timestamp.getMillis() / BUCKET_DURATION.getMillis());
+    }
+    
+    /**
+     * @return The start of the time bucket (inclusive)
+     */
+    public static DateTime getBucketStart(int bucket) {
+        return new DateTime(bucket * BUCKET_DURATION.getMillis());
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
     @Override
     public String toString() {
+        if (this.eventDataBinary != null) {
+            return this.eventType + " [" + this.eventData + ", " + this.eventDataBinary.length + " bytes]";
+        }
         return this.eventData;
     }
 }
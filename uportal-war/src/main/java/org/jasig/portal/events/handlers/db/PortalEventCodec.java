@@ -0,0 +1,43 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import org.jasig.portal.events.PortalEvent;
+
+/**
+ * Converts portal events to and from the data stored in a {@link PersistentPortalEvent}. Events written by any of
+ * the codecs can be read side by side so the codec used for writing can be changed without converting stored events.
+ */
+public interface PortalEventCodec {
+    /**
+     * @return true if the data of the persistent event was written by this codec
+     */
+    boolean canDecode(PersistentPortalEvent persistentPortalEvent);
+    
+    /**
+     * Wrap the event for storage
+     */
+    PersistentPortalEvent encode(PortalEvent portalEvent);
+    
+    /**
+     * Recreate the event from its persistent form
+     */
+    <E extends PortalEvent> E decode(PersistentPortalEvent persistentPortalEvent, Class<E> eventType);
+}
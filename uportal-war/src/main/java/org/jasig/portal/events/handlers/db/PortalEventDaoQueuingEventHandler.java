@@ -24,13 +24,15 @@ import org.jasig.portal.events.handlers.QueueingEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
- * Hands off queued portal events for storage by the IPortalEventDao
+ * Hands off queued portal events for storage by the IPortalEventDao. If a {@link PortalEventPreAggregator} is
+ * configured the events it pre-aggregates are handed to it instead of being stored directly.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
     private IPortalEventDao portalEventDao;
+    private PortalEventPreAggregator portalEventPreAggregator;
     
     /**
      * @param portalEventDao the portalEventDao to set
@@ -40,8 +42,18 @@ public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<Port
         this.portalEventDao = portalEventDao;
     }
 
+    /**
+     * @param portalEventPreAggregator Optional pre-aggregator for high volume events
+     */
+    public void setPortalEventPreAggregator(PortalEventPreAggregator portalEventPreAggregator) {
+        this.portalEventPreAggregator = portalEventPreAggregator;
+    }
+
     @Override
     protected void onApplicationEvents(Iterable<PortalEvent> events) {
+        if (this.portalEventPreAggregator != null) {
+            events = this.portalEventPreAggregator.preAggregate(events);
+        }
         this.portalEventDao.storePortalEvents(events);
     }
 }
@@ -0,0 +1,370 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortalRenderEvent;
+import org.jasig.portal.events.PortletExecutionEvent;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.Period;
+import org.joda.time.ReadablePeriod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Node local pre-aggregation of high volume timed portal events. Events of the configured types are folded into
+ * minute buckets keyed by the event session, event type and the portlet fname or targeted tab, the same dimensions
+ * the portlet execution and tab render aggregations are keyed by once the event session is resolved to its groups.
+ * Once the first event in a bucket is older than {@link #setMaxBucketAge(long)} the bucket is stored as a single
+ * raw event that carries the execution times of every event folded into it, so a user rendering the same portlet
+ * many times in a short period results in one raw event write and one event for the aggregators to process.
+ * <p/>
+ * Only the execution times of folded events are kept, all other event details are those of the first event in the
+ * bucket. Event types with details used during aggregation, such as the action parameters used by search request
+ * aggregation, should not be pre-aggregated.
+ * <p/>
+ * {@link #flush()} must be called at regular intervals by some external timer. The stored event keeps the date of
+ * the first event in the bucket so the max bucket age plus the flush period must be under the aggregation delay of
+ * {@link org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl}, otherwise the raw event is stored after its
+ * date has already been aggregated and is never picked up. This is checked on startup.
+ */
+public class PortalEventPreAggregator implements InitializingBean, DisposableBean, PortalEventPreAggregatorMXBean {
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final Map<BucketKey, Bucket> buckets = new LinkedHashMap<BucketKey, Bucket>();
+    private final AtomicLong foldedEvents = new AtomicLong();
+    private final AtomicLong storedEvents = new AtomicLong();
+    
+    private IPortalEventDao portalEventDao;
+    private Set<Class<? extends PortalEvent>> preAggregatedEvents = Collections.emptySet();
+    private volatile int maxPendingEvents = 100000;
+    private long maxBucketAge = TimeUnit.SECONDS.toMillis(15);
+    private long flushPeriod = 4999;
+    private ReadablePeriod aggregationDelay = Period.seconds(30);
+    
+    //Number of events held in buckets, MUST only be read/written while synchronized on buckets
+    private int pendingEvents = 0;
+    
+    @Autowired
+    public void setPortalEventDao(IPortalEventDao portalEventDao) {
+        this.portalEventDao = portalEventDao;
+    }
+
+    /**
+     * Event types to pre-aggregate, only {@link PortletExecutionEvent} and {@link PortalRenderEvent} types can be
+     * pre-aggregated. Defaults to empty, all events are stored as they are received.
+     */
+    public void setPreAggregatedEvents(Collection<Class<? extends PortalEvent>> preAggregatedEvents) {
+        final Set<Class<? extends PortalEvent>> types = new LinkedHashSet<Class<? extends PortalEvent>>();
+        if (preAggregatedEvents != null) {
+            for (final Class<? extends PortalEvent> type : preAggregatedEvents) {
+                if (!PortletExecutionEvent.class.isAssignableFrom(type) && !PortalRenderEvent.class.isAssignableFrom(type)) {
+                    throw new IllegalArgumentException(type + " can not be pre-aggregated, only PortletExecutionEvent and PortalRenderEvent types are supported");
+                }
+                types.add(type);
+            }
+        }
+        this.preAggregatedEvents = types;
+    }
+
+    /**
+     * Milliseconds after the first event in a bucket that the bucket is stored. Defaults to 15 seconds.
+     */
+    public void setMaxBucketAge(long maxBucketAge) {
+        this.maxBucketAge = maxBucketAge;
+    }
+
+    /**
+     * Period in milliseconds {@link #flush()} is called at, used to verify buckets are stored before they are aggregated
+     */
+    public void setFlushPeriod(long flushPeriod) {
+        this.flushPeriod = flushPeriod;
+    }
+
+    /**
+     * The aggregation delay of {@link org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl}, used to verify
+     * buckets are stored before they are aggregated
+     */
+    public void setAggregationDelay(ReadablePeriod aggregationDelay) {
+        this.aggregationDelay = aggregationDelay;
+    }
+
+    /**
+     * Maximum number of events held in buckets waiting for their minute to end, once reached events are stored
+     * without being pre-aggregated. Defaults to 100000.
+     */
+    @Override
+    public void setMaxPendingEvents(int maxPendingEvents) {
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.preAggregatedEvents.isEmpty()) {
+            return;
+        }
+        
+        final long aggregationDelayMillis = this.aggregationDelay.toPeriod().toStandardDuration().getMillis();
+        if (aggregationDelayMillis <= this.maxBucketAge + this.flushPeriod) {
+            throw new IllegalStateException("The aggregation delay of " + this.aggregationDelay + " must be greater than the maxBucketAge of " + 
+                    this.maxBucketAge + "ms plus the flushPeriod of " + this.flushPeriod + "ms, pre-aggregated events would be stored after their date was aggregated");
+        }
+    }
+
+    @Override
+    public int getMaxPendingEvents() {
+        return this.maxPendingEvents;
+    }
+
+    @Override
+    public int getPendingEvents() {
+        synchronized (this.buckets) {
+            return this.pendingEvents;
+        }
+    }
+
+    @Override
+    public int getPendingBuckets() {
+        synchronized (this.buckets) {
+            return this.buckets.size();
+        }
+    }
+
+    @Override
+    public long getFoldedEvents() {
+        return this.foldedEvents.get();
+    }
+
+    @Override
+    public long getStoredEvents() {
+        return this.storedEvents.get();
+    }
+
+    /**
+     * @return true if the event will be pre-aggregated
+     */
+    public boolean isPreAggregated(PortalEvent event) {
+        for (final Class<? extends PortalEvent> type : this.preAggregatedEvents) {
+            if (type.isInstance(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Fold the pre-aggregated events into their minute buckets
+     * 
+     * @return The events that were not pre-aggregated and need to be stored
+     */
+    public Iterable<PortalEvent> preAggregate(Iterable<PortalEvent> events) {
+        if (this.preAggregatedEvents.isEmpty()) {
+            return events;
+        }
+        
+        final List<PortalEvent> unaggregatedEvents = new ArrayList<PortalEvent>();
+        synchronized (this.buckets) {
+            for (final PortalEvent event : events) {
+                if (!this.isPreAggregated(event) || this.pendingEvents >= this.maxPendingEvents) {
+                    unaggregatedEvents.add(event);
+                    continue;
+                }
+                
+                final BucketKey key = new BucketKey(event);
+                final Bucket bucket = this.buckets.get(key);
+                if (bucket == null) {
+                    this.buckets.put(key, new Bucket(event));
+                }
+                else {
+                    bucket.fold(event);
+                    this.foldedEvents.incrementAndGet();
+                }
+                this.pendingEvents++;
+            }
+        }
+        
+        return unaggregatedEvents;
+    }
+    
+    /**
+     * Store the buckets whose first event is older than the max bucket age
+     */
+    public void flush() {
+        //Joda time is used for the current time so it agrees with the aggregator's view of now
+        this.flush(DateTimeUtils.currentTimeMillis() - this.maxBucketAge);
+    }
+    
+    /**
+     * Store every pending bucket
+     */
+    @Override
+    public void destroy() throws Exception {
+        this.flush(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Store the buckets whose first event is before the specified time
+     */
+    protected void flush(long before) {
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        synchronized (this.buckets) {
+            for (final Iterator<Map.Entry<BucketKey, Bucket>> bucketItr = this.buckets.entrySet().iterator(); bucketItr.hasNext(); ) {
+                final Map.Entry<BucketKey, Bucket> bucketEntry = bucketItr.next();
+                final Bucket bucket = bucketEntry.getValue();
+                if (bucket.getTimestamp() >= before) {
+                    continue;
+                }
+                
+                events.add(bucket.toEvent());
+                this.pendingEvents -= bucket.size();
+                bucketItr.remove();
+            }
+        }
+        
+        if (events.isEmpty()) {
+            return;
+        }
+        
+        logger.debug("Storing {} pre-aggregated events", events.size());
+        try {
+            this.portalEventDao.storePortalEvents(events);
+            this.storedEvents.addAndGet(events.size());
+        }
+        catch (RuntimeException e) {
+            this.logger.error("An exception was thrown while trying to store " + events.size() + " pre-aggregated events", e);
+        }
+    }
+
+    /**
+     * Identifies a bucket, the event session stands in for the groups the event's user is in until aggregation
+     */
+    private static final class BucketKey {
+        private final long minute;
+        private final String eventSessionId;
+        private final Class<? extends PortalEvent> type;
+        private final String target;
+        private final int hash;
+        
+        public BucketKey(PortalEvent event) {
+            this.minute = event.getTimestampAsDate().getMillis() / MINUTE_MILLIS * MINUTE_MILLIS;
+            this.eventSessionId = event.getEventSessionId();
+            this.type = event.getClass();
+            if (event instanceof PortletExecutionEvent) {
+                this.target = ((PortletExecutionEvent) event).getFname();
+            }
+            else {
+                this.target = ((PortalRenderEvent) event).getTargetedLayoutNodeId();
+            }
+            
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (this.minute ^ (this.minute >>> 32));
+            result = prime * result + ((this.eventSessionId == null) ? 0 : this.eventSessionId.hashCode());
+            result = prime * result + this.type.hashCode();
+            result = prime * result + ((this.target == null) ? 0 : this.target.hashCode());
+            this.hash = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof BucketKey))
+                return false;
+            final BucketKey other = (BucketKey) obj;
+            return this.hash == other.hash
+                    && this.minute == other.minute
+                    && this.type == other.type
+                    && (this.eventSessionId == null ? other.eventSessionId == null : this.eventSessionId.equals(other.eventSessionId))
+                    && (this.target == null ? other.target == null : this.target.equals(other.target));
+        }
+    }
+    
+    /**
+     * The first event of a bucket and the execution times of the events folded into it
+     */
+    private static final class Bucket {
+        private final PortalEvent event;
+        private long[] executionTimes = new long[4];
+        private int folded = 0;
+        
+        public Bucket(PortalEvent event) {
+            this.event = event;
+        }
+        
+        public void fold(PortalEvent foldedEvent) {
+            if (this.folded == this.executionTimes.length) {
+                this.executionTimes = Arrays.copyOf(this.executionTimes, this.folded * 2);
+            }
+            
+            if (foldedEvent instanceof PortletExecutionEvent) {
+                this.executionTimes[this.folded++] = ((PortletExecutionEvent) foldedEvent).getExecutionTimeNano();
+            }
+            else {
+                this.executionTimes[this.folded++] = ((PortalRenderEvent) foldedEvent).getExecutionTimeNano();
+            }
+        }
+        
+        public int size() {
+            return this.folded + 1;
+        }
+        
+        /**
+         * @return The timestamp of the first event, used as the timestamp of the stored event
+         */
+        public long getTimestamp() {
+            return this.event.getTimestampAsDate().getMillis();
+        }
+        
+        public PortalEvent toEvent() {
+            final long[] foldedExecutionTimes = Arrays.copyOf(this.executionTimes, this.folded);
+            if (this.event instanceof PortletExecutionEvent) {
+                ((PortletExecutionEvent) this.event).setFoldedExecutionTimesNano(foldedExecutionTimes);
+            }
+            else {
+                ((PortalRenderEvent) this.event).setFoldedExecutionTimesNano(foldedExecutionTimes);
+            }
+            return this.event;
+        }
+    }
+}
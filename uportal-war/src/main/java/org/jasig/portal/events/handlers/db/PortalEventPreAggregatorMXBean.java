@@ -0,0 +1,56 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+/**
+ * JMX interface for monitoring event pre-aggregation by a {@link PortalEventPreAggregator}
+ */
+public interface PortalEventPreAggregatorMXBean {
+    
+    /**
+     * @param maxPendingEvents Maximum number of events that can wait in buckets for their minute to end
+     */
+    void setMaxPendingEvents(int maxPendingEvents);
+    
+    /**
+     * @return Maximum number of events that can wait in buckets for their minute to end
+     */
+    int getMaxPendingEvents();
+    
+    /**
+     * @return Number of events waiting in buckets for their minute to end
+     */
+    int getPendingEvents();
+    
+    /**
+     * @return Number of buckets waiting for their minute to end
+     */
+    int getPendingBuckets();
+    
+    /**
+     * @return Number of events folded into an existing bucket instead of being stored
+     */
+    long getFoldedEvents();
+    
+    /**
+     * @return Number of pre-aggregated events stored
+     */
+    long getStoredEvents();
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jasig.portal.events.PortalEvent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * Stores events in the compact binary Smile format in the EVENT_DATA_BINARY column. The timestamp, server id, event
+ * session id and user name are already stored in their own columns so they are left out of the event data and
+ * restored from the columns when the event is read. Repeated strings within an event are written once and referenced.
+ * <p/>
+ * The EVENT_DATA column holds {@link #SCHEMA_VERSION_1} to identify the binary data's format.
+ */
+public class SmilePortalEventCodec implements PortalEventCodec {
+    /**
+     * Smile encoded event with the column fields removed
+     */
+    public static final String SCHEMA_VERSION_1 = "smile:1";
+    
+    private static final String TIMESTAMP_FIELD = "timestamp";
+    private static final String SERVER_ID_FIELD = "serverId";
+    private static final String EVENT_SESSION_ID_FIELD = "eventSessionId";
+    private static final String USER_NAME_FIELD = "userName";
+    private static final List<String> COLUMN_FIELDS = Arrays.asList(TIMESTAMP_FIELD, SERVER_ID_FIELD, EVENT_SESSION_ID_FIELD, USER_NAME_FIELD);
+    
+    private final ObjectMapper mapper;
+    private final ObjectMapper smileMapper;
+    
+    /**
+     * @param mapper The mapper used to convert events to and from their tree form, must match the mapper used for JSON events 
+     */
+    public SmilePortalEventCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        
+        final SmileFactory smileFactory = new SmileFactory();
+        smileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true);
+        this.smileMapper = new ObjectMapper(smileFactory);
+    }
+
+    @Override
+    public boolean canDecode(PersistentPortalEvent persistentPortalEvent) {
+        return SCHEMA_VERSION_1.equals(persistentPortalEvent.getEventData()) && persistentPortalEvent.getEventDataBinary() != null;
+    }
+
+    @Override
+    public PersistentPortalEvent encode(PortalEvent portalEvent) {
+        final ObjectNode eventNode = this.mapper.valueToTree(portalEvent);
+        eventNode.remove(COLUMN_FIELDS);
+        
+        try {
+            return new PersistentPortalEvent(portalEvent, SCHEMA_VERSION_1, this.smileMapper.writeValueAsBytes(eventNode));
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
+
+    @Override
+    public <E extends PortalEvent> E decode(PersistentPortalEvent persistentPortalEvent, Class<E> eventType) {
+        try {
+            final JsonNode eventData = this.smileMapper.readTree(persistentPortalEvent.getEventDataBinary());
+            if (!(eventData instanceof ObjectNode)) {
+                throw new IllegalArgumentException("Binary PortalEvent data is not an object: " + eventData);
+            }
+            
+            final ObjectNode eventNode = (ObjectNode) eventData;
+            eventNode.put(TIMESTAMP_FIELD, persistentPortalEvent.getTimestamp().getMillis());
+            eventNode.put(SERVER_ID_FIELD, persistentPortalEvent.getServerId());
+            eventNode.put(EVENT_SESSION_ID_FIELD, persistentPortalEvent.getEventSessionId());
+            eventNode.put(USER_NAME_FIELD, persistentPortalEvent.getUserName());
+            
+            return this.mapper.treeToValue(eventNode, eventType);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        }
+    }
+}
@@ -136,7 +136,7 @@ public boolean deepContains(IGroupMember gm) throws GroupsException
  */
 public java.util.Iterator getAllContainingGroups() throws GroupsException
 {
-    return primGetAllContainingGroups(this, new HashSet()).iterator();
+    return getCompositeGroupService().findAllContainingGroups(this);
 }
 
 /**
@@ -332,27 +332,6 @@ public boolean isMemberOf(IGroupMember gm) throws GroupsException
     Object cacheKey = gm.getKey();
     return getGroupKeys().contains(cacheKey);
 }
-/**
- * Returns the <code>Set</code> of groups in our member <code>Collection</code> and,
- * recursively, in the <code>Collections</code> of our members.
- * @param member org.jasig.portal.groups.IGroupMember - The current group member in the recursive execution.
- * @param s java.lang.Set - A Set that groups are added to.
- * @return java.util.Set
- */
-protected java.util.Set primGetAllContainingGroups(IGroupMember member, Set s) throws GroupsException
-{
-    Iterator i = member.getContainingGroups();
-    while ( i.hasNext() )
-    {
-        IGroupMember gm = (IGroupMember) i.next();
-        // avoid stack overflow in case of circular group dependencies
-        if (!s.contains(gm)) {
-            s.add(gm);
-            primGetAllContainingGroups(gm, s);
-        }
-    }
-    return s;
-}
 /**
  * Removes the key of the <code>IEntityGroup</code> from our <code>Set</code> of group keys
  * by copying the keys, updating the copy, and replacing the old keys with the copy.
@@ -0,0 +1,120 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.groups;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
+
+/**
+ * Tracks a version for the containing groups of each group member so caches built from a walk
+ * of the group graph can tell when a member they walked has been added to or removed from a group.
+ * <p/>
+ * Versions are striped by member type and key into a fixed size array, unrelated members that
+ * share a stripe simply see each other's changes. A change removes the stripe from a cache that
+ * is replicated by invalidation, {@link GroupMemberVersionsCacheEventListener} bumps the stripe on
+ * the other servers when the removal arrives. Changes made directly in the database are not
+ * tracked, caches relying on these versions should also expire their entries.
+ */
+public final class GroupMemberVersions {
+    static final String CHANGED_STRIPES_CACHE_NAME = "org.jasig.portal.groups.GroupMemberVersions.changedStripes";
+
+    private static final Log log = LogFactory.getLog(GroupMemberVersions.class);
+    private static final int STRIPES = 4096;
+    private static final AtomicLongArray VERSIONS = new AtomicLongArray(STRIPES);
+    private static final AtomicLong REMOTE_CHANGES = new AtomicLong();
+    private static volatile Map<Integer, Boolean> changedStripes;
+
+    private GroupMemberVersions() {
+    }
+
+    /**
+     * @return The current version of the containing groups for the member with the type and key
+     */
+    public static long getVersion(Class<?> type, String key) {
+        return VERSIONS.get(stripe(type, key));
+    }
+
+    /**
+     * @return The number of changes received from other servers, changes made on this server are not counted
+     */
+    static long getRemoteChanges() {
+        return REMOTE_CHANGES.get();
+    }
+
+    /**
+     * Record that the containing groups of the member have changed, called once the change has been
+     * committed to the database.
+     */
+    public static void memberChanged(IGroupMember member) {
+        final int stripe = stripe(member.getType(), member.getKey());
+        VERSIONS.incrementAndGet(stripe);
+
+        final Map<Integer, Boolean> stripes = getChangedStripes();
+        if (stripes != null) {
+            stripes.remove(stripe);
+        }
+    }
+
+    /**
+     * Record that a member in the stripe was changed on another server
+     */
+    static void stripeChanged(int stripe) {
+        if (stripe >= 0 && stripe < STRIPES) {
+            VERSIONS.incrementAndGet(stripe);
+        }
+        REMOTE_CHANGES.incrementAndGet();
+    }
+
+    /**
+     * Record that any member may have been changed on another server
+     */
+    static void allChanged() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            VERSIONS.incrementAndGet(stripe);
+        }
+        REMOTE_CHANGES.incrementAndGet();
+    }
+
+    private static Map<Integer, Boolean> getChangedStripes() {
+        Map<Integer, Boolean> stripes = changedStripes;
+        if (stripes == null) {
+            try {
+                stripes = CacheFactoryLocator.getCacheFactory().getCache(CHANGED_STRIPES_CACHE_NAME);
+                changedStripes = stripes;
+            }
+            catch (RuntimeException e) {
+                log.warn("Unable to get cache " + CHANGED_STRIPES_CACHE_NAME + ", group membership changes will not be replicated", e);
+            }
+        }
+        return stripes;
+    }
+
+    private static int stripe(Class<?> type, String key) {
+        int h = 31 * type.getName().hashCode() + key.hashCode();
+        h ^= (h >>> 16);
+        return h & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.groups;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Bumps the {@link GroupMemberVersions} stripes removed from the replicated changed stripes cache
+ * by other servers. Only registered for remote events in ehcache.xml.
+ */
+@Service("groupMemberVersionsCacheEventListener")
+public class GroupMemberVersionsCacheEventListener extends CacheEventListenerAdapter {
+
+    @Override
+    public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+        final Object key = element.getObjectKey();
+        if (key instanceof Integer) {
+            GroupMemberVersions.stripeChanged((Integer) key);
+        }
+    }
+
+    @Override
+    public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+        this.notifyElementRemoved(cache, element);
+    }
+
+    @Override
+    public void notifyRemoveAll(Ehcache cache) {
+        GroupMemberVersions.allChanged();
+    }
+}
@@ -44,6 +44,12 @@ public interface ICompositeGroupService extends IComponentGroupService {
    * @param gm IGroupMember
    */
   public Iterator findContainingGroups(IGroupMember gm) throws GroupsException;
+  /**
+   * Returns the groups that contain the <code>IGroupMember</code> directly
+   * or through other groups.
+   * @param gm IGroupMember
+   */
+  public Iterator findAllContainingGroups(IGroupMember gm) throws GroupsException;
   /**
    * Returns a pre-existing <code>IEntityGroup</code> or null if it does not
    * exist.
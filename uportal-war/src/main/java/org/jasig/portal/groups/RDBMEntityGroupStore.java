@@ -34,6 +34,7 @@ import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.EntityTypes;
 import org.jasig.portal.RDBMServices;
+import org.jasig.portal.properties.PropertiesManager;
 import org.jasig.portal.services.GroupService;
 import org.jasig.portal.spring.locator.CounterStoreLocator;
 import org.jasig.portal.utils.SqlTransaction;
@@ -47,6 +48,9 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static final Log log = LogFactory.getLog(RDBMEntityGroupStore.class);
     private static RDBMEntityGroupStore singleton;
 
+    // In-memory membership graph, null if not enabled
+    private RDBMGroupMembershipGraph membershipGraph;
+
     // Constant SQL strings:
     private static String EQ = " = ";
     private static String QUOTE = "'";
@@ -125,6 +129,19 @@ private void initialize() {
     if (log.isDebugEnabled()) {
         log.debug("RDBMEntityGroupStore.initialize(): Node separator set to " + sep);
     }
+
+    if ( PropertiesManager.getPropertyAsBoolean("org.jasig.portal.groups.RDBMEntityGroupStore.useMembershipGraph", false) )
+    {
+        String serviceName;
+        try
+            { serviceName = GroupServiceConfiguration.getConfiguration().getDefaultService(); }
+        catch (Exception ex)
+            { serviceName = "local"; }
+        int refreshPeriod = PropertiesManager.getPropertyAsInt("org.jasig.portal.groups.RDBMEntityGroupStore.membershipGraphRefreshPeriod", 300);
+        membershipGraph = new RDBMGroupMembershipGraph(serviceName, sep, refreshPeriod * 1000L);
+        log.info("RDBMEntityGroupStore.initialize(): Using in-memory membership graph for service " + serviceName +
+                ", refreshed every " + refreshPeriod + " seconds");
+    }
 }
 
 /**
@@ -154,6 +171,8 @@ throws GroupsException
 {
     String groupKey = group.getLocalKey();
     String memberKey = member.getKey();
+    if ( membershipGraph != null )
+        { return membershipGraph.contains(groupKey, null, memberKey, false); }
     Connection conn = RDBMServices.getConnection();
     try
     {
@@ -194,6 +213,8 @@ throws GroupsException
     String memberService = member.getServiceName().toString();
     String groupKey = group.getLocalKey();
     String memberKey = member.getLocalKey();
+    if ( membershipGraph != null )
+        { return membershipGraph.contains(groupKey, memberService, memberKey, true); }
     Connection conn = RDBMServices.getConnection();
     try
     {
@@ -280,10 +301,23 @@ public void delete(IEntityGroup group) throws GroupsException
 {
     if ( existsInDatabase(group) )
     {
+        List members = new ArrayList();
+        for ( Iterator it = group.getMembers(); it.hasNext(); )
+            { members.add(it.next()); }
+
         try
             { primDelete(group); }
         catch (SQLException sqle)
             { throw new GroupsException("Problem deleting " + group, sqle); }
+
+        for ( Iterator it = members.iterator(); it.hasNext(); )
+            { GroupMemberVersions.memberChanged((IGroupMember) it.next()); }
+        // The group is also removed from the groups that contained it
+        GroupMemberVersions.memberChanged(group);
+
+        // Deletes remove memberships in both directions, reload rather than track them
+        if ( membershipGraph != null )
+            { membershipGraph.load(); }
     }
 }
 
@@ -352,6 +386,34 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
     }
 }
 
+/**
+ * Find the groups in this store that contain this group member directly or
+ * through other groups in this store, using the ancestor index of the
+ * membership graph.
+ * @param gm the group member in question
+ * @return java.util.Iterator, null if the membership graph is not enabled
+ */
+public Iterator findAllContainingGroups(IGroupMember gm) throws GroupsException
+{
+    if ( membershipGraph == null )
+        { return null; }
+
+    if ( gm.isGroup() )
+    {
+        IEntityGroup group = (IEntityGroup) gm;
+        Integer type = EntityTypes.getEntityTypeID(group.getLeafType());
+        return instancesFromRecords(membershipGraph.getAllContainingGroupsForGroup(
+                group.getServiceName().toString(), group.getLocalKey(), type.intValue())).iterator();
+    }
+    else
+    {
+        IEntity ent = (IEntity) gm;
+        Integer type = EntityTypes.getEntityTypeID(ent.getLeafType());
+        return instancesFromRecords(membershipGraph.getAllContainingGroupsForEntity(
+                ent.getKey(), type.intValue())).iterator();
+    }
+}
+
 /**
  * Find the groups associated with this member key.
  * @param memberKey
@@ -361,6 +423,9 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
 private java.util.Iterator findContainingGroupsForEntity(String memberKey, int type)
 throws GroupsException
 {
+    if ( membershipGraph != null )
+        { return instancesFromRecords(membershipGraph.getContainingGroupsForEntity(memberKey, type)).iterator(); }
+
     java.sql.Connection conn = null;
     Collection groups = new ArrayList();
     IEntityGroup eg = null;
@@ -415,6 +480,9 @@ throws GroupsException
 private java.util.Iterator findContainingGroupsForGroup(String serviceName, String memberKey, int type)
 throws GroupsException
 {
+    if ( membershipGraph != null )
+        { return instancesFromRecords(membershipGraph.getContainingGroupsForGroup(serviceName, memberKey, type)).iterator(); }
+
     java.sql.Connection conn = null;
     Collection groups = new ArrayList();
     IEntityGroup eg = null;
@@ -1100,6 +1168,23 @@ throws  SQLException,
     return eg;
 }
 
+/**
+ * Create group instances for records from the membership graph.
+ * @param records the group records
+ * @return java.util.Collection of org.jasig.portal.groups.IEntityGroup
+ */
+private Collection instancesFromRecords(List<RDBMGroupMembershipGraph.GroupRecord> records)
+throws GroupsException
+{
+    Collection groups = new ArrayList(records.size());
+    for ( RDBMGroupMembershipGraph.GroupRecord record : records )
+    {
+        Class entityType = EntityTypes.getEntityType(Integer.valueOf(record.getTypeId()));
+        groups.add(newInstance(record.getKey(), entityType, record.getCreatorId(), record.getName(), record.getDescription()));
+    }
+    return groups;
+}
+
 /**
  * Find and return an instance of the group.
  * @param rs the SQL result set
@@ -1533,6 +1618,57 @@ private void primUpdateMembers(EntityGroupImpl egi, Connection conn) throws java
     }
 }
 
+/**
+ * Bump the versions of the added and removed members once the membership changes are committed.
+ * @param egi org.jasig.portal.groups.EntityGroupImpl
+ */
+private void membersChanged(EntityGroupImpl egi)
+{
+    for ( Iterator it = egi.getRemovedMembers().values().iterator(); it.hasNext(); )
+        { GroupMemberVersions.memberChanged((IGroupMember) it.next()); }
+    for ( Iterator it = egi.getAddedMembers().values().iterator(); it.hasNext(); )
+        { GroupMemberVersions.memberChanged((IGroupMember) it.next()); }
+}
+
+/**
+ * Apply the committed membership adds and deletes to the membership graph, using
+ * the same member service and key values that were written to the membership table.
+ * @param egi org.jasig.portal.groups.EntityGroupImpl
+ */
+private void graphUpdateMembers(EntityGroupImpl egi)
+{
+    String groupKey = egi.getLocalKey();
+    List<Integer> changedGroups = new ArrayList<Integer>();
+
+    for ( Iterator deletes = egi.getRemovedMembers().values().iterator(); deletes.hasNext(); )
+    {
+        IGroupMember gm = (IGroupMember) deletes.next();
+        if ( gm.isGroup() )
+        {
+            IEntityGroup removedGroup = (IEntityGroup) gm;
+            changedGroups.add(membershipGraph.removeMember(groupKey,
+                    removedGroup.getServiceName().toString(), removedGroup.getLocalKey(), true));
+        }
+        else
+            { membershipGraph.removeMember(groupKey, null, gm.getUnderlyingEntityIdentifier().getKey(), false); }
+    }
+
+    for ( Iterator adds = egi.getAddedMembers().values().iterator(); adds.hasNext(); )
+    {
+        IGroupMember gm = (IGroupMember) adds.next();
+        if ( gm.isGroup() )
+        {
+            IEntityGroup addedGroup = (IEntityGroup) gm;
+            changedGroups.add(membershipGraph.addMember(groupKey,
+                    addedGroup.getServiceName().toString(), addedGroup.getLocalKey(), true));
+        }
+        else
+            { membershipGraph.addMember(groupKey, null, gm.getUnderlyingEntityIdentifier().getKey(), false); }
+    }
+
+    membershipGraph.recomputeAncestors(changedGroups);
+}
+
 /**
  * @param conn java.sql.Connection
  * @exception java.sql.SQLException
@@ -1645,6 +1781,14 @@ public void update(IEntityGroup group) throws GroupsException
                 { primAdd(group, conn); }
             primUpdateMembers((EntityGroupImpl)group, conn);
             commit(conn);
+            membersChanged((EntityGroupImpl)group);
+            if ( membershipGraph != null )
+            {
+                Integer typeID = EntityTypes.getEntityTypeID(group.getLeafType());
+                membershipGraph.updateGroup(new RDBMGroupMembershipGraph.GroupRecord(group.getLocalKey(),
+                        group.getCreatorID(), typeID.intValue(), group.getName(), group.getDescription()));
+                graphUpdateMembers((EntityGroupImpl)group);
+            }
         }
 
         catch (Exception ex)
@@ -1684,6 +1828,9 @@ public void updateMembers(IEntityGroup eg) throws GroupsException
         {
             primUpdateMembers(egi, conn);
             commit(conn);
+            membersChanged(egi);
+            if ( membershipGraph != null )
+                { graphUpdateMembers(egi); }
         }
         catch ( SQLException sqle )
         {
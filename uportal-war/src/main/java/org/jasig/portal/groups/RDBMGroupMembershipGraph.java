@@ -0,0 +1,669 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.RDBMServices;
+
+/**
+ * In-memory copy of the memberships of {@link RDBMEntityGroupStore} with a precomputed ancestor index,
+ * used to answer containing group queries without going to the database.
+ * <p/>
+ * Groups are assigned compact int ids when loaded. Direct parents and transitive ancestors are tracked as
+ * sorted int arrays so "all ancestors of member" is a map lookup and a merge of a few small arrays.
+ * <p/>
+ * Membership changes made through the store on this server are applied incrementally, only the ancestors
+ * of the changed member and its descendants are recomputed. The store also records each change with
+ * {@link GroupMemberVersions}, which counts the changes replicated from other servers. A graph loaded
+ * before a remote change is reloaded on next access, local changes never trigger a reload. The graph is
+ * also reloaded once the refresh period has elapsed, covering changes made directly in the database and
+ * lost invalidations.
+ */
+class RDBMGroupMembershipGraph {
+    private static final Log log = LogFactory.getLog(RDBMGroupMembershipGraph.class);
+    private static final int[] EMPTY = new int[0];
+
+    private static final String FIND_GROUPS_SQL =
+            "SELECT GROUP_ID, CREATOR_ID, ENTITY_TYPE_ID, GROUP_NAME, DESCRIPTION FROM UP_GROUP";
+    private static final String FIND_MEMBERSHIPS_SQL =
+            "SELECT GROUP_ID, MEMBER_SERVICE, MEMBER_KEY, MEMBER_IS_GROUP FROM UP_GROUP_MEMBERSHIP";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private final Object initLock = new Object();
+    private final String localServiceName;
+    private final String nodeSeparator;
+    private final long refreshPeriod;
+
+    //All guarded by lock
+    private State state;
+    private long loadedTime;
+    private long loadedRemoteChanges;
+    private long modCount;
+
+    /**
+     * @param localServiceName Name of the group service the store backs, used to recognize member groups from the same store
+     * @param nodeSeparator Separator between the service name and key of a group
+     * @param refreshPeriod Milliseconds after which the graph is reloaded from the database
+     */
+    public RDBMGroupMembershipGraph(String localServiceName, String nodeSeparator, long refreshPeriod) {
+        this.localServiceName = localServiceName;
+        this.nodeSeparator = nodeSeparator;
+        this.refreshPeriod = refreshPeriod;
+    }
+
+    /**
+     * Answers if the group directly contains the member
+     */
+    public boolean contains(String groupKey, String memberService, String memberKey, boolean isGroup) throws GroupsException {
+        final Lock readLock = this.readLock();
+        try {
+            final Integer groupId = this.state.groupIds.get(groupKey);
+            if (groupId == null) {
+                return false;
+            }
+            final int[] parents;
+            if (isGroup) {
+                parents = this.state.groupParents.get(this.getGroupMemberKey(memberService, memberKey));
+            }
+            else {
+                parents = this.state.entityParents.get(memberKey);
+            }
+            return parents != null && Arrays.binarySearch(parents, groupId) >= 0;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Direct containing groups of the entity, limited to groups of the specified entity type
+     */
+    public List<GroupRecord> getContainingGroupsForEntity(String memberKey, int typeId) throws GroupsException {
+        final Lock readLock = this.readLock();
+        try {
+            final int[] parents = this.state.entityParents.get(memberKey);
+            return this.state.toRecords(this.state.filterByType(parents, typeId));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Direct containing groups of the group, limited to groups of the specified entity type
+     */
+    public List<GroupRecord> getContainingGroupsForGroup(String serviceName, String memberKey, int typeId) throws GroupsException {
+        final Lock readLock = this.readLock();
+        try {
+            final int[] parents = this.state.groupParents.get(this.getGroupMemberKey(serviceName, memberKey));
+            return this.state.toRecords(this.state.filterByType(parents, typeId));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * All groups that contain the entity directly or through other groups, limited to groups of the
+     * specified entity type
+     */
+    public List<GroupRecord> getAllContainingGroupsForEntity(String memberKey, int typeId) throws GroupsException {
+        final Lock readLock = this.readLock();
+        try {
+            final int[] parents = this.state.entityParents.get(memberKey);
+            return this.state.toRecords(this.state.getAncestors(this.state.filterByType(parents, typeId)));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * All groups that contain the group directly or through other groups, limited to groups of the
+     * specified entity type
+     */
+    public List<GroupRecord> getAllContainingGroupsForGroup(String serviceName, String memberKey, int typeId) throws GroupsException {
+        final Lock readLock = this.readLock();
+        try {
+            final int[] parents = this.state.groupParents.get(this.getGroupMemberKey(serviceName, memberKey));
+            return this.state.toRecords(this.state.getAncestors(this.state.filterByType(parents, typeId)));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Add or replace the group's record, called after the group is inserted or updated in the database
+     */
+    public void updateGroup(GroupRecord group) {
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            this.modCount++;
+            if (this.state == null) {
+                return;
+            }
+            this.state.putGroup(group);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Add a membership row, {@link #recomputeAncestors(List)} must be called once the changes for the
+     * group have been applied.
+     * 
+     * @return The id of the local member group whose ancestors changed, -1 if no local group ancestors changed 
+     */
+    public int addMember(String groupKey, String memberService, String memberKey, boolean isGroup) {
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            this.modCount++;
+            if (this.state == null) {
+                return -1;
+            }
+            return this.state.addMember(groupKey, memberService, memberKey, isGroup);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a membership row, {@link #recomputeAncestors(List)} must be called once the changes for the
+     * group have been applied.
+     * 
+     * @return The id of the local member group whose ancestors changed, -1 if no local group ancestors changed 
+     */
+    public int removeMember(String groupKey, String memberService, String memberKey, boolean isGroup) {
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            this.modCount++;
+            if (this.state == null) {
+                return -1;
+            }
+            return this.state.removeMember(groupKey, memberService, memberKey, isGroup);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Recompute the ancestors of the specified local groups and all of their descendants
+     */
+    public void recomputeAncestors(List<Integer> changedGroupIds) {
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            if (this.state == null) {
+                return;
+            }
+
+            final BitSet affected = new BitSet();
+            final Queue<Integer> queue = new LinkedList<Integer>();
+            for (final Integer id : changedGroupIds) {
+                if (id >= 0 && !affected.get(id)) {
+                    affected.set(id);
+                    queue.add(id);
+                }
+            }
+            while (!queue.isEmpty()) {
+                final int id = queue.poll();
+                for (final int child : this.state.children.get(id)) {
+                    if (!affected.get(child)) {
+                        affected.set(child);
+                        queue.add(child);
+                    }
+                }
+            }
+
+            for (int id = affected.nextSetBit(0); id >= 0; id = affected.nextSetBit(id + 1)) {
+                this.state.ancestors.set(id, this.state.computeAncestors(id));
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reload the whole graph from the database
+     */
+    public void load() throws GroupsException {
+        final long startModCount;
+        final Lock readLock = this.lock.readLock();
+        readLock.lock();
+        try {
+            startModCount = this.modCount;
+        }
+        finally {
+            readLock.unlock();
+        }
+
+        //Read before loading so remote changes that arrive during the load trigger another one
+        final long startRemoteChanges = GroupMemberVersions.getRemoteChanges();
+
+        final long start = System.currentTimeMillis();
+        final List<GroupRecord> groups = new ArrayList<GroupRecord>();
+        final List<String[]> memberships = new ArrayList<String[]>();
+        Connection conn = null;
+        try {
+            conn = RDBMServices.getConnection();
+            final Statement stmt = conn.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery(FIND_GROUPS_SQL);
+                try {
+                    while (rs.next()) {
+                        groups.add(new GroupRecord(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getString(4), rs.getString(5)));
+                    }
+                }
+                finally {
+                    rs.close();
+                }
+
+                rs = stmt.executeQuery(FIND_MEMBERSHIPS_SQL);
+                try {
+                    while (rs.next()) {
+                        memberships.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4) });
+                    }
+                }
+                finally {
+                    rs.close();
+                }
+            }
+            finally {
+                stmt.close();
+            }
+        }
+        catch (SQLException sqle) {
+            throw new GroupsException("Problem loading the group membership graph", sqle);
+        }
+        finally {
+            RDBMServices.releaseConnection(conn);
+        }
+
+        this.load(groups, memberships, startModCount, startRemoteChanges);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded group membership graph with " + groups.size() + " groups and " + memberships.size() + 
+                    " memberships in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * Replace the graph with the specified groups and membership rows. Each membership row is the group id,
+     * member service, member key and "T" or "F" for if the member is a group.
+     */
+    void load(List<GroupRecord> groups, List<String[]> memberships) {
+        final long startModCount;
+        final Lock readLock = this.lock.readLock();
+        readLock.lock();
+        try {
+            startModCount = this.modCount;
+        }
+        finally {
+            readLock.unlock();
+        }
+
+        this.load(groups, memberships, startModCount, GroupMemberVersions.getRemoteChanges());
+    }
+
+    private void load(List<GroupRecord> groups, List<String[]> memberships, long startModCount, long startRemoteChanges) {
+        final State newState = new State();
+        for (final GroupRecord group : groups) {
+            newState.putGroup(group);
+        }
+        for (final String[] membership : memberships) {
+            newState.addMember(membership[0], membership[1], membership[2], "T".equals(membership[3]));
+        }
+        for (int id = 0; id < newState.groups.size(); id++) {
+            newState.ancestors.set(id, newState.computeAncestors(id));
+        }
+
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            this.state = newState;
+            
+            //Changes applied while loading may not be in the loaded data, reload on next access
+            this.loadedTime = startModCount == this.modCount ? System.currentTimeMillis() : 0;
+            this.loadedRemoteChanges = startRemoteChanges;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the graph has not been loaded, the refresh period has elapsed or memberships were
+     * changed on another server since the graph was loaded
+     */
+    boolean isStale() {
+        final Lock readLock = this.lock.readLock();
+        readLock.lock();
+        try {
+            return this.isStaleInternal();
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    private boolean isStaleInternal() {
+        return this.state == null
+                || System.currentTimeMillis() - this.loadedTime > this.refreshPeriod
+                || GroupMemberVersions.getRemoteChanges() != this.loadedRemoteChanges;
+    }
+
+    /**
+     * Acquires the read lock, loading the graph first if it has not been loaded yet. If the graph is stale
+     * a single caller reloads it while other callers continue to use the current data.
+     */
+    private Lock readLock() throws GroupsException {
+        final Lock readLock = this.lock.readLock();
+        readLock.lock();
+        if (!this.isStaleInternal()) {
+            return readLock;
+        }
+        final boolean initialized = this.state != null;
+        readLock.unlock();
+
+        if (!initialized) {
+            synchronized (this.initLock) {
+                readLock.lock();
+                final boolean loaded = this.state != null;
+                readLock.unlock();
+                if (!loaded) {
+                    this.load();
+                }
+            }
+        }
+        else if (this.loading.compareAndSet(false, true)) {
+            try {
+                this.load();
+            }
+            catch (GroupsException e) {
+                log.warn("Failed to reload the group membership graph, the existing graph will be used", e);
+            }
+            finally {
+                this.loading.set(false);
+            }
+        }
+
+        readLock.lock();
+        return readLock;
+    }
+
+    private String getGroupMemberKey(String serviceName, String memberKey) {
+        return serviceName + this.nodeSeparator + memberKey;
+    }
+
+    /**
+     * A row from the group table
+     */
+    static final class GroupRecord {
+        private final String key;
+        private final String creatorId;
+        private final int typeId;
+        private final String name;
+        private final String description;
+
+        public GroupRecord(String key, String creatorId, int typeId, String name, String description) {
+            this.key = key;
+            this.creatorId = creatorId;
+            this.typeId = typeId;
+            this.name = name;
+            this.description = description;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        public String getCreatorId() {
+            return this.creatorId;
+        }
+
+        public int getTypeId() {
+            return this.typeId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getDescription() {
+            return this.description;
+        }
+
+        @Override
+        public String toString() {
+            return "GroupRecord [key=" + this.key + ", typeId=" + this.typeId + ", name=" + this.name + "]";
+        }
+    }
+
+    /**
+     * The groups, memberships and ancestor index. Ids index the lists, ids of deleted groups are not
+     * reused until the graph is reloaded.
+     */
+    private final class State {
+        final Map<String, Integer> groupIds = new HashMap<String, Integer>();
+        final List<GroupRecord> groups = new ArrayList<GroupRecord>();
+        final List<int[]> children = new ArrayList<int[]>();
+        final List<int[]> ancestors = new ArrayList<int[]>();
+        final Map<String, int[]> groupParents = new HashMap<String, int[]>();
+        final Map<String, int[]> entityParents = new HashMap<String, int[]>();
+
+        void putGroup(GroupRecord group) {
+            final Integer id = this.groupIds.get(group.getKey());
+            if (id != null) {
+                this.groups.set(id, group);
+                return;
+            }
+
+            this.groupIds.put(group.getKey(), this.groups.size());
+            this.groups.add(group);
+            this.children.add(EMPTY);
+            this.ancestors.add(EMPTY);
+        }
+
+        int addMember(String groupKey, String memberService, String memberKey, boolean isGroup) {
+            final Integer parentId = this.groupIds.get(groupKey);
+            if (parentId == null) {
+                return -1;
+            }
+
+            if (!isGroup) {
+                this.entityParents.put(memberKey, add(this.entityParents.get(memberKey), parentId));
+                return -1;
+            }
+
+            final String groupMemberKey = getGroupMemberKey(memberService, memberKey);
+            this.groupParents.put(groupMemberKey, add(this.groupParents.get(groupMemberKey), parentId));
+
+            final Integer childId = this.getLocalGroupId(memberService, memberKey);
+            if (childId == null) {
+                return -1;
+            }
+            this.children.set(parentId, add(this.children.get(parentId), childId));
+            return childId;
+        }
+
+        int removeMember(String groupKey, String memberService, String memberKey, boolean isGroup) {
+            final Integer parentId = this.groupIds.get(groupKey);
+            if (parentId == null) {
+                return -1;
+            }
+
+            if (!isGroup) {
+                this.entityParents.put(memberKey, remove(this.entityParents.get(memberKey), parentId));
+                return -1;
+            }
+
+            final String groupMemberKey = getGroupMemberKey(memberService, memberKey);
+            this.groupParents.put(groupMemberKey, remove(this.groupParents.get(groupMemberKey), parentId));
+
+            final Integer childId = this.getLocalGroupId(memberService, memberKey);
+            if (childId == null) {
+                return -1;
+            }
+            this.children.set(parentId, remove(this.children.get(parentId), childId));
+            return childId;
+        }
+
+        /**
+         * Walk up the group's parents, following the same containment rules as the store's queries
+         * where only parents of the same entity type are considered.
+         */
+        int[] computeAncestors(int id) {
+            final GroupRecord group = this.groups.get(id);
+            final BitSet ancestors = new BitSet();
+            final Queue<Integer> queue = new LinkedList<Integer>();
+            queue.add(id);
+            while (!queue.isEmpty()) {
+                final GroupRecord member = this.groups.get(queue.poll());
+                final int[] parents = this.groupParents.get(getGroupMemberKey(localServiceName, member.getKey()));
+                if (parents == null) {
+                    continue;
+                }
+                for (final int parent : parents) {
+                    if (!ancestors.get(parent) && this.groups.get(parent).getTypeId() == group.getTypeId()) {
+                        ancestors.set(parent);
+                        queue.add(parent);
+                    }
+                }
+            }
+            return toArray(ancestors);
+        }
+
+        /**
+         * @return The groups and all of their ancestors
+         */
+        int[] getAncestors(int[] ids) {
+            if (ids.length == 0) {
+                return ids;
+            }
+            final BitSet result = new BitSet();
+            for (final int id : ids) {
+                result.set(id);
+                for (final int ancestor : this.ancestors.get(id)) {
+                    result.set(ancestor);
+                }
+            }
+            return toArray(result);
+        }
+
+        int[] filterByType(int[] ids, int typeId) {
+            if (ids == null) {
+                return EMPTY;
+            }
+            int count = 0;
+            final int[] result = new int[ids.length];
+            for (final int id : ids) {
+                if (this.groups.get(id).getTypeId() == typeId) {
+                    result[count++] = id;
+                }
+            }
+            return count == result.length ? result : Arrays.copyOf(result, count);
+        }
+
+        List<GroupRecord> toRecords(int[] ids) {
+            if (ids.length == 0) {
+                return Collections.emptyList();
+            }
+            final List<GroupRecord> records = new ArrayList<GroupRecord>(ids.length);
+            for (final int id : ids) {
+                records.add(this.groups.get(id));
+            }
+            return records;
+        }
+
+        private Integer getLocalGroupId(String memberService, String memberKey) {
+            if (!localServiceName.equals(memberService)) {
+                return null;
+            }
+            return this.groupIds.get(memberKey);
+        }
+    }
+
+    private static int[] toArray(BitSet bits) {
+        final int[] result = new int[bits.cardinality()];
+        int i = 0;
+        for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+            result[i++] = bit;
+        }
+        return result;
+    }
+
+    private static int[] add(int[] ids, int id) {
+        if (ids == null) {
+            return new int[] { id };
+        }
+        final int idx = Arrays.binarySearch(ids, id);
+        if (idx >= 0) {
+            return ids;
+        }
+        final int insert = -idx - 1;
+        final int[] result = new int[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, insert);
+        result[insert] = id;
+        System.arraycopy(ids, insert, result, insert + 1, ids.length - insert);
+        return result;
+    }
+
+    private static int[] remove(int[] ids, int id) {
+        if (ids == null) {
+            return EMPTY;
+        }
+        final int idx = Arrays.binarySearch(ids, id);
+        if (idx < 0) {
+            return ids;
+        }
+        final int[] result = new int[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, idx);
+        System.arraycopy(ids, idx + 1, result, idx, ids.length - idx - 1);
+        return result;
+    }
+}
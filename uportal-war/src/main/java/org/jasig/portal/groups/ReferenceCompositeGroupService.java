@@ -80,6 +80,62 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
     }
     return allGroups.iterator();
 }
+/**
+ * Returns groups that contain the <code>IGroupMember</code> directly or through
+ * other groups.  Walks up the containing groups one level at a time, except for
+ * groups from a component service whose group store indexes ancestor groups.
+ * When no other component service is editable, only that service can contain
+ * its groups, so the ancestors of such a group are taken from the index.
+ * @param gm IGroupMember
+ */
+public Iterator findAllContainingGroups(IGroupMember gm) throws GroupsException
+{
+    return primFindAllContainingGroups(gm, new HashSet()).iterator();
+}
+/**
+ * Adds the groups that contain the <code>IGroupMember</code> to the <code>Set</code>.
+ * @param gm IGroupMember - The current group member in the recursive execution.
+ * @param s java.util.Set - A Set that groups are added to.
+ * @return java.util.Set
+ */
+protected Set primFindAllContainingGroups(IGroupMember gm, Set s) throws GroupsException
+{
+    for ( Iterator groups = gm.getContainingGroups(); groups.hasNext(); )
+    {
+        IEntityGroup group = (IEntityGroup) groups.next();
+        // avoid stack overflow in case of circular group dependencies
+        if ( s.add(group) )
+        {
+            Iterator ancestors = findIndexedContainingGroups(group);
+            if ( ancestors == null )
+                { primFindAllContainingGroups(group, s); }
+            else
+            {
+                while ( ancestors.hasNext() )
+                    { s.add(ancestors.next()); }
+            }
+        }
+    }
+    return s;
+}
+/**
+ * Returns the indexed ancestors of the group, or null if its component service
+ * does not index them or another component service could also contain the group.
+ */
+private Iterator findIndexedContainingGroups(IEntityGroup group) throws GroupsException
+{
+    IIndividualGroupService service = getComponentService(group.getServiceName());
+    if ( ! (service instanceof ReferenceIndividualGroupService) )
+        { return null; }
+
+    for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
+    {
+        IIndividualGroupService other = (IIndividualGroupService) services.next();
+        if ( other != service && other.isEditable() )
+            { return null; }
+    }
+    return ((ReferenceIndividualGroupService) service).findIndexedContainingGroups(group);
+}
 /**
  * Returns a pre-existing <code>IEntityGroup</code> or null if the
  * <code>IGroupMember</code> does not exist.
@@ -201,10 +201,34 @@ public void deleteGroup(ILockableEntityGroup group) throws GroupsException
  * @param gm IGroupMember
  */
 public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
+{
+    return cacheContainingGroups(getGroupStore().findContainingGroups(gm));
+}
+
+/**
+ * Returns and caches the groups in this service that contain the <code>IGroupMember</code>
+ * directly or through other groups in this service, or null if the group store does not
+ * keep an index of ancestor groups.
+ * @param gm IGroupMember
+ */
+public Iterator findIndexedContainingGroups(IGroupMember gm) throws GroupsException
+{
+    IEntityGroupStore store = getGroupStore();
+    if ( ! (store instanceof RDBMEntityGroupStore) )
+        { return null; }
+    Iterator groups = ((RDBMEntityGroupStore) store).findAllContainingGroups(gm);
+    return ( groups == null ) ? null : cacheContainingGroups(groups);
+}
+
+/**
+ * Sets this service on the containing groups found by the group store and
+ * caches the groups that are not cached yet.
+ */
+private Iterator cacheContainingGroups(Iterator storeGroups) throws GroupsException
 {
     Collection groups = new ArrayList(10);
     IEntityGroup group = null;
-    for ( Iterator it = getGroupStore().findContainingGroups(gm); it.hasNext(); )
+    for ( Iterator it = storeGroups; it.hasNext(); )
     {
         group = (IEntityGroup) it.next();
         group.setLocalGroupService(this);
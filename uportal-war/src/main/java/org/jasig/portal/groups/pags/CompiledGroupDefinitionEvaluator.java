@@ -0,0 +1,223 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.GroupDefinition;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.TestGroup;
+import org.jasig.portal.groups.pags.testers.BaseAttributeTester;
+import org.jasig.portal.security.IPerson;
+
+/**
+ * Evaluates every PAGS {@link GroupDefinition} for a person in a single pass. Testers that appear in several
+ * definitions (same tester type, attribute and test value) are only run once per person and the ancestors
+ * of each group are resolved when the evaluator is built.
+ * <p/>
+ * Membership follows the same rules as {@link PersonAttributesGroupStore#contains}: a person is a member of
+ * a group if one of the group's test groups passes and every ancestor group either has no test groups or
+ * has a passing test group.
+ */
+class CompiledGroupDefinitionEvaluator {
+    private static final byte UNKNOWN = 0;
+    private static final byte PASSED = 1;
+    private static final byte FAILED = 2;
+
+    private final String[] groupKeys;
+    private final Map<String, Integer> groupIndexes;
+    private final IPersonTester[] testers;
+    /** group index -> test group -> tester indexes */
+    private final int[][][] testGroups;
+    /** group index -> ancestor group indexes */
+    private final int[][] ancestors;
+
+    public CompiledGroupDefinitionEvaluator(Collection<GroupDefinition> groupDefinitions) {
+        final int groupCount = groupDefinitions.size();
+        this.groupKeys = new String[groupCount];
+        this.groupIndexes = new HashMap<String, Integer>(groupCount * 2);
+        this.testGroups = new int[groupCount][][];
+
+        final List<IPersonTester> uniqueTesters = new ArrayList<IPersonTester>();
+        final Map<List<Object>, Integer> testerIndexes = new HashMap<List<Object>, Integer>();
+
+        int groupIndex = 0;
+        for (final GroupDefinition groupDefinition : groupDefinitions) {
+            this.groupKeys[groupIndex] = groupDefinition.getKey();
+            this.groupIndexes.put(groupDefinition.getKey(), groupIndex);
+
+            final List<TestGroup> definitionTestGroups = groupDefinition.getTestGroups();
+            final int[][] compiledTestGroups = new int[definitionTestGroups.size()][];
+            for (int i = 0; i < compiledTestGroups.length; i++) {
+                final List<IPersonTester> tests = definitionTestGroups.get(i).getTests();
+                compiledTestGroups[i] = new int[tests.size()];
+                for (int j = 0; j < compiledTestGroups[i].length; j++) {
+                    compiledTestGroups[i][j] = getTesterIndex(tests.get(j), uniqueTesters, testerIndexes);
+                }
+            }
+            this.testGroups[groupIndex] = compiledTestGroups;
+            groupIndex++;
+        }
+        this.testers = uniqueTesters.toArray(new IPersonTester[uniqueTesters.size()]);
+
+        //Parent groups list their child group keys as members
+        final List<List<Integer>> parents = new ArrayList<List<Integer>>(groupCount);
+        for (int i = 0; i < groupCount; i++) {
+            parents.add(new ArrayList<Integer>(2));
+        }
+        for (final GroupDefinition groupDefinition : groupDefinitions) {
+            final int parentIndex = this.groupIndexes.get(groupDefinition.getKey());
+            for (final String member : groupDefinition.getMembers()) {
+                final Integer childIndex = this.groupIndexes.get(member);
+                if (childIndex != null) {
+                    parents.get(childIndex).add(parentIndex);
+                }
+            }
+        }
+
+        this.ancestors = new int[groupCount][];
+        for (int i = 0; i < groupCount; i++) {
+            final BitSet groupAncestors = new BitSet(groupCount);
+            final Queue<Integer> queue = new LinkedList<Integer>(parents.get(i));
+            while (!queue.isEmpty()) {
+                final int parent = queue.poll();
+                if (!groupAncestors.get(parent)) {
+                    groupAncestors.set(parent);
+                    queue.addAll(parents.get(parent));
+                }
+            }
+            
+            final int[] ancestorIndexes = new int[groupAncestors.cardinality()];
+            int idx = 0;
+            for (int bit = groupAncestors.nextSetBit(0); bit >= 0; bit = groupAncestors.nextSetBit(bit + 1)) {
+                ancestorIndexes[idx++] = bit;
+            }
+            this.ancestors[i] = ancestorIndexes;
+        }
+    }
+
+    /**
+     * @return The index of the group in the membership {@link BitSet}, -1 if the group is unknown
+     */
+    public int getGroupIndex(String groupKey) {
+        final Integer index = this.groupIndexes.get(groupKey);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return The key of the group at the index
+     */
+    public String getGroupKey(int groupIndex) {
+        return this.groupKeys[groupIndex];
+    }
+
+    /**
+     * @return The indexes of the groups the person is a member of
+     */
+    public BitSet evaluate(IPerson person) {
+        final byte[] testerResults = new byte[this.testers.length];
+
+        //The result of GroupDefinition.test for every group
+        final BitSet passed = new BitSet(this.groupKeys.length);
+        for (int i = 0; i < this.groupKeys.length; i++) {
+            if (this.test(i, person, testerResults)) {
+                passed.set(i);
+            }
+        }
+
+        final BitSet members = new BitSet(this.groupKeys.length);
+        for (int i = passed.nextSetBit(0); i >= 0; i = passed.nextSetBit(i + 1)) {
+            if (this.testGroups[i].length == 0) {
+                //Groups without tests never contain people directly
+                continue;
+            }
+
+            boolean ancestorsPassed = true;
+            for (final int ancestor : this.ancestors[i]) {
+                if (!passed.get(ancestor)) {
+                    ancestorsPassed = false;
+                    break;
+                }
+            }
+            if (ancestorsPassed) {
+                members.set(i);
+            }
+        }
+
+        return members;
+    }
+
+    private boolean test(int groupIndex, IPerson person, byte[] testerResults) {
+        final int[][] groupTestGroups = this.testGroups[groupIndex];
+        if (groupTestGroups.length == 0) {
+            return true;
+        }
+
+        for (final int[] testGroup : groupTestGroups) {
+            boolean testGroupPassed = true;
+            for (final int testerIndex : testGroup) {
+                byte result = testerResults[testerIndex];
+                if (result == UNKNOWN) {
+                    result = this.testers[testerIndex].test(person) ? PASSED : FAILED;
+                    testerResults[testerIndex] = result;
+                }
+                if (result == FAILED) {
+                    testGroupPassed = false;
+                    break;
+                }
+            }
+            if (testGroupPassed) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Attribute testers with the same type, attribute and test value share a single index, other
+     * testers are never shared.
+     */
+    private static int getTesterIndex(IPersonTester tester, List<IPersonTester> uniqueTesters, Map<List<Object>, Integer> testerIndexes) {
+        if (!(tester instanceof BaseAttributeTester)) {
+            uniqueTesters.add(tester);
+            return uniqueTesters.size() - 1;
+        }
+
+        final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+        final List<Object> testerKey = Arrays.<Object>asList(tester.getClass(), attributeTester.getAttributeName(), attributeTester.getTestValue());
+        final Integer index = testerIndexes.get(testerKey);
+        if (index != null) {
+            return index;
+        }
+
+        uniqueTesters.add(tester);
+        final int newIndex = uniqueTesters.size() - 1;
+        testerIndexes.put(testerKey, newIndex);
+        return newIndex;
+    }
+}
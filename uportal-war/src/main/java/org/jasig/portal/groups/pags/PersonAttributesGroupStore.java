@@ -21,6 +21,7 @@ package org.jasig.portal.groups.pags;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -49,6 +50,7 @@ import org.jasig.portal.groups.ILockableEntityGroup;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.PersonFactory;
 import org.jasig.portal.security.provider.RestrictedPerson;
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
 import org.jasig.portal.spring.locator.PersonAttributeDaoLocator;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
@@ -66,10 +68,14 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private static final Class<IPerson> IPERSON_CLASS = IPerson.class;
    private static final EntityIdentifier[] EMPTY_SEARCH_RESULTS =
        new EntityIdentifier[0];
+   private static final String MEMBERSHIP_CACHE_NAME =
+       "org.jasig.portal.groups.pags.PersonAttributesGroupStore.membershipCache";
    private Properties props;
    private Map groupDefinitions;
    private Map<String, IEntityGroup> groups;
    private Map<String, List> containingGroups;
+   private CompiledGroupDefinitionEvaluator evaluator;
+   private Map<String, BitSet> membershipCache;
       
    public PersonAttributesGroupStore() {
       groups = new HashMap<String, IEntityGroup>();
@@ -108,6 +114,9 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
            cachePut(group);
        }
        cacheContainingGroupsForGroups();
+       
+       if ( Boolean.parseBoolean(props.getProperty("org.jasig.portal.groups.pags.PersonAttributesGroupStore.useCompiledEvaluator")) )
+           { evaluator = new CompiledGroupDefinitionEvaluator(groupDefinitions.values()); }
    }
    
 
@@ -144,17 +153,13 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       {
          if (member.getEntityType() != IPERSON_CLASS) 
              { return false; }
+         if (evaluator != null) {
+             int groupIndex = evaluator.getGroupIndex(group.getLocalKey());
+             return groupIndex >= 0 && getMemberships(member).get(groupIndex);
+         }
          IPerson person = null;
          try {
-             IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
-             final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
-
-             RestrictedPerson rp = PersonFactory.createRestrictedPerson();
-             if (personAttributes != null) {
-                 rp.setAttributes(personAttributes.getAttributes());
-             }
-             
-             person = rp;
+             person = getPerson(member);
          }
          catch (Exception ex) { 
              log.error("Exception acquiring attributes for member " + member + " while checking if group " + group + " contains this member.", ex);
@@ -163,6 +168,49 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
          return testRecursively(groupDef, person, member);
       }
    }
+   
+   private IPerson getPerson(IGroupMember member) {
+       IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+       final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+
+       RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+       if (personAttributes != null) {
+           rp.setAttributes(personAttributes.getAttributes());
+       }
+       return rp;
+   }
+   
+   /**
+    * Evaluates all group definitions for the member with a single attribute lookup, the
+    * resulting memberships are cached by member key.
+    */
+   private BitSet getMemberships(IGroupMember member) {
+       Map<String, BitSet> cache = getMembershipCache();
+       BitSet memberships = cache.get(member.getKey());
+       if (memberships != null)
+           { return memberships; }
+       
+       IPerson person = null;
+       try {
+           person = getPerson(member);
+       }
+       catch (Exception ex) { 
+           log.error("Exception acquiring attributes for member " + member + " while evaluating group memberships for this member.", ex);
+           return new BitSet(); 
+       }
+       memberships = evaluator.evaluate(person);
+       cache.put(member.getKey(), memberships);
+       return memberships;
+   }
+   
+   private Map<String, BitSet> getMembershipCache() {
+       Map<String, BitSet> cache = membershipCache;
+       if (cache == null) {
+           cache = CacheFactoryLocator.getCacheFactory().getCache(MEMBERSHIP_CACHE_NAME);
+           membershipCache = cache;
+       }
+       return cache;
+   }
 
    public void delete(IEntityGroup group) throws GroupsException {
       throw new UnsupportedOperationException("PersonAttributesGroupStore: Method delete() not supported.");
@@ -264,6 +312,14 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private Iterator<IEntityGroup> findContainingGroupsForEntity(IEntity member)
    throws GroupsException {
        List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+       if (evaluator != null) {
+           if (member.getEntityType() != IPERSON_CLASS) 
+               { return results.iterator(); }
+           BitSet memberships = getMemberships(member);
+           for (int i = memberships.nextSetBit(0); i >= 0; i = memberships.nextSetBit(i + 1))
+               { results.add(cacheGet(evaluator.getGroupKey(i))); }
+           return results.iterator();
+       }
        for (Iterator<IEntityGroup> i = groups.values().iterator(); i.hasNext(); ) {
           IEntityGroup group = i.next();
           if ( contains(group, member)) 
@@ -395,9 +451,15 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       public boolean hasMember(String key) {
          return members.contains(key);
       }
+      public List<String> getMembers() {
+         return Collections.unmodifiableList(members);
+      }
       public void addTestGroup(TestGroup testGroup) {
          testGroups.add(testGroup);
       }
+      public List<TestGroup> getTestGroups() {
+         return Collections.unmodifiableList(testGroups);
+      }
       public boolean contains(IPerson person) {
          return ( testGroups.isEmpty() ) ? false : test(person);
       }
@@ -428,6 +490,10 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
          tests.add(test);
       }
       
+      public List<IPersonTester> getTests() {
+         return Collections.unmodifiableList(tests);
+      }
+      
       public boolean test(IPerson person) {
          for (Iterator<IPersonTester> i = tests.iterator(); i.hasNext(); ) {
             IPersonTester tester = i.next();
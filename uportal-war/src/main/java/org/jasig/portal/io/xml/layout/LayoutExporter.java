@@ -19,10 +19,19 @@
 
 package org.jasig.portal.io.xml.layout;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.dom4j.Element;
 import org.jasig.portal.IUserIdentityStore;
 import org.jasig.portal.IUserProfile;
 import org.jasig.portal.UserProfile;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.io.xml.IPortalData;
 import org.jasig.portal.io.xml.crn.AbstractDom4jExporter;
 import org.jasig.portal.layout.IUserLayoutStore;
 import org.jasig.portal.security.provider.BrokenSecurityContext;
@@ -39,9 +48,15 @@ import com.google.common.cache.CacheBuilder;
  * @version $Revision$
  */
 public class LayoutExporter extends AbstractDom4jExporter  {
+    private static final int LAYOUT_PRELOAD_SIZE = 50;
+    
     private final Cache<Tuple<String, String>, UserProfile> layoutCache = CacheBuilder.newBuilder().maximumSize(1000).<Tuple<String, String>, UserProfile>build();
     private final Cache<Tuple<String, String>, Document> profileCache = CacheBuilder.newBuilder().maximumSize(1000).<Tuple<String, String>, Document>build();
     
+    private final Object preloadMutex = new Object();
+    private volatile Tuple<List<String>, Map<String, Integer>> exportOrder = 
+            new Tuple<List<String>, Map<String, Integer>>(Collections.<String>emptyList(), Collections.<String, Integer>emptyMap());
+    
     private IUserLayoutStore userLayoutStore;
     private IUserIdentityStore userIdentityStore;
     
@@ -55,6 +70,25 @@ public class LayoutExporter extends AbstractDom4jExporter  {
         this.userIdentityStore = userIdentityStore;
     }
 
+    /**
+     * Remembers the order the users are listed in, an export lists the users and then exports them
+     * in that order which lets {@link #preloadLayouts(String)} load the layouts of the following users.
+     */
+    @Override
+    public Iterable<? extends IPortalData> getPortalData() {
+        final Iterable<? extends IPortalData> portalData = super.getPortalData();
+
+        final List<String> userNames = new ArrayList<String>();
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (final IPortalData data : portalData) {
+            positions.put(data.getDataId(), userNames.size());
+            userNames.add(data.getDataId());
+        }
+        this.exportOrder = new Tuple<List<String>, Map<String, Integer>>(userNames, positions);
+
+        return portalData;
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.portal.io.xml.crn.AbstractDom4jExporter#exportDataElement(java.lang.String)
      */
@@ -66,18 +100,14 @@ public class LayoutExporter extends AbstractDom4jExporter  {
             return null;
         }
         
-        //Setup empty IPerson used to interact with the layout store
-        final PersonImpl person = new PersonImpl();
-        person.setUserName(userName);
-        person.setID(userId);
-        person.setSecurityContext(new BrokenSecurityContext());
-        
+        final PersonImpl person = this.createPerson(userName, userId);
 
         try {
             this.userLayoutStore.setProfileImportExportCache(layoutCache);
             this.userLayoutStore.setLayoutImportExportCache(profileCache);
 
             final IUserProfile userProfile = userLayoutStore.getUserProfileByFname(person, UserProfile.DEFAULT_PROFILE_FNAME);
+            this.preloadLayouts(userName);
             final Element layoutElement = userLayoutStore.exportLayout(person, userProfile);
             
             return layoutElement;
@@ -87,5 +117,74 @@ public class LayoutExporter extends AbstractDom4jExporter  {
             this.userLayoutStore.setLayoutImportExportCache(null);
         }
     }
+
+    /**
+     * If the user's layout has not been loaded yet load it along with the layouts of the users listed
+     * after it using a single {@link IUserLayoutStore#getPersonalUserLayouts(java.util.Collection, String)}
+     * call. Users without a stored layout are left to the layout store, which uses their template user's layout.
+     */
+    private void preloadLayouts(String userName) {
+        if (LocaleManager.isLocaleAware()) {
+            //Layouts are loaded in the locale of each user's profile
+            return;
+        }
+
+        final Tuple<String, String> layoutKey = new Tuple<String, String>(userName, UserProfile.DEFAULT_PROFILE_FNAME);
+        if (this.profileCache.getIfPresent(layoutKey) != null) {
+            return;
+        }
+
+        final Tuple<List<String>, Map<String, Integer>> order = this.exportOrder;
+        final Integer position = order.second.get(userName);
+        if (position == null) {
+            return;
+        }
+
+        synchronized (this.preloadMutex) {
+            //Another export thread may have loaded the layout while waiting
+            if (this.profileCache.getIfPresent(layoutKey) != null) {
+                return;
+            }
+
+            final Map<Tuple<Integer, Integer>, String> userLayoutIds = new LinkedHashMap<Tuple<Integer, Integer>, String>();
+            final int end = Math.min(position + LAYOUT_PRELOAD_SIZE, order.first.size());
+            for (final String preloadUserName : order.first.subList(position, end)) {
+                final Tuple<String, String> preloadKey = new Tuple<String, String>(preloadUserName, UserProfile.DEFAULT_PROFILE_FNAME);
+                if (this.profileCache.getIfPresent(preloadKey) != null) {
+                    continue;
+                }
+
+                final Integer userId = this.userIdentityStore.getPortalUserId(preloadUserName);
+                if (userId == null) {
+                    continue;
+                }
+
+                final PersonImpl person = this.createPerson(preloadUserName, userId);
+                final IUserProfile userProfile = userLayoutStore.getUserProfileByFname(person, UserProfile.DEFAULT_PROFILE_FNAME);
+                if (userProfile == null || userProfile.getLayoutId() == 0) {
+                    continue;
+                }
+
+                userLayoutIds.put(new Tuple<Integer, Integer>(userId, userProfile.getLayoutId()), preloadUserName);
+            }
+
+            final Map<Tuple<Integer, Integer>, Document> layouts = this.userLayoutStore.getPersonalUserLayouts(userLayoutIds.keySet(), null);
+            for (final Map.Entry<Tuple<Integer, Integer>, Document> layoutEntry : layouts.entrySet()) {
+                final String preloadUserName = userLayoutIds.get(layoutEntry.getKey());
+                this.profileCache.put(new Tuple<String, String>(preloadUserName, UserProfile.DEFAULT_PROFILE_FNAME), layoutEntry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Setup empty IPerson used to interact with the layout store
+     */
+    private PersonImpl createPerson(String userName, int userId) {
+        final PersonImpl person = new PersonImpl();
+        person.setUserName(userName);
+        person.setID(userId);
+        person.setSecurityContext(new BrokenSecurityContext());
+        return person;
+    }
     
 }
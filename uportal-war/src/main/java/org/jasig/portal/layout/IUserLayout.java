@@ -149,6 +149,11 @@ public interface IUserLayout {
      * @return The ID of the resolved node, null if there is no match.
      */
     public String findNodeId(INodeIdResolver finder);
+    
+    /**
+     * @return Index of the layout's nodes, use it instead of {@link #findNodeId(XPathExpression)} for tab and subscribe id lookups
+     */
+    public LayoutNodeIndex getNodeIndex();
 
      /**
      * Returns a list of node Ids in the layout.
@@ -25,6 +25,7 @@
  * @version $Revision$
  */
 
+import java.util.Collection;
 import java.util.Hashtable;
 import java.util.Map;
 
@@ -254,6 +255,19 @@ public interface IUserLayoutStore {
     
     public Document getFragmentLayout (IPerson person,
             IUserProfile profile);
+
+    /**
+     * Load the stored personal layouts of many users at once, used for bulk operations such as
+     * layout export or refreshing fragment owner layouts. The layouts are read with one query per
+     * batch if the database supports outer joins and with separate queries for each layout if not.
+     * No template user layout is substituted for a user that has no stored layout.
+     *
+     * @param userLayoutIds USER_ID and LAYOUT_ID of each layout to load
+     * @param locale Locale of the layout structures, may be null
+     * @return The layouts keyed by USER_ID and LAYOUT_ID, layouts that have no stored rows are not included
+     */
+    public Map<Tuple<Integer, Integer>, Document> getPersonalUserLayouts(Collection<Tuple<Integer, Integer>> userLayoutIds,
+            String locale);
     
     /**
      * Generates a new struct id for directive elements that dlm places in
@@ -0,0 +1,289 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Index of the folder and channel elements of a layout document, used to resolve tabs and subscribe ids
+ * without evaluating XPath expressions against the layout. The index is built once per layout document and
+ * must be told about every node that is added, moved, removed or updated in the document.
+ * <p/>
+ * Thread safe, all access is synchronized on the index.
+ */
+public final class LayoutNodeIndex {
+    private static final String FOLDER = "folder";
+    private static final String CHANNEL = "channel";
+    private static final String ID = "ID";
+    private static final String FNAME = "fname";
+
+    private final Document layout;
+    private final Map<String, Element> nodes = new HashMap<String, Element>();
+    private final Map<String, List<Element>> channelsByFname = new HashMap<String, List<Element>>();
+    private List<String> tabIds;
+
+    private LayoutNodeIndex(Document layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Index all of the folder and channel elements in the layout
+     */
+    public static LayoutNodeIndex build(Document layout) {
+        final LayoutNodeIndex index = new LayoutNodeIndex(layout);
+        final Element root = layout.getDocumentElement();
+        if (root != null) {
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                index.addSubtree(child);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The folder or channel element with the ID, null if there is none
+     */
+    public synchronized Element getNode(String nodeId) {
+        return this.nodes.get(nodeId);
+    }
+
+    /**
+     * Mimics the XPath expression '//channel[@fname=$fname]/@ID'
+     *
+     * @return The subscribe id of the first channel in the layout with the fname, null if there is none
+     */
+    public synchronized String getSubscribeId(String fname) {
+        final List<Element> channels = this.channelsByFname.get(fname);
+        if (channels == null || channels.isEmpty()) {
+            return null;
+        }
+        return StringUtils.trimToNull(channels.get(0).getAttribute(ID));
+    }
+
+    /**
+     * Mimics the XPath expression '//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]/@ID'
+     *
+     * @return The subscribe id of the first channel with the fname that is a descendant of the folder, null if there is none
+     */
+    public synchronized String getSubscribeId(String parentFolderId, String fname) {
+        final List<Element> channels = this.channelsByFname.get(fname);
+        final Element folder = this.nodes.get(parentFolderId);
+        if (channels == null || folder == null || !FOLDER.equals(folder.getNodeName())) {
+            return null;
+        }
+
+        for (final Element channel : channels) {
+            for (Node ancestor = channel.getParentNode(); ancestor != null; ancestor = ancestor.getParentNode()) {
+                if (ancestor == folder) {
+                    return StringUtils.trimToNull(channel.getAttribute(ID));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mimics the XPath expression '/layout/folder/folder[@type='regular' and @hidden!='true'][$tabIndex]/@ID'
+     *
+     * @param tabIndex 1 based index of the visible tab
+     * @return The ID of the tab, null if there is no tab at the index
+     */
+    public synchronized String getTabId(int tabIndex) {
+        if (this.tabIds == null) {
+            this.tabIds = this.findTabIds();
+        }
+        if (tabIndex < 1 || tabIndex > this.tabIds.size()) {
+            return null;
+        }
+        return this.tabIds.get(tabIndex - 1);
+    }
+
+    /**
+     * Mimics the XPath expression '/layout/folder/folder[@ID=$nodeId or descendant::node()[@ID=$nodeId]]/@ID'
+     *
+     * @return The ID of the tab that is or contains the node, null if the node isn't in a tab
+     */
+    public synchronized String getTabIdForNode(String nodeId) {
+        Node node = this.nodes.get(nodeId);
+        if (node == null) {
+            return null;
+        }
+
+        final Element root = this.layout.getDocumentElement();
+        for (Node parent = node.getParentNode(); parent != null; node = parent, parent = parent.getParentNode()) {
+            if (parent.getParentNode() == root) {
+                return FOLDER.equals(parent.getNodeName()) && FOLDER.equals(node.getNodeName()) ? ((Element) node).getAttribute(ID) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Index a node and all of its descendants after it was added to the layout
+     */
+    public synchronized void nodeAdded(Element node) {
+        this.addSubtree(node);
+        this.tabIds = null;
+    }
+
+    /**
+     * Update the index after a node was moved within the layout
+     */
+    public synchronized void nodeMoved(Element node) {
+        //Document order of channels in the subtree may have changed
+        this.removeSubtree(node);
+        this.addSubtree(node);
+        this.tabIds = null;
+    }
+
+    /**
+     * Remove a node and all of its descendants from the index after it was removed from the layout
+     */
+    public synchronized void nodeRemoved(Element node) {
+        this.removeSubtree(node);
+        this.tabIds = null;
+    }
+
+    /**
+     * Update the index after the attributes of a node changed
+     */
+    public synchronized void nodeUpdated(Element node) {
+        if (CHANNEL.equals(node.getNodeName())) {
+            this.removeNode(node);
+            this.addNode(node);
+        }
+        this.tabIds = null;
+    }
+
+    private void addSubtree(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return;
+        }
+        final String nodeName = node.getNodeName();
+        if (CHANNEL.equals(nodeName)) {
+            this.addNode((Element) node);
+        }
+        else if (FOLDER.equals(nodeName)) {
+            this.addNode((Element) node);
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                this.addSubtree(child);
+            }
+        }
+    }
+
+    private void removeSubtree(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return;
+        }
+        final String nodeName = node.getNodeName();
+        if (CHANNEL.equals(nodeName)) {
+            this.removeNode((Element) node);
+        }
+        else if (FOLDER.equals(nodeName)) {
+            this.removeNode((Element) node);
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                this.removeSubtree(child);
+            }
+        }
+    }
+
+    private void addNode(Element node) {
+        final String id = node.getAttribute(ID);
+        if (StringUtils.isNotEmpty(id)) {
+            this.nodes.put(id, node);
+        }
+
+        if (CHANNEL.equals(node.getNodeName())) {
+            final String fname = node.getAttribute(FNAME);
+            List<Element> channels = this.channelsByFname.get(fname);
+            if (channels == null) {
+                channels = new LinkedList<Element>();
+                this.channelsByFname.put(fname, channels);
+            }
+            else if (channels.contains(node)) {
+                return;
+            }
+
+            //Keep channels in document order so the first match is the same one XPath would find
+            int position = 0;
+            for (final Element channel : channels) {
+                if ((channel.compareDocumentPosition(node) & Node.DOCUMENT_POSITION_PRECEDING) != 0) {
+                    break;
+                }
+                position++;
+            }
+            channels.add(position, node);
+        }
+    }
+
+    private void removeNode(Element node) {
+        final String id = node.getAttribute(ID);
+        if (this.nodes.get(id) == node) {
+            this.nodes.remove(id);
+        }
+
+        if (CHANNEL.equals(node.getNodeName())) {
+            //The fname may have been changed, check every list
+            for (final Iterator<List<Element>> channelsItr = this.channelsByFname.values().iterator(); channelsItr.hasNext();) {
+                final List<Element> channels = channelsItr.next();
+                if (channels.remove(node) && channels.isEmpty()) {
+                    channelsItr.remove();
+                }
+            }
+        }
+    }
+
+    private List<String> findTabIds() {
+        final Element root = this.layout.getDocumentElement();
+        if (root == null) {
+            return Collections.emptyList();
+        }
+
+        final List<String> tabIds = new ArrayList<String>();
+        for (Node rootFolder = root.getFirstChild(); rootFolder != null; rootFolder = rootFolder.getNextSibling()) {
+            if (!FOLDER.equals(rootFolder.getNodeName())) {
+                continue;
+            }
+            for (Node tab = rootFolder.getFirstChild(); tab != null; tab = tab.getNextSibling()) {
+                if (!FOLDER.equals(tab.getNodeName())) {
+                    continue;
+                }
+                final Element tabElement = (Element) tab;
+                if ("regular".equals(tabElement.getAttribute("type")) && tabElement.hasAttribute("hidden")
+                        && !"true".equals(tabElement.getAttribute("hidden"))) {
+                    tabIds.add(tabElement.getAttribute(ID));
+                }
+            }
+        }
+        return tabIds;
+    }
+}
@@ -50,7 +50,7 @@ import org.jasig.portal.layout.IFolderLocalNameResolver;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
 import org.jasig.portal.layout.IUserLayoutStore;
-import org.jasig.portal.layout.PortletSubscribeIdResolver;
+import org.jasig.portal.layout.LayoutNodeIndex;
 import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
 import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
@@ -447,6 +447,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
             // register element id
             childElement.setIdAttribute(Constants.ATT_ID, true);
             childElement.setAttribute(Constants.ATT_ID, node.getId());
+            this.getNodeIndex().nodeAdded(childElement);
             this.updateCacheKey();
 
             // push into the user's real layout that gets persisted.
@@ -488,6 +489,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                 Node nextSibling=uld.getElementById(nextSiblingId);
                 parentElement.insertBefore(childElement,nextSibling);
             }
+            this.getNodeIndex().nodeMoved(childElement);
             this.updateCacheKey();
 
             // propagate the change into the PLF
@@ -526,6 +528,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                         "\" has a NULL parent for layout of " 
                     + owner.getAttribute(IPerson.USERNAME) + ".");
             }
+            this.getNodeIndex().nodeRemoved(ilfNode);
             this.updateCacheKey();
 
             // now push into the PLF
@@ -588,6 +591,10 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                     updateFolderNode(nodeId, newFolderDesc, oldFolderDesc);
                 }
             }
+            final Element ilfNode = this.getUserLayoutDOM().getElementById(nodeId);
+            if (ilfNode != null) {
+                this.getNodeIndex().nodeUpdated(ilfNode);
+            }
             this.updateCacheKey();
             return true;
         }
@@ -1296,22 +1303,18 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      */
     @Override
     public String getSubscribeId(String fname) {
-    	final Document userLayout = this.getUserLayoutDOM();
-        return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        return this.getNodeIndex().getSubscribeId(fname);
     }
     
     public String getSubscribeId(String parentFolderId, String fname) {
-    	final Map<String, String> variables = new HashMap<String, String>();
-    	variables.put("parentFolderId", parentFolderId);
-    	variables.put("fname", fname);
-    	
-    	final Document userLayout = this.getUserLayoutDOM();
-    	final Element fnameNode = this.xpathOperations.evaluate("//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]", variables, userLayout, XPathConstants.NODE);
-		if (fnameNode != null) {
-			return fnameNode.getAttribute("ID");
-		}
-    	
-    	return null;
+        return this.getNodeIndex().getSubscribeId(parentFolderId, fname);
+    }
+    
+    /**
+     * @return The node index of the current layout, see {@link DistributedUserLayout#getNodeIndex()}
+     */
+    private LayoutNodeIndex getNodeIndex() {
+        return this.getDistributedUserLayout().getNodeIndex();
     }
     
 
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import org.jasig.portal.layout.LayoutNodeIndex;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
 import org.w3c.dom.Document;
 
@@ -37,6 +38,8 @@ public class DistributedUserLayout {
     private final Set<String> fragmentNames;
     private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
     private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
+    private final boolean composite;
+    private volatile LayoutNodeIndex nodeIndex;
 
     /**
      * This constructor seems to be used with fragment owners.
@@ -48,6 +51,7 @@ public class DistributedUserLayout {
         this.fragmentNames = Collections.emptySet();
         this.distributedStructureStylesheetUserPreferences = null;
         this.distributedThemeStylesheetUserPreferences = null;
+        this.composite = false;
     }
 
     /**
@@ -62,6 +66,7 @@ public class DistributedUserLayout {
         this.fragmentNames = Collections.unmodifiableSet(new LinkedHashSet<String>(fragmentNames));
         this.distributedStructureStylesheetUserPreferences = distributedStructureStylesheetUserPreferences;
         this.distributedThemeStylesheetUserPreferences = distributedThemeStylesheetUserPreferences;
+        this.composite = true;
     }
 
     /**
@@ -78,6 +83,30 @@ public class DistributedUserLayout {
         return this.fragmentNames;
     }
 
+    /**
+     * @return true if the layout was built by merging the user's PLF into the shared fragment layouts, these layouts can be rebuilt from the PLF at any time
+     */
+    public boolean isComposite() {
+        return this.composite;
+    }
+
+    /**
+     * @return The index of the layout's nodes, built the first time it is requested
+     */
+    public LayoutNodeIndex getNodeIndex() {
+        LayoutNodeIndex index = this.nodeIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = this.nodeIndex;
+                if (index == null) {
+                    index = LayoutNodeIndex.build(this.layout);
+                    this.nodeIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     public IStylesheetUserPreferences getDistributedStructureStylesheetUserPreferences() {
         return this.distributedStructureStylesheetUserPreferences;
     }
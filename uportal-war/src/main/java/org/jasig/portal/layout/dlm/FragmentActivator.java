@@ -20,8 +20,12 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
@@ -521,6 +525,63 @@ public class FragmentActivator
         return userViews.get(new Tuple<String, String>(ownerId, locale.toString()));
     }
     
+    /**
+     * Reloads the UserViews of a fragment owner for every locale the fragment has been activated
+     * with after the owner's layout changed. Unless layouts are locale aware the owner's layout is
+     * read once with {@link IUserLayoutStore#getPersonalUserLayouts(java.util.Collection, String)}
+     * and shared by all of the locales instead of being read again as each locale is activated.
+     * Views that can't be reloaded that way are removed and activated again when next requested.
+     */
+    public void refreshOwner(final FragmentDefinition fd) {
+        final String ownerId = fd.getOwnerId();
+        final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
+        if (locales == null) {
+            //Nothing to refresh
+            return;
+        }
+
+        final Map<String, Document> ownerLayouts = new HashMap<String, Document>();
+        for (final Locale locale : new LinkedHashSet<Locale>(locales)) {
+            final UserViewKey userViewKey = new UserViewKey(ownerId, locale);
+            final net.sf.ehcache.Element userViewElement = userViews.getQuiet(userViewKey);
+            final UserView oldView = userViewElement != null ? (UserView) userViewElement.getObjectValue() : null;
+            if (oldView == null || oldView.getUserId() == -1) {
+                userViews.remove(userViewKey);
+                continue;
+            }
+
+            final String layoutLocale = LocaleManager.isLocaleAware() ? locale.toString() : null;
+            Document layout = ownerLayouts.get(layoutLocale);
+            if (layout == null) {
+                final Tuple<Integer, Integer> userLayoutId = new Tuple<Integer, Integer>(oldView.getUserId(), oldView.layoutId);
+                layout = userLayoutStore.getPersonalUserLayouts(Collections.singleton(userLayoutId), layoutLocale).get(userLayoutId);
+                if (layout == null) {
+                    //No stored layout, activation falls back to the template user's layout
+                    userViews.remove(userViewKey);
+                    continue;
+                }
+                ownerLayouts.put(layoutLocale, layout);
+            }
+
+            final UserView view = new UserView(oldView.getUserId());
+            view.profileId = oldView.profileId;
+            view.profileFname = oldView.profileFname;
+            view.layoutId = oldView.layoutId;
+            view.layout = (Document) layout.cloneNode(true);
+            view.layout.getDocumentElement().setAttribute( Constants.ATT_ID, 
+                    Constants.FRAGMENT_ID_USER_PREFIX + view.getUserId() +
+                    Constants.FRAGMENT_ID_LAYOUT_PREFIX + view.layoutId );
+
+            loadPreferences(view, fd);
+            fragmentizeLayout(view, fd);
+            userViews.put(new net.sf.ehcache.Element(userViewKey, view));
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Refreshed FragmentDefinition " + fd.getName() + " with locale " + locale);
+            }
+        }
+    }
+
     public void clearChacheForOwner(final String ownerId) {
         final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
         if (locales == null) {
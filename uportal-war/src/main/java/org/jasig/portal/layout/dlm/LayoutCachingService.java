@@ -19,6 +19,9 @@
 
 package org.jasig.portal.layout.dlm;
 
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicLong;
+
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
@@ -30,26 +33,59 @@ import org.jasig.portal.utils.cache.CacheKey;
 import org.jasig.portal.utils.cache.UsernameTaggedCacheEntryPurger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
  * Provides API for layout caching service
+ * <p/>
+ * Composite layouts are derived entirely from the fragment layouts shared by all users and the
+ * user's PLF, which is held on the {@link IPerson}. If softlyReferenceCompositeLayouts is enabled
+ * these layouts are cached through a {@link SoftReference} so the per-user DOMs of idle sessions
+ * can be reclaimed under memory pressure, a reclaimed layout is treated as a cache miss and rebuilt
+ * from the shared fragments and the PLF on the next request. The number of reclaimed layouts is
+ * available through {@link LayoutCachingServiceMXBean}.
  */
 @Service("layoutCachingService")
-public class LayoutCachingService implements ILayoutCachingService {
+public class LayoutCachingService implements ILayoutCachingService, LayoutCachingServiceMXBean {
     protected final Log logger = LogFactory.getLog(this.getClass());
     
+    private final AtomicLong reclaimedLayouts = new AtomicLong();
     private Ehcache layoutCache;
+    private boolean softlyReferenceCompositeLayouts = false;
     
     @Autowired
     public void setLayoutCache(@Qualifier("org.jasig.portal.layout.dlm.LAYOUT_CACHE") Ehcache layoutCache) {
         this.layoutCache = layoutCache;
     }
+    
+    /**
+     * @param softlyReferenceCompositeLayouts If composite layouts should be cached through a {@link SoftReference}, defaults to false
+     */
+    @Value("${org.jasig.portal.layout.dlm.LayoutCachingService.softlyReferenceCompositeLayouts:false}")
+    public void setSoftlyReferenceCompositeLayouts(boolean softlyReferenceCompositeLayouts) {
+        this.softlyReferenceCompositeLayouts = softlyReferenceCompositeLayouts;
+    }
+    
+    @Override
+    public boolean isSoftlyReferenceCompositeLayouts() {
+        return this.softlyReferenceCompositeLayouts;
+    }
+    
+    @Override
+    public long getReclaimedLayouts() {
+        return this.reclaimedLayouts.get();
+    }
 
     @Override
     public void cacheLayout(IPerson owner, IUserProfile profile, DistributedUserLayout layout) {
         final CacheKey cacheKey = this.getCacheKey(owner, profile);
-        this.layoutCache.put(new Element(cacheKey, layout));
+        if (this.softlyReferenceCompositeLayouts && layout.isComposite()) {
+            this.layoutCache.put(new Element(cacheKey, new SoftReference<DistributedUserLayout>(layout)));
+        }
+        else {
+            this.layoutCache.put(new Element(cacheKey, layout));
+        }
     }
     
     @Override
@@ -57,7 +93,20 @@ public class LayoutCachingService implements ILayoutCachingService {
         final CacheKey cacheKey = this.getCacheKey(owner, profile);
         final Element element = this.layoutCache.get(cacheKey);
         if (element != null) {
-            return (DistributedUserLayout)element.getObjectValue();
+            final Object value = element.getObjectValue();
+            if (value instanceof SoftReference) {
+                @SuppressWarnings("unchecked")
+                final DistributedUserLayout layout = ((SoftReference<DistributedUserLayout>) value).get();
+                if (layout == null) {
+                    this.reclaimedLayouts.incrementAndGet();
+                    if (this.logger.isDebugEnabled()) {
+                        this.logger.debug("Composite layout for " + owner.getUserName() + " was reclaimed, it will be rebuilt");
+                    }
+                    this.layoutCache.remove(cacheKey);
+                }
+                return layout;
+            }
+            return (DistributedUserLayout)value;
         }
         return null;
     }
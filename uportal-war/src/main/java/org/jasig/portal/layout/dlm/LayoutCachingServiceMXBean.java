@@ -0,0 +1,37 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.dlm;
+
+/**
+ * JMX interface for monitoring the composite layouts held by a {@link LayoutCachingService}
+ */
+public interface LayoutCachingServiceMXBean {
+    
+    /**
+     * @return true if composite layouts are cached through a soft reference
+     */
+    boolean isSoftlyReferenceCompositeLayouts();
+    
+    /**
+     * @return Number of softly referenced composite layouts that were reclaimed by the JVM and had to be rebuilt
+     */
+    long getReclaimedLayouts();
+}
@@ -20,7 +20,9 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -68,6 +70,7 @@ import org.jasig.portal.layout.StylesheetUserPreferencesImpl;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
+import org.jasig.portal.layout.simple.LayoutRowSet;
 import org.jasig.portal.layout.simple.RDBMUserLayoutStore;
 import org.jasig.portal.portlet.dao.IPortletEntityDao;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -81,12 +84,15 @@ import org.jasig.portal.portlet.om.IPortletType;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.properties.PropertiesManager;
+import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.provider.BrokenSecurityContext;
 import org.jasig.portal.security.provider.PersonImpl;
+import org.jasig.portal.services.AuthorizationService;
 import org.jasig.portal.utils.DocumentFactory;
 import org.jasig.portal.utils.MapPopulator;
 import org.jasig.portal.utils.Tuple;
+import org.jasig.portal.utils.cache.CacheKey;
 import org.jasig.portal.xml.XmlUtilities;
 import org.jasig.portal.xml.XmlUtilitiesImpl;
 import org.jasig.portal.xml.xpath.XPathOperations;
@@ -131,6 +137,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private FragmentActivator fragmentActivator;
 
     private Ehcache fragmentNodeInfoCache;
+    private Ehcache compositeLayoutCache;
+    private boolean useCompositeLayoutCache = false;
 
     private boolean errorOnMissingPortlet = true;
     private boolean errorOnMissingUser = true;
@@ -205,6 +213,22 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.fragmentNodeInfoCache = fragmentNodeInfoCache;
     }
 
+    @Autowired
+    public void setCompositeLayoutCache(
+            @Qualifier("org.jasig.portal.layout.dlm.RDBMDistributedLayoutStore.compositeLayoutCache")
+            Ehcache compositeLayoutCache) {
+        this.compositeLayoutCache = compositeLayoutCache;
+    }
+
+    /**
+     * If merged layouts of users without personal edits are shared between all users with the same
+     * applicable fragments, locale, PLF and portlet render permissions. Defaults to false.
+     */
+    @Value("${org.jasig.portal.layout.dlm.RDBMDistributedLayoutStore.useCompositeLayoutCache:false}")
+    public void setUseCompositeLayoutCache(boolean useCompositeLayoutCache) {
+        this.useCompositeLayoutCache = useCompositeLayoutCache;
+    }
+
     @Value("${org.jasig.portal.io.layout.errorOnMissingPortlet:true}")
     public void setErrorOnMissingPortlet(boolean errorOnMissingPortlet) {
         this.errorOnMissingPortlet = errorOnMissingPortlet;
@@ -1201,6 +1225,19 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         return this.getCompositeLayout(person, profile);
     }
 
+    /**
+     * Adds the DLM namespace declaration to each layout, see {@link #_safeGetUserLayout(IPerson, IUserProfile)}
+     */
+    @Override
+    public Map<Tuple<Integer, Integer>, Document> getPersonalUserLayouts(Collection<Tuple<Integer, Integer>> userLayoutIds,
+            String locale) {
+        final Map<Tuple<Integer, Integer>, Document> layouts = super.getPersonalUserLayouts(userLayoutIds, locale);
+        for (final Document layoutDoc : layouts.values()) {
+            layoutDoc.getDocumentElement().setAttribute(Constants.NS_DECL, Constants.NS_URI);
+        }
+        return layouts;
+    }
+
     /**
      * Convenience method for fragment activator to obtain raw layouts for
      * fragments during initialization.
@@ -1243,7 +1280,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         root.setAttribute(Constants.ATT_ID, Constants.FRAGMENT_ID_USER_PREFIX + userView.getUserId()
                 + Constants.FRAGMENT_ID_LAYOUT_PREFIX + "1");
         try {
-            activator.clearChacheForOwner(fragment.getOwnerId());
+            activator.refreshOwner(fragment);
             activator.getUserView(fragment, locale);
         }
         catch (final Exception e) {
@@ -1333,6 +1370,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     {
         final Set<String> fragmentNames = new LinkedHashSet<String>();
         final List<Document> applicables = new LinkedList<Document>();
+        final List<UserView> applicableViews = new LinkedList<UserView>();
         final Locale locale = profile.getLocaleManager().getLocales()[0];
 
         final List<FragmentDefinition> definitions = this.configurationLoader.getFragments();
@@ -1354,6 +1392,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     final UserView userView = activator.getUserView(fragmentDefinition, locale);
                     if (userView != null) {
                         applicables.add(userView.layout);
+                        applicableViews.add(userView);
                     }
                     fragmentNames.add(fragmentDefinition.getName());
                 }
@@ -1370,22 +1409,39 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     + XmlUtilitiesImpl.toString(PLF));
         }
 
-        final Document ILF = ILFBuilder.constructILF(PLF, applicables, person);
-        person.setAttribute(Constants.PLF, PLF);
-        final IntegrationResult result = new IntegrationResult();
-        PLFIntegrator.mergePLFintoILF(PLF, ILF, result);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("PLF for " + person.getAttribute(IPerson.USERNAME) + " after MERGING\n"
-                    + XmlUtilitiesImpl.toString(PLF));
-            LOG.debug("ILF for " + person.getAttribute(IPerson.USERNAME) + " after MERGING\n"
-                    + XmlUtilitiesImpl.toString(ILF));
+        final CacheKey compositeLayoutKey = this.getCompositeLayoutCacheKey(person, PLF, applicableViews, locale);
+        final Document cachedILF = compositeLayoutKey != null ? this.getCachedCompositeLayout(compositeLayoutKey) : null;
+
+        final Document ILF;
+        if (cachedILF != null) {
+            ILF = cachedILF;
+            person.setAttribute(Constants.PLF, PLF);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Using cached composite layout for " + person.getAttribute(IPerson.USERNAME));
+            }
         }
-        // push optimizations made during merge back into db.
-        if (result.changedPLF) {
+        else {
+            ILF = ILFBuilder.constructILF(PLF, applicables, person);
+            person.setAttribute(Constants.PLF, PLF);
+            final IntegrationResult result = new IntegrationResult();
+            PLFIntegrator.mergePLFintoILF(PLF, ILF, result);
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Saving PLF for " + person.getAttribute(IPerson.USERNAME) + " due to changes during merge.");
+                LOG.debug("PLF for " + person.getAttribute(IPerson.USERNAME) + " after MERGING\n"
+                        + XmlUtilitiesImpl.toString(PLF));
+                LOG.debug("ILF for " + person.getAttribute(IPerson.USERNAME) + " after MERGING\n"
+                        + XmlUtilitiesImpl.toString(ILF));
+            }
+            // push optimizations made during merge back into db.
+            if (result.changedPLF) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Saving PLF for " + person.getAttribute(IPerson.USERNAME) + " due to changes during merge.");
+                }
+                super.setUserLayout(person, profile, PLF, false);
+            }
+            else if (compositeLayoutKey != null) {
+                // only layouts whose merge didn't modify the PLF can be reused for the same PLF
+                this.cacheCompositeLayout(compositeLayoutKey, ILF);
             }
-            super.setUserLayout(person, profile, PLF, false);
         }
 
         final int structureStylesheetId = profile.getStructureStylesheetId();
@@ -1400,6 +1456,135 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                 distributedThemeStylesheetUserPreferences);
     }
 
+    /**
+     * Builds the key for the shared composite layout cache, null if the cache is disabled.
+     */
+    private CacheKey getCompositeLayoutCacheKey(IPerson person, Document PLF, List<UserView> applicableViews, Locale locale) {
+        if (!this.useCompositeLayoutCache) {
+            return null;
+        }
+
+        final EntityIdentifier ei = person.getEntityIdentifier();
+        final IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
+        return this.getCompositeLayoutCacheKey(ap, PLF, applicableViews, locale);
+    }
+
+    /**
+     * Builds the key for the shared composite layout cache. The merged layout only depends on the
+     * applicable fragment views, the locale, the PLF and which of the fragment channels the user can
+     * render. Returns null if the PLF contains personal edits or nodes added by the user.
+     */
+    CacheKey getCompositeLayoutCacheKey(IAuthorizationPrincipal ap, Document PLF, List<UserView> applicableViews, Locale locale) {
+        // users with DLM directives have personalized incorporated content, don't fill the cache with unique layouts
+        if (PLF.getElementsByTagNameNS(Constants.NS_URI, "*").getLength() > 0) {
+            return null;
+        }
+        // the same goes for users that added their own folders or channels below the root folder
+        if (PLF.getElementsByTagName(Constants.ELM_FOLDER).getLength() > 1
+                || PLF.getElementsByTagName(Constants.ELM_CHANNEL).getLength() > 0) {
+            return null;
+        }
+
+        final StringBuilder fragmentRevisions = new StringBuilder();
+        final StringBuilder renderableChannels = new StringBuilder();
+        for (final UserView userView : applicableViews) {
+            fragmentRevisions.append(userView.getRevision()).append(',');
+            for (final String channelId : userView.getChannelIds()) {
+                renderableChannels.append(ap.canRender(channelId) ? '1' : '0');
+            }
+            renderableChannels.append(',');
+        }
+
+        return CacheKey.build(RDBMDistributedLayoutStore.class.getName(), fragmentRevisions.toString(),
+                locale.toString(), digestLayout(PLF), renderableChannels.toString());
+    }
+
+    /**
+     * @return A copy of the cached composite layout for the key, null if there is no cached layout
+     */
+    Document getCachedCompositeLayout(CacheKey compositeLayoutKey) {
+        final net.sf.ehcache.Element compositeLayoutElement = this.compositeLayoutCache.get(compositeLayoutKey);
+        if (compositeLayoutElement == null) {
+            return null;
+        }
+
+        // the cached layout is shared, every user gets their own copy to modify
+        return copyLayout((Document) compositeLayoutElement.getObjectValue());
+    }
+
+    /**
+     * Cache a copy of the composite layout, the layout passed in is still modified by the caller
+     */
+    void cacheCompositeLayout(CacheKey compositeLayoutKey, Document ILF) {
+        this.compositeLayoutCache.put(new net.sf.ehcache.Element(compositeLayoutKey, copyLayout(ILF)));
+    }
+
+    /**
+     * Deep copy of a layout, cloning doesn't carry over which attributes are IDs so the ID attributes
+     * of the copy are marked again for getElementById to find the nodes.
+     */
+    private static Document copyLayout(Document layout) {
+        final Document copy = (Document) layout.cloneNode(true);
+        final NodeList elements = copy.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            final Element element = (Element) elements.item(i);
+            if (element.hasAttribute(Constants.ATT_ID)) {
+                element.setIdAttribute(Constants.ATT_ID, true);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return A SHA-1 digest of the names, attributes and text of all nodes in the layout
+     */
+    private static String digestLayout(Document layout) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported by this JVM", e);
+        }
+
+        digestNode(layout.getDocumentElement(), digest);
+
+        final byte[] bytes = digest.digest();
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void digestNode(Node node, MessageDigest digest) {
+        if (node instanceof Element) {
+            digestString("<" + node.getNodeName(), digest);
+            final NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final Node attribute = attributes.item(i);
+                digestString(attribute.getNodeName() + "=" + attribute.getNodeValue(), digest);
+            }
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                digestNode(child, digest);
+            }
+            digestString(">", digest);
+        }
+        else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+            digestString(node.getNodeValue(), digest);
+        }
+    }
+
+    private static void digestString(String value, MessageDigest digest) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported by this JVM", e);
+        }
+        digest.update((byte) 0);
+    }
+
     /**
        This method overrides the same method in the super class to persist
        only layout information stored in the user's person layout fragment
@@ -1683,14 +1868,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutRowSet layoutRows) throws SQLException {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1732,40 +1916,24 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
-
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
         final String externalId = structure.getAttribute("external_id");
+        final Integer eID;
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
+            eID = new Integer(externalId);
         }
         else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-
+            eID = null;
         }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
-        }
-        else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
-        }
-        final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        if (LOG.isDebugEnabled()) {
-            LOG.debug(structStmt.toString());
-        }
-        structStmt.executeUpdate();
+        layoutRows.addStruct(saveStructId, nextStructId, childStructId, eID,
+                isChannel ? chanId : null,
+                isChannel ? null : structure.getAttribute("name"),
+                structure.getAttribute("type"),
+                xmlBool(structure.getAttribute("hidden")),
+                xmlBool(structure.getAttribute("immutable")),
+                xmlBool(structure.getAttribute("unremovable")));
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1776,14 +1944,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             if (name.startsWith(Constants.NS) && !name.equals(Constants.ATT_PLF_ID)
                     && !name.equals(Constants.ATT_FRAGMENT) && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(parmStmt.toString());
-                }
-                parmStmt.executeUpdate();
+                layoutRows.addParam(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1804,14 +1965,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug(parmStmt);
-                            }
-                            parmStmt.executeUpdate();
+                            layoutRows.addParam(saveStructId, parmName, parmValue);
                         }
                     }
                 }
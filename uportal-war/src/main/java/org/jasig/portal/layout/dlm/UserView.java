@@ -19,8 +19,14 @@
 
 package org.jasig.portal.layout.dlm;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.jasig.portal.IUserProfile;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 
 /**
@@ -31,7 +37,11 @@ class UserView
 {
     public static final String RCS_ID = "@(#) $Header$";
 
+    private static final AtomicLong REVISIONS = new AtomicLong();
+
     private final int userId;
+    private final long revision = REVISIONS.incrementAndGet();
+    private volatile String[] channelIds;
     Document layout = null;
     int layoutId = 0;
     int profileId = 1;
@@ -55,4 +65,38 @@ class UserView
         return this.userId;
     }
     
+    /**
+     * @return Unique revision of this view, a refreshed fragment gets a new UserView and a new revision
+     */
+    public long getRevision() {
+        return this.revision;
+    }
+    
+    /**
+     * @return The chanID of every channel in the fragment layout in document order
+     */
+    public String[] getChannelIds() {
+        String[] ids = this.channelIds;
+        if (ids == null && this.layout != null) {
+            final List<String> idList = new ArrayList<String>();
+            addChannelIds(this.layout.getDocumentElement(), idList);
+            ids = idList.toArray(new String[idList.size()]);
+            this.channelIds = ids;
+        }
+        return ids != null ? ids : new String[0];
+    }
+    
+    private static void addChannelIds(Element element, List<String> idList) {
+        if (element.getTagName().equals("channel")) {
+            idList.add(element.getAttribute("chanID"));
+        }
+        
+        //Walk siblings instead of using NodeLists, the fragment layout is shared between threads
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                addChannelIds((Element) child, idList);
+            }
+        }
+    }
+    
 }
@@ -0,0 +1,565 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.RDBMServices;
+import org.jasig.portal.utils.Tuple;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a single user layout. Used to write a complete
+ * layout with batched inserts or to write only the rows that differ from the rows already stored.
+ */
+public class LayoutRowSet {
+    private static final String INSERT_STRUCT_SQL = "INSERT INTO UP_LAYOUT_STRUCT "
+            + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE) "
+            + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String UPDATE_STRUCT_SQL = "UPDATE UP_LAYOUT_STRUCT "
+            + "SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? "
+            + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+    private static final String DELETE_STRUCT_SQL = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+    private static final String SELECT_STRUCT_SQL = "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+            + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+
+    private static final String INSERT_PARAM_SQL = "INSERT INTO UP_LAYOUT_PARAM "
+            + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) VALUES (?,?,?,?,?)";
+    private static final String UPDATE_PARAM_SQL = "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? "
+            + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+    private static final String DELETE_PARAM_SQL = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+    private static final String SELECT_PARAM_SQL = "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+    private static final String DELETE_ALL_PARAMS_SQL = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+    private static final String DELETE_ALL_STRUCTS_SQL = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+
+    //A no-op update takes the same row lock as the update made at the end of the layout save on every database
+    private static final String LOCK_LAYOUT_SQL = "UPDATE UP_USER_LAYOUT SET INIT_STRUCT_ID=INIT_STRUCT_ID WHERE USER_ID=? AND LAYOUT_ID=?";
+
+    private static final Log log = LogFactory.getLog(LayoutRowSet.class);
+
+    private final List<StructRow> structRows = new ArrayList<StructRow>();
+    private final List<ParamRow> paramRows = new ArrayList<ParamRow>();
+
+    /**
+     * Add a UP_LAYOUT_STRUCT row
+     *
+     * @param externalId The external id, null if the node has none
+     * @param chanId The channel id, null for folders
+     * @param name The folder name, null for channels
+     */
+    public void addStruct(int structId, int nextStructId, int childStructId, Integer externalId, Integer chanId,
+            String name, String type, boolean hidden, boolean immutable, boolean unremovable) {
+        this.structRows.add(new StructRow(structId, nextStructId, childStructId, externalId, chanId, name, type,
+                hidden, immutable, unremovable));
+    }
+
+    /**
+     * Add a UP_LAYOUT_PARAM row
+     */
+    public void addParam(int structId, String name, String value) {
+        this.paramRows.add(new ParamRow(structId, name, value));
+    }
+
+    /**
+     * Load the rows currently stored for the layout
+     */
+    public static LayoutRowSet load(Connection con, int userId, int layoutId) throws SQLException {
+        final LayoutRowSet rows = new LayoutRowSet();
+
+        PreparedStatement pstmt = con.prepareStatement(SELECT_STRUCT_SQL);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    final int structId = rs.getInt(1);
+                    final int nextStructId = rs.getInt(2);
+                    final int childStructId = rs.getInt(3);
+                    final String externalIdString = rs.getString(4);
+                    Integer externalId = null;
+                    if (StringUtils.isNotBlank(externalIdString)) {
+                        try {
+                            externalId = Integer.valueOf(externalIdString.trim());
+                        }
+                        catch (NumberFormatException e) {
+                            //Leave null, the row won't match and will be rewritten
+                        }
+                    }
+                    int chanIdValue = rs.getInt(5);
+                    final Integer chanId = rs.wasNull() ? null : chanIdValue;
+
+                    rows.addStruct(structId, nextStructId, childStructId, externalId, chanId,
+                            rs.getString(6), rs.getString(7),
+                            RDBMServices.dbFlag(rs.getString(8)),
+                            RDBMServices.dbFlag(rs.getString(9)),
+                            RDBMServices.dbFlag(rs.getString(10)));
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            pstmt.close();
+        }
+
+        pstmt = con.prepareStatement(SELECT_PARAM_SQL);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    rows.addParam(rs.getInt(1), rs.getString(2), rs.getString(3));
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            pstmt.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Replace the stored rows of the layout with these rows, must be called in a transaction.
+     * <p/>
+     * For an incremental save the UP_USER_LAYOUT row is locked so concurrent saves of the same layout
+     * can't interleave between loading the stored rows and writing the difference. The whole layout is
+     * deleted and re-inserted if the save is not incremental, there is no UP_USER_LAYOUT row to lock or
+     * the difference could not be applied cleanly.
+     */
+    public void save(Connection con, int userId, int layoutId, boolean incremental) throws SQLException {
+        if (incremental) {
+            if (lockLayout(con, userId, layoutId)) {
+                // Only write the rows that changed since the layout was last saved
+                final LayoutRowSet storedRows = load(con, userId, layoutId);
+                if (this.update(con, userId, layoutId, storedRows)) {
+                    return;
+                }
+                log.warn("Incremental save of layout " + layoutId + " for user " + userId + " failed, the complete layout will be rewritten");
+            }
+            else if (log.isDebugEnabled()) {
+                log.debug("No UP_USER_LAYOUT row for layout " + layoutId + " of user " + userId + ", the complete layout will be rewritten");
+            }
+        }
+
+        deleteAll(con, DELETE_ALL_PARAMS_SQL, userId, layoutId);
+        deleteAll(con, DELETE_ALL_STRUCTS_SQL, userId, layoutId);
+        this.insert(con, userId, layoutId);
+    }
+
+    /**
+     * @return true if the UP_USER_LAYOUT row exists and is now locked by the current transaction
+     */
+    private static boolean lockLayout(Connection con, int userId, int layoutId) throws SQLException {
+        final PreparedStatement pstmt = con.prepareStatement(LOCK_LAYOUT_SQL);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            return pstmt.executeUpdate() > 0;
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    private static void deleteAll(Connection con, String sql, int userId, int layoutId) throws SQLException {
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            if (log.isDebugEnabled()) {
+                log.debug(sql);
+            }
+            pstmt.executeUpdate();
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    /**
+     * Insert all of the rows, the layout must not have any stored rows
+     */
+    public void insert(Connection con, int userId, int layoutId) throws SQLException {
+        this.insertStructs(con, userId, layoutId, this.structRows);
+        this.insertParams(con, userId, layoutId, this.paramRows);
+    }
+
+    /**
+     * Write only the rows that differ from the stored rows. Nothing is written if either set of rows
+     * contains duplicate keys.
+     *
+     * @param storedRows The rows currently stored for the layout, see {@link #load(Connection, int, int)}
+     * @return false if the rows could not be applied cleanly, the caller should then rewrite the whole layout
+     */
+    public boolean update(Connection con, int userId, int layoutId, LayoutRowSet storedRows) throws SQLException {
+        final Map<Integer, StructRow> structs = this.getStructMap();
+        final Map<Tuple<Integer, String>, ParamRow> params = this.getParamMap();
+        final Map<Integer, StructRow> storedStructs = storedRows.getStructMap();
+        final Map<Tuple<Integer, String>, ParamRow> storedParams = storedRows.getParamMap();
+        if (structs == null || params == null || storedStructs == null || storedParams == null) {
+            log.debug("Duplicate layout rows found, incremental update not possible");
+            return false;
+        }
+
+        final List<StructRow> insertStructs = new ArrayList<StructRow>();
+        final List<StructRow> updateStructs = new ArrayList<StructRow>();
+        final List<StructRow> deleteStructs = new ArrayList<StructRow>();
+        for (final StructRow row : structs.values()) {
+            final StructRow storedRow = storedStructs.get(row.structId);
+            if (storedRow == null) {
+                insertStructs.add(row);
+            }
+            else if (!row.equals(storedRow)) {
+                updateStructs.add(row);
+            }
+        }
+        for (final StructRow storedRow : storedStructs.values()) {
+            if (!structs.containsKey(storedRow.structId)) {
+                deleteStructs.add(storedRow);
+            }
+        }
+
+        final List<ParamRow> insertParams = new ArrayList<ParamRow>();
+        final List<ParamRow> updateParams = new ArrayList<ParamRow>();
+        final List<ParamRow> deleteParams = new ArrayList<ParamRow>();
+        for (final Map.Entry<Tuple<Integer, String>, ParamRow> paramEntry : params.entrySet()) {
+            final ParamRow row = paramEntry.getValue();
+            final ParamRow storedRow = storedParams.get(paramEntry.getKey());
+            if (storedRow == null) {
+                insertParams.add(row);
+            }
+            //Oracle stores an empty value as NULL, don't rewrite the parameter on every save because of it
+            else if (!StringUtils.defaultString(row.value).equals(StringUtils.defaultString(storedRow.value))) {
+                updateParams.add(row);
+            }
+        }
+        for (final Map.Entry<Tuple<Integer, String>, ParamRow> storedEntry : storedParams.entrySet()) {
+            if (!params.containsKey(storedEntry.getKey())) {
+                deleteParams.add(storedEntry.getValue());
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Incremental layout update for user " + userId + ", layout " + layoutId + ": structs (insert="
+                    + insertStructs.size() + ", update=" + updateStructs.size() + ", delete=" + deleteStructs.size()
+                    + ", unchanged=" + (structs.size() - insertStructs.size() - updateStructs.size())
+                    + ") params (insert=" + insertParams.size() + ", update=" + updateParams.size() + ", delete="
+                    + deleteParams.size() + ")");
+        }
+
+        //Params go before the structs they belong to are deleted and after they are inserted
+        if (!this.deleteParams(con, userId, layoutId, deleteParams)
+                || !this.deleteStructs(con, userId, layoutId, deleteStructs)
+                || !this.updateStructs(con, userId, layoutId, updateStructs)) {
+            return false;
+        }
+        this.insertStructs(con, userId, layoutId, insertStructs);
+        if (!this.updateParams(con, userId, layoutId, updateParams)) {
+            return false;
+        }
+        this.insertParams(con, userId, layoutId, insertParams);
+
+        return true;
+    }
+
+    /**
+     * @return Struct rows by id, null if there are duplicate ids
+     */
+    private Map<Integer, StructRow> getStructMap() {
+        final Map<Integer, StructRow> structs = new LinkedHashMap<Integer, StructRow>(this.structRows.size() * 2);
+        for (final StructRow row : this.structRows) {
+            if (structs.put(row.structId, row) != null) {
+                return null;
+            }
+        }
+        return structs;
+    }
+
+    /**
+     * @return Param rows by struct id and name, null if there are duplicate keys
+     */
+    private Map<Tuple<Integer, String>, ParamRow> getParamMap() {
+        final Map<Tuple<Integer, String>, ParamRow> params = new LinkedHashMap<Tuple<Integer, String>, ParamRow>(this.paramRows.size() * 2);
+        for (final ParamRow row : this.paramRows) {
+            if (params.put(new Tuple<Integer, String>(row.structId, row.name), row) != null) {
+                return null;
+            }
+        }
+        return params;
+    }
+
+    private void insertStructs(Connection con, int userId, int layoutId, List<StructRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(INSERT_STRUCT_SQL);
+        try {
+            for (final StructRow row : rows) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, row.structId);
+                row.setValues(pstmt, 4);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    private boolean updateStructs(Connection con, int userId, int layoutId, List<StructRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return true;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(UPDATE_STRUCT_SQL);
+        try {
+            for (final StructRow row : rows) {
+                row.setValues(pstmt, 1);
+                pstmt.setInt(10, userId);
+                pstmt.setInt(11, layoutId);
+                pstmt.setInt(12, row.structId);
+                pstmt.addBatch();
+            }
+            return checkUpdateCounts(pstmt.executeBatch());
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    private boolean deleteStructs(Connection con, int userId, int layoutId, List<StructRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return true;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(DELETE_STRUCT_SQL);
+        try {
+            for (final StructRow row : rows) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, row.structId);
+                pstmt.addBatch();
+            }
+            return checkUpdateCounts(pstmt.executeBatch());
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    private void insertParams(Connection con, int userId, int layoutId, List<ParamRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(INSERT_PARAM_SQL);
+        try {
+            for (final ParamRow row : rows) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, row.structId);
+                pstmt.setString(4, row.name);
+                pstmt.setString(5, row.value);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    private boolean updateParams(Connection con, int userId, int layoutId, List<ParamRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return true;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(UPDATE_PARAM_SQL);
+        try {
+            for (final ParamRow row : rows) {
+                pstmt.setString(1, row.value);
+                pstmt.setInt(2, userId);
+                pstmt.setInt(3, layoutId);
+                pstmt.setInt(4, row.structId);
+                pstmt.setString(5, row.name);
+                pstmt.addBatch();
+            }
+            return checkUpdateCounts(pstmt.executeBatch());
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    private boolean deleteParams(Connection con, int userId, int layoutId, List<ParamRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return true;
+        }
+
+        final PreparedStatement pstmt = con.prepareStatement(DELETE_PARAM_SQL);
+        try {
+            for (final ParamRow row : rows) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, row.structId);
+                pstmt.setString(4, row.name);
+                pstmt.addBatch();
+            }
+            return checkUpdateCounts(pstmt.executeBatch());
+        }
+        finally {
+            pstmt.close();
+        }
+    }
+
+    /**
+     * @return true if every statement in the batch affected exactly one row or the driver didn't report a count
+     */
+    private static boolean checkUpdateCounts(int[] updateCounts) {
+        for (final int updateCount : updateCounts) {
+            if (updateCount != 1 && updateCount != Statement.SUCCESS_NO_INFO) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final Integer externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final boolean hidden;
+        private final boolean immutable;
+        private final boolean unremovable;
+
+        public StructRow(int structId, int nextStructId, int childStructId, Integer externalId, Integer chanId,
+                String name, String type, boolean hidden, boolean immutable, boolean unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        /**
+         * Set the nine non-key columns starting at the parameter index
+         */
+        public void setValues(PreparedStatement pstmt, int index) throws SQLException {
+            pstmt.setInt(index, this.nextStructId);
+            pstmt.setInt(index + 1, this.childStructId);
+            if (this.externalId != null) {
+                pstmt.setInt(index + 2, this.externalId);
+            }
+            else {
+                pstmt.setNull(index + 2, Types.NUMERIC);
+            }
+            if (this.chanId != null) {
+                pstmt.setInt(index + 3, this.chanId);
+            }
+            else {
+                pstmt.setNull(index + 3, Types.NUMERIC);
+            }
+            if (this.name != null) {
+                pstmt.setString(index + 4, this.name);
+            }
+            else {
+                pstmt.setNull(index + 4, Types.VARCHAR);
+            }
+            pstmt.setString(index + 5, this.type);
+            pstmt.setString(index + 6, RDBMServices.dbFlag(this.hidden));
+            pstmt.setString(index + 7, RDBMServices.dbFlag(this.immutable));
+            pstmt.setString(index + 8, RDBMServices.dbFlag(this.unremovable));
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder().append(this.structId).append(this.nextStructId).append(this.childStructId)
+                    .append(this.externalId).append(this.chanId).append(StringUtils.defaultString(this.name))
+                    .append(StringUtils.defaultString(this.type)).append(this.hidden).append(this.immutable)
+                    .append(this.unremovable).toHashCode();
+        }
+
+        /**
+         * Null and empty strings are equal, some databases store empty strings as null
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return new EqualsBuilder().append(this.structId, other.structId)
+                    .append(this.nextStructId, other.nextStructId).append(this.childStructId, other.childStructId)
+                    .append(this.externalId, other.externalId).append(this.chanId, other.chanId)
+                    .append(StringUtils.defaultString(this.name), StringUtils.defaultString(other.name))
+                    .append(StringUtils.defaultString(this.type), StringUtils.defaultString(other.type))
+                    .append(this.hidden, other.hidden).append(this.immutable, other.immutable)
+                    .append(this.unremovable, other.unremovable).isEquals();
+        }
+    }
+
+    private static final class ParamRow {
+        private final int structId;
+        private final String name;
+        private final String value;
+
+        public ParamRow(int structId, String name, String value) {
+            this.structId = structId;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
@@ -24,9 +24,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -62,6 +66,7 @@ import org.jasig.portal.utils.threading.SingletonDoubleCheckedCreator;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcOperations;
@@ -102,6 +107,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
   //This class is instantiated ONCE so NO class variables can be used to keep state between calls
   protected static final String channelPrefix = "n";
   protected static final String folderPrefix = "s";
+  private static final int LAYOUT_LOAD_BATCH_SIZE = 50;
   
   protected TransactionOperations transactionOperations;
   protected TransactionOperations nextStructTransactionOperations;
@@ -114,10 +120,39 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
   protected IPortletDefinitionRegistry portletDefinitionRegistry;
   protected IStylesheetDescriptorDao stylesheetDescriptorDao;
   protected SQLExceptionTranslator exceptionTranslator;
+  private boolean incrementalLayoutSave = false;
+  private boolean singleQueryLayoutLoad = true;
+  private int layoutFetchSize = 500;
   
   // I18n property
   protected static final boolean localeAware = LocaleManager.isLocaleAware();
   
+    /**
+     * If true only the layout rows that changed are written when a layout is saved, otherwise all of the
+     * layout rows are deleted and re-inserted. Defaults to false.
+     */
+    @Value("${org.jasig.portal.layout.simple.RDBMUserLayoutStore.incrementalLayoutSave:false}")
+    public void setIncrementalLayoutSave(boolean incrementalLayoutSave) {
+        this.incrementalLayoutSave = incrementalLayoutSave;
+    }
+
+    /**
+     * If true the layout structure and parameters are loaded with a single query when the database supports
+     * outer joins, otherwise a query is run per table. Defaults to true.
+     */
+    @Value("${org.jasig.portal.layout.simple.RDBMUserLayoutStore.singleQueryLayoutLoad:true}")
+    public void setSingleQueryLayoutLoad(boolean singleQueryLayoutLoad) {
+        this.singleQueryLayoutLoad = singleQueryLayoutLoad;
+    }
+
+    /**
+     * JDBC fetch size used when loading layout rows with a single query. Defaults to 500.
+     */
+    @Value("${org.jasig.portal.layout.simple.RDBMUserLayoutStore.layoutFetchSize:500}")
+    public void setLayoutFetchSize(int layoutFetchSize) {
+        this.layoutFetchSize = layoutFetchSize;
+    }
+
     @Autowired
     public void setLocaleStore(ILocaleStore localeStore) {
         this.localeStore = localeStore;
@@ -171,6 +206,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             if (joinQuery instanceof DatabaseMetaDataImpl.JdbcDb) {
                 joinQuery.addQuery("layout",
                         "{oj UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.STRUCT_ID = USP.STRUCT_ID} WHERE");
+                joinQuery.addQuery("layout_init",
+                        "UP_USER_LAYOUT UUL, {oj UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID} WHERE UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID AND");
                 joinQuery.addQuery("ss_struct",
                         "{oj UP_SS_STRUCT USS LEFT OUTER JOIN UP_SS_STRUCT_PAR USP ON USS.SS_ID=USP.SS_ID} WHERE");
                 joinQuery.addQuery("ss_theme",
@@ -179,6 +216,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             else if (joinQuery instanceof DatabaseMetaDataImpl.PostgreSQLDb) {
                 joinQuery.addQuery("layout",
                         "UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE");
+                joinQuery.addQuery("layout_init",
+                        "UP_USER_LAYOUT UUL INNER JOIN UP_LAYOUT_STRUCT ULS ON UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE");
                 joinQuery.addQuery("ss_struct",
                         "UP_SS_STRUCT USS LEFT OUTER JOIN UP_SS_STRUCT_PAR USP ON USS.SS_ID=USP.SS_ID WHERE");
                 joinQuery.addQuery("ss_theme",
@@ -187,6 +226,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             else if (joinQuery instanceof DatabaseMetaDataImpl.OracleDb) {
                 joinQuery.addQuery("layout",
                         "UP_LAYOUT_STRUCT ULS, UP_LAYOUT_PARAM USP WHERE ULS.STRUCT_ID = USP.STRUCT_ID(+) AND ULS.USER_ID = USP.USER_ID(+) AND");
+                joinQuery.addQuery("layout_init",
+                        "UP_USER_LAYOUT UUL, UP_LAYOUT_STRUCT ULS, UP_LAYOUT_PARAM USP WHERE UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID(+) AND ULS.USER_ID = USP.USER_ID(+) AND ULS.LAYOUT_ID = USP.LAYOUT_ID(+) AND");
                 joinQuery.addQuery("ss_struct",
                         "UP_SS_STRUCT USS, UP_SS_STRUCT_PAR USP WHERE USS.SS_ID=USP.SS_ID(+) AND");
                 joinQuery.addQuery("ss_theme", "UP_SS_THEME UTS, UP_SS_THEME_PARM UTP WHERE UTS.SS_ID=UTP.SS_ID(+) AND");
@@ -621,11 +662,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
         @Override
         public Document doInConnection(Connection con) throws SQLException, DataAccessException {
 
-      ResultSet rs;
       int userId = person.getID();
       final int realUserId = userId;
-      Document doc = DocumentFactory.getThreadDocument();
-      Element root = doc.createElement("layout");
       final Statement stmt = con.createStatement();
       // A separate statement is needed so as not to interfere with ResultSet
       // of statements used for queries
@@ -708,167 +746,217 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
            layoutId = userLayoutIds.second;
         }
 
-        int firstStructId = -1;
+        final String locale = localeAware ? localeManager.getLocales()[0].toString() : null;
+        final Document layoutDoc = getPersonalUserLayout(con, stmt, userId, layoutId, userId == realUserId, locale);
+        if (layoutDoc == null) {
+            return DocumentFactory.getThreadDocument();
+        }
+
+        if (log.isDebugEnabled()) {
+            long stopTime = System.currentTimeMillis();
+            log.debug("RDBMUserLayoutStore::getUserLayout(): Layout document for user " + userId + " took " +
+              (stopTime - startTime) + " milliseconds to create");
+        }
+        return layoutDoc;
+      } finally {
+        stmt.close();
+        insertStmt.close();
+      }
+        }
+    });
+  }
 
-        //Flags to enable a default layout lookup if it's needed
-        boolean foundLayout = false;
-        boolean triedDefault = false;
+  /**
+   * Load a single layout, falling back to the layout of the user's template user if the user
+   * has no stored layout structures.
+   *
+   * @return The layout, null if neither the user nor the template user has stored layout structures
+   * @throws RuntimeException If the user or template user has no UP_USER_LAYOUT row
+   */
+  private Document getPersonalUserLayout(Connection con, Statement stmt, int userId, int layoutId, boolean tryDefault, String locale) throws SQLException {
+      final Document layoutDoc = loadUserLayout(con, stmt, userId, layoutId, locale);
+      if (layoutDoc != null || !tryDefault) {
+          return layoutDoc;
+      }
 
-        //This loop is used to ensure a layout is found for a user. It tries
-        //looking up the layout for the current userID. If one isn't found
-        //the userID is replaced with the template user ID for this user and
-        //the layout is searched for again. This loop should only ever loop once.
-        do {
-            String sQuery = "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID=" + userId + " AND LAYOUT_ID = " + layoutId;
-            if (log.isDebugEnabled())
-                log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-            rs = stmt.executeQuery(sQuery);
-            try {
-              if (rs.next()) {
-                firstStructId = rs.getInt(1);
-              } else {
-                throw new RuntimeException("RDBMUserLayoutStore::getUserLayout(): No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: " + userId + " and LAYOUT_ID: " + layoutId);
+      final int defaultUserId;
+      final int defaultLayoutId;
+      final String sql = "SELECT USER_DFLT_USR_ID, USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID=?";
+      final PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          if (log.isDebugEnabled())
+              log.debug("RDBMUserLayoutStore::getUserLayout(): " + sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              if (!rs.next()) {
+                  return null;
               }
-            } finally {
+              defaultUserId = rs.getInt(1);
+              defaultLayoutId = rs.getInt(2);
+          } finally {
               rs.close();
-            }
+          }
+      } finally {
+          pstmt.close();
+      }
 
-            String sql;
-            if (localeAware) {
-                // This needs to be changed to get the localized strings
-                sql = "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"+
-              "ULS.UNREMOVABLE,ULS.IMMUTABLE";
-            }  else {
-                sql = "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"+
-              "ULS.UNREMOVABLE,ULS.IMMUTABLE";
-            }
-            if (databaseMetadata.supportsOuterJoins()) {
-              sql += ",USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM " + databaseMetadata.getJoinQuery().getQuery("layout");
-            } else {
-              sql += " FROM UP_LAYOUT_STRUCT ULS WHERE ";
-            }
-            sql += " ULS.USER_ID=" + userId + " AND ULS.LAYOUT_ID=" + layoutId + " ORDER BY ULS.STRUCT_ID";
-            if (log.isDebugEnabled())
-                log.debug("RDBMUserLayoutStore::getUserLayout(): " + sql);
-            rs = stmt.executeQuery(sql);
+      return loadUserLayout(con, stmt, defaultUserId, defaultLayoutId, locale);
+  }
 
-            //check for rows in the result set
-            foundLayout = rs.next();
+  /**
+   * Load a single layout with {@link #loadLayouts(Connection, Collection, String)} if single query
+   * layout loading is enabled and otherwise with {@link #loadLayout(Statement, int, int, String, boolean)}.
+   *
+   * @return The layout, null if it has no stored layout structures
+   * @throws RuntimeException If the layout has no UP_USER_LAYOUT row
+   */
+  private Document loadUserLayout(Connection con, Statement stmt, int userId, int layoutId, String locale) throws SQLException {
+      if (singleQueryLayoutLoad && databaseMetadata.supportsOuterJoins()) {
+          final Tuple<Integer, Integer> userLayoutId = new Tuple<Integer, Integer>(userId, layoutId);
+          final Document layoutDoc = loadLayouts(con, Collections.singleton(userLayoutId), locale).get(userLayoutId);
+          if (layoutDoc == null) {
+              // The join returns no rows either way, check the row to fail the same as the other loader
+              getInitStructId(stmt, userId, layoutId, true);
+          }
+          return layoutDoc;
+      }
 
-            if (!foundLayout && !triedDefault && userId == realUserId) {
-                //If we didn't find any rows and we haven't tried the default user yet
-                triedDefault = true;
-                rs.close();
+      return loadLayout(stmt, userId, layoutId, locale, true);
+  }
 
-                //Get the default user ID and layout ID
-                sQuery = "SELECT USER_DFLT_USR_ID, USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID=" + userId;
-                if (log.isDebugEnabled())
-                    log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-                rs = stmt.executeQuery(sQuery);
-                try {
-                  rs.next();
-                  userId = rs.getInt(1);
-                  layoutId = rs.getInt(2);
-                } finally {
-                  rs.close();
-                }
-            }
-            else {
-                //We tried the default or actually found a layout
-                break;
-            }
-        } while (!foundLayout);
+  /**
+   * @param required If a missing row is an error
+   * @return The INIT_STRUCT_ID of the layout, null if the layout has no UP_USER_LAYOUT row
+   */
+  private Integer getInitStructId(Statement stmt, int userId, int layoutId, boolean required) throws SQLException {
+      String sQuery = "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID=" + userId + " AND LAYOUT_ID = " + layoutId;
+      if (log.isDebugEnabled())
+          log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
+      ResultSet rs = stmt.executeQuery(sQuery);
+      try {
+        if (rs.next()) {
+          return rs.getInt(1);
+        } else if (required) {
+          throw new RuntimeException("RDBMUserLayoutStore::getUserLayout(): No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: " + userId + " and LAYOUT_ID: " + layoutId);
+        }
+        return null;
+      } finally {
+        rs.close();
+      }
+  }
+
+  /**
+   * Load a single layout with separate queries for UP_USER_LAYOUT and UP_LAYOUT_STRUCT, joined with
+   * UP_LAYOUT_PARAM if the database supports outer joins and followed by queries for the parameters if not.
+   *
+   * @param requireLayoutRow If a missing UP_USER_LAYOUT row is an error instead of an empty layout
+   * @return The layout, null if it has no UP_USER_LAYOUT row or no stored layout structures
+   */
+  protected final Document loadLayout(Statement stmt, int userId, int layoutId, String locale, boolean requireLayoutRow) throws SQLException {
+        final Integer firstStructId = getInitStructId(stmt, userId, layoutId, requireLayoutRow);
+        if (firstStructId == null) {
+            return null;
+        }
+
+        String sql = "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"+
+              "ULS.UNREMOVABLE,ULS.IMMUTABLE";
+        if (databaseMetadata.supportsOuterJoins()) {
+          sql += ",USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM " + databaseMetadata.getJoinQuery().getQuery("layout");
+        } else {
+          sql += " FROM UP_LAYOUT_STRUCT ULS WHERE ";
+        }
+        sql += " ULS.USER_ID=" + userId + " AND ULS.LAYOUT_ID=" + layoutId + " ORDER BY ULS.STRUCT_ID";
+        if (log.isDebugEnabled())
+            log.debug("RDBMUserLayoutStore::getUserLayout(): " + sql);
+        ResultSet rs = stmt.executeQuery(sql);
 
         HashMap layoutStructure = new HashMap();
         StringBuffer structChanIds = new StringBuffer();
 
         try {
+          //check for rows in the result set
+          if (!rs.next()) {
+            return null;
+          }
+
           int lastStructId = 0;
           LayoutStructure ls = null;
           String sepChar = "";
-          if (foundLayout) {
-            int structId = rs.getInt(1);
-            // Result Set returns 0 by default if structId was null
-            // Except if you are using poolman 2.0.4 in which case you get -1 back
+          int structId = rs.getInt(1);
+          // Result Set returns 0 by default if structId was null
+          // Except if you are using poolman 2.0.4 in which case you get -1 back
+          if (rs.wasNull()) {
+            structId = 0;
+          }
+          readLayout: while (true) {
+
+            int nextId = rs.getInt(2);
             if (rs.wasNull()) {
-              structId = 0;
+              nextId = 0;
             }
-            readLayout: while (true) {
+            int childId = rs.getInt(3);
+            if (rs.wasNull()) {
+              childId = 0;
+            }
+            int chanId = rs.getInt(4);
+            if (rs.wasNull()) {
+              chanId = 0;
+            }
+            String temp5=rs.getString(5); // Some JDBC drivers require columns accessed in order
+            String temp6=rs.getString(6); // Access 5 and 6 now, save till needed.
 
-              int nextId = rs.getInt(2);
-              if (rs.wasNull()) {
-                nextId = 0;
-              }
-              int childId = rs.getInt(3);
-              if (rs.wasNull()) {
-                childId = 0;
-              }
-              int chanId = rs.getInt(4);
-              if (rs.wasNull()) {
-                chanId = 0;
-              }
-              String temp5=rs.getString(5); // Some JDBC drivers require columns accessed in order
-              String temp6=rs.getString(6); // Access 5 and 6 now, save till needed.
-
-              // uPortal i18n
-              int name_index, value_index;
-              if (localeAware) {
-                Locale[] locales = localeManager.getLocales();
-                String locale = locales[0].toString();
+            // uPortal i18n
+            if (locale != null) {
 				ls = new LayoutStructure(
-                              structId, nextId, childId, chanId, 
-                              rs.getString(7),rs.getString(8),rs.getString(9),
-                              locale);
-                  name_index=10;
-                  value_index=11;
-              }  else {
-                  ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(7),rs.getString(8),rs.getString(9));
-                  name_index=10;
-                  value_index=11;
-              }
-              layoutStructure.put(new Integer(structId), ls);
-              lastStructId = structId;
-              if (!ls.isChannel()) {
-                ls.addFolderData(temp5, temp6); // Plug in saved column values
-              }
-              if (databaseMetadata.supportsOuterJoins()) {
-                do {
-                  String name = rs.getString(name_index);
-                  String value = rs.getString(value_index); // Oracle JDBC requires us to do this for longs
-                  if (name != null) { // may not be there because of the join
-                    ls.addParameter(name, value);
-                  }
-                  if (!rs.next()) {
-                    break readLayout;
-                  }
-                  structId = rs.getInt(1);
-                  if (rs.wasNull()) {
-                    structId = 0;
-                  }
-                } while (structId == lastStructId);
-              } else { // Do second SELECT later on for structure parameters
-                if (ls.isChannel()) {
-                  structChanIds.append(sepChar + ls.getChanId());
-                  sepChar = ",";
+                            structId, nextId, childId, chanId, 
+                            rs.getString(7),rs.getString(8),rs.getString(9),
+                            locale);
+            }  else {
+                ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(7),rs.getString(8),rs.getString(9));
+            }
+            layoutStructure.put(new Integer(structId), ls);
+            lastStructId = structId;
+            if (!ls.isChannel()) {
+              ls.addFolderData(temp5, temp6); // Plug in saved column values
+            }
+            if (databaseMetadata.supportsOuterJoins()) {
+              do {
+                String name = rs.getString(10);
+                String value = rs.getString(11); // Oracle JDBC requires us to do this for longs
+                if (name != null) { // may not be there because of the join
+                  ls.addParameter(name, value);
                 }
-                if (rs.next()) {
-                  structId = rs.getInt(1);
-                  if (rs.wasNull()) {
-                    structId = 0;
-                  }
-                } else {
+                if (!rs.next()) {
                   break readLayout;
                 }
+                structId = rs.getInt(1);
+                if (rs.wasNull()) {
+                  structId = 0;
+                }
+              } while (structId == lastStructId);
+            } else { // Do second SELECT later on for structure parameters
+              if (ls.isChannel()) {
+                structChanIds.append(sepChar + ls.getChanId());
+                sepChar = ",";
               }
-            } // while
-          }
+              if (rs.next()) {
+                structId = rs.getInt(1);
+                if (rs.wasNull()) {
+                  structId = 0;
+                }
+              } else {
+                break readLayout;
+              }
+            }
+          } // while
         } finally {
           rs.close();
         }
 
         if (!databaseMetadata.supportsOuterJoins() && structChanIds.length() > 0) { // Pick up structure parameters
           // first, get the struct ids for the channels
-          String sql = "SELECT STRUCT_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID=" + userId +
+          sql = "SELECT STRUCT_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID=" + userId +
             " AND LAYOUT_ID=" + layoutId +
             " AND CHAN_ID IN (" + structChanIds.toString() + ") ORDER BY STRUCT_ID";
 
@@ -912,25 +1000,213 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
           }
         }
 
-        if (layoutStructure.size() > 0) { // We have a layout to work with
-          createLayout(layoutStructure, doc, root, firstStructId);
-          layoutStructure.clear();
+        Document doc = DocumentFactory.getThreadDocument();
+        Element root = doc.createElement("layout");
+        createLayout(layoutStructure, doc, root, firstStructId);
+        doc.appendChild(root);
+        return doc;
+  }
+
+  @Override
+  public Map<Tuple<Integer, Integer>, Document> getPersonalUserLayouts(final Collection<Tuple<Integer, Integer>> userLayoutIds, final String locale) {
+      return this.jdbcOperations.execute(new ConnectionCallback<Map<Tuple<Integer, Integer>, Document>>() {
+          @Override
+          public Map<Tuple<Integer, Integer>, Document> doInConnection(Connection con) throws SQLException, DataAccessException {
+              final long startTime = System.currentTimeMillis();
+              final Map<Tuple<Integer, Integer>, Document> layouts = new LinkedHashMap<Tuple<Integer, Integer>, Document>();
+
+              if (databaseMetadata.supportsOuterJoins()) {
+                  final List<Tuple<Integer, Integer>> batch = new ArrayList<Tuple<Integer, Integer>>(LAYOUT_LOAD_BATCH_SIZE);
+                  for (final Tuple<Integer, Integer> userLayoutId : userLayoutIds) {
+                      batch.add(userLayoutId);
+                      if (batch.size() == LAYOUT_LOAD_BATCH_SIZE) {
+                          layouts.putAll(loadLayouts(con, batch, locale));
+                          batch.clear();
+                      }
+                  }
+                  if (!batch.isEmpty()) {
+                      layouts.putAll(loadLayouts(con, batch, locale));
+                  }
+              }
+              else {
+                  // The single query needs an outer join, load each layout with its own queries instead
+                  final Statement stmt = con.createStatement();
+                  try {
+                      for (final Tuple<Integer, Integer> userLayoutId : userLayoutIds) {
+                          final Document layoutDoc = loadLayout(stmt, userLayoutId.first, userLayoutId.second, locale, false);
+                          if (layoutDoc != null) {
+                              layouts.put(userLayoutId, layoutDoc);
+                          }
+                      }
+                  }
+                  finally {
+                      stmt.close();
+                  }
+              }
 
-          if (log.isDebugEnabled()) {
-              long stopTime = System.currentTimeMillis();
-              log.debug("RDBMUserLayoutStore::getUserLayout(): Layout document for user " + userId + " took " +
-                (stopTime - startTime) + " milliseconds to create");
+              if (log.isDebugEnabled()) {
+                  log.debug("RDBMUserLayoutStore::getPersonalUserLayouts(): Loaded " + layouts.size() + " of " + userLayoutIds.size() +
+                      " layouts in " + (System.currentTimeMillis() - startTime) + " milliseconds");
+              }
+              return layouts;
           }
+      });
+  }
 
-          doc.appendChild(root);
-        }
+  /**
+   * Load layouts with a single query that joins UP_USER_LAYOUT, UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM. Rows
+   * are ordered by layout and struct id so each layout node is created as soon as all of its rows have been
+   * read, the nodes are then linked into the layout tree.
+   *
+   * @param userLayoutIds USER_ID and LAYOUT_ID of each layout to load
+   * @return The layouts keyed by USER_ID and LAYOUT_ID, layouts that have no stored rows are not included
+   */
+  protected final Map<Tuple<Integer, Integer>, Document> loadLayouts(Connection con, Collection<Tuple<Integer, Integer>> userLayoutIds,
+          String locale) throws SQLException {
+      final Map<Tuple<Integer, Integer>, Document> layouts = new HashMap<Tuple<Integer, Integer>, Document>();
+      if (userLayoutIds.isEmpty()) {
+          return layouts;
+      }
+
+      final StringBuilder sql = new StringBuilder("SELECT ULS.USER_ID,ULS.LAYOUT_ID,UUL.INIT_STRUCT_ID,");
+      sql.append("ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,ULS.UNREMOVABLE,ULS.IMMUTABLE,");
+      sql.append("USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM ");
+      sql.append(databaseMetadata.getJoinQuery().getQuery("layout_init"));
+      sql.append(" (");
+      for (int i = 0; i < userLayoutIds.size(); i++) {
+          if (i > 0) {
+              sql.append(" OR ");
+          }
+          sql.append("(ULS.USER_ID=? AND ULS.LAYOUT_ID=?)");
+      }
+      sql.append(") ORDER BY ULS.USER_ID, ULS.LAYOUT_ID, ULS.STRUCT_ID");
+
+      final PreparedStatement pstmt = con.prepareStatement(sql.toString());
+      try {
+          pstmt.setFetchSize(this.layoutFetchSize);
+          int index = 1;
+          for (final Tuple<Integer, Integer> userLayoutId : userLayoutIds) {
+              pstmt.setInt(index++, userLayoutId.first);
+              pstmt.setInt(index++, userLayoutId.second);
+          }
+          if (log.isDebugEnabled())
+              log.debug("RDBMUserLayoutStore::loadLayouts(): " + sql);
+
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              LayoutBuilder builder = null;
+              LayoutStructure ls = null;
+              while (rs.next()) {
+                  // Columns are read in order, some JDBC drivers require it
+                  final int userId = rs.getInt(1);
+                  final int layoutId = rs.getInt(2);
+                  final int firstStructId = rs.getInt(3);
+                  final int structId = rs.getInt(4);
+
+                  if (builder == null || builder.userId != userId || builder.layoutId != layoutId) {
+                      if (builder != null) {
+                          builder.add(ls);
+                          layouts.put(new Tuple<Integer, Integer>(builder.userId, builder.layoutId), builder.build());
+                      }
+                      builder = new LayoutBuilder(userId, layoutId, firstStructId);
+                      ls = null;
+                  }
+
+                  if (ls == null || ls.getStructId() != structId) {
+                      builder.add(ls);
+
+                      final int nextId = rs.getInt(5);
+                      final int childId = rs.getInt(6);
+                      final int chanId = rs.getInt(7);
+                      final String name = rs.getString(8);
+                      final String type = rs.getString(9);
+                      if (locale != null) {
+                          ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(10), rs.getString(11), rs.getString(12), locale);
+                      } else {
+                          ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(10), rs.getString(11), rs.getString(12));
+                      }
+                      if (!ls.isChannel()) {
+                          ls.addFolderData(name, type);
+                      }
+                  }
+
+                  final String parmName = rs.getString(13);
+                  final String parmValue = rs.getString(14); // Oracle JDBC requires us to do this for longs
+                  if (parmName != null) { // may not be there because of the join
+                      ls.addParameter(parmName, parmValue);
+                  }
+              }
+
+              if (builder != null) {
+                  builder.add(ls);
+                  layouts.put(new Tuple<Integer, Integer>(builder.userId, builder.layoutId), builder.build());
+              }
+          } finally {
+              rs.close();
+          }
       } finally {
-        stmt.close();
-        insertStmt.close();
+          pstmt.close();
+      }
+
+      return layouts;
+  }
+
+  /**
+   * Creates the elements of a single layout as its rows are read and links them together once all of
+   * the layout's rows have been read.
+   */
+  private final class LayoutBuilder {
+      private final Map<Integer, LayoutStructure> structures = new HashMap<Integer, LayoutStructure>();
+      private final Map<Integer, Element> elements = new HashMap<Integer, Element>();
+      private final Document doc = DocumentFactory.getThreadDocument();
+      private final int userId;
+      private final int layoutId;
+      private final int firstStructId;
+
+      public LayoutBuilder(int userId, int layoutId, int firstStructId) {
+          this.userId = userId;
+          this.layoutId = layoutId;
+          this.firstStructId = firstStructId;
+      }
+
+      /**
+       * Create the element for a layout structure that has all of its parameters
+       */
+      public void add(LayoutStructure ls) {
+          if (ls == null) {
+              return;
+          }
+          final int structId = ls.getStructId();
+          this.structures.put(structId, ls);
+          this.elements.put(structId, getStructure(this.doc, ls));
+      }
+
+      public Document build() {
+          final Element root = this.doc.createElement("layout");
+          this.link(root, this.firstStructId);
+          this.doc.appendChild(root);
+          return this.doc;
+      }
+
+      private void link(Element parent, int structId) {
+          while (structId != 0) {
+              final LayoutStructure ls = this.structures.get(structId);
+              final Element structure = this.elements.get(structId);
+              if (ls == null || structure == null) {
+                  log.warn("Layout " + this.layoutId + " for user " + this.userId + " references missing struct " + structId);
+                  return;
+              }
+              parent.appendChild(structure);
+
+              final String id = structure.getAttribute("ID");
+              if (id != null && !id.equals("")) {
+                  structure.setIdAttribute("ID", true);
+              }
+
+              this.link(structure, ls.getChildId());
+              structId = ls.getNextId();
+          }
       }
-      return  doc;
-        }
-    });
   }
 
   public IUserProfile getUserProfileById (final IPerson person, final int profileId) {
@@ -1166,7 +1442,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
   protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-  protected abstract int saveStructure (Node node, PreparedStatement structStmt, PreparedStatement parmStmt) throws SQLException;
+  protected abstract int saveStructure (Node node, LayoutRowSet layoutRows) throws SQLException;
 
   public void setUserBrowserMapping (final IPerson person, final String userAgentArg, final int profileId) {
 	  final int userId = person.getID();
@@ -1255,46 +1531,13 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
               firstLayout = true;
           }
 
-          String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-          PreparedStatement pstmt = con.prepareStatement(sql);
-          try {
-              pstmt.clearParameters();
-              pstmt.setInt(1, userId);
-              pstmt.setInt(2, layoutId);
-              if (log.isDebugEnabled())
-                  log.debug(sql);
-              pstmt.executeUpdate();
-          } finally {
-              pstmt.close();
-          }
+          final LayoutRowSet layoutRows = new LayoutRowSet();
+          final int firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), layoutRows);
 
-          sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-          pstmt = con.prepareStatement(sql);
-          try {
-              pstmt.clearParameters();
-              pstmt.setInt(1, userId);
-              pstmt.setInt(2, layoutId);
-              if (log.isDebugEnabled())
-                log.debug(sql);
-              pstmt.executeUpdate();
-          } finally {
-              pstmt.close();
-          }
-
-          PreparedStatement structStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
-                  + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                  + "VALUES (" + userId + "," + layoutId + ",?,?,?,?,?,?,?,?,?,?)");
-
-          PreparedStatement parmStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
-                  + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) " + "VALUES (" + userId + "," + layoutId + ",?,?,?)");
+          layoutRows.save(con, userId, layoutId, incrementalLayoutSave && !firstLayout);
 
-          int firstStructId;
-          try {
-              firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), structStmt, parmStmt);
-          } finally {
-              structStmt.close();
-              parmStmt.close();
-          }
+          String sql;
+          PreparedStatement pstmt;
 
           //Check to see if the user has a matching layout
           sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
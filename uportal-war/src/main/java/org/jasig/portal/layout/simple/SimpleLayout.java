@@ -34,6 +34,7 @@ import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.PortalException;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.INodeIdResolver;
+import org.jasig.portal.layout.LayoutNodeIndex;
 import org.jasig.portal.layout.dlm.DistributedUserLayout;
 import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
@@ -167,19 +168,7 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String getNodeId(String fname) throws PortalException {
-        String nodeId = null;
-        NodeList nl = layout.getElementsByTagName("channel");
-        for (int i = 0; i < nl.getLength(); i++) {
-            Node node = nl.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element channelE = (Element)node;
-                if (fname.equals(channelE.getAttribute("fname"))) {
-                    nodeId = channelE.getAttribute("ID");
-                    break;
-                }
-            }
-        }
-        return nodeId;
+        return this.userLayout.getNodeIndex().getSubscribeId(fname);
     }
     
     /* (non-Javadoc)
@@ -200,6 +189,11 @@ public class SimpleLayout implements IUserLayout {
         return finder.traverseDocument(this.layout);
     }
 
+    @Override
+    public LayoutNodeIndex getNodeIndex() {
+        return this.userLayout.getNodeIndex();
+    }
+
     @Override
     public Enumeration getNodeIds() throws PortalException {
         Vector v = new Vector();
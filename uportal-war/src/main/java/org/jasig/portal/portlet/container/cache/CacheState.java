@@ -34,6 +34,9 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     private boolean browserSetEtag = false;
     private PublicPortletCacheKey publicPortletCacheKey;
     private PrivatePortletCacheKey privatePortletCacheKey;
+    private boolean collapsedRenderLeader = false;
+    private Serializable revalidatingKey;
+    private long revalidationClaimTime;
     
     protected CacheState() {
     }
@@ -86,6 +89,36 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     public PrivatePortletCacheKey getPrivatePortletCacheKey() {
         return privatePortletCacheKey;
     }
+    /**
+     * @return true If other requests for the same public cache key are waiting on this request's render, if true
+     * {@link IPortletCacheControlService#completePortletRender(CacheState)} must be called once the render completes
+     */
+    public boolean isCollapsedRenderLeader() {
+        return collapsedRenderLeader;
+    }
+    
+    /**
+     * @return The cache key of expired output this request claimed the re-render of, null if no claim was made. The
+     * claim is released by {@link IPortletCacheControlService#completePortletRender(CacheState)}
+     */
+    public Serializable getRevalidatingKey() {
+        return revalidatingKey;
+    }
+    
+    /**
+     * @return The time the re-render of {@link #getRevalidatingKey()} was claimed
+     */
+    public long getRevalidationClaimTime() {
+        return revalidationClaimTime;
+    }
+    
+    /**
+     * @return true If {@link IPortletCacheControlService#completePortletRender(CacheState)} must be called once the
+     * portlet has executed, whether or not the execution succeeded
+     */
+    public boolean isRenderCompletionRequired() {
+        return collapsedRenderLeader || revalidatingKey != null;
+    }
 
     
     protected void setBrowserSetEtag(boolean browserSetEtag) {
@@ -109,4 +142,12 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     protected void setPrivatePortletCacheKey(PrivatePortletCacheKey privatePortletCacheKey) {
         this.privatePortletCacheKey = privatePortletCacheKey;
     }
+    protected void setCollapsedRenderLeader(boolean collapsedRenderLeader) {
+        this.collapsedRenderLeader = collapsedRenderLeader;
+    }
+    
+    protected void setRevalidationClaim(Serializable revalidatingKey, long revalidationClaimTime) {
+        this.revalidatingKey = revalidatingKey;
+        this.revalidationClaimTime = revalidationClaimTime;
+    }
 }
\ No newline at end of file
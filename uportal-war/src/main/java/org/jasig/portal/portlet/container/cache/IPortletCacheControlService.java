@@ -27,6 +27,8 @@ import javax.servlet.http.HttpServletRequest;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.rendering.PortletRenderResult;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Interface defining mechanism for retrieving {@link CacheControl}s.
  * 
@@ -83,6 +85,29 @@ public interface IPortletCacheControlService {
     void cachePortletResourceOutput(IPortletWindowId portletWindowId, HttpServletRequest httpRequest,
             CacheState<CachedPortletResourceData<Long>, Long> cacheState, CachedPortletResourceData<Long> cachedPortletResourceData);
 	
+    /**
+     * Signal that the render or resource request started for the cache state has completed, whether or not its output
+     * was cached. Releases any re-render claim on expired output made for the cache state and any requests for the same
+     * public cache key that are waiting on the render. Must be called once the portlet has executed, including when it
+     * fails, if {@link CacheState#isRenderCompletionRequired()} is true.
+     */
+    void completePortletRender(CacheState<?, ?> cacheState);
+    
+    /**
+     * @return Milliseconds a render of publicly scoped output should wait on a concurrent render of the same output, 0 if
+     * concurrent renders are not collapsed
+     */
+    long getCollapsedRenderTimeout();
+    
+    /**
+     * Get the concurrent render of the same publicly scoped render or render-header output by another request. The
+     * portlet's render should not be started until the returned future completes, or until
+     * {@link #getCollapsedRenderTimeout()} passes, so it can use the output the other request caches.
+     * 
+     * @return A future that completes when the other request's render completes, null if there is no concurrent render
+     */
+    ListenableFuture<?> getCollapsedRender(HttpServletRequest request, IPortletWindowId portletWindowId, boolean renderHeader);
+	
 	/**
 	 * Purge any {@link CachedPortletRenderData} for the portlet.
 	 * 
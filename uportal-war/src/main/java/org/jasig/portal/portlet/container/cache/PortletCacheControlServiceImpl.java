@@ -21,6 +21,9 @@ package org.jasig.portal.portlet.container.cache;
 import java.io.Serializable;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
@@ -51,6 +54,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.support.RequestContextUtils;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 
 /**
  * Default implementation of {@link IPortletCacheControlService}.
@@ -81,8 +88,27 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     private Ehcache privateScopePortletResourceOutputCache;
     private Ehcache publicScopePortletResourceOutputCache;
     
+    /**
+     * Maximum number of re-render claims tracked at once, if exceeded the oldest claims are dropped early
+     */
+    private static final int MAX_REVALIDATING_KEYS = 10000;
+    
+    /**
+     * Cache keys of expired data that a request is currently re-rendering, mapped to the time the re-render was claimed.
+     * Claims are released when the re-render completes and expire after {@link #revalidationTimeout}.
+     */
+    private volatile ConcurrentMap<Serializable, Long> revalidatingKeys = createRevalidatingKeys(TimeUnit.SECONDS.toMillis(30));
+    
+    /**
+     * Public cache keys that a request is currently rendering, the future completes when the render completes
+     */
+    private final ConcurrentMap<PublicPortletCacheKey, SettableFuture<Void>> collapsedRenders = new ConcurrentHashMap<PublicPortletCacheKey, SettableFuture<Void>>();
+    
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
+    private int staleWhileRevalidate = 0;
+    private long revalidationTimeout = TimeUnit.SECONDS.toMillis(30);
+    private long collapsedRenderTimeout = 0;
     
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
@@ -138,6 +164,40 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	public int getCacheSizeThreshold() {
 		return cacheSizeThreshold;
 	}
+	
+	/**
+	 * @param staleWhileRevalidate Seconds after expiration that cached output can still be returned while another request re-renders the portlet, 0 disables
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.staleWhileRevalidate:0}")
+	public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+	    this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+	
+	/**
+	 * @param revalidationTimeout Milliseconds a re-render of expired output is waited on before another request is allowed to re-render
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.revalidationTimeout:30000}")
+	public void setRevalidationTimeout(long revalidationTimeout) {
+	    this.revalidationTimeout = revalidationTimeout;
+	    this.revalidatingKeys = createRevalidatingKeys(revalidationTimeout);
+	}
+	
+	private static ConcurrentMap<Serializable, Long> createRevalidatingKeys(long revalidationTimeout) {
+	    return CacheBuilder.newBuilder()
+	            .expireAfterWrite(revalidationTimeout, TimeUnit.MILLISECONDS)
+	            .maximumSize(MAX_REVALIDATING_KEYS)
+	            .<Serializable, Long>build()
+	            .asMap();
+	}
+	
+	/**
+	 * @param collapsedRenderTimeout Milliseconds a request for publicly scoped output waits on a concurrent render of the same output before rendering itself, 0 disables
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.collapsedRenderTimeout:0}")
+	public void setCollapsedRenderTimeout(long collapsedRenderTimeout) {
+	    this.collapsedRenderTimeout = collapsedRenderTimeout;
+	}
+	
 	@Autowired
 	public void setPortletWindowRegistry(
 			IPortletWindowRegistry portletWindowRegistry) {
@@ -173,7 +233,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletRenderHeaderOutputCache,
                 this.privateScopePortletRenderHeaderOutputCache,
-                false);
+                false,
+                true);
     }
     
     @Override
@@ -196,7 +257,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletRenderOutputCache,
                 this.privateScopePortletRenderOutputCache,
-                false);
+                false,
+                true);
     }
     
     @Override
@@ -219,7 +281,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletResourceOutputCache,
                 this.privateScopePortletResourceOutputCache,
-                true);
+                true,
+                false);
     }
     
     private <D extends CachedPortletResultHolder<T>, T extends Serializable> CacheState<D, T> getPortletState(
@@ -228,7 +291,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             PublicPortletCacheKey publicCacheKey, 
             Ehcache publicOutputCache, 
             Ehcache privateOutputCache, 
-            boolean useHttpHeaders) {
+            boolean useHttpHeaders,
+            boolean collapseRenders) {
         
         //See if there is any cached data for the portlet header request
         final CacheState<D, T> cacheState = this.<D, T> getPortletCacheState(request,
@@ -257,8 +321,9 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 }
             }
             
+            final long now = System.currentTimeMillis();
             final long expirationTime = cachedPortletData.getExpirationTime();
-            if (expirationTime == -1 || expirationTime > System.currentTimeMillis()) {
+            if (expirationTime == -1 || expirationTime > now || this.isServeStale(cacheState, expirationTime, now)) {
                 //Cached data exists, see if it can be used with no additional work
                 //Cached data is not expired, check if browser data should be used
                 cacheState.setUseCachedData(true);
@@ -283,6 +348,11 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final String cacheScopeValue = portletDescriptor.getCacheScope();
         if (MimeResponse.PUBLIC_SCOPE.equalsIgnoreCase(cacheScopeValue)) {
             cacheControl.setPublicScope(true);
+            
+            //Let concurrent requests for the same public output wait on this render instead of rendering again
+            if (collapseRenders && this.collapsedRenderTimeout > 0) {
+                this.claimCollapsedRender(cacheState);
+            }
         }
         
         //Set the default expiration time
@@ -301,6 +371,115 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheState;
     }
     
+    /**
+     * Determine if expired cached data should be returned. Data that expired less than {@link #staleWhileRevalidate}
+     * seconds ago is returned as long as another request is already re-rendering the portlet for the same cache key.
+     * The first request to find the expired data claims the re-render and gets a normal render, the claim is released
+     * by {@link #completePortletRender(CacheState)} or after {@link #revalidationTimeout}.
+     */
+    protected boolean isServeStale(CacheState<?, ?> cacheState, long expirationTime, long now) {
+        if (this.staleWhileRevalidate <= 0 || now - expirationTime >= TimeUnit.SECONDS.toMillis(this.staleWhileRevalidate)) {
+            return false;
+        }
+        
+        //Private key is only set if the data was not found in the public cache
+        final Serializable cacheKey;
+        if (cacheState.getPrivatePortletCacheKey() != null) {
+            cacheKey = cacheState.getPrivatePortletCacheKey();
+        }
+        else {
+            cacheKey = cacheState.getPublicPortletCacheKey();
+        }
+        
+        final Long claimed = this.revalidatingKeys.putIfAbsent(cacheKey, now);
+        if (claimed == null) {
+            logger.debug("Re-rendering expired output for key {}", cacheKey);
+            cacheState.setRevalidationClaim(cacheKey, now);
+            return false;
+        }
+        
+        //Previous re-render never completed, let this request try
+        if (now - claimed >= this.revalidationTimeout && this.revalidatingKeys.replace(cacheKey, claimed, now)) {
+            logger.debug("Re-rendering expired output for key {}, previous re-render timed out", cacheKey);
+            cacheState.setRevalidationClaim(cacheKey, now);
+            return false;
+        }
+        
+        logger.debug("Returning stale output for key {} while it is re-rendered", cacheKey);
+        return true;
+    }
+    
+    /**
+     * If no other request is rendering the public cache key the cache state is marked as the collapsed render leader.
+     * Requests that find a render already in progress are expected to have waited on it through
+     * {@link #getCollapsedRender(HttpServletRequest, IPortletWindowId, boolean)} before executing the portlet, they only
+     * get here if that wait timed out or the render did not cache its output, so they render the portlet themselves.
+     */
+    protected void claimCollapsedRender(CacheState<?, ?> cacheState) {
+        final PublicPortletCacheKey publicCacheKey = cacheState.getPublicPortletCacheKey();
+        if (this.collapsedRenders.putIfAbsent(publicCacheKey, SettableFuture.<Void>create()) == null) {
+            cacheState.setCollapsedRenderLeader(true);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#getCollapsedRenderTimeout()
+     */
+    @Override
+    public long getCollapsedRenderTimeout() {
+        return this.collapsedRenderTimeout;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#getCollapsedRender(javax.servlet.http.HttpServletRequest, org.jasig.portal.portlet.om.IPortletWindowId, boolean)
+     */
+    @Override
+    public ListenableFuture<?> getCollapsedRender(HttpServletRequest request, IPortletWindowId portletWindowId, boolean renderHeader) {
+        if (this.collapsedRenderTimeout <= 0 || this.collapsedRenders.isEmpty()) {
+            return null;
+        }
+        
+        final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
+        if (portletWindow == null) {
+            return null;
+        }
+        
+        final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(request);
+        final Locale locale = RequestContextUtils.getLocale(request);
+        final PublicPortletCacheKey publicCacheKey;
+        if (renderHeader) {
+            publicCacheKey = PublicPortletCacheKey.createPublicPortletRenderHeaderCacheKey(portletWindow, portalRequestInfo, locale);
+        }
+        else {
+            publicCacheKey = PublicPortletCacheKey.createPublicPortletRenderCacheKey(portletWindow, portalRequestInfo, locale);
+        }
+        
+        return this.collapsedRenders.get(publicCacheKey);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.container.cache.IPortletCacheControlService#completePortletRender(org.jasig.portal.portlet.container.cache.CacheState)
+     */
+    @Override
+    public void completePortletRender(CacheState<?, ?> cacheState) {
+        //Release this request's re-render claim, the output was either cached or the re-render failed
+        final Serializable revalidatingKey = cacheState.getRevalidatingKey();
+        if (revalidatingKey != null) {
+            this.revalidatingKeys.remove(revalidatingKey, cacheState.getRevalidationClaimTime());
+            cacheState.setRevalidationClaim(null, 0);
+        }
+        
+        if (!cacheState.isCollapsedRenderLeader()) {
+            return;
+        }
+        
+        cacheState.setCollapsedRenderLeader(false);
+        final SettableFuture<Void> collapsedRender = this.collapsedRenders.remove(cacheState.getPublicPortletCacheKey());
+        if (collapsedRender != null) {
+            collapsedRender.set(null);
+        }
+    }
+    
     /**
      * Get the cached portlet data looking in both the public and then private caches returning the first found
      * 
@@ -449,6 +628,16 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             this.cacheElement(privateOutputCache, privateCacheKey, cachedPortletData, cacheControl);
             logger.debug("Cached private data under key {} for {}", privateCacheKey, portletWindow);
         }
+        
+        //Release any re-render claim for the data that was just replaced
+        this.revalidatingKeys.remove(cacheState.getPublicPortletCacheKey());
+        final PrivatePortletCacheKey privateCacheKey = cacheState.getPrivatePortletCacheKey();
+        if (privateCacheKey != null) {
+            this.revalidatingKeys.remove(privateCacheKey);
+        }
+        
+        //Output is now cached, release any requests waiting on this render
+        this.completePortletRender(cacheState);
     }
 	
 	/**
@@ -472,11 +661,13 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		}
 
 		// using expiration method with a positive expiration, set that value as the element's TTL if it is lower than the configured cache TTL
+		// the element is kept for the stale-while-revalidate period past the data's expiration so stale data is available
 		final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
 		final Element element = new Element(cacheKey, data);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
-        if (expirationTime < cacheTTL) {
-            element.setTimeToLive(expirationTime);
+        final int elementTTL = expirationTime + Math.max(0, this.staleWhileRevalidate);
+        if (elementTTL < cacheTTL) {
+            element.setTimeToLive(elementTTL);
         }
 		cache.put(element);
 	}
@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.Writer;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -139,6 +140,22 @@ public interface IPortletExecutionManager {
      */
     public String getPortletOutput(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
     
+    /**
+     * @return true if {@link #getPortletOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)} can return without
+     * waiting on the portlet, either because the render has completed or because it has exceeded its timeout. If the portlet
+     * is not already rendering it will be started.
+     */
+    public boolean isPortletOutputReady(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * Blocks until {@link #isPortletOutputReady(IPortletWindowId, HttpServletRequest, HttpServletResponse)} is true for
+     * at least one of the specified portlets. Any of the portlets that are not already rendering will be started.
+     * 
+     * @return The first portlet in the list that is ready
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public IPortletWindowId waitForPortletOutput(List<IPortletWindowId> portletWindowIds, HttpServletRequest request, HttpServletResponse response) throws InterruptedException;
+    
     /**
      * Get the duration it took for the portlet to render.
      */
@@ -154,6 +171,11 @@ public interface IPortletExecutionManager {
      * Gets the title for the specified portlet
      */
     public String getPortletTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * @return The title of the portlet from its definition, never waits on the portlet's render.
+     */
+    public String getPortletDefinitionTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
 
     public int getPortletNewItemCount(String subscribeId, HttpServletRequest request, HttpServletResponse response);
 
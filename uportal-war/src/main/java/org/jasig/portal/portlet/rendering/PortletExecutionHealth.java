@@ -0,0 +1,308 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Tracks recent executions of a single portlet definition. Execution times are recorded in a rolling histogram
+ * with power of two millisecond buckets that covers the last <code>windowCount * windowDuration</code>
+ * milliseconds. Failed and timed out executions are counted over the same period to drive a circuit breaker.
+ * <p/>
+ * Circuit states:
+ * <ul>
+ *  <li>CLOSED - executions are allowed, opens once the failure rate is over the threshold</li>
+ *  <li>OPEN - executions are not allowed until the open duration has passed</li>
+ *  <li>HALF_OPEN - a single trial execution is allowed, its result either closes or re-opens the circuit</li>
+ * </ul>
+ * Each trial is identified by the id returned from {@link #allowExecution(long, long)}, results of other executions
+ * that complete while the circuit is HALF_OPEN do not change its state.
+ * 
+ * All methods synchronize on the instance, the work done is constant time so contention is limited to
+ * concurrent executions of the same portlet.
+ */
+class PortletExecutionHealth {
+    /**
+     * Upper bound in ms of each histogram bucket, the last bucket holds everything larger
+     */
+    static final long[] BUCKET_LIMITS;
+    static {
+        BUCKET_LIMITS = new long[19];
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            BUCKET_LIMITS[i] = 1l << i;
+        }
+    }
+    
+    /**
+     * Returned by {@link #allowExecution(long, long)} when the execution is not allowed
+     */
+    static final long EXECUTION_DENIED = -1;
+    /**
+     * Returned by {@link #allowExecution(long, long)} when the execution is allowed and is not a trial
+     */
+    static final long NO_TRIAL = 0;
+    
+    enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+    
+    private final long windowDuration;
+    private final long[] windowStarts;
+    private final int[][] windowBuckets;
+    private final int[] windowFailures;
+    
+    private CircuitState circuitState = CircuitState.CLOSED;
+    private long circuitStateChanged = 0;
+    private long trialCount = 0;
+    private long currentTrial = NO_TRIAL;
+    
+    /**
+     * @param windowCount Number of windows in the rolling period
+     * @param windowDuration Duration of each window in ms
+     */
+    public PortletExecutionHealth(int windowCount, long windowDuration) {
+        this.windowDuration = windowDuration;
+        this.windowStarts = new long[windowCount];
+        this.windowBuckets = new int[windowCount][BUCKET_LIMITS.length + 1];
+        this.windowFailures = new int[windowCount];
+        Arrays.fill(this.windowStarts, Long.MIN_VALUE);
+    }
+    
+    /**
+     * Record a completed execution.
+     * 
+     * @param duration Execution time in ms
+     * @param failed If the execution failed
+     */
+    public synchronized void recordExecution(long duration, boolean failed, long now) {
+        final int window = this.getWindow(now);
+        this.windowBuckets[window][getBucket(duration)]++;
+        if (failed) {
+            this.windowFailures[window]++;
+        }
+    }
+    
+    /**
+     * Record an execution that did not complete within its timeout. Counted as a failure at the timeout duration.
+     */
+    public synchronized void recordTimeout(long timeout, long now) {
+        this.recordExecution(timeout, true, now);
+    }
+    
+    /**
+     * @return Number of executions in the rolling period
+     */
+    public synchronized int getExecutions(long now) {
+        int executions = 0;
+        for (int window = 0; window < this.windowStarts.length; window++) {
+            if (this.isCurrent(window, now)) {
+                for (final int count : this.windowBuckets[window]) {
+                    executions += count;
+                }
+            }
+        }
+        return executions;
+    }
+    
+    /**
+     * @return Number of failed executions in the rolling period
+     */
+    public synchronized int getFailures(long now) {
+        int failures = 0;
+        for (int window = 0; window < this.windowStarts.length; window++) {
+            if (this.isCurrent(window, now)) {
+                failures += this.windowFailures[window];
+            }
+        }
+        return failures;
+    }
+    
+    /**
+     * @param percentile The percentile to find, between 0 and 1
+     * @return Upper bound of the bucket that contains the percentile in ms, -1 if there are no executions
+     */
+    public synchronized long getPercentile(double percentile, long now) {
+        final int[] buckets = new int[BUCKET_LIMITS.length + 1];
+        int executions = 0;
+        for (int window = 0; window < this.windowStarts.length; window++) {
+            if (this.isCurrent(window, now)) {
+                final int[] windowBucket = this.windowBuckets[window];
+                for (int bucket = 0; bucket < buckets.length; bucket++) {
+                    buckets[bucket] += windowBucket[bucket];
+                    executions += windowBucket[bucket];
+                }
+            }
+        }
+        
+        if (executions == 0) {
+            return -1;
+        }
+        
+        final long target = (long) Math.ceil(executions * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_LIMITS.length; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= target) {
+                return BUCKET_LIMITS[bucket];
+            }
+        }
+        
+        return Long.MAX_VALUE;
+    }
+    
+    public synchronized CircuitState getCircuitState() {
+        return this.circuitState;
+    }
+    
+    /**
+     * Check if an execution is allowed, moves an OPEN circuit to HALF_OPEN once the open duration has passed. A
+     * HALF_OPEN circuit allows another trial if the previous trial was abandoned or has not reported back within
+     * the open duration.
+     * 
+     * @param openDuration Time in ms to keep the circuit open
+     * @return {@link #EXECUTION_DENIED} if the execution is not allowed, {@link #NO_TRIAL} if the circuit is closed or
+     * the id of the trial execution that must be passed to {@link #updateCircuitState(boolean, long, int, double, long)}
+     */
+    public synchronized long allowExecution(long openDuration, long now) {
+        switch (this.circuitState) {
+            case CLOSED: {
+                return NO_TRIAL;
+            }
+            case HALF_OPEN: {
+                if (this.currentTrial != NO_TRIAL && now - this.circuitStateChanged < openDuration) {
+                    return EXECUTION_DENIED;
+                }
+                break;
+            }
+            default: {
+                if (now - this.circuitStateChanged < openDuration) {
+                    return EXECUTION_DENIED;
+                }
+            }
+        }
+        
+        this.setCircuitState(CircuitState.HALF_OPEN, now);
+        this.currentTrial = ++this.trialCount;
+        return this.currentTrial;
+    }
+    
+    /**
+     * Give up on a trial execution that did not say anything about the portlet's health, for example because its
+     * output came from the portlet cache. The next execution is allowed as a new trial.
+     */
+    public synchronized void abandonTrial(long trial) {
+        if (trial != NO_TRIAL && trial == this.currentTrial) {
+            this.currentTrial = NO_TRIAL;
+        }
+    }
+    
+    /**
+     * Update the circuit state after an execution completed.
+     * 
+     * @param failed If the execution failed
+     * @param trial The id returned by {@link #allowExecution(long, long)} for the execution
+     * @param minimumExecutions Minimum executions in the rolling period before the circuit can open
+     * @param failureThreshold Rate of failed executions, between 0 and 1, that opens the circuit
+     * @return The state of the circuit after the update 
+     */
+    public synchronized CircuitState updateCircuitState(boolean failed, long trial, int minimumExecutions, double failureThreshold, long now) {
+        switch (this.circuitState) {
+            case HALF_OPEN: {
+                if (trial == NO_TRIAL || trial != this.currentTrial) {
+                    //Only the result of the current trial closes or re-opens the circuit
+                    break;
+                }
+                
+                if (failed) {
+                    this.setCircuitState(CircuitState.OPEN, now);
+                }
+                else {
+                    //Trial succeeded, forget the failures that opened the circuit
+                    this.reset();
+                    this.setCircuitState(CircuitState.CLOSED, now);
+                }
+                break;
+            }
+            case CLOSED: {
+                if (failed) {
+                    final int executions = this.getExecutions(now);
+                    if (executions >= minimumExecutions && this.getFailures(now) >= executions * failureThreshold) {
+                        this.setCircuitState(CircuitState.OPEN, now);
+                    }
+                }
+                break;
+            }
+            default: {
+                //Results from executions started before the circuit opened don't change the state
+            }
+        }
+        
+        return this.circuitState;
+    }
+    
+    private void setCircuitState(CircuitState circuitState, long now) {
+        this.circuitState = circuitState;
+        this.circuitStateChanged = now;
+        this.currentTrial = NO_TRIAL;
+    }
+    
+    private void reset() {
+        Arrays.fill(this.windowStarts, Long.MIN_VALUE);
+        for (final int[] buckets : this.windowBuckets) {
+            Arrays.fill(buckets, 0);
+        }
+        Arrays.fill(this.windowFailures, 0);
+    }
+    
+    /**
+     * @return The index of the window for the specified time, clearing it if it holds data from a previous period
+     */
+    private int getWindow(long now) {
+        final long windowStart = now - (now % this.windowDuration);
+        final int window = (int) ((now / this.windowDuration) % this.windowStarts.length);
+        if (this.windowStarts[window] != windowStart) {
+            this.windowStarts[window] = windowStart;
+            Arrays.fill(this.windowBuckets[window], 0);
+            this.windowFailures[window] = 0;
+        }
+        return window;
+    }
+    
+    private boolean isCurrent(int window, long now) {
+        final long windowStart = this.windowStarts[window];
+        return windowStart != Long.MIN_VALUE && now - windowStart < this.windowDuration * this.windowStarts.length;
+    }
+    
+    static int getBucket(long duration) {
+        for (int bucket = 0; bucket < BUCKET_LIMITS.length; bucket++) {
+            if (duration <= BUCKET_LIMITS[bucket]) {
+                return bucket;
+            }
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PortletExecutionHealth [circuitState=" + this.circuitState + ", circuitStateChanged=" + this.circuitStateChanged + "]";
+    }
+}
@@ -22,6 +22,7 @@ package org.jasig.portal.portlet.rendering;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -30,7 +31,10 @@ import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.portlet.Event;
@@ -42,6 +46,8 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.events.IPortletExecutionEventFactory;
+import org.jasig.portal.portlet.PortletDispatchException;
+import org.jasig.portal.portlet.container.cache.IPortletCacheControlService;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionParameter;
 import org.jasig.portal.portlet.om.IPortletDescriptorKey;
@@ -50,7 +56,9 @@ import org.jasig.portal.portlet.om.IPortletEntityId;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.PortletExecutionHealth.CircuitState;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
@@ -70,6 +78,8 @@ import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 import org.springframework.web.util.WebUtils;
 
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Handles the asynchronous execution of portlets, handling execution errors and publishing
@@ -84,6 +94,11 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         implements IPortletExecutionManager, IPortletExecutionInterceptor, PortletExecutionManagerMXBean {
     
     private static final long DEBUG_TIMEOUT = TimeUnit.HOURS.toMillis(1);
+    private static final int HEALTH_WINDOW_COUNT = 6;
+    private static final long HEALTH_WINDOW_DURATION = TimeUnit.SECONDS.toMillis(10);
+    private static final String CIRCUIT_TRIAL = PortletExecutionManager.class.getName() + ".CIRCUIT_TRIAL";
+    private static final String COLLAPSED_RENDER = PortletExecutionManager.class.getName() + ".COLLAPSED_RENDER";
+    private static final String COLLAPSED_RENDER_DEADLINE = PortletExecutionManager.class.getName() + ".COLLAPSED_RENDER_DEADLINE";
     private static final String PORTLET_HEADER_RENDERING_MAP = PortletExecutionManager.class.getName() + ".PORTLET_HEADER_RENDERING_MAP";
 	private static final String PORTLET_RENDERING_MAP = PortletExecutionManager.class.getName() + ".PORTLET_RENDERING_MAP";
 
@@ -107,14 +122,33 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     });
     
+    /**
+     * Recent render execution times and failures for each portlet fname
+     */
+    private final ConcurrentMap<String, PortletExecutionHealth> executionHealth = ConcurrentMapUtils.makeDefaultsMap(new Function<String, PortletExecutionHealth>(){
+        public PortletExecutionHealth apply(String fname) {
+            return new PortletExecutionHealth(HEALTH_WINDOW_COUNT, HEALTH_WINDOW_DURATION);
+        }
+    });
+    
     private boolean ignoreTimeouts = false;
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
+    private boolean adaptiveTimeouts = false;
+    private double adaptiveTimeoutPercentile = 0.99;
+    private long adaptiveTimeoutMultiplier = 3;
+    private long adaptiveTimeoutMinimum = 1000;
+    private int adaptiveTimeoutMinimumExecutions = 50;
+    private boolean circuitBreaker = false;
+    private double circuitBreakerFailureThreshold = 0.5;
+    private int circuitBreakerMinimumExecutions = 20;
+    private long circuitBreakerOpenDuration = TimeUnit.SECONDS.toMillis(30);
     private int maxEventIterations = 100;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEventCoordinationService eventCoordinationService;
     private IPortletWorkerFactory portletWorkerFactory;
     private IPortletExecutionEventFactory portletExecutionEventFactory;
+    private IPortletCacheControlService portletCacheControlService;
     
     /**
      * @param maxEventIterations The maximum number of iterations to spend dispatching events. Defaults to 100
@@ -163,6 +197,128 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return this.extendedTimeoutMultiplier;
     }
     
+    @Override
+    @Value("${org.jasig.portal.portlet.adaptiveTimeouts:false}")
+    public void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+        this.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    @Override
+    public boolean isAdaptiveTimeouts() {
+        return this.adaptiveTimeouts;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.adaptiveTimeoutPercentile:0.99}")
+    public void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile) {
+        this.adaptiveTimeoutPercentile = adaptiveTimeoutPercentile;
+    }
+
+    @Override
+    public double getAdaptiveTimeoutPercentile() {
+        return this.adaptiveTimeoutPercentile;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.adaptiveTimeoutMultiplier:3}")
+    public void setAdaptiveTimeoutMultiplier(long adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    public long getAdaptiveTimeoutMultiplier() {
+        return this.adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.adaptiveTimeoutMinimum:1000}")
+    public void setAdaptiveTimeoutMinimum(long adaptiveTimeoutMinimum) {
+        this.adaptiveTimeoutMinimum = adaptiveTimeoutMinimum;
+    }
+
+    @Override
+    public long getAdaptiveTimeoutMinimum() {
+        return this.adaptiveTimeoutMinimum;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.adaptiveTimeoutMinimumExecutions:50}")
+    public void setAdaptiveTimeoutMinimumExecutions(int adaptiveTimeoutMinimumExecutions) {
+        this.adaptiveTimeoutMinimumExecutions = adaptiveTimeoutMinimumExecutions;
+    }
+
+    @Override
+    public int getAdaptiveTimeoutMinimumExecutions() {
+        return this.adaptiveTimeoutMinimumExecutions;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.circuitBreaker:false}")
+    public void setCircuitBreaker(boolean circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public boolean isCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.circuitBreakerFailureThreshold:0.5}")
+    public void setCircuitBreakerFailureThreshold(double circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    public double getCircuitBreakerFailureThreshold() {
+        return this.circuitBreakerFailureThreshold;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.circuitBreakerMinimumExecutions:20}")
+    public void setCircuitBreakerMinimumExecutions(int circuitBreakerMinimumExecutions) {
+        this.circuitBreakerMinimumExecutions = circuitBreakerMinimumExecutions;
+    }
+
+    @Override
+    public int getCircuitBreakerMinimumExecutions() {
+        return this.circuitBreakerMinimumExecutions;
+    }
+
+    @Override
+    @Value("${org.jasig.portal.portlet.circuitBreakerOpenDuration:30000}")
+    public void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    @Override
+    public long getCircuitBreakerOpenDuration() {
+        return this.circuitBreakerOpenDuration;
+    }
+    
+    @Override
+    public Map<String, String> getPortletCircuitStates() {
+        final Map<String, String> states = new TreeMap<String, String>();
+        
+        for (final Map.Entry<String, PortletExecutionHealth> entry : this.executionHealth.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getCircuitState().toString());
+        }
+        
+        return states;
+    }
+    
+    @Override
+    public Map<String, Long> getPortletRenderTimePercentiles() {
+        final Map<String, Long> percentiles = new TreeMap<String, Long>();
+        
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, PortletExecutionHealth> entry : this.executionHealth.entrySet()) {
+            percentiles.put(entry.getKey(), entry.getValue().getPercentile(this.adaptiveTimeoutPercentile, now));
+        }
+        
+        return percentiles;
+    }
+    
     @Override
     public Map<String, Integer> getPortletExecutionCounts() {
         final Map<String, Integer> counts = new TreeMap<String, Integer>();
@@ -191,6 +347,11 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         this.portletWindowRegistry = portletWindowRegistry;
     }
     
+    @Autowired
+    public void setPortletCacheControlService(IPortletCacheControlService portletCacheControlService) {
+        this.portletCacheControlService = portletCacheControlService;
+    }
+    
     @Autowired
     public void setPortletExecutionEventFactory(IPortletExecutionEventFactory portletExecutionEventFactory) {
         this.portletExecutionEventFactory = portletExecutionEventFactory;
@@ -215,6 +376,11 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      * Checks to see if a worker has been retrieved (not orphaned) and if it is complete.
      */
     protected void checkWorkerCompletion(HttpServletRequest request, IPortletRenderExecutionWorker portletRenderExecutionWorker) {
+        //Worker was deferred on a concurrent render and its output was never requested, it never executed
+        if (!portletRenderExecutionWorker.isSubmitted()) {
+            return;
+        }
+        
         if (!portletRenderExecutionWorker.isRetrieved()) {
             final IPortletWindowId portletWindowId = portletRenderExecutionWorker.getPortletWindowId();
             final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
@@ -246,6 +412,13 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         portletExecutionWorker.cancel();
         
+        if (portletExecutionWorker.getExecutionType() == ExecutionType.RENDER) {
+            final long now = System.currentTimeMillis();
+            final PortletExecutionHealth health = this.executionHealth.get(portletExecutionWorker.getPortletFname());
+            health.recordTimeout(portletExecutionWorker.getApplicableTimeout(), now);
+            this.updateCircuitState(portletExecutionWorker.getPortletFname(), health, true, getCircuitTrial(portletExecutionWorker), now);
+        }
+        
         this.portletExecutionEventFactory.publishPortletHungEvent(request, this, portletExecutionWorker);
         hungWorkers.offer(portletExecutionWorker);
     }
@@ -301,6 +474,72 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         counter.incrementAndGet();
+        
+        if (context.getExecutionType() == ExecutionType.RENDER) {
+            //Workers that were cancelled have already been recorded as timed out
+            if (context instanceof IPortletExecutionWorker && ((IPortletExecutionWorker<?>) context).getCancelCount() > 0) {
+                return;
+            }
+            
+            final PortletExecutionHealth health = this.executionHealth.get(context.getPortletFname());
+            final long circuitTrial = getCircuitTrial(context);
+            
+            //Output replayed from the portlet cache says nothing about the portlet's render time or health
+            if (e == null && context instanceof IPortletRenderExecutionWorker && ((IPortletRenderExecutionWorker) context).isCachedOutput()) {
+                health.abandonTrial(circuitTrial);
+                return;
+            }
+            
+            final long now = System.currentTimeMillis();
+            final long duration = now - context.getStartedTime();
+            final boolean failed = e != null || duration > context.getApplicableTimeout();
+            
+            health.recordExecution(duration, failed, now);
+            this.updateCircuitState(context.getPortletFname(), health, failed, circuitTrial, now);
+        }
+    }
+    
+    /**
+     * @return The circuit trial id the render was started with, {@link PortletExecutionHealth#NO_TRIAL} if it was not a trial
+     */
+    protected long getCircuitTrial(IPortletExecutionContext context) {
+        final Long circuitTrial = (Long) context.getExecutionAttribute(CIRCUIT_TRIAL);
+        return circuitTrial != null ? circuitTrial : PortletExecutionHealth.NO_TRIAL;
+    }
+    
+    /**
+     * Update the portlet's circuit after a render execution completes or times out
+     */
+    protected void updateCircuitState(String fname, PortletExecutionHealth health, boolean failed, long circuitTrial, long now) {
+        if (!this.circuitBreaker) {
+            return;
+        }
+        
+        final CircuitState previousState = health.getCircuitState();
+        final CircuitState state = health.updateCircuitState(failed, circuitTrial, this.circuitBreakerMinimumExecutions, this.circuitBreakerFailureThreshold, now);
+        if (state != previousState) {
+            if (state == CircuitState.OPEN) {
+                this.logger.warn("Opened circuit for portlet {}, renders will be short-circuited to the error portlet for {}ms. {} failures in the last {} executions", 
+                        new Object[] { fname, this.circuitBreakerOpenDuration, health.getFailures(now), health.getExecutions(now) });
+            }
+            else {
+                this.logger.info("Circuit for portlet {} is now {}", fname, state);
+            }
+        }
+    }
+    
+    /**
+     * @return {@link PortletExecutionHealth#EXECUTION_DENIED} if the circuit breaker is enabled and the portlet's circuit
+     * is open, otherwise the circuit trial id for the render
+     * @see PortletExecutionHealth#allowExecution(long, long)
+     */
+    protected long allowRender(IPortletDefinition portletDefinition) {
+        if (!this.circuitBreaker) {
+            return PortletExecutionHealth.NO_TRIAL;
+        }
+        
+        final PortletExecutionHealth health = this.executionHealth.get(portletDefinition.getFName());
+        return health.allowExecution(this.circuitBreakerOpenDuration, System.currentTimeMillis());
     }
 
     /* (non-Javadoc)
@@ -615,6 +854,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     		HttpServletRequest request, HttpServletResponse response) {
     	if(doesPortletNeedHeaderWorker(portletWindowId, request)) {
     		final IPortletRenderExecutionWorker tracker = getRenderedPortletHeaderWorker(portletWindowId, request, response);
+    		submitDeferredRender(tracker, true);
     		final long timeout = getPortletRenderTimeout(portletWindowId, request);
     		try {
     			final String output = tracker.getOutput(timeout);
@@ -671,6 +911,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     @Override
     public String getPortletOutput(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
     	final IPortletRenderExecutionWorker tracker = getRenderedPortletBodyWorker(portletWindowId, request, response);
+    	submitDeferredRender(tracker, true);
         final long timeout = getPortletRenderTimeout(portletWindowId, request);
 
 		try {
@@ -690,6 +931,94 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 		}
     }
 
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#isPortletOutputReady(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletOutputReady(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final IPortletRenderExecutionWorker tracker = getRenderedPortletBodyWorker(portletWindowId, request, response);
+        if (submitDeferredRender(tracker, false) > 0) {
+            return false;
+        }
+        
+        final long now = System.currentTimeMillis();
+        return getPortletOutputReadyTime(portletWindowId, tracker, request, now) <= now;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#waitForPortletOutput(java.util.List, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public IPortletWindowId waitForPortletOutput(List<IPortletWindowId> portletWindowIds, HttpServletRequest request, HttpServletResponse response) throws InterruptedException {
+        Assert.notEmpty(portletWindowIds, "portletWindowIds cannot be empty");
+        
+        //Released by each worker as it completes, wakes this thread up to re-check the workers
+        final Semaphore completions = new Semaphore(0);
+        final Runnable completionCallback = new Runnable() {
+            @Override
+            public void run() {
+                completions.release();
+            }
+        };
+        
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> trackers = new LinkedHashMap<IPortletWindowId, IPortletRenderExecutionWorker>();
+        for (final IPortletWindowId portletWindowId : portletWindowIds) {
+            final IPortletRenderExecutionWorker tracker = getRenderedPortletBodyWorker(portletWindowId, request, response);
+            tracker.addCompletionCallback(completionCallback);
+            trackers.put(portletWindowId, tracker);
+            
+            //Deferred workers are submitted by this thread, wake up when the render they wait on completes
+            final ListenableFuture<?> collapsedRender = (ListenableFuture<?>) tracker.getExecutionAttribute(COLLAPSED_RENDER);
+            if (collapsedRender != null) {
+                collapsedRender.addListener(completionCallback, MoreExecutors.sameThreadExecutor());
+            }
+        }
+        
+        while (true) {
+            final long now = System.currentTimeMillis();
+            long nextReadyTime = Long.MAX_VALUE;
+            for (final Map.Entry<IPortletWindowId, IPortletRenderExecutionWorker> trackerEntry : trackers.entrySet()) {
+                final long deferredUntil = submitDeferredRender(trackerEntry.getValue(), false);
+                if (deferredUntil > 0) {
+                    nextReadyTime = Math.min(nextReadyTime, deferredUntil);
+                    continue;
+                }
+                
+                final long readyTime = getPortletOutputReadyTime(trackerEntry.getKey(), trackerEntry.getValue(), request, now);
+                if (readyTime <= now) {
+                    return trackerEntry.getKey();
+                }
+                nextReadyTime = Math.min(nextReadyTime, readyTime);
+            }
+            
+            //Wait for a worker or deferred render to complete or for the earliest timeout to pass
+            completions.tryAcquire(Math.max(0, nextReadyTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Determine when the output of the render worker will be available without waiting, this is either the time the
+     * worker completed or the time {@link #getPortletRenderResult(IPortletWindowId, HttpServletRequest, HttpServletResponse)}
+     * will give up on it. The timeout is the same one used by getPortletRenderResult and, like
+     * {@link IPortletRenderExecutionWorker#get(long)}, is measured from the time the worker started. A worker that has not
+     * started yet cannot time out until the full timeout after now.
+     */
+    protected long getPortletOutputReadyTime(IPortletWindowId portletWindowId, IPortletRenderExecutionWorker tracker, HttpServletRequest request, long now) {
+        //Failure workers render on the calling thread when their output is requested 
+        if (tracker instanceof IPortletFailureExecutionWorker) {
+            return now;
+        }
+        
+        final long completeTime = tracker.getCompleteTime();
+        if (completeTime > 0) {
+            return completeTime;
+        }
+        
+        final long timeout = getPortletRenderTimeout(portletWindowId, request);
+        final long startedTime = tracker.getStartedTime();
+        return (startedTime > 0 ? startedTime : now) + timeout;
+    }
+
     @Override
     public long getPortletRenderTime(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
         try {
@@ -742,6 +1071,19 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     		}
         }
         
+        return getPortletDefinitionTitle(portletDefinition, response);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletDefinitionTitle(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public String getPortletDefinitionTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
+        return getPortletDefinitionTitle(portletDefinition, response);
+    }
+    
+    protected String getPortletDefinitionTitle(IPortletDefinition portletDefinition, HttpServletResponse response) {
         // we assume that response locale has been set to correct value
         String locale = response.getLocale().toString();
         
@@ -848,10 +1190,36 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer renderTimeout = portletDefinition.getRenderTimeout();
         if (renderTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, renderTimeout);
+            return getAdaptiveTimeout(portletDefinition, getModifiedTimeout(portletDefinition, request, renderTimeout));
         }
         
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getAdaptiveTimeout(portletDefinition, getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout()));
+    }
+    
+    /**
+     * Lower the timeout to a multiple of the portlet's recent render time percentile when adaptive timeouts are
+     * enabled and there are enough recent executions. The returned timeout is never larger than the specified
+     * timeout or smaller than {@link #getAdaptiveTimeoutMinimum()}.
+     */
+    protected long getAdaptiveTimeout(IPortletDefinition portletDefinition, long timeout) {
+        if (!this.adaptiveTimeouts) {
+            return timeout;
+        }
+        
+        final PortletExecutionHealth health = this.executionHealth.get(portletDefinition.getFName());
+        final long now = System.currentTimeMillis();
+        if (health.getExecutions(now) < this.adaptiveTimeoutMinimumExecutions) {
+            return timeout;
+        }
+        
+        final long multiplier = Math.max(1, this.adaptiveTimeoutMultiplier);
+        final long percentile = health.getPercentile(this.adaptiveTimeoutPercentile, now);
+        if (percentile < 0 || percentile >= timeout / multiplier) {
+            return timeout;
+        }
+        
+        final long adaptiveTimeout = Math.max(this.adaptiveTimeoutMinimum, percentile * multiplier);
+        return Math.min(timeout, adaptiveTimeout);
     }
     
     protected long getPortletResourceTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
@@ -902,6 +1270,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      */
     protected PortletRenderResult getPortletRenderResult(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) throws Exception {
         final IPortletRenderExecutionWorker tracker = getRenderedPortletBodyWorker(portletWindowId, request, response);
+        submitDeferredRender(tracker, true);
         final long timeout = getPortletRenderTimeout(portletWindowId, request);
         return tracker.get(timeout);
     }
@@ -916,7 +1285,9 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      */
     protected IPortletRenderExecutionWorker startPortletHeaderRenderInternal(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
     	IPortletRenderExecutionWorker portletHeaderRenderWorker = this.portletWorkerFactory.createRenderHeaderWorker(request, response, portletWindowId);
-    	portletHeaderRenderWorker.submit();
+    	if (!this.deferRenderWorker(portletHeaderRenderWorker, request, true)) {
+    	    portletHeaderRenderWorker.submit();
+    	}
     	
     	final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletHeaderRenderingMap = this.getPortletHeaderRenderingMap(request);
     	portletHeaderRenderingMap.put(portletWindowId, portletHeaderRenderWorker);
@@ -937,10 +1308,24 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     		// previous action failed, dispatch to errorPortlet immediately
     		portletRenderExecutionWorker = this.portletWorkerFactory.createFailureWorker(request, response, portletWindowId, cause);
     	} else {
-    		portletRenderExecutionWorker = this.portletWorkerFactory.createRenderWorker(request, response, portletWindowId);
+    	    final long circuitTrial = this.allowRender(getPortletDefinition(portletWindowId, request));
+    	    if (circuitTrial == PortletExecutionHealth.EXECUTION_DENIED) {
+    	        // portlet has been failing or timing out, don't tie up a worker thread on it
+    	        final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
+    	        final PortletDispatchException circuitOpen = new PortletDispatchException("Portlet is temporarily unavailable due to repeated failures or timeouts", portletWindow);
+    	        portletRenderExecutionWorker = this.portletWorkerFactory.createFailureWorker(request, response, portletWindowId, circuitOpen);
+    	    }
+    	    else {
+    	        portletRenderExecutionWorker = this.portletWorkerFactory.createRenderWorker(request, response, portletWindowId);
+    	        if (circuitTrial != PortletExecutionHealth.NO_TRIAL) {
+    	            portletRenderExecutionWorker.setExecutionAttribute(CIRCUIT_TRIAL, circuitTrial);
+    	        }
+    	    }
     	}
     	
-    	portletRenderExecutionWorker.submit();
+    	if (!this.deferRenderWorker(portletRenderExecutionWorker, request, false)) {
+    	    portletRenderExecutionWorker.submit();
+    	}
     	
         final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
         portletRenderingMap.put(portletWindowId, portletRenderExecutionWorker);
@@ -948,6 +1333,68 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return portletRenderExecutionWorker;
     }
 
+    /**
+     * If another request is rendering the same publicly cached output defer submitting the worker until that render
+     * completes so the worker replays the cached output instead of executing the portlet again. The worker is later
+     * submitted on the request thread by {@link #submitDeferredRender(IPortletRenderExecutionWorker, boolean)}, no
+     * worker thread is tied up waiting on the other render.
+     * 
+     * @return true if submitting the worker was deferred
+     */
+    protected boolean deferRenderWorker(IPortletRenderExecutionWorker worker, HttpServletRequest request, boolean renderHeader) {
+        if (worker instanceof IPortletFailureExecutionWorker) {
+            return false;
+        }
+        
+        final ListenableFuture<?> collapsedRender = this.portletCacheControlService.getCollapsedRender(request, worker.getPortletWindowId(), renderHeader);
+        if (collapsedRender == null || collapsedRender.isDone()) {
+            return false;
+        }
+        
+        final long deadline = System.currentTimeMillis() + this.portletCacheControlService.getCollapsedRenderTimeout();
+        worker.setExecutionAttribute(COLLAPSED_RENDER, collapsedRender);
+        worker.setExecutionAttribute(COLLAPSED_RENDER_DEADLINE, deadline);
+        
+        this.logger.debug("Deferring render of {} until concurrent render of the same output completes", worker.getPortletWindowId());
+        return true;
+    }
+    
+    /**
+     * Submit a worker deferred by {@link #deferRenderWorker(IPortletRenderExecutionWorker, HttpServletRequest, boolean)}
+     * once the render it is waiting on has completed or the wait has timed out.
+     * 
+     * @param wait If true the calling thread waits for the render to complete or the wait to time out and the worker is always submitted
+     * @return The time the wait times out if the worker is still deferred, 0 if the worker has been submitted
+     */
+    protected long submitDeferredRender(IPortletRenderExecutionWorker worker, boolean wait) {
+        final ListenableFuture<?> collapsedRender = (ListenableFuture<?>) worker.getExecutionAttribute(COLLAPSED_RENDER);
+        if (collapsedRender == null || worker.isSubmitted()) {
+            return 0;
+        }
+        
+        final long deadline = (Long) worker.getExecutionAttribute(COLLAPSED_RENDER_DEADLINE);
+        if (wait) {
+            try {
+                collapsedRender.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                this.logger.debug("Timed out waiting on concurrent render for {}", worker.getPortletWindowId());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                //Collapsed renders always complete normally
+            }
+        }
+        else if (!collapsedRender.isDone() && System.currentTimeMillis() < deadline) {
+            return deadline;
+        }
+        
+        worker.submit();
+        return 0;
+    }
+
     /**
      * Returns a request attribute scoped Map of portlets that are rendering for the current request.
      */
@@ -63,6 +63,106 @@ public interface PortletExecutionManagerMXBean {
      */
     long getExtendedTimeoutMultiplier();
     
+    /**
+     * @param adaptiveTimeouts If true render timeouts are lowered based on each portlet's recent render times
+     */
+    void setAdaptiveTimeouts(boolean adaptiveTimeouts);
+    
+    /**
+     * @return If true render timeouts are lowered based on each portlet's recent render times
+     */
+    boolean isAdaptiveTimeouts();
+    
+    /**
+     * @param adaptiveTimeoutPercentile Percentile of recent render times, between 0 and 1, used to calculate adaptive timeouts
+     */
+    void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile);
+    
+    /**
+     * @return Percentile of recent render times, between 0 and 1, used to calculate adaptive timeouts
+     */
+    double getAdaptiveTimeoutPercentile();
+    
+    /**
+     * @param adaptiveTimeoutMultiplier Multiplier applied to the render time percentile to get the adaptive timeout
+     */
+    void setAdaptiveTimeoutMultiplier(long adaptiveTimeoutMultiplier);
+    
+    /**
+     * @return Multiplier applied to the render time percentile to get the adaptive timeout
+     */
+    long getAdaptiveTimeoutMultiplier();
+    
+    /**
+     * @param adaptiveTimeoutMinimum Smallest adaptive timeout in ms
+     */
+    void setAdaptiveTimeoutMinimum(long adaptiveTimeoutMinimum);
+    
+    /**
+     * @return Smallest adaptive timeout in ms
+     */
+    long getAdaptiveTimeoutMinimum();
+    
+    /**
+     * @param adaptiveTimeoutMinimumExecutions Number of recent renders required before a portlet's timeout is adapted
+     */
+    void setAdaptiveTimeoutMinimumExecutions(int adaptiveTimeoutMinimumExecutions);
+    
+    /**
+     * @return Number of recent renders required before a portlet's timeout is adapted
+     */
+    int getAdaptiveTimeoutMinimumExecutions();
+    
+    /**
+     * @param circuitBreaker If true portlets that are failing or timing out are short-circuited to the error portlet
+     */
+    void setCircuitBreaker(boolean circuitBreaker);
+    
+    /**
+     * @return If true portlets that are failing or timing out are short-circuited to the error portlet
+     */
+    boolean isCircuitBreaker();
+    
+    /**
+     * @param circuitBreakerFailureThreshold Rate of recent renders, between 0 and 1, that must fail to open a portlet's circuit
+     */
+    void setCircuitBreakerFailureThreshold(double circuitBreakerFailureThreshold);
+    
+    /**
+     * @return Rate of recent renders, between 0 and 1, that must fail to open a portlet's circuit
+     */
+    double getCircuitBreakerFailureThreshold();
+    
+    /**
+     * @param circuitBreakerMinimumExecutions Number of recent renders required before a portlet's circuit can open
+     */
+    void setCircuitBreakerMinimumExecutions(int circuitBreakerMinimumExecutions);
+    
+    /**
+     * @return Number of recent renders required before a portlet's circuit can open
+     */
+    int getCircuitBreakerMinimumExecutions();
+    
+    /**
+     * @param circuitBreakerOpenDuration Time in ms a portlet's circuit stays open before a trial render is allowed
+     */
+    void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration);
+    
+    /**
+     * @return Time in ms a portlet's circuit stays open before a trial render is allowed
+     */
+    long getCircuitBreakerOpenDuration();
+    
+    /**
+     * @return Circuit state of each portlet
+     */
+    Map<String, String> getPortletCircuitStates();
+    
+    /**
+     * @return Recent render time in ms at the adaptive timeout percentile for each portlet
+     */
+    Map<String, Long> getPortletRenderTimePercentiles();
+    
     /**
      * @return Number of times each portlet has been executed
      */
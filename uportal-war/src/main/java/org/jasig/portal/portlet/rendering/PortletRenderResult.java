@@ -35,19 +35,26 @@ public class PortletRenderResult implements Serializable {
     private final long renderTime;
     private final int newItemCount;
     private final String externalLink;
+    private final boolean cached;
 
     public PortletRenderResult(String title, String externalLink, int newItemCount, long renderTime) {
         this.title = title;
         this.renderTime = renderTime;
         this.newItemCount = newItemCount;
         this.externalLink = externalLink;
+        this.cached = false;
     }
     
     public PortletRenderResult(PortletRenderResult portletRenderResult, long renderTime) {
+        this(portletRenderResult, renderTime, false);
+    }
+    
+    public PortletRenderResult(PortletRenderResult portletRenderResult, long renderTime, boolean cached) {
         this.title = portletRenderResult.getTitle();
         this.newItemCount = portletRenderResult.getNewItemCount();
         this.externalLink = portletRenderResult.getExternalLink();
         this.renderTime = renderTime;
+        this.cached = cached;
     }
 
     /**
@@ -74,6 +81,13 @@ public class PortletRenderResult implements Serializable {
     public String getExternalLink() {
         return this.externalLink;
     }
+    
+    /**
+     * @return true if the portlet was not executed and the result was replayed from the portlet cache
+     */
+    public boolean isCached() {
+        return this.cached;
+    }
 
     @Override
     public int hashCode() {
@@ -363,6 +363,21 @@ public class PortletRendererImpl implements IPortletRenderer {
         
         final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = renderPart
                 .getCacheState(this.portletCacheControlService, httpServletRequest, portletWindowId);
+        
+        try {
+            return this.doRender(portletWindowId, httpServletRequest, httpServletResponse, portletOutputHandler, renderPart, cacheState);
+        }
+        finally {
+            //Release any re-render claim and requests waiting on this render, needed if the output was not cached
+            if (cacheState.isRenderCompletionRequired()) {
+                this.portletCacheControlService.completePortletRender(cacheState);
+            }
+        }
+    }
+    
+    protected PortletRenderResult doRender(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse, PortletOutputHandler portletOutputHandler, RenderPart renderPart,
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState) throws IOException {
 
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
@@ -480,7 +495,7 @@ public class PortletRendererImpl implements IPortletRenderer {
         publishRenderEvent(portletWindow, httpServletRequest, renderPart, executionTime, true);
         
         final PortletRenderResult portletResult = cachedPortletData.getPortletResult();
-        return new PortletRenderResult(portletResult, executionTime);
+        return new PortletRenderResult(portletResult, executionTime, cacheState.isUseCachedData());
     }
 
     /**
@@ -532,6 +547,21 @@ public class PortletRendererImpl implements IPortletRenderer {
 	    
         final CacheState<CachedPortletResourceData<Long>, Long> cacheState = this.portletCacheControlService
                 .getPortletResourceState(httpServletRequest, portletWindowId);
+        
+        try {
+            return this.doServeResource(portletWindowId, httpServletRequest, httpServletResponse, portletOutputHandler, cacheState);
+        }
+        finally {
+            //Release any re-render claim, needed if the output was not cached
+            if (cacheState.isRenderCompletionRequired()) {
+                this.portletCacheControlService.completePortletRender(cacheState);
+            }
+        }
+    }
+    
+    protected long doServeResource(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse, PortletResourceOutputHandler portletOutputHandler,
+            CacheState<CachedPortletResourceData<Long>, Long> cacheState) throws IOException {
 
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
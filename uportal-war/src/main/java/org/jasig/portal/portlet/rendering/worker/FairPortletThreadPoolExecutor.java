@@ -0,0 +1,109 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.utils.threading.FairKeyedBlockingQueue;
+
+/**
+ * {@link ThreadPoolExecutor} for portlet workers that queues workers in a {@link FairKeyedBlockingQueue} keyed by
+ * portlet fname once all threads are busy. Queued workers are run round-robin across fnames so a burst of
+ * requests for one slow portlet cannot consume every thread while workers for other portlets wait behind it.
+ * <p/>
+ * The core and maximum pool sizes are the same, since a {@link ThreadPoolExecutor} only grows past the core size
+ * when its queue is full. Core threads are allowed to time out so idle threads are still released.
+ */
+public class FairPortletThreadPoolExecutor extends ThreadPoolExecutor implements FairPortletThreadPoolExecutorMXBean {
+    private final PortletWorkerFairQueue portletWorkerQueue;
+
+    /**
+     * @param poolSize Maximum number of threads
+     * @param queueCapacity Maximum number of workers that can wait for a thread
+     * @param keepAliveSeconds Time an idle thread waits for work before terminating
+     */
+    public FairPortletThreadPoolExecutor(int poolSize, int queueCapacity, long keepAliveSeconds,
+            ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+        
+        this(poolSize, keepAliveSeconds, new PortletWorkerFairQueue(queueCapacity), threadFactory, rejectedExecutionHandler);
+    }
+    
+    private FairPortletThreadPoolExecutor(int poolSize, long keepAliveSeconds, PortletWorkerFairQueue portletWorkerQueue,
+            ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+        
+        super(poolSize, poolSize, keepAliveSeconds, TimeUnit.SECONDS, portletWorkerQueue, threadFactory, rejectedExecutionHandler);
+        this.portletWorkerQueue = portletWorkerQueue;
+        this.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public int getQueueSize() {
+        return this.portletWorkerQueue.size();
+    }
+
+    @Override
+    public Map<String, Integer> getQueuedCounts() {
+        final Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (final String fname : this.portletWorkerQueue.getKeySet()) {
+            counts.put(fname, this.portletWorkerQueue.getKeySize(fname));
+        }
+        return counts;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.AbstractExecutorService#newTaskFor(java.util.concurrent.Callable)
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof IPortletExecutionContext) {
+            final String portletFname = ((IPortletExecutionContext) callable).getPortletFname();
+            return new FnameFutureTask<T>(callable, portletFname);
+        }
+
+        return super.newTaskFor(callable);
+    }
+
+    /**
+     * Queues workers by fname, tasks that are not portlet workers share a single key
+     */
+    private static final class PortletWorkerFairQueue extends FairKeyedBlockingQueue<String, Runnable> {
+        private static final String NON_PORTLET_KEY = "";
+        
+        public PortletWorkerFairQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(Runnable e) {
+            if (e instanceof FnameFutureTask) {
+                return ((FnameFutureTask<?>) e).getPortletFname();
+            }
+            
+            return NON_PORTLET_KEY;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Map;
+
+public interface FairPortletThreadPoolExecutorMXBean {
+    
+    /**
+     * @return Maximum number of threads
+     */
+    int getMaximumPoolSize();
+    
+    /**
+     * @return Current number of threads
+     */
+    int getPoolSize();
+    
+    /**
+     * @return Approximate number of threads executing workers
+     */
+    int getActiveCount();
+    
+    /**
+     * @return Approximate number of completed workers
+     */
+    long getCompletedTaskCount();
+    
+    /**
+     * @return Number of workers waiting for a thread
+     */
+    int getQueueSize();
+    
+    /**
+     * @return Number of workers waiting for a thread for each fname
+     */
+    Map<String, Integer> getQueuedCounts();
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Future that tracks the fname of the portlet worker it was created for, used by executors that schedule
+ * portlet workers based on their fname.
+ */
+class FnameFutureTask<T> extends FutureTask<T> {
+    private final String portletFname;
+
+    public FnameFutureTask(Callable<T> callable, String portletFname) {
+        super(callable);
+        this.portletFname = portletFname;
+    }
+
+    public String getPortletFname() {
+        return this.portletFname;
+    }
+
+    @Override
+    public String toString() {
+        return "FnameFutureTask [portletFname=" + this.portletFname + "]";
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ExecutorService} for portlet workers that limits the number of concurrently executing workers for each
+ * portlet fname. Workers over the limit wait in a per-fname queue and are dispatched to the backing executor as
+ * workers for the same fname complete, so a slow portlet can only ever consume its own share of the backing
+ * executor's threads.
+ * <p/>
+ * Intended to be backed by a large pool of small-stack threads (see
+ * {@link org.jasig.portal.utils.threading.StackSizeThreadFactory}) so blocking I/O bound portlets can run with high
+ * concurrency without the memory cost of a large pool of default sized threads.
+ * <p/>
+ * Tasks that are not submitted by a portlet worker are passed directly to the backing executor.
+ */
+public class FnameLimitingPortletExecutorService extends AbstractExecutorService implements FnameLimitingPortletExecutorServiceMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ConcurrentMap<String, FnameExecutionLimiter> limiters = new ConcurrentHashMap<String, FnameExecutionLimiter>();
+    private final ExecutorService executorService;
+    private volatile int maxConcurrentPerFname = 20;
+    private volatile int maxQueuedPerFname = 200;
+
+    /**
+     * @param executorService The executor that workers are dispatched to
+     */
+    public FnameLimitingPortletExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * @param maxConcurrentPerFname Maximum number of workers that can execute concurrently for a single fname. Defaults to 20
+     */
+    @Override
+    public void setMaxConcurrentPerFname(int maxConcurrentPerFname) {
+        if (maxConcurrentPerFname < 1) {
+            throw new IllegalArgumentException("maxConcurrentPerFname must be greater than 0");
+        }
+        this.maxConcurrentPerFname = maxConcurrentPerFname;
+    }
+
+    @Override
+    public int getMaxConcurrentPerFname() {
+        return this.maxConcurrentPerFname;
+    }
+
+    /**
+     * @param maxQueuedPerFname Maximum number of workers that can wait for execution for a single fname, once exceeded workers for the fname are rejected. Defaults to 200
+     */
+    @Override
+    public void setMaxQueuedPerFname(int maxQueuedPerFname) {
+        this.maxQueuedPerFname = maxQueuedPerFname;
+    }
+
+    @Override
+    public int getMaxQueuedPerFname() {
+        return this.maxQueuedPerFname;
+    }
+
+    @Override
+    public Map<String, Integer> getExecutingCounts() {
+        final Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (final FnameExecutionLimiter limiter : this.limiters.values()) {
+            counts.put(limiter.fname, limiter.executing.get());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Integer> getQueuedCounts() {
+        final Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (final FnameExecutionLimiter limiter : this.limiters.values()) {
+            counts.put(limiter.fname, limiter.queued.get());
+        }
+        return counts;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.AbstractExecutorService#newTaskFor(java.util.concurrent.Callable)
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof IPortletExecutionContext) {
+            final String portletFname = ((IPortletExecutionContext) callable).getPortletFname();
+            return new FnameFutureTask<T>(callable, portletFname);
+        }
+
+        return super.newTaskFor(callable);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (!(command instanceof FnameFutureTask)) {
+            this.executorService.execute(command);
+            return;
+        }
+
+        final String portletFname = ((FnameFutureTask<?>) command).getPortletFname();
+        final FnameExecutionLimiter limiter = this.getLimiter(portletFname);
+        limiter.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+        this.executorService.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return this.executorService.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.executorService.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.executorService.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.executorService.awaitTermination(timeout, unit);
+    }
+
+    protected FnameExecutionLimiter getLimiter(String portletFname) {
+        FnameExecutionLimiter limiter = this.limiters.get(portletFname);
+        if (limiter == null) {
+            limiter = ConcurrentMapUtils.putIfAbsent(this.limiters, portletFname, new FnameExecutionLimiter(portletFname));
+        }
+        return limiter;
+    }
+
+    /**
+     * Tracks the executing and queued tasks for a single fname
+     */
+    private final class FnameExecutionLimiter {
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger executing = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final String fname;
+
+        public FnameExecutionLimiter(String fname) {
+            this.fname = fname;
+        }
+
+        public void execute(Runnable command) {
+            if (this.tryAcquire()) {
+                this.dispatch(command);
+                return;
+            }
+
+            if (this.queued.incrementAndGet() > maxQueuedPerFname) {
+                this.queued.decrementAndGet();
+                throw new RejectedExecutionException("Rejecting execution of " + command +
+                        ". executing=" + this.executing.get() +
+                        ". queued=" + this.queued.get() +
+                        ". maxConcurrentPerFname=" + maxConcurrentPerFname +
+                        ". maxQueuedPerFname=" + maxQueuedPerFname);
+            }
+            this.queue.offer(command);
+
+            //An executing task may have completed between the failed acquire and the offer
+            this.drain();
+        }
+
+        private void dispatch(final Runnable command) {
+            try {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        }
+                        finally {
+                            release();
+                            drain();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                this.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Dispatch queued tasks while there are free execution slots
+         */
+        private void drain() {
+            while (!this.queue.isEmpty() && this.tryAcquire()) {
+                final Runnable next = this.queue.poll();
+                if (next == null) {
+                    this.release();
+                    return;
+                }
+                this.queued.decrementAndGet();
+
+                try {
+                    this.dispatch(next);
+                }
+                catch (RejectedExecutionException e) {
+                    //Backing executor is full, fail the future so the waiting request isn't left hanging
+                    logger.warn("Backing executor rejected queued portlet worker for " + this.fname, e);
+                    if (next instanceof FutureTask) {
+                        ((FutureTask<?>) next).cancel(false);
+                    }
+                }
+            }
+        }
+
+        private boolean tryAcquire() {
+            while (true) {
+                final int current = this.executing.get();
+                if (current >= maxConcurrentPerFname) {
+                    return false;
+                }
+                if (this.executing.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            this.executing.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Map;
+
+public interface FnameLimitingPortletExecutorServiceMXBean {
+
+    /**
+     * @param maxConcurrentPerFname Maximum number of workers that can execute concurrently for a single fname
+     */
+    void setMaxConcurrentPerFname(int maxConcurrentPerFname);
+    
+    /**
+     * @return Maximum number of workers that can execute concurrently for a single fname
+     */
+    int getMaxConcurrentPerFname();
+    
+    /**
+     * @param maxQueuedPerFname Maximum number of workers that can wait for execution for a single fname
+     */
+    void setMaxQueuedPerFname(int maxQueuedPerFname);
+    
+    /**
+     * @return Maximum number of workers that can wait for execution for a single fname
+     */
+    int getMaxQueuedPerFname();
+    
+    /**
+     * @return Number of workers currently executing for each fname
+     */
+    Map<String, Integer> getExecutingCounts();
+    
+    /**
+     * @return Number of workers waiting for execution for each fname
+     */
+    Map<String, Integer> getQueuedCounts();
+}
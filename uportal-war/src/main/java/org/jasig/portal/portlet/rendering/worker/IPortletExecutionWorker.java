@@ -41,6 +41,12 @@ public interface IPortletExecutionWorker<V> extends IPortletExecutionContext {
      * @return The time in ms that the worker actually started, 0 if it has not started
      */
     public long waitForStart(long timeout) throws InterruptedException;
+    
+    /**
+     * Register a callback to run once the worker has completed execution, successfully or not. The callback is run
+     * on the thread that executed the worker or, if the worker has already completed, immediately on the calling thread.
+     */
+    public void addCompletionCallback(Runnable callback);
 
     /**
      * Get the object returned by the worker's execution
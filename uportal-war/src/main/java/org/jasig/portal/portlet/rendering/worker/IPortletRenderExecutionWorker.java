@@ -33,4 +33,9 @@ public interface IPortletRenderExecutionWorker extends IPortletExecutionWorker<P
      * @return The output written by the portlet
      */
     public String getOutput(long timeout) throws Exception;
+    
+    /**
+     * @return true if the render completed by replaying cached output without executing the portlet
+     */
+    public boolean isCachedOutput();
 }
\ No newline at end of file
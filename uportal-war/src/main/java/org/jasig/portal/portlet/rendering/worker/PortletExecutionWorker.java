@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering.worker;
 
 import java.lang.Thread.State;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -54,6 +55,7 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     
     private final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
     private final CountDownLatch startLatch = new CountDownLatch(1);
+    private final List<Runnable> completionCallbacks = new ArrayList<Runnable>(1);
     private final ExecutorService executorService;
     private final List<IPortletExecutionInterceptor> interceptors;
     final IPortletRenderer portletRenderer;
@@ -205,12 +207,30 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     }
     
     private void executionComplete() {
-        complete = System.currentTimeMillis();
+        final List<Runnable> callbacks;
+        synchronized (this.completionCallbacks) {
+            complete = System.currentTimeMillis();
+            callbacks = new ArrayList<Runnable>(this.completionCallbacks);
+            this.completionCallbacks.clear();
+        }
         if (logger.isDebugEnabled()) {
             logger.debug("Execution complete on portlet " + portletWindowId + " in " + getDuration() + "ms");
         }
         
         workerThread = null;
+        
+        for (final Runnable callback : callbacks) {
+            runCompletionCallback(callback);
+        }
+    }
+    
+    private void runCompletionCallback(Runnable callback) {
+        try {
+            callback.run();
+        }
+        catch (Throwable t) {
+            logger.error("Completion callback threw exception for portlet " + portletWindowId, t);
+        }
     }
     
     private void doPostExecution(Exception e) {
@@ -259,6 +279,18 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         return this.started;
     }
     
+    @Override
+    public final void addCompletionCallback(Runnable callback) {
+        synchronized (this.completionCallbacks) {
+            if (this.complete == 0) {
+                this.completionCallbacks.add(callback);
+                return;
+            }
+        }
+        
+        runCompletionCallback(callback);
+    }
+    
     @Override
     public V get(long timeout) throws Exception {
         if (this.future == null) {
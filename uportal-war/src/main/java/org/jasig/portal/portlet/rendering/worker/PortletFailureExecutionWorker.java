@@ -19,6 +19,7 @@
 
 package org.jasig.portal.portlet.rendering.worker;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -67,6 +68,7 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
     private boolean retrieved = false;
     private long submitted = 0;
     private long completed = 0;
+    private final List<Runnable> completionCallbacks = new ArrayList<Runnable>(1);
     
     public PortletFailureExecutionWorker(
             IPortletRenderer portletRenderer, List<IPortletExecutionInterceptor> interceptors,
@@ -122,6 +124,11 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
         return this.output;
     }
 
+    @Override
+    public boolean isCachedOutput() {
+        return false;
+    }
+
     @Override
     public long waitForStart(long timeout) throws InterruptedException {
         this.renderError(timeout);
@@ -183,6 +190,30 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
         }
         
         this.completed = System.currentTimeMillis();
+        
+        for (final Runnable callback : this.completionCallbacks) {
+            runCompletionCallback(callback);
+        }
+        this.completionCallbacks.clear();
+    }
+    
+    @Override
+    public synchronized void addCompletionCallback(Runnable callback) {
+        if (this.completed > 0) {
+            runCompletionCallback(callback);
+        }
+        else {
+            this.completionCallbacks.add(callback);
+        }
+    }
+    
+    private void runCompletionCallback(Runnable callback) {
+        try {
+            callback.run();
+        }
+        catch (Throwable t) {
+            logger.error("Completion callback threw exception for portlet " + failedPortletWindowId, t);
+        }
     }
 
     @Override
@@ -41,6 +41,7 @@ import org.jasig.portal.portlet.rendering.RenderPortletOutputHandler;
  */
 class PortletRenderExecutionWorker extends PortletExecutionWorker<PortletRenderResult> implements IPortletRenderExecutionWorker {
     private String output = null;
+    private volatile boolean cachedOutput = false;
     
     public PortletRenderExecutionWorker(
             ExecutorService executorService, List<IPortletExecutionInterceptor> interceptors, IPortletRenderer portletRenderer, 
@@ -65,6 +66,7 @@ class PortletRenderExecutionWorker extends PortletExecutionWorker<PortletRenderR
         final PortletRenderResult result = portletRenderer.doRenderMarkup(portletWindowId, request, response, renderPortletOutputHandler);
         
         this.output = renderPortletOutputHandler.getOutput();
+        this.cachedOutput = result != null && result.isCached();
         
         return result;
     }
@@ -74,4 +76,9 @@ class PortletRenderExecutionWorker extends PortletExecutionWorker<PortletRenderR
         this.get(timeout);
         return this.output;
     }
+
+    @Override
+    public boolean isCachedOutput() {
+        return this.cachedOutput;
+    }
 }
\ No newline at end of file
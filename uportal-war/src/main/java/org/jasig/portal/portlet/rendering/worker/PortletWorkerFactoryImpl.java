@@ -80,7 +80,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
     }
 
     @Autowired
-    public void setPortletThreadPool(@Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
+    public void setPortletThreadPool(@Qualifier("portletExecutionService") ExecutorService portletThreadPool) {
         this.portletThreadPool = portletThreadPool;
     }
 
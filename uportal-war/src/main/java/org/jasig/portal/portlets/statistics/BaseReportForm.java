@@ -18,11 +18,18 @@
  */
 package org.jasig.portal.portlets.statistics;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.joda.time.DateMidnight;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.ReflectionUtils.FieldCallback;
 
 public abstract class BaseReportForm {
     public enum OutputFormat {
@@ -76,4 +83,52 @@ public abstract class BaseReportForm {
     public final void setGroups(List<Long> groups) {
         this.groups = groups;
     }
+
+    /**
+     * @return A copy of the form including the fields declared by subclasses, collection fields are copied so
+     * changes to either form do not affect the other
+     */
+    public BaseReportForm copy() {
+        final BaseReportForm copy;
+        try {
+            copy = this.getClass().newInstance();
+        }
+        catch (InstantiationException e) {
+            throw new IllegalStateException("Failed to create a copy of " + this.getClass().getName(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to create a copy of " + this.getClass().getName(), e);
+        }
+        
+        ReflectionUtils.doWithFields(this.getClass(), new FieldCallback() {
+            @Override
+            public void doWith(Field field) throws IllegalArgumentException, IllegalAccessException {
+                ReflectionUtils.makeAccessible(field);
+                Object value = field.get(BaseReportForm.this);
+                if (value instanceof List) {
+                    value = new ArrayList<Object>((List<?>) value);
+                }
+                else if (value instanceof Set) {
+                    value = new LinkedHashSet<Object>((Set<?>) value);
+                }
+                field.set(copy, value);
+            }
+        }, ReflectionUtils.COPYABLE_FIELDS);
+        
+        return copy;
+    }
+
+    /**
+     * Compares all fields of the form, including those declared by subclasses, so that
+     * forms can be used as report cache keys.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return EqualsBuilder.reflectionEquals(this, obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
 }
@@ -44,14 +44,21 @@ import com.google.visualization.datasource.datatable.value.DateValue;
 import com.google.visualization.datasource.datatable.value.TimeOfDayValue;
 import com.google.visualization.datasource.datatable.value.Value;
 import com.google.visualization.datasource.datatable.value.ValueType;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalHelper;
+import org.jasig.portal.events.aggr.AggregationIntervalInfo;
 import org.jasig.portal.events.aggr.BaseAggregation;
 import org.jasig.portal.events.aggr.BaseAggregationDao;
 import org.jasig.portal.events.aggr.BaseAggregationDateTimeComparator;
 import org.jasig.portal.events.aggr.BaseAggregationKey;
 import org.jasig.portal.events.aggr.BaseGroupedAggregationDiscriminator;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupLookupDao;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMappingNameComparator;
@@ -62,6 +69,7 @@ import org.joda.time.format.DateTimeFormatterBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.ModelAttribute;
@@ -105,9 +113,26 @@ public abstract class BaseStatisticsReportController<
     @Autowired
     protected AggregatedGroupLookupDao aggregatedGroupDao;
     
+    @Autowired
+    private IEventAggregationManagementDao eventAggregationManagementDao;
+    
     @org.springframework.beans.factory.annotation.Value("${org.jasig.portal.portlets.statistics.maxIntervals}")
     private int maxIntervals = 4000;
     
+    @org.springframework.beans.factory.annotation.Value("${org.jasig.portal.portlets.statistics.coarsenIntervals:false}")
+    private boolean coarsenIntervals = false;
+    
+    @org.springframework.beans.factory.annotation.Value("${org.jasig.portal.portlets.statistics.cacheReports:false}")
+    private boolean cacheReports = false;
+    
+    private Ehcache reportCache;
+    
+    @Autowired
+    @Qualifier("org.jasig.portal.portlets.statistics.BaseStatisticsReportController.reportCache")
+    public void setReportCache(Ehcache reportCache) {
+        this.reportCache = reportCache;
+    }
+    
     @InitBinder
     public void initBinder(WebDataBinder binder) {
         final DateTimeFormatter formatter = new DateTimeFormatterBuilder().appendPattern("M/d/yyyy").toFormatter();
@@ -326,7 +351,7 @@ public abstract class BaseStatisticsReportController<
      * @return The model and view to render
      */
     protected final ModelAndView renderAggregationReport(F form) throws TypeMismatchException {
-        final DataTable table = buildAggregationReport(form);
+        final DataTable table = getAggregationReport(form);
         
         final String view;
         switch (form.getFormat()) {
@@ -394,6 +419,104 @@ public abstract class BaseStatisticsReportController<
         return showFullHeaderDescriptions;
     }
 
+    /**
+     * Get the aggregation {@link DataTable} for the form. If enabled the interval is coarsened to fit
+     * within maxIntervals and the table is served from the report cache. The form is not modified.
+     */
+    @SuppressWarnings("unchecked")
+    protected final DataTable getAggregationReport(F form) throws TypeMismatchException {
+        if (this.coarsenIntervals) {
+            //Coarsen a copy, the form is bound to the user's session and has to keep the interval they selected
+            form = (F) form.copy();
+            this.coarsenReportInterval(form);
+        }
+        
+        if (!this.cacheReports) {
+            return buildAggregationReport(form);
+        }
+        
+        final ReportCacheKey cacheKey = createReportCacheKey(form);
+        final Element element = this.reportCache.get(cacheKey);
+        if (element != null) {
+            logger.debug("Using cached report data for {}", cacheKey);
+            return (DataTable) element.getObjectValue();
+        }
+        
+        final DataTable table = buildAggregationReport(form);
+        this.reportCache.put(new Element(cacheKey, table));
+        return table;
+    }
+    
+    /**
+     * Switch the form to the interval returned by {@link #getReportInterval(AggregationInterval, DateMidnight, DateMidnight)}.
+     * The form is modified, callers pass a copy of the bound form.
+     */
+    protected final void coarsenReportInterval(F form) {
+        form.setInterval(this.getReportInterval(form.getInterval(), form.getStart(), form.getEnd()));
+    }
+    
+    /**
+     * If coarsening is enabled and the date range contains more than maxIntervals of the interval return the
+     * finest coarser interval the aggregation has data for that fits in maxIntervals, otherwise the interval
+     * itself. Intervals that do not support determination are never coarsened or coarsened to.
+     */
+    public final AggregationInterval getReportInterval(AggregationInterval interval, DateMidnight start, DateMidnight end) {
+        if (!this.coarsenIntervals || !interval.isSupportsDetermination()) {
+            return interval;
+        }
+        
+        //Count intervals over the same range the report queries
+        final DateTime startDateTime = start.toDateTime();
+        final DateTime endDateTime = getReportEnd(end);
+        if (interval.determineIntervalsBetween(startDateTime, endDateTime) <= maxIntervals) {
+            return interval;
+        }
+        
+        //getIntervals is sorted from finest to coarsest
+        for (final AggregationInterval coarserInterval : this.getIntervals()) {
+            if (coarserInterval.compareTo(interval) <= 0 || !coarserInterval.isSupportsDetermination()) {
+                continue;
+            }
+            
+            if (coarserInterval.determineIntervalsBetween(startDateTime, endDateTime) <= maxIntervals) {
+                logger.debug("Coarsened report interval from {} to {} for range {} - {}", 
+                        new Object[] { interval, coarserInterval, startDateTime, endDateTime });
+                return coarserInterval;
+            }
+        }
+        
+        return interval;
+    }
+    
+    /**
+     * @return The end of the report date range, the end date at 23:59:59
+     */
+    static DateTime getReportEnd(DateMidnight end) {
+        return end.plusDays(1).toDateTime().minusSeconds(1);
+    }
+    
+    /**
+     * Aggregations in intervals that end before the last unclosed cleanup are closed and will not change,
+     * reports that only cover closed intervals are cached without a generation. Reports that include
+     * open intervals are keyed by the last unclosed cleanup date so they are rebuilt each time the
+     * aggregator closes intervals.
+     */
+    private ReportCacheKey createReportCacheKey(F form) {
+        final IEventAggregatorStatus cleanUnclosedStatus = 
+                this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.CLEAN_UNCLOSED, false);
+        final DateTime lastClosedDate = cleanUnclosedStatus != null ? cleanUnclosedStatus.getLastEventDate() : null;
+        
+        if (lastClosedDate != null) {
+            final DateTime endDateTime = getReportEnd(form.getEnd());
+            final AggregationIntervalInfo lastIntervalInfo = this.intervalHelper.getIntervalInfo(form.getInterval(), endDateTime);
+            if (lastIntervalInfo != null && !lastIntervalInfo.getEnd().isAfter(lastClosedDate)) {
+                return new ReportCacheKey(this.getClass(), form, true, null);
+            }
+        }
+        
+        return new ReportCacheKey(this.getClass(), form, false, lastClosedDate);
+    }
+    
     /**
      * Build the aggregation {@link DataTable}
      */
@@ -405,7 +528,7 @@ public abstract class BaseStatisticsReportController<
         
         final DateTime startDateTime = start.toDateTime();
         //Use a query end of the end date at 23:59:59
-        final DateTime endDateTime = end.plusDays(1).toDateTime().minusSeconds(1);
+        final DateTime endDateTime = getReportEnd(end);
 
         //Get the list of DateTimes used on the X axis in the report
         final List<DateTime> reportTimes = this.intervalHelper.getIntervalStartDateTimesBetween(interval, startDateTime, endDateTime, maxIntervals);
@@ -543,4 +666,67 @@ public abstract class BaseStatisticsReportController<
         }
         return groupMappings.toArray(new AggregatedGroupMapping[0]);
     }
+
+    /**
+     * Key for cached report data tables, holds a copy of the form so later changes to the form can't
+     * change the key once it is in the cache
+     */
+    private static final class ReportCacheKey {
+        private final Class<?> controllerType;
+        private final BaseReportForm form;
+        private final boolean closed;
+        private final DateTime lastClosedDate;
+        private final int hash;
+        
+        public ReportCacheKey(Class<?> controllerType, BaseReportForm form, boolean closed, DateTime lastClosedDate) {
+            this.controllerType = controllerType;
+            this.form = form.copy();
+            this.closed = closed;
+            this.lastClosedDate = lastClosedDate;
+            
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + controllerType.hashCode();
+            result = prime * result + this.form.hashCode();
+            result = prime * result + (closed ? 1231 : 1237);
+            result = prime * result + ((lastClosedDate == null) ? 0 : lastClosedDate.hashCode());
+            this.hash = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            final ReportCacheKey other = (ReportCacheKey) obj;
+            if (this.hash != other.hash)
+                return false;
+            if (this.closed != other.closed)
+                return false;
+            if (!this.controllerType.equals(other.controllerType))
+                return false;
+            if (this.lastClosedDate == null) {
+                if (other.lastClosedDate != null)
+                    return false;
+            }
+            else if (!this.lastClosedDate.equals(other.lastClosedDate))
+                return false;
+            return this.form.equals(other.form);
+        }
+
+        @Override
+        public String toString() {
+            return "ReportCacheKey [controllerType=" + this.controllerType.getSimpleName() + ", interval=" + this.form.getInterval()
+                    + ", start=" + this.form.getStart() + ", end=" + this.form.getEnd() + ", closed=" + this.closed
+                    + ", lastClosedDate=" + this.lastClosedDate + "]";
+        }
+    }
 }
@@ -26,6 +26,8 @@ public class PortletExecutionReportForm extends BaseReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
+    private boolean totalExecutions = true;
+    private boolean executionTimePercentiles = false;
 
     public final Set<String> getPortlets() {
         return portlets;
@@ -43,4 +45,20 @@ public class PortletExecutionReportForm extends BaseReportForm {
         this.executionTypeNames = executionTypeNames;
     }
 
+    public boolean isTotalExecutions() {
+        return totalExecutions;
+    }
+
+    public void setTotalExecutions(boolean totalExecutions) {
+        this.totalExecutions = totalExecutions;
+    }
+
+    public boolean isExecutionTimePercentiles() {
+        return executionTimePercentiles;
+    }
+
+    public void setExecutionTimePercentiles(boolean executionTimePercentiles) {
+        this.executionTimePercentiles = executionTimePercentiles;
+    }
+
 }
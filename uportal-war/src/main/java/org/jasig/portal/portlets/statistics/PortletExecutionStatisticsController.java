@@ -18,7 +18,7 @@
  */
 package org.jasig.portal.portlets.statistics;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +32,7 @@ import com.google.visualization.datasource.base.TypeMismatchException;
 import com.google.visualization.datasource.datatable.ColumnDescription;
 import com.google.visualization.datasource.datatable.value.NumberValue;
 import com.google.visualization.datasource.datatable.value.Value;
+import com.google.visualization.datasource.datatable.value.ValueType;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.BaseAggregationDao;
 import org.jasig.portal.events.aggr.BaseAggregationDateTimeComparator;
@@ -73,6 +74,8 @@ public class PortletExecutionStatisticsController
 
     private static final String DATA_TABLE_RESOURCE_ID = "portletExecutionData";
     private final static String REPORT_NAME = "portletExecution.totals";
+    private static final int[] EXECUTION_TIME_PERCENTILES = { 50, 90, 99 };
+    private static final double NANOS_PER_MILLI = 1000000d;
 
     @Autowired
     private ReportTitleAndColumnDescriptionStrategy titleAndColumnDescriptionStrategy;
@@ -280,13 +283,47 @@ public class PortletExecutionStatisticsController
                 new TitleAndCount(groupName, groupSize)
         };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form);
+        final List<ColumnDescription> countColumns =
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form);
+        if (!form.isExecutionTimePercentiles()) {
+            return countColumns;
+        }
+
+        //THE ORDER OF RETURNED COLUMNS HERE MUST MATCH THE ORDER OF THE VALUES RETURNED IN createRowValues
+        final List<ColumnDescription> columns = new ArrayList<ColumnDescription>();
+        for (final ColumnDescription countColumn : countColumns) {
+            if (form.isTotalExecutions()) {
+                columns.add(countColumn);
+            }
+            for (final int percentile : EXECUTION_TIME_PERCENTILES) {
+                columns.add(new ColumnDescription(countColumn.getId() + "-p" + percentile, ValueType.NUMBER,
+                        countColumn.getLabel() + " - p" + percentile + " (ms)"));
+            }
+        }
+        return columns;
     }
 
     @Override
     protected List<Value> createRowValues(PortletExecutionAggregation aggr, PortletExecutionReportForm form) {
         int count = aggr != null ? aggr.getExecutionCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+
+        //THE ORDER OF RETURNED VALUES HERE MUST MATCH THE ORDER OF THE COLUMNS RETURNED IN getColumnDescriptions
+        final List<Value> values = new ArrayList<Value>();
+        if (form.isTotalExecutions() || !form.isExecutionTimePercentiles()) {
+            values.add(new NumberValue(count));
+        }
+        if (form.isExecutionTimePercentiles()) {
+            for (final int percentile : EXECUTION_TIME_PERCENTILES) {
+                final double executionTime = aggr != null ? aggr.getPercentile(percentile) : Double.NaN;
+                if (Double.isNaN(executionTime)) {
+                    values.add(NumberValue.getNullValue());
+                }
+                else {
+                    values.add(new NumberValue(executionTime / NANOS_PER_MILLI));
+                }
+            }
+        }
+        return values;
     }
 
 }
@@ -19,8 +19,10 @@
 package org.jasig.portal.portlets.statistics;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalHelper;
@@ -53,7 +55,7 @@ import com.google.visualization.datasource.base.TypeMismatchException;
 public class StatisticsPortletController {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
-    private Set<String> statisticsReportControllerNames;
+    private Map<String, BaseStatisticsReportController<?, ?, ?, ?>> statisticsReportControllers;
     
     @Autowired
     private AggregationIntervalHelper intervalHelper;
@@ -63,10 +65,10 @@ public class StatisticsPortletController {
     
     @Autowired
     public void setStatisticsReportControllers(Collection<BaseStatisticsReportController<?, ?, ?, ?>> statisticsReportControllers) {
-        this.statisticsReportControllerNames = new TreeSet<String>();
+        this.statisticsReportControllers = new TreeMap<String, BaseStatisticsReportController<?, ?, ?, ?>>();
         
         for (final BaseStatisticsReportController<?, ?, ?, ?> controller : statisticsReportControllers) {
-            this.statisticsReportControllerNames.add(controller.getReportName());
+            this.statisticsReportControllers.put(controller.getReportName(), controller);
         }
     }
     
@@ -83,7 +85,7 @@ public class StatisticsPortletController {
     
     @ModelAttribute("reports")
     public Set<String> getIntervals() {
-        return this.statisticsReportControllerNames;
+        return this.statisticsReportControllers.keySet();
     }
     
     @ModelAttribute("maxIntervals")
@@ -91,9 +93,22 @@ public class StatisticsPortletController {
         return this.maxIntervals;
     }
     
+    /**
+     * Counts the intervals in the date range, if the report would use a coarser interval for the range the
+     * intervals of the coarser interval are counted and the interval is returned as coarsenedInterval.
+     */
     @ResourceMapping("intervalCount")
-    public ModelAndView getIntervalCount(@RequestParam("interval") AggregationInterval interval, @RequestParam("start") DateMidnight start, @RequestParam("end") DateMidnight end) throws TypeMismatchException {
-        final int intervalsBetween = this.intervalHelper.intervalsBetween(interval, start.toDateTime(), end.plusDays(1).toDateTime().minusSeconds(1));
-        return new ModelAndView("json", "intervalsBetween", intervalsBetween);
+    public ModelAndView getIntervalCount(@RequestParam("interval") AggregationInterval interval, @RequestParam("start") DateMidnight start, @RequestParam("end") DateMidnight end,
+            @RequestParam(value = "report", required = false) String report) throws TypeMismatchException {
+        
+        final BaseStatisticsReportController<?, ?, ?, ?> reportController = report != null ? this.statisticsReportControllers.get(report) : null;
+        final AggregationInterval reportInterval = reportController != null ? reportController.getReportInterval(interval, start, end) : interval;
+        
+        final Map<String, Object> model = new HashMap<String, Object>();
+        model.put("intervalsBetween", this.intervalHelper.intervalsBetween(reportInterval, start.toDateTime(), BaseStatisticsReportController.getReportEnd(end)));
+        if (reportInterval != interval) {
+            model.put("coarsenedInterval", reportInterval);
+        }
+        return new ModelAndView("json", model);
     }
 }
@@ -0,0 +1,335 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.CharacterEventReaderDelegate;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.CharacterEventTypes;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEvent;
+import org.jasig.portal.character.stream.events.PortletLinkPlaceholderEvent;
+import org.jasig.portal.character.stream.events.PortletPlaceholderEvent;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Streams the page skeleton without waiting on portlets that have not finished rendering. The first time a
+ * placeholder for a portlet that is still rendering is seen the portlet is deferred, an empty container is written in
+ * place of its content and title and link placeholders are resolved without waiting on the render. The new item count
+ * can only come from the render so a portlet whose new item count placeholder is seen first is never deferred, one
+ * seen after the portlet was deferred waits on the render.
+ * When the end of the body is reached the content of each deferred portlet is written as soon as its render
+ * completes, in completion order, inside a hidden element followed by an inline script that moves the content into
+ * the portlet's container.
+ *
+ * Must be placed before the {@link PortletRenderingIncorporationComponent}, the deferred
+ * {@link PortletContentPlaceholderEvent}s are passed through to it at the end of the stream.
+ */
+public class DeferredPortletRenderingComponent extends CharacterPipelineComponentWrapper {
+    static final String CONTAINER_ID_PREFIX = "up-deferred-";
+    static final String CONTENT_ID_PREFIX = "up-deferred-content-";
+    static final String FILL_FUNCTION = "upFillDeferredPortlet";
+
+    private static final String FILL_SCRIPT = "<script type=\"text/javascript\">function " + FILL_FUNCTION + "(id){" +
+            "var s=document.getElementById('" + CONTENT_ID_PREFIX + "'+id),t=document.getElementById('" + CONTAINER_ID_PREFIX + "'+id);" +
+            "if(s&&t){while(s.firstChild){t.appendChild(s.firstChild);}s.parentNode.removeChild(s);}}</script>";
+
+    private IPortletExecutionManager portletExecutionManager;
+    private boolean enabled = true;
+    private String bodyEndMarker = "</body>";
+
+    @Autowired
+    public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
+        this.portletExecutionManager = portletExecutionManager;
+    }
+
+    /**
+     * @param enabled If false events are passed through unmodified and portlets are rendered in document order. Defaults to true.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param bodyEndMarker Markup that deferred portlet content is written before, defaults to &lt;/body&gt;. If the
+     * marker is never found deferred content is written at the end of the stream.
+     */
+    public void setBodyEndMarker(String bodyEndMarker) {
+        this.bodyEndMarker = bodyEndMarker;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+        return this.wrappedComponent.getCacheKey(request, response);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.rendering.PipelineComponent#getEventReader(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
+        if (!this.enabled) {
+            return pipelineEventReader;
+        }
+
+        final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        final DeferringEventReader deferringEventReader = new DeferringEventReader(eventReader, request, response);
+
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(deferringEventReader, outputProperties);
+    }
+
+    private class DeferringEventReader extends CharacterEventReaderDelegate {
+        private final LinkedList<CharacterEvent> buffer = new LinkedList<CharacterEvent>();
+        private final LinkedList<PortletContentPlaceholderEvent> deferredContent = new LinkedList<PortletContentPlaceholderEvent>();
+        private final Set<IPortletWindowId> inlinePortlets = new HashSet<IPortletWindowId>();
+        private final Set<IPortletWindowId> deferredPortlets = new HashSet<IPortletWindowId>();
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+
+        private CharacterEvent bodyEndEvent = null;
+        private boolean bodyEndReached = false;
+        private boolean fillScriptWritten = false;
+
+        public DeferringEventReader(CharacterEventReader delegate, HttpServletRequest request, HttpServletResponse response) {
+            super(delegate);
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.fillBuffer();
+        }
+
+        @Override
+        public CharacterEvent next() {
+            if (!this.fillBuffer()) {
+                throw new NoSuchElementException();
+            }
+            return this.buffer.removeFirst();
+        }
+
+        @Override
+        public CharacterEvent peek() {
+            if (!this.fillBuffer()) {
+                return null;
+            }
+            return this.buffer.getFirst();
+        }
+
+        /**
+         * @return false if there are no more events
+         */
+        private boolean fillBuffer() {
+            while (this.buffer.isEmpty()) {
+                if (this.bodyEndReached) {
+                    if (!this.deferredContent.isEmpty()) {
+                        this.writeNextCompleted();
+                    }
+                    else if (this.bodyEndEvent != null) {
+                        this.buffer.add(this.bodyEndEvent);
+                        this.bodyEndEvent = null;
+                    }
+                    else if (getParent().hasNext()) {
+                        this.buffer.add(getParent().next());
+                    }
+                    else {
+                        return false;
+                    }
+                }
+                else if (getParent().hasNext()) {
+                    this.processEvent(getParent().next());
+                }
+                else if (!this.deferredContent.isEmpty()) {
+                    //Never saw the end of the body, write deferred content at the end of the stream
+                    this.bodyEndReached = true;
+                }
+                else {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private void processEvent(CharacterEvent event) {
+            final CharacterEventTypes eventType = event.getEventType();
+            switch (eventType) {
+                case PORTLET_CONTENT: {
+                    final PortletContentPlaceholderEvent contentEvent = (PortletContentPlaceholderEvent) event;
+                    final IPortletWindowId portletWindowId = contentEvent.getPortletWindowId();
+                    if (this.isDeferred(portletWindowId)) {
+                        this.deferredContent.add(contentEvent);
+                        this.buffer.add(CharacterDataEventImpl.create("<div id=\"" + CONTAINER_ID_PREFIX + portletWindowId.getStringId() + "\"></div>"));
+                    }
+                    else {
+                        this.buffer.add(event);
+                    }
+                    return;
+                }
+                case PORTLET_TITLE: {
+                    final IPortletWindowId portletWindowId = ((PortletPlaceholderEvent) event).getPortletWindowId();
+                    if (this.isDeferred(portletWindowId)) {
+                        final String title = portletExecutionManager.getPortletDefinitionTitle(portletWindowId, this.request, this.response);
+                        this.buffer.add(CharacterDataEventImpl.create(title));
+                    }
+                    else {
+                        this.buffer.add(event);
+                    }
+                    return;
+                }
+                case PORTLET_NEW_ITEM_COUNT: {
+                    final IPortletWindowId portletWindowId = ((PortletPlaceholderEvent) event).getPortletWindowId();
+                    if (this.deferredPortlets.contains(portletWindowId)) {
+                        final int newItemCount = portletExecutionManager.getPortletNewItemCount(portletWindowId, this.request, this.response);
+                        this.buffer.add(CharacterDataEventImpl.create(String.valueOf(newItemCount)));
+                    }
+                    else {
+                        this.inlinePortlets.add(portletWindowId);
+                        this.buffer.add(event);
+                    }
+                    return;
+                }
+                case PORTLET_LINK: {
+                    final PortletLinkPlaceholderEvent linkEvent = (PortletLinkPlaceholderEvent) event;
+                    if (this.isDeferred(linkEvent.getPortletWindowId())) {
+                        this.buffer.add(CharacterDataEventImpl.create(linkEvent.getDefaultPortletUrl()));
+                    }
+                    else {
+                        this.buffer.add(event);
+                    }
+                    return;
+                }
+                case CHARACTER: {
+                    if (!this.deferredContent.isEmpty()) {
+                        final String data = ((CharacterDataEvent) event).getData();
+                        final int bodyEndIndex = data.indexOf(bodyEndMarker);
+                        if (bodyEndIndex >= 0) {
+                            if (bodyEndIndex > 0) {
+                                this.buffer.add(CharacterDataEventImpl.create(data.substring(0, bodyEndIndex)));
+                            }
+                            this.bodyEndEvent = CharacterDataEventImpl.create(data.substring(bodyEndIndex));
+                            this.bodyEndReached = true;
+                            return;
+                        }
+                    }
+
+                    this.buffer.add(event);
+                    return;
+                }
+                default: {
+                    this.buffer.add(event);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Determines if the portlet is deferred, the decision is made the first time the portlet is seen
+         * and is used for all later placeholders for the same portlet.
+         */
+        private boolean isDeferred(IPortletWindowId portletWindowId) {
+            if (this.deferredPortlets.contains(portletWindowId)) {
+                return true;
+            }
+            if (this.inlinePortlets.contains(portletWindowId)) {
+                return false;
+            }
+
+            if (portletExecutionManager.isPortletOutputReady(portletWindowId, this.request, this.response)) {
+                this.inlinePortlets.add(portletWindowId);
+                return false;
+            }
+
+            logger.debug("Deferring content of portlet {} until the end of the page", portletWindowId);
+            this.deferredPortlets.add(portletWindowId);
+            return true;
+        }
+
+        /**
+         * Waits for the next deferred portlet to be ready and buffers the events that fill its container
+         */
+        private void writeNextCompleted() {
+            final PortletContentPlaceholderEvent contentEvent = this.waitForNextCompleted();
+            final String portletWindowId = contentEvent.getPortletWindowId().getStringId();
+
+            if (!this.fillScriptWritten) {
+                this.buffer.add(CharacterDataEventImpl.create(FILL_SCRIPT));
+                this.fillScriptWritten = true;
+            }
+
+            this.buffer.add(CharacterDataEventImpl.create("<div id=\"" + CONTENT_ID_PREFIX + portletWindowId + "\" style=\"display:none\">"));
+            this.buffer.add(contentEvent);
+            this.buffer.add(CharacterDataEventImpl.create("</div><script type=\"text/javascript\">" + FILL_FUNCTION + "('" + StringEscapeUtils.escapeJavaScript(portletWindowId) + "');</script>"));
+
+            //Empty event is treated as a chunk-point and lets the page flush after each deferred portlet
+            this.buffer.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+        }
+
+        private PortletContentPlaceholderEvent waitForNextCompleted() {
+            final List<IPortletWindowId> portletWindowIds = new ArrayList<IPortletWindowId>(this.deferredContent.size());
+            for (final PortletContentPlaceholderEvent contentEvent : this.deferredContent) {
+                portletWindowIds.add(contentEvent.getPortletWindowId());
+            }
+
+            final IPortletWindowId readyPortletWindowId;
+            try {
+                readyPortletWindowId = portletExecutionManager.waitForPortletOutput(portletWindowIds, this.request, this.response);
+            }
+            catch (InterruptedException e) {
+                //Stop waiting, the incorporation component will wait on the portlet in document order
+                Thread.currentThread().interrupt();
+                return this.deferredContent.removeFirst();
+            }
+
+            for (final Iterator<PortletContentPlaceholderEvent> deferredItr = this.deferredContent.iterator(); deferredItr.hasNext();) {
+                final PortletContentPlaceholderEvent contentEvent = deferredItr.next();
+                if (contentEvent.getPortletWindowId().equals(readyPortletWindowId)) {
+                    deferredItr.remove();
+                    return contentEvent;
+                }
+            }
+
+            return this.deferredContent.removeFirst();
+        }
+    }
+}
@@ -20,9 +20,14 @@
 package org.jasig.portal.rendering;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.OutputKeys;
@@ -41,18 +46,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 /**
  * Top level class that initiates rendering via a {@link CharacterPipelineComponent}
  * 
+ * Output is written progressively, character data is coalesced and only flushed to the client
+ * once {@link #setFlushThreshold(int)} bytes are pending, after one of the
+ * {@link #setFlushMarkers(Set)} is written or when a chunk-point (an empty character event from
+ * {@link org.jasig.portal.character.stream.events.ChunkPointPlaceholderEventSource}) is reached.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
-public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
+public class DynamicRenderingPipeline implements IPortalRenderingPipeline, DynamicRenderingPipelineMXBean {
     public static final String CHARACTER_SET = "UTF-8";
     public static final String DEFAULT_MEDIA_TYPE = "text/html";
     
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
+    private final AtomicLong pagesRendered = new AtomicLong();
+    private final AtomicLong totalWrites = new AtomicLong();
+    private final AtomicLong totalFlushes = new AtomicLong();
+    private final AtomicLong totalFirstFlushTime = new AtomicLong();
+    
     private CharacterPipelineComponent pipeline;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private int flushThreshold = 8192;
+    private boolean flushOnChunkPoints = true;
+    private Set<String> flushMarkers = Collections.singleton("</head>");
     
 
     @Autowired
@@ -65,6 +83,82 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.portalEventFactory = portalEventFactory;
     }
 
+    /**
+     * @param flushThreshold Number of pending bytes that triggers a flush to the client, 0 or less flushes after every event. Defaults to 8192
+     */
+    @Override
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    @Override
+    public int getFlushThreshold() {
+        return this.flushThreshold;
+    }
+
+    /**
+     * @param flushOnChunkPoints If true pending output is flushed each time a chunk-point is reached. Defaults to true
+     */
+    @Override
+    public void setFlushOnChunkPoints(boolean flushOnChunkPoints) {
+        this.flushOnChunkPoints = flushOnChunkPoints;
+    }
+
+    @Override
+    public boolean isFlushOnChunkPoints() {
+        return this.flushOnChunkPoints;
+    }
+
+    /**
+     * @param flushMarkers Markup that triggers a flush once written. Defaults to &lt;/head&gt;
+     */
+    public void setFlushMarkers(Set<String> flushMarkers) {
+        if (flushMarkers == null) {
+            this.flushMarkers = Collections.emptySet();
+        }
+        else {
+            this.flushMarkers = Collections.unmodifiableSet(new LinkedHashSet<String>(flushMarkers));
+        }
+    }
+
+    @Override
+    public Set<String> getFlushMarkers() {
+        return this.flushMarkers;
+    }
+
+    @Override
+    public long getPagesRendered() {
+        return this.pagesRendered.get();
+    }
+
+    @Override
+    public long getTotalWrites() {
+        return this.totalWrites.get();
+    }
+
+    @Override
+    public long getTotalFlushes() {
+        return this.totalFlushes.get();
+    }
+
+    @Override
+    public double getAverageFlushesPerPage() {
+        final long pages = this.pagesRendered.get();
+        if (pages == 0) {
+            return 0;
+        }
+        return this.totalFlushes.get() / (double) pages;
+    }
+
+    @Override
+    public double getAverageTimeToFirstFlush() {
+        final long pages = this.pagesRendered.get();
+        if (pages == 0) {
+            return 0;
+        }
+        return (this.totalFirstFlushTime.get() / (double) pages) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
     /**
      * The root element in the rendering pipeline. This element MUST only return {@link CharacterEventTypes#CHARACTER}
      * type events.
@@ -89,20 +183,31 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         final String contentType = mediaType + "; charset=" + CHARACTER_SET;
         res.setContentType(contentType);
         
-        final PrintWriter writer = res.getWriter();
+        //Write to the output stream directly, character data from the theme cache is already UTF-8 encoded
+        final ServletOutputStream outputStream = res.getOutputStream();
+        final ProgressiveFlushingWriter flushingWriter = new ProgressiveFlushingWriter(outputStream, res, this.flushThreshold, this.flushMarkers);
         
         for (final CharacterEvent event : pipelineEventReader) {
             if (CharacterEventTypes.CHARACTER != event.getEventType()) {
                 throw new RenderingPipelineConfigurationException("Only " + CharacterEventTypes.CHARACTER + " events are supported in the top level renderer. " + event.getEventType() + " is not supported.");
             }
             
-            final String data = ((CharacterDataEvent)event).getData();
-            writer.print(data);
-            writer.flush();
-            res.flushBuffer();
+            final CharacterDataEvent dataEvent = (CharacterDataEvent)event;
+            //Empty character events are created by chunk-point elements in the theme
+            if (!flushingWriter.write(dataEvent) && this.flushOnChunkPoints) {
+                flushingWriter.boundary();
+            }
         }
+        flushingWriter.boundary();
         
         final long executionTime = System.nanoTime() - startTime;
+        
+        this.pagesRendered.incrementAndGet();
+        this.totalWrites.addAndGet(flushingWriter.getWrites());
+        this.totalFlushes.addAndGet(flushingWriter.getFlushes());
+        this.totalFirstFlushTime.addAndGet(Math.max(0, flushingWriter.getFirstFlushTime()));
+        this.logger.debug("Rendered {} for {}", flushingWriter, req.getRequestURI());
+        
         final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(req);
         this.portalEventFactory.publishPortalRenderEvent(req, this, req.getPathInfo(), executionTime, portalRequestInfo);
     }
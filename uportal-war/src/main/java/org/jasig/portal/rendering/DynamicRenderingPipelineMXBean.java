@@ -0,0 +1,75 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import java.util.Set;
+
+public interface DynamicRenderingPipelineMXBean {
+    
+    /**
+     * @param flushThreshold Number of pending bytes that triggers a flush to the client
+     */
+    void setFlushThreshold(int flushThreshold);
+    
+    /**
+     * @return Number of pending bytes that triggers a flush to the client
+     */
+    int getFlushThreshold();
+    
+    /**
+     * @param flushOnChunkPoints If pending output should be flushed when a chunk-point is reached
+     */
+    void setFlushOnChunkPoints(boolean flushOnChunkPoints);
+    
+    /**
+     * @return If pending output should be flushed when a chunk-point is reached
+     */
+    boolean isFlushOnChunkPoints();
+    
+    /**
+     * @return Markup that triggers a flush once written
+     */
+    Set<String> getFlushMarkers();
+    
+    /**
+     * @return Number of pages rendered
+     */
+    long getPagesRendered();
+    
+    /**
+     * @return Total number of writes done to the response writer
+     */
+    long getTotalWrites();
+    
+    /**
+     * @return Total number of response flushes
+     */
+    long getTotalFlushes();
+    
+    /**
+     * @return Average number of response flushes per page
+     */
+    double getAverageFlushesPerPage();
+    
+    /**
+     * @return Average time in milliseconds from the start of rendering to the first flush
+     */
+    double getAverageTimeToFirstFlush();
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Coalesces the character data written by the top level renderer and only flushes it to the
+ * client when the configured threshold is exceeded or when a flush boundary is reached. Tracks
+ * the number of writes and flushes done for a single request.
+ *
+ * Data is written using the UTF-8 encoded form from {@link CharacterDataEvent#getEncodedData()}
+ * so character data that is shared by the theme cache is not re-encoded for every request. Flush markers
+ * are matched against the encoded data so the data is never decoded.
+ *
+ * Not thread safe, a new instance must be created for each request.
+ */
+class ProgressiveFlushingWriter {
+    private final OutputStream outputStream;
+    private final HttpServletResponse response;
+    private final int flushThreshold;
+    private final List<byte[]> flushMarkers;
+    private final long startTime;
+
+    private int pendingBytes = 0;
+    private long bytesWritten = 0;
+    private int writes = 0;
+    private int flushes = 0;
+    private long firstFlushTime = -1;
+
+    /**
+     * @param outputStream The stream to write encoded character data to
+     * @param response The response to flush after the stream is flushed
+     * @param flushThreshold Number of buffered bytes that triggers a flush, 0 or less flushes after every write
+     * @param flushMarkers Strings that trigger a flush after being written, for example "&lt;/head&gt;"
+     */
+    public ProgressiveFlushingWriter(OutputStream outputStream, HttpServletResponse response, int flushThreshold, Collection<String> flushMarkers) {
+        this.outputStream = outputStream;
+        this.response = response;
+        this.flushThreshold = flushThreshold;
+        
+        this.flushMarkers = new ArrayList<byte[]>(flushMarkers == null ? 0 : flushMarkers.size());
+        if (flushMarkers != null) {
+            for (final String flushMarker : flushMarkers) {
+                this.flushMarkers.add(flushMarker.getBytes(Charsets.UTF_8));
+            }
+        }
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Write the event's data to the underlying stream, flushing if the threshold is exceeded or
+     * the data contains one of the flush markers.
+     * 
+     * @return false if the event contained no data
+     */
+    public boolean write(CharacterDataEvent event) throws IOException {
+        final byte[] encodedData = event.getEncodedData();
+        final int length = encodedData.length;
+        if (length == 0) {
+            return false;
+        }
+
+        this.outputStream.write(encodedData);
+        this.writes++;
+        this.pendingBytes += length;
+        this.bytesWritten += length;
+
+        if (this.pendingBytes >= this.flushThreshold || this.containsFlushMarker(encodedData)) {
+            this.flush();
+        }
+        
+        return true;
+    }
+
+    /**
+     * Mark a flush boundary in the stream, any pending data is sent to the client.
+     */
+    public void boundary() throws IOException {
+        if (this.pendingBytes > 0) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Flush all pending data to the client
+     */
+    public void flush() throws IOException {
+        this.outputStream.flush();
+        this.response.flushBuffer();
+
+        if (this.firstFlushTime < 0) {
+            this.firstFlushTime = System.nanoTime() - this.startTime;
+        }
+
+        this.pendingBytes = 0;
+        this.flushes++;
+    }
+
+    /**
+     * @return Total number of bytes written
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * @return Number of non-empty writes done against the underlying stream
+     */
+    public int getWrites() {
+        return this.writes;
+    }
+
+    /**
+     * @return Number of times the response was flushed
+     */
+    public int getFlushes() {
+        return this.flushes;
+    }
+
+    /**
+     * @return Nanoseconds from creation until the first flush, -1 if no flush has happened
+     */
+    public long getFirstFlushTime() {
+        return this.firstFlushTime;
+    }
+
+    protected boolean containsFlushMarker(byte[] data) {
+        for (final byte[] flushMarker : this.flushMarkers) {
+            if (indexOf(data, flushMarker) >= 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * UTF-8 is self-synchronizing so a byte match of an encoded marker is always a match of the marker's characters
+     */
+    static int indexOf(byte[] data, byte[] target) {
+        if (target.length == 0) {
+            return 0;
+        }
+
+        final int last = data.length - target.length;
+        outer: for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (data[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "ProgressiveFlushingWriter [bytesWritten=" + this.bytesWritten + ", writes=" + this.writes + ", flushes="
+                + this.flushes + ", firstFlushTime=" + this.firstFlushTime + "]";
+    }
+}
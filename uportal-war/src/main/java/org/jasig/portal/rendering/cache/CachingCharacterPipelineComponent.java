@@ -19,20 +19,76 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.CharacterEventTypes;
+import org.jasig.portal.character.stream.events.EncodedCharacterDataEventImpl;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * component that can cache character pipeline events
  * 
+ * Adjacent character data events are merged into a single event before being cached, empty
+ * events created by chunk-points are kept so the chunk boundaries are preserved. Cached character data
+ * is held only as UTF-8 via {@link EncodedCharacterDataEventImpl} so it can be written to the response
+ * without being re-encoded on every request. Character data and placeholder events are de-duplicated
+ * with a weak interner so identical events are shared across cache entries.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class CachingCharacterPipelineComponent extends CachingPipelineComponent<CharacterEventReader, CharacterEvent> implements CharacterPipelineComponent {
+    private static final Interner<CharacterEvent> EVENT_INTERNER = Interners.newWeakInterner();
+    
+    @Override
+    protected List<CharacterEvent> bufferEvents(Iterable<CharacterEvent> events) {
+        final ArrayList<CharacterEvent> eventCache = new ArrayList<CharacterEvent>();
+        final StringBuilder pendingData = new StringBuilder();
+        int eventCount = 0;
+        
+        for (final CharacterEvent event : events) {
+            eventCount++;
+            
+            if (CharacterEventTypes.CHARACTER == event.getEventType()) {
+                final String data = ((CharacterDataEvent)event).getData();
+                if (data.length() > 0) {
+                    pendingData.append(data);
+                    continue;
+                }
+                
+                //Empty event is a chunk-point, write out pending data and keep the boundary
+                addPendingData(eventCache, pendingData);
+                eventCache.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+            }
+            else {
+                addPendingData(eventCache, pendingData);
+                eventCache.add(EVENT_INTERNER.intern(event));
+            }
+        }
+        addPendingData(eventCache, pendingData);
+        
+        eventCache.trimToSize();
+        this.logger.debug("Compacted {} character events into {} cached events", eventCount, eventCache.size());
+        return eventCache;
+    }
+
+    private void addPendingData(List<CharacterEvent> eventCache, StringBuilder pendingData) {
+        if (pendingData.length() > 0) {
+            final CharacterDataEvent event = EncodedCharacterDataEventImpl.create(pendingData.toString());
+            eventCache.add(EVENT_INTERNER.intern(event));
+            pendingData.setLength(0);
+        }
+    }
     
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
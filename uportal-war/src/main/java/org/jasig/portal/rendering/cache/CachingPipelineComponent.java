@@ -19,8 +19,8 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -99,12 +99,8 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
             final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
 
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
-            for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
-            }
+            //Copy the events from the reader into a compact buffer to be cached
+            final List<E> eventCache = this.bufferEvents(pipelineEventReader);
 
             final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
             cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties));
@@ -125,6 +121,20 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
     
+    /**
+     * Copy the events from the reader into the buffer that will be cached. The default implementation
+     * copies the events into an array backed list with no spare capacity, subclasses can override to
+     * merge or de-duplicate events.
+     */
+    protected List<E> bufferEvents(Iterable<E> events) {
+        final ArrayList<E> eventCache = new ArrayList<E>();
+        for (final E event : events) {
+            eventCache.add(event);
+        }
+        eventCache.trimToSize();
+        return eventCache;
+    }
+    
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
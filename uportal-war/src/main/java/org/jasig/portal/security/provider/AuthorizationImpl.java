@@ -22,11 +22,14 @@ package org.jasig.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
@@ -101,11 +104,23 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /** The cache to hold the effective permission index for each principal. */
+    private Ehcache effectivePermissionIndexCache;
+
+    /** Versions of the permissions of each principal, striped by principal string. */
+    private final AtomicLongArray permissionVersions = new AtomicLongArray(PERMISSION_VERSION_STRIPES);
+
+    /** Number of stripes used to track permission versions. */
+    private static final int PERMISSION_VERSION_STRIPES = 4096;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
     /** variable to determine if we should cache permissions or not. */
     private boolean cachePermissions = true;
+
+    /** variable to determine if permission checks use the effective permission index. */
+    private boolean useEffectivePermissionIndex = false;
     
     
     @Autowired
@@ -120,6 +135,10 @@ public class AuthorizationImpl implements IAuthorizationService {
     public void setCachePermissions(boolean cachePermissions) {
         this.cachePermissions = cachePermissions;
     }
+    @Value("${org.jasig.portal.security.IAuthorizationService.useEffectivePermissionIndex:false}")
+    public void setUseEffectivePermissionIndex(boolean useEffectivePermissionIndex) {
+        this.useEffectivePermissionIndex = useEffectivePermissionIndex;
+    }
     @Autowired
     public void setPrincipalCache(@Qualifier(CacheFactory.PRINCIPAL_CACHE)  Ehcache principalCache) {
         this.principalCache = new SelfPopulatingCache(principalCache, new CacheEntryFactory() {
@@ -139,6 +158,10 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
     @Autowired
+    public void setEffectivePermissionIndexCache(@Qualifier("org.jasig.portal.security.provider.AuthorizationImpl.EFFECTIVE_PERMISSION_INDEX") Ehcache effectivePermissionIndexCache) {
+        this.effectivePermissionIndexCache = effectivePermissionIndexCache;
+    }
+    @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
     }
@@ -154,6 +177,7 @@ throws AuthorizationException
     if (permissions.length > 0)
     {
         getPermissionStore().add(permissions);
+        invalidateEffectivePermissions(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
     }
@@ -463,17 +487,147 @@ throws AuthorizationException
             return (Boolean) element.getValue();
         }
 
-        final boolean doesPrincipalHavePermission = policy.doesPrincipalHavePermission(this,
-                principal,
-                owner,
-                activity,
-                target);
+        final boolean doesPrincipalHavePermission;
+        if (this.useEffectivePermissionIndex && owner != null && activity != null && target != null
+                && AnyUnblockedGrantPermissionPolicy.class.equals(policy.getClass())) {
+            doesPrincipalHavePermission = doesPrincipalHaveIndexedPermission(principal, owner, activity, target, policy);
+        }
+        else {
+            doesPrincipalHavePermission = policy.doesPrincipalHavePermission(this,
+                    principal,
+                    owner,
+                    activity,
+                    target);
+        }
         
         this.doesPrincipalHavePermissionCache.put(new Element(key, doesPrincipalHavePermission));
 
         return doesPrincipalHavePermission;
     }
 
+    /**
+     * Answers the permission question from the principal's {@link EffectivePermissionIndex}, following the
+     * same steps as {@link AnyUnblockedGrantPermissionPolicy}. Falls back to the policy if the index
+     * cannot be built.
+     */
+    private boolean doesPrincipalHaveIndexedPermission(IAuthorizationPrincipal principal, String owner,
+            String activity, String target, IPermissionPolicy policy) throws AuthorizationException {
+
+        final EffectivePermissionIndex index;
+        try {
+            index = getEffectivePermissionIndex(principal);
+        }
+        catch (Exception e) {
+            log.warn("Failed to build effective permission index for principal [" + principal + "], falling back to " + policy, e);
+            return policy.doesPrincipalHavePermission(this, principal, owner, activity, target);
+        }
+
+        return doesIndexGrantPermission(index, owner, activity, target);
+    }
+
+    private boolean doesIndexGrantPermission(EffectivePermissionIndex index, String owner, String activity, String target)
+            throws AuthorizationException {
+
+        // super-user
+        if (!IPermission.ALL_PERMISSIONS_ACTIVITY.equals(activity)
+                && doesIndexGrantPermission(index, IPermission.PORTAL_SYSTEM,
+                        IPermission.ALL_PERMISSIONS_ACTIVITY, IPermission.ALL_TARGET)) {
+            return true;
+        }
+
+        final Set<String> containingGroups = getTargetContainingGroups(target);
+        final Collection<String> targets;
+        if (containingGroups.isEmpty()) {
+            targets = Collections.singleton(target);
+        }
+        else {
+            targets = new HashSet<String>(containingGroups);
+            targets.add(target);
+        }
+
+        final int resolution = index.resolve(owner, activity, targets);
+        if (resolution == EffectivePermissionIndex.EXPLICIT_DENY) {
+            return false;
+        }
+        if (resolution == EffectivePermissionIndex.EXPLICIT_GRANT) {
+            return true;
+        }
+
+        if (target.startsWith(IPermission.PORTLET_PREFIX)
+                && doesIndexGrantPermission(index, owner, activity, IPermission.ALL_PORTLETS_TARGET)) {
+            return true;
+        }
+
+        final IEntityGroup targetGroup = GroupService.findGroup(target);
+        if (targetGroup != null) {
+            if ((targetGroup.getEntityType().equals(IPortletDefinition.class)
+                    && doesIndexGrantPermission(index, owner, activity, IPermission.ALL_CATEGORIES_TARGET))
+                    || doesIndexGrantPermission(index, owner, activity, IPermission.ALL_GROUPS_TARGET)) {
+                return true;
+            }
+        }
+
+        return resolution == EffectivePermissionIndex.INHERITED_GRANT;
+    }
+
+    /**
+     * Get the current {@link EffectivePermissionIndex} for the principal, building a new one if
+     * there is none cached or the cached index is out of date.
+     */
+    private EffectivePermissionIndex getEffectivePermissionIndex(IAuthorizationPrincipal principal)
+            throws AuthorizationException {
+
+        final CacheKeyBuilder<Serializable, Serializable> cacheKeyBuilder = CacheKey.builder(EffectivePermissionIndex.class.getName());
+        if (IPerson.class.equals(principal.getType())) {
+            cacheKeyBuilder.addTag(UsernameTaggedCacheEntryPurger.createCacheEntryTag(principal.getKey()));
+        }
+        cacheKeyBuilder.add(getPrincipalString(principal));
+        final CacheKey key = cacheKeyBuilder.build();
+
+        final Element element = this.effectivePermissionIndexCache.get(key);
+        if (element != null) {
+            final EffectivePermissionIndex index = (EffectivePermissionIndex) element.getObjectValue();
+            if (index.isCurrent(this, System.currentTimeMillis())) {
+                return index;
+            }
+        }
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this, principal);
+        this.effectivePermissionIndexCache.put(new Element(key, index));
+
+        if (log.isDebugEnabled()) {
+            log.debug("Built " + index);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return The version of the permissions of the principal, changes when permissions for the principal are added, updated or removed
+     */
+    long getPermissionVersion(IAuthorizationPrincipal principal) {
+        return getPermissionVersion(getPrincipalString(principal));
+    }
+
+    long getPermissionVersion(String principalString) {
+        return this.permissionVersions.get(getPermissionVersionStripe(principalString));
+    }
+
+    /**
+     * Marks the effective permission indexes that include the principals of the permissions as out of date.
+     */
+    private void invalidateEffectivePermissions(IPermission[] permissions) {
+        for (final IPermission permission : permissions) {
+            this.permissionVersions.incrementAndGet(getPermissionVersionStripe(permission.getPrincipal()));
+        }
+    }
+
+    private int getPermissionVersionStripe(String principalString) {
+        int h = principalString.hashCode();
+        h ^= (h >>> 16);
+        return h & (PERMISSION_VERSION_STRIPES - 1);
+    }
+
 /**
  * Returns the <code>IPermissions</code> owner has granted this <code>Principal</code> for
  * the specified activity and target.  Null parameters will be ignored, that is, all
@@ -901,7 +1055,56 @@ throws AuthorizationException
     if ( owner == null && activity == null && target == null )
         { return perms; }
 
-	Set<String> containingGroups;
+	final Set<String> containingGroups = getTargetContainingGroups(target);
+
+    List<IPermission> al = new ArrayList<IPermission>(perms.length);
+    
+    for ( int i=0; i<perms.length; i++ ) {
+        String permissionTarget = perms[i].getTarget();
+        
+        if (
+        		// owner matches
+        		(owner == null || owner.equals(perms[i].getOwner())) &&
+        		// activity matches
+                (activity == null || activity.equals(perms[i].getActivity())) &&
+                // target matches or is a member of the current permission target
+                (target == null || target.equals(permissionTarget) 
+                		|| containingGroups.contains(permissionTarget))    
+            ) {
+        	
+            al.add(perms[i]);
+        } 
+        
+    }
+
+
+    
+    if (log.isTraceEnabled()) {
+        log.trace(
+                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
+                "Principal: " + principal + " owner: " + owner +
+                " activity: " + activity + " target: " + target + " : permissions retrieved: " + al);
+    } else if (log.isDebugEnabled()) {
+        log.debug(
+                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
+                "Principal: " + principal + " owner: " + owner +
+                " activity: " + activity + " target: " + target + " : number of permissions retrieved: " + al.size());
+    }
+
+
+    return ((IPermission[])al.toArray(new IPermission[al.size()]));
+
+}
+
+/**
+ * Returns the keys of the groups containing the target, permissions granted on any of
+ * these groups also apply to the target.
+ * @return Set of group keys, empty if the target is null or not a group member
+ * @param target String
+ */
+private Set<String> getTargetContainingGroups(String target)
+{
+    Set<String> containingGroups;
 	
 	if (target != null) {
 		
@@ -943,43 +1146,8 @@ throws AuthorizationException
 		containingGroups = new HashSet<String>();
 	}
 
-    List<IPermission> al = new ArrayList<IPermission>(perms.length);
-    
-    for ( int i=0; i<perms.length; i++ ) {
-        String permissionTarget = perms[i].getTarget();
-        
-        if (
-        		// owner matches
-        		(owner == null || owner.equals(perms[i].getOwner())) &&
-        		// activity matches
-                (activity == null || activity.equals(perms[i].getActivity())) &&
-                // target matches or is a member of the current permission target
-                (target == null || target.equals(permissionTarget) 
-                		|| containingGroups.contains(permissionTarget))    
-            ) {
-        	
-            al.add(perms[i]);
-        } 
-        
-    }
-
-
-    
-    if (log.isTraceEnabled()) {
-        log.trace(
-                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
-                "Principal: " + principal + " owner: " + owner +
-                " activity: " + activity + " target: " + target + " : permissions retrieved: " + al);
-    } else if (log.isDebugEnabled()) {
-        log.debug(
-                "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
-                "Principal: " + principal + " owner: " + owner +
-                " activity: " + activity + " target: " + target + " : number of permissions retrieved: " + al.size());
-    }
-
-
-    return ((IPermission[])al.toArray(new IPermission[al.size()]));
 
+    return containingGroups;
 }
 
 /**
@@ -1029,6 +1197,7 @@ throws AuthorizationException
     if (permissions.length > 0)
     {
         getPermissionStore().delete(permissions);
+        invalidateEffectivePermissions(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
     }
@@ -1045,6 +1214,7 @@ throws AuthorizationException
     if (permissions.length > 0)
     {
         getPermissionStore().update(permissions);
+        invalidateEffectivePermissions(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
     }
@@ -0,0 +1,338 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.security.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.groups.GroupMemberVersions;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.utils.Tuple;
+
+/**
+ * The permissions that apply to a single principal, materialized with one walk up the principal's
+ * containing groups. Every principal reached by the walk is a node, node 0 is the principal itself.
+ * For each owner, activity and target with an active permission on any node the GRANT/DENY flags
+ * of every node are stored in a byte array along with the resolution of that triple under the
+ * {@link AnyUnblockedGrantPermissionPolicy} rules.
+ * <p/>
+ * The index records the permission and membership versions of every node when it is built and is
+ * only current while none of them change and no permission crosses its effective or expires date.
+ */
+class EffectivePermissionIndex {
+    /** No active permission applies to the principal */
+    static final int NONE = 0;
+    /** The principal has an explicit GRANT and no explicit DENY */
+    static final int EXPLICIT_GRANT = 1;
+    /** The principal has an explicit DENY */
+    static final int EXPLICIT_DENY = 2;
+    /** The principal has an unblocked path to a GRANT on a containing group */
+    static final int INHERITED_GRANT = 3;
+
+    private static final byte GRANT = 1;
+    private static final byte DENY = 2;
+
+    private static final Log log = LogFactory.getLog(EffectivePermissionIndex.class);
+
+    private final String[] principalStrings;
+    private final Class<?>[] types;
+    private final String[] keys;
+    private final long[] permissionVersions;
+    private final long[] membershipVersions;
+    private final int[][] parents;
+    private final Map<Tuple<String, String>, Map<String, TargetPermissions>> permissions;
+    private final long nextChange;
+
+    private EffectivePermissionIndex(List<IAuthorizationPrincipal> nodes, String[] principalStrings,
+            long[] permissionVersions, long[] membershipVersions, int[][] parents,
+            Map<Tuple<String, String>, Map<String, byte[]>> flags, long nextChange) {
+
+        final int size = nodes.size();
+        this.principalStrings = principalStrings;
+        this.types = new Class<?>[size];
+        this.keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            final IAuthorizationPrincipal node = nodes.get(i);
+            this.types[i] = node.getType();
+            this.keys[i] = node.getKey();
+        }
+        this.permissionVersions = permissionVersions;
+        this.membershipVersions = membershipVersions;
+        this.parents = parents;
+        this.nextChange = nextChange;
+
+        this.permissions = new HashMap<Tuple<String, String>, Map<String, TargetPermissions>>(flags.size());
+        for (final Map.Entry<Tuple<String, String>, Map<String, byte[]>> activityEntry : flags.entrySet()) {
+            final Map<String, byte[]> targetFlags = activityEntry.getValue();
+            final Map<String, TargetPermissions> targetPermissions = new HashMap<String, TargetPermissions>(targetFlags.size());
+            for (final Map.Entry<String, byte[]> targetEntry : targetFlags.entrySet()) {
+                final byte[] nodeFlags = Arrays.copyOf(targetEntry.getValue(), size);
+                targetPermissions.put(targetEntry.getKey(), new TargetPermissions(nodeFlags, this.resolve(nodeFlags)));
+            }
+            this.permissions.put(activityEntry.getKey(), targetPermissions);
+        }
+    }
+
+    /**
+     * Walk the containing groups of the principal and collect the permissions of every principal
+     * reached.
+     */
+    static EffectivePermissionIndex build(AuthorizationImpl authorizationService, IAuthorizationPrincipal principal)
+            throws AuthorizationException {
+
+        final long now = System.currentTimeMillis();
+        long nextChange = Long.MAX_VALUE;
+
+        final List<IAuthorizationPrincipal> nodes = new ArrayList<IAuthorizationPrincipal>();
+        final List<IGroupMember> members = new ArrayList<IGroupMember>();
+        final Map<String, Integer> nodeIds = new HashMap<String, Integer>();
+        final List<int[]> parentIds = new ArrayList<int[]>();
+        final List<Long> permissionVersions = new ArrayList<Long>();
+        final List<Long> membershipVersions = new ArrayList<Long>();
+        final Map<Tuple<String, String>, Map<String, byte[]>> flags = new HashMap<Tuple<String, String>, Map<String, byte[]>>();
+
+        nodes.add(principal);
+        members.add(authorizationService.getGroupMember(principal));
+        nodeIds.put(authorizationService.getPrincipalString(principal), 0);
+
+        for (int node = 0; node < nodes.size(); node++) {
+            final IAuthorizationPrincipal nodePrincipal = nodes.get(node);
+            final IGroupMember member = members.get(node);
+
+            //Versions are read before the data they guard so a concurrent change is never missed
+            permissionVersions.add(authorizationService.getPermissionVersion(nodePrincipal));
+            membershipVersions.add(GroupMemberVersions.getVersion(nodePrincipal.getType(), nodePrincipal.getKey()));
+
+            final IPermission[] nodePermissions = authorizationService.getPermissionsForPrincipal(nodePrincipal, null, null, null);
+            for (final IPermission permission : nodePermissions) {
+                final Date effective = permission.getEffective();
+                if (effective != null && effective.getTime() > now) {
+                    nextChange = Math.min(nextChange, effective.getTime());
+                    continue;
+                }
+
+                final Date expires = permission.getExpires();
+                if (expires != null) {
+                    if (expires.getTime() <= now) {
+                        continue;
+                    }
+                    nextChange = Math.min(nextChange, expires.getTime());
+                }
+
+                final byte flag;
+                if (IPermission.PERMISSION_TYPE_GRANT.equals(permission.getType())) {
+                    flag = GRANT;
+                }
+                else if (IPermission.PERMISSION_TYPE_DENY.equals(permission.getType())) {
+                    flag = DENY;
+                }
+                else {
+                    continue;
+                }
+
+                setFlag(flags, permission, node, flag);
+            }
+
+            final List<Integer> nodeParents = new ArrayList<Integer>();
+            if (member != null) {
+                for (final Iterator<IGroupMember> groupItr = member.getContainingGroups(); groupItr.hasNext();) {
+                    final IGroupMember parentGroup = groupItr.next();
+                    if (parentGroup == null) {
+                        continue;
+                    }
+
+                    try {
+                        final IAuthorizationPrincipal parentPrincipal = authorizationService.newPrincipal(parentGroup);
+                        final String parentString = authorizationService.getPrincipalString(parentPrincipal);
+                        Integer parentId = nodeIds.get(parentString);
+                        if (parentId == null) {
+                            parentId = nodes.size();
+                            nodes.add(parentPrincipal);
+                            members.add(parentGroup);
+                            nodeIds.put(parentString, parentId);
+                        }
+                        nodeParents.add(parentId);
+                    }
+                    catch (Exception e) {
+                        //Same as the policy, a broken portion of the group structure doesn't stop the rest from being indexed
+                        log.error("Error indexing permissions of parent group [" + parentGroup + "]", e);
+                    }
+                }
+            }
+
+            final int[] parents = new int[nodeParents.size()];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = nodeParents.get(i);
+            }
+            parentIds.add(parents);
+        }
+
+        final int size = nodes.size();
+        final String[] principalStrings = new String[size];
+        final long[] permissionVersionArray = new long[size];
+        final long[] membershipVersionArray = new long[size];
+        for (final Map.Entry<String, Integer> nodeIdEntry : nodeIds.entrySet()) {
+            principalStrings[nodeIdEntry.getValue()] = nodeIdEntry.getKey();
+        }
+        for (int i = 0; i < size; i++) {
+            permissionVersionArray[i] = permissionVersions.get(i);
+            membershipVersionArray[i] = membershipVersions.get(i);
+        }
+
+        return new EffectivePermissionIndex(nodes, principalStrings, permissionVersionArray, membershipVersionArray,
+                parentIds.toArray(new int[size][]), flags, nextChange);
+    }
+
+    private static void setFlag(Map<Tuple<String, String>, Map<String, byte[]>> flags, IPermission permission, int node, byte flag) {
+        final Tuple<String, String> ownerActivity = new Tuple<String, String>(permission.getOwner(), permission.getActivity());
+        Map<String, byte[]> targetFlags = flags.get(ownerActivity);
+        if (targetFlags == null) {
+            targetFlags = new HashMap<String, byte[]>();
+            flags.put(ownerActivity, targetFlags);
+        }
+
+        byte[] nodeFlags = targetFlags.get(permission.getTarget());
+        if (nodeFlags == null || nodeFlags.length <= node) {
+            nodeFlags = nodeFlags == null ? new byte[node + 1] : Arrays.copyOf(nodeFlags, node + 1);
+            targetFlags.put(permission.getTarget(), nodeFlags);
+        }
+        nodeFlags[node] |= flag;
+    }
+
+    /**
+     * @return true if no permission or group membership used by the index has changed and no indexed permission has become effective or expired
+     */
+    boolean isCurrent(AuthorizationImpl authorizationService, long now) {
+        if (now >= this.nextChange) {
+            return false;
+        }
+
+        for (int i = 0; i < this.principalStrings.length; i++) {
+            if (this.permissionVersions[i] != authorizationService.getPermissionVersion(this.principalStrings[i])
+                    || this.membershipVersions[i] != GroupMemberVersions.getVersion(this.types[i], this.keys[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Resolve the permissions for the owner and activity on any of the targets. A permission on any of the
+     * targets applies to a node, as with the target's containing groups in
+     * {@link AuthorizationImpl#getPermissionsForPrincipal(IAuthorizationPrincipal, String, String, String)}
+     *
+     * @return One of {@link #NONE}, {@link #EXPLICIT_GRANT}, {@link #EXPLICIT_DENY} or {@link #INHERITED_GRANT}
+     */
+    int resolve(String owner, String activity, Collection<String> targets) {
+        final Map<String, TargetPermissions> targetPermissions = this.permissions.get(new Tuple<String, String>(owner, activity));
+        if (targetPermissions == null) {
+            return NONE;
+        }
+
+        if (targets.size() == 1) {
+            final TargetPermissions permissions = targetPermissions.get(targets.iterator().next());
+            return permissions != null ? permissions.resolution : NONE;
+        }
+
+        byte[] nodeFlags = null;
+        for (final String target : targets) {
+            final TargetPermissions permissions = targetPermissions.get(target);
+            if (permissions == null) {
+                continue;
+            }
+
+            if (nodeFlags == null) {
+                nodeFlags = permissions.nodeFlags.clone();
+            }
+            else {
+                for (int i = 0; i < nodeFlags.length; i++) {
+                    nodeFlags[i] |= permissions.nodeFlags[i];
+                }
+            }
+        }
+
+        if (nodeFlags == null) {
+            return NONE;
+        }
+        return this.resolve(nodeFlags);
+    }
+
+    private int resolve(byte[] nodeFlags) {
+        if ((nodeFlags[0] & DENY) != 0) {
+            return EXPLICIT_DENY;
+        }
+        if ((nodeFlags[0] & GRANT) != 0) {
+            return EXPLICIT_GRANT;
+        }
+        if (this.hasUnblockedPathToGrant(0, nodeFlags, new BitSet(nodeFlags.length))) {
+            return INHERITED_GRANT;
+        }
+        return NONE;
+    }
+
+    private boolean hasUnblockedPathToGrant(int node, byte[] nodeFlags, BitSet seen) {
+        if (seen.get(node)) {
+            return false;
+        }
+        seen.set(node);
+
+        for (final int parent : this.parents[node]) {
+            final byte parentFlags = nodeFlags[parent];
+            if ((parentFlags & DENY) != 0) {
+                continue;
+            }
+            if ((parentFlags & GRANT) != 0 || this.hasUnblockedPathToGrant(parent, nodeFlags, seen)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "EffectivePermissionIndex [principal=" + this.principalStrings[0] + ", nodes=" + this.principalStrings.length
+                + ", ownerActivities=" + this.permissions.size() + "]";
+    }
+
+    private static final class TargetPermissions {
+        private final byte[] nodeFlags;
+        private final int resolution;
+
+        public TargetPermissions(byte[] nodeFlags, int resolution) {
+            this.nodeFlags = nodeFlags;
+            this.resolution = resolution;
+        }
+    }
+}
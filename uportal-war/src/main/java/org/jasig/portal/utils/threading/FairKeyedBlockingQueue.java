@@ -0,0 +1,426 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+
+/**
+ * A thread-safe blocking queue that places elements into sub-queues based on the key returned for each element by
+ * {@link #getElementKey(Object)} and returns elements round-robin across the keys that have queued elements, so a
+ * burst of elements for one key cannot starve the elements queued for other keys.
+ * <p/>
+ * Unlike {@link QualityOfServiceBlockingQueue} no global lock is used. Each key has its own
+ * {@link ConcurrentLinkedQueue} and keys with queued elements are linked into a concurrent ready ring; a key is
+ * in the ring at most once. Element and capacity counts are tracked with {@link Semaphore}s so blocking
+ * operations only park when the queue is actually empty or full.
+ * <p/>
+ * {@link #peek()} and {@link #iterator()} are weakly consistent, the element returned by {@link #peek()} is not
+ * guaranteed to be the next element returned by {@link #poll()}.
+ * 
+ * @param <K> The type of key used for grouping elements in the queue
+ * @param <T> The type of elements in the queue
+ */
+public abstract class FairKeyedBlockingQueue<K, T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private final ConcurrentMap<K, KeyQueue<T>> keyedQueues = new ConcurrentHashMap<K, KeyQueue<T>>();
+    private final Set<K> queueKeySet = Collections.unmodifiableSet(this.keyedQueues.keySet()); 
+    private final Queue<KeyQueue<T>> readyQueues = new ConcurrentLinkedQueue<KeyQueue<T>>();
+    
+    private final int capacity;
+    private final Semaphore available = new Semaphore(0);
+    private final Semaphore space;
+    
+    public FairKeyedBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+    
+    public FairKeyedBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        
+        this.capacity = capacity;
+        this.space = new Semaphore(capacity);
+    }
+
+    /**
+     * @return the key for the specified element
+     */
+    protected abstract K getElementKey(T e);
+    
+    /**
+     * @return A read only Set of the keys in the queue
+     */
+    public final Set<K> getKeySet() {
+        return queueKeySet;
+    }
+    
+    /**
+     * @return The number of elements in the queue for the specified key
+     */
+    public final int getKeySize(K key) {
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        
+        return queue.size.get();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#offer(java.lang.Object)
+     */
+    @Override
+    public final boolean offer(T e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        if (!this.space.tryAcquire()) {
+            return false;
+        }
+        
+        this.enqueue(e);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    @Override
+    public final void put(T e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        this.space.acquire();
+        this.enqueue(e);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        if (!this.space.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        
+        this.enqueue(e);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#poll()
+     */
+    @Override
+    public final T poll() {
+        if (!this.available.tryAcquire()) {
+            return null;
+        }
+        
+        return this.dequeue();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    @Override
+    public final T take() throws InterruptedException {
+        this.available.acquire();
+        return this.dequeue();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!this.available.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        
+        return this.dequeue();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#peek()
+     */
+    @Override
+    public final T peek() {
+        for (final KeyQueue<T> queue : this.readyQueues) {
+            final T e = queue.elements.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    @Override
+    public final int remainingCapacity() {
+        return this.space.availablePermits();
+    }
+
+    /**
+     * Includes elements that are in the process of being added or removed, the returned size will never be less
+     * than the number of elements actually in the queue.
+     */
+    @Override
+    public final int size() {
+        return this.capacity - this.space.availablePermits();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remove(java.lang.Object)
+     */
+    @Override
+    public final boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+        
+        //Claim an element before removing so a consumer never waits on an element that was removed out from under it
+        if (!this.available.tryAcquire()) {
+            return false;
+        }
+        
+        if (queue.elements.remove(o)) {
+            queue.size.decrementAndGet();
+            this.space.release();
+            return true;
+        }
+        
+        this.available.release();
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#contains(java.lang.Object)
+     */
+    @Override
+    public final boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+        
+        return queue.elements.contains(o);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        
+        int count = 0;
+        while (count < maxElements) {
+            final T e = this.poll();
+            if (e == null) {
+                break;
+            }
+            
+            c.add(e);
+            count++;
+        }
+        
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#clear()
+     */
+    @Override
+    public final void clear() {
+        while (this.poll() != null) {
+            //Poll until empty
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#iterator()
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        return new ElementIterator();
+    }
+
+    /**
+     * Add the element to its key's queue, make sure the key is in the ready ring and then signal consumers. Space
+     * for the element must already be acquired.
+     */
+    private void enqueue(T e) {
+        final KeyQueue<T> queue = this.getOrCreateQueue(e);
+        queue.elements.offer(e);
+        queue.size.incrementAndGet();
+        this.schedule(queue);
+        this.available.release();
+    }
+    
+    /**
+     * Remove the next element round-robin across the ready keys. An element must already be claimed from
+     * {@link #available}.
+     */
+    private T dequeue() {
+        while (true) {
+            final KeyQueue<T> queue = this.readyQueues.poll();
+            if (queue == null) {
+                //The claimed element is in a key queue currently held by another consumer, it will be back in the ring momentarily
+                Thread.yield();
+                continue;
+            }
+            
+            final T e = queue.elements.poll();
+            if (e != null) {
+                queue.size.decrementAndGet();
+            }
+            
+            if (queue.elements.isEmpty()) {
+                //Unschedule then re-check to avoid losing an element added after the isEmpty check
+                queue.scheduled.set(false);
+                if (!queue.elements.isEmpty()) {
+                    this.schedule(queue);
+                }
+            }
+            else {
+                //Send the key to the back of the ring so other keys get a turn
+                this.readyQueues.offer(queue);
+            }
+            
+            if (e != null) {
+                this.space.release();
+                return e;
+            }
+        }
+    }
+    
+    private void schedule(KeyQueue<T> queue) {
+        if (queue.scheduled.compareAndSet(false, true)) {
+            this.readyQueues.offer(queue);
+        }
+    }
+    
+    private KeyQueue<T> getOrCreateQueue(T e) {
+        final K key = this.getElementKey(e);
+        KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            queue = ConcurrentMapUtils.putIfAbsent(this.keyedQueues, key, new KeyQueue<T>());
+        }
+        return queue;
+    }
+    
+    /**
+     * Elements queued for a single key
+     */
+    private static final class KeyQueue<T> {
+        private final Queue<T> elements = new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+    
+    /**
+     * Weakly consistent iterator over all of the key queues
+     */
+    private class ElementIterator implements Iterator<T> {
+        private final Iterator<KeyQueue<T>> queueIterator = keyedQueues.values().iterator();
+        private Iterator<T> elementIterator = Collections.<T>emptySet().iterator();
+        private T last = null;
+
+        @Override
+        public boolean hasNext() {
+            while (!this.elementIterator.hasNext()) {
+                if (!this.queueIterator.hasNext()) {
+                    return false;
+                }
+                this.elementIterator = this.queueIterator.next().elements.iterator();
+            }
+            
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            this.last = this.elementIterator.next();
+            return this.last;
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            
+            FairKeyedBlockingQueue.this.remove(this.last);
+            this.last = null;
+        }
+    }
+}
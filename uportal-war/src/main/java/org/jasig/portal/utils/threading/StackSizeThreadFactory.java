@@ -0,0 +1,54 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * {@link CustomizableThreadFactory} that creates threads with a specific stack size. Useful for
+ * pools with a large number of threads that spend most of their time blocked on I/O where the
+ * default stack size would waste a significant amount of memory.
+ * <p/>
+ * Note that the stack size is only a hint to the JVM, see {@link Thread#Thread(ThreadGroup, Runnable, String, long)}
+ */
+public class StackSizeThreadFactory extends CustomizableThreadFactory {
+    private static final long serialVersionUID = 1L;
+    
+    private long stackSize = 0;
+    
+    /**
+     * @param stackSize The desired stack size in bytes for new threads, 0 uses the JVM default.
+     */
+    public void setStackSize(long stackSize) {
+        this.stackSize = stackSize;
+    }
+    
+    public long getStackSize() {
+        return this.stackSize;
+    }
+
+    @Override
+    public Thread createThread(Runnable runnable) {
+        final Thread thread = new Thread(getThreadGroup(), runnable, nextThreadName(), this.stackSize);
+        thread.setPriority(getThreadPriority());
+        thread.setDaemon(isDaemon());
+        return thread;
+    }
+}
@@ -35,3 +35,11 @@
                     </c:forEach>
                 </form:select>
             </p>
+            <p>
+                <form:label path="totalExecutions"><spring:message code="total.executions"/></form:label>
+                <form:checkbox path="totalExecutions" />
+            </p>
+            <p>
+                <form:label path="executionTimePercentiles"><spring:message code="execution.time.percentiles"/></form:label>
+                <form:checkbox path="executionTimePercentiles" />
+            </p>
@@ -95,6 +95,7 @@
                 </form:select> 
             </p>
             <p id="${n}_formError" class="portlet-msg-error" style="display: none"></p>
+            <p id="${n}_formInfo" class="portlet-msg-info" style="display: none"></p>
             <jsp:include page="/WEB-INF/jsp/Statistics/${reportName}_FormFragment.jsp"/>
             <p>
                 <form:label path="groups"><spring:message code="groups"/></form:label>
@@ -262,6 +263,7 @@ up.jQuery(function() {
       };
 
       var cacheKey = $.param(data);
+      data.report = '${reportName}';
       var intervalInfo = intervalsCache[cacheKey];
 
       if (intervalInfo == undefined) {
@@ -279,10 +281,24 @@ up.jQuery(function() {
          intervalsCache[cacheKey] = intervalInfo;
       }
 
+      // The report uses a coarser interval if the range has too many of the selected intervals
+      var reportInterval = data.interval;
+      if (intervalInfo.coarsenedInterval) {
+         reportInterval = intervalInfo.coarsenedInterval;
+         $("#${n}_formInfo").text(
+               "There are more than " + intervalInfo.maxIntervals + " "
+                     + data.interval + " intervals between " + data.start
+                     + " and " + data.end + ", the report will use "
+                     + reportInterval + " intervals instead");
+         $("#${n}_formInfo").show();
+      } else {
+         $("#${n}_formInfo").hide();
+      }
+
       if (intervalInfo.intervalsBetween > intervalInfo.maxIntervals) {
          $("#${n}_formError").text(
                "There are " + intervalInfo.intervalsBetween + " "
-                     + data.interval + " intervals between " + data.start
+                     + reportInterval + " intervals between " + data.start
                      + " and " + data.end
                      + " which is more than the maximum of "
                      + intervalInfo.maxIntervals);
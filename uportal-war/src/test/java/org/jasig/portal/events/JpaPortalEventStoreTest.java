@@ -20,6 +20,7 @@
 package org.jasig.portal.events;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -40,6 +41,7 @@ import javax.xml.namespace.QName;
 import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PersistentPortalEvent;
 import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
 import org.jasig.portal.security.SystemPerson;
 import org.jasig.portal.test.BaseRawEventsJpaDaoTest;
@@ -144,6 +146,41 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
     }
 
+    @Test
+    public void testDeleteEventBuckets() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(originalEvents);
+            }
+        });
+        
+        verifyGetEvents(originalEvents, startDate, endDate);
+        
+        //Events may span a bucket boundary
+        final int firstBucket = PersistentPortalEvent.getBucket(originalEvents.get(0).getTimestampAsDate());
+        final int lastBucket = PersistentPortalEvent.getBucket(originalEvents.get(originalEvents.size() - 1).getTimestampAsDate());
+        assertFalse(portalEventDao.isBucketPurgeEnabled());
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                int deleted = 0;
+                for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+                    deleted += portalEventDao.deletePortalEventBucket(bucket);
+                }
+                assertEquals(originalEvents.size(), deleted);
+            }
+        });
+        
+        verifyGetEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+    }
+
     protected void verifyGetEvents(final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
         execute(new CallableWithoutResult() {
             @Override
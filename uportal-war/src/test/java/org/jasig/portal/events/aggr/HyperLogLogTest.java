@@ -0,0 +1,89 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+    @Test
+    public void testSmallCardinality() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        assertEquals(0, hyperLogLog.cardinality());
+        
+        assertTrue(hyperLogLog.add("user1"));
+        assertFalse(hyperLogLog.add("user1"));
+        hyperLogLog.add("user2");
+        hyperLogLog.add("user3");
+        
+        assertEquals(3, hyperLogLog.cardinality());
+    }
+    
+    @Test
+    public void testLargeCardinality() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 60000; i++) {
+            hyperLogLog.add("user" + i);
+            hyperLogLog.add("user" + (i / 2));
+        }
+        
+        assertWithinError(60000, hyperLogLog.cardinality(), 0.05);
+        assertEquals(2048, hyperLogLog.getRegisters().length);
+    }
+    
+    @Test
+    public void testMerge() {
+        final HyperLogLog first = new HyperLogLog();
+        final HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            first.add("user" + i);
+            second.add("user" + (i + 10000));
+        }
+        
+        first.merge(second);
+        assertWithinError(30000, first.cardinality(), 0.05);
+    }
+    
+    @Test
+    public void testWrap() {
+        final HyperLogLog hyperLogLog = new HyperLogLog(10);
+        for (int i = 0; i < 1000; i++) {
+            hyperLogLog.add("user" + i);
+        }
+        
+        final HyperLogLog wrapped = HyperLogLog.wrap(hyperLogLog.getRegisters().clone());
+        assertEquals(10, wrapped.getPrecision());
+        assertEquals(hyperLogLog, wrapped);
+        assertEquals(hyperLogLog.cardinality(), wrapped.cardinality());
+        assertFalse(wrapped.add("user1"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapInvalidLength() {
+        HyperLogLog.wrap(new byte[1000]);
+    }
+    
+    private void assertWithinError(long expected, long actual, double error) {
+        assertTrue("Expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected * error);
+    }
+}
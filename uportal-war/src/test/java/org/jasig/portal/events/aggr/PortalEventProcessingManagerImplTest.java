@@ -0,0 +1,150 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.events.aggr;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jasig.portal.concurrency.locking.ClusterMutex;
+import org.jasig.portal.concurrency.locking.IClusterLockService;
+import org.jasig.portal.concurrency.locking.IClusterLockService.LockStatus;
+import org.jasig.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
+import org.jasig.portal.concurrency.locking.LockOptions;
+import org.jasig.portal.jpa.BaseAggrEventsJpaDao;
+import org.jasig.portal.version.dao.VersionDao;
+import org.jasig.portal.version.om.Version;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Function;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortalEventProcessingManagerImplTest {
+    @InjectMocks private PortalEventProcessingManagerImpl portalEventProcessingManager = new PortalEventProcessingManagerImpl();
+    @Mock private IClusterLockService clusterLockService;
+    @Mock private PortalRawEventsAggregator portalEventAggregator;
+    @Mock private VersionDao versionDao;
+    @Mock private Version version;
+    
+    @Test
+    public void aggregateRawEventsTracksEvictions() throws Exception {
+        this.portalEventProcessingManager.setRequiredProductVersions(Collections.singletonMap(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, version));
+        when(versionDao.getVersion(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME)).thenReturn(version);
+        
+        final Answer<TryLockFunctionResult<Object>> executeLockFunction = new Answer<TryLockFunctionResult<Object>>() {
+            @Override
+            public TryLockFunctionResult<Object> answer(InvocationOnMock invocation) throws Throwable {
+                final Object[] args = invocation.getArguments();
+                final Object result = ((Function<ClusterMutex, Object>)args[args.length - 1]).apply(null);
+                return new TryLockFunctionResult<Object>() {
+                    @Override
+                    public boolean isExecuted() {
+                        return true;
+                    }
+
+                    @Override
+                    public LockStatus getLockStatus() {
+                        return LockStatus.EXECUTED;
+                    }
+
+                    @Override
+                    public Object getResult() {
+                        return result;
+                    }
+                };
+            }
+        };
+        when(clusterLockService.doInTryLock(eq(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME), any(LockOptions.class), any(Function.class))).then(executeLockFunction);
+        when(clusterLockService.doInTryLock(eq(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME), any(Function.class))).then(executeLockFunction);
+        
+        when(portalEventAggregator.doAggregateRawEvents()).then(new Answer<EventProcessingResult>() {
+            @Override
+            public EventProcessingResult answer(InvocationOnMock invocation) throws Throwable {
+                final ExecutorService executorService = Executors.newSingleThreadExecutor();
+                try {
+                    //Evictions on a tracked pool thread are evicted by the aggregating thread
+                    executorService.submit(portalEventProcessingManager.trackEvictions(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            portalEventProcessingManager.evictEntity(String.class, "tracked");
+                            return null;
+                        }
+                    })).get();
+                    
+                    //Evictions on any other thread are not
+                    executorService.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            portalEventProcessingManager.evictEntity(String.class, "untracked");
+                            return null;
+                        }
+                    }).get();
+                }
+                finally {
+                    executorService.shutdown();
+                }
+                
+                portalEventProcessingManager.evictEntity(Integer.class, 1);
+                return new EventProcessingResult(2, null, null, true);
+            }
+        });
+        when(portalEventAggregator.doCloseAggregations()).thenReturn(new EventProcessingResult(0, null, null, true));
+        
+        final Map<Class<?>, List<Serializable>> evicted = new HashMap<Class<?>, List<Serializable>>();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final Map<Class<?>, Collection<Serializable>> entitiesToEvict = (Map<Class<?>, Collection<Serializable>>)invocation.getArguments()[0];
+                for (final Map.Entry<Class<?>, Collection<Serializable>> entry : entitiesToEvict.entrySet()) {
+                    evicted.put(entry.getKey(), new ArrayList<Serializable>(entry.getValue()));
+                }
+                return null;
+            }
+        }).when(portalEventAggregator).evictAggregates(any(Map.class));
+        
+        assertTrue(this.portalEventProcessingManager.aggregateRawEvents());
+        
+        assertEquals(2, evicted.size());
+        assertEquals(Arrays.<Serializable>asList("tracked"), evicted.get(String.class));
+        assertEquals(Arrays.<Serializable>asList(1), evicted.get(Integer.class));
+    }
+}
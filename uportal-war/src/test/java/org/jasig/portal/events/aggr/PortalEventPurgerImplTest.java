@@ -0,0 +1,126 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.events.aggr;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jasig.portal.IPortalInfoProvider;
+import org.jasig.portal.concurrency.locking.IClusterLockService;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PersistentPortalEvent;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortalEventPurgerImplTest {
+    @InjectMocks private PortalEventPurgerImpl portalEventPurger = new PortalEventPurgerImpl();
+    @Mock private IEventAggregationManagementDao eventAggregationManagementDao;
+    @Mock private IPortalInfoProvider portalInfoProvider;
+    @Mock private IPortalEventDao portalEventDao;
+    @Mock private IClusterLockService clusterLockService;
+    @Mock private IEventAggregatorStatus eventPurgerStatus;
+    @Mock private IEventAggregatorStatus eventAggregatorStatus;
+    
+    private int oldestBucket;
+    
+    @Before
+    public void setup() {
+        this.portalEventPurger.setPurgeDelay(Period.hours(1));
+        
+        when(clusterLockService.isLockOwner(PortalEventPurger.PURGE_RAW_EVENTS_LOCK_NAME)).thenReturn(true);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.PURGING, true)).thenReturn(eventPurgerStatus);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, false)).thenReturn(eventAggregatorStatus);
+        when(portalEventDao.isBucketPurgeEnabled()).thenReturn(true);
+        
+        //Events have been aggregated up to the middle of the bucket after the two oldest buckets
+        this.oldestBucket = PersistentPortalEvent.getBucket(DateTime.now()) - 5;
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(this.getBucketStart(this.oldestBucket + 2).plusHours(12));
+        when(portalEventDao.getOldestPortalEventTimestamp()).thenReturn(this.getBucketStart(this.oldestBucket).plusMinutes(5));
+    }
+    
+    @Test
+    public void purgeOldestExpiredBucket() {
+        //Dropping a partition doesn't report how many events were purged
+        when(portalEventDao.deletePortalEventBucket(this.oldestBucket)).thenReturn(-1);
+        
+        final EventProcessingResult result = this.portalEventPurger.doPurgeRawEvents();
+        
+        verify(portalEventDao).deletePortalEventBucket(this.oldestBucket);
+        verify(portalEventDao, never()).deletePortalEventsBefore(any(DateTime.class));
+        verify(eventPurgerStatus).setLastEventDate(this.getBucketStart(this.oldestBucket + 1).minusMillis(100));
+        verify(eventAggregationManagementDao).updateEventAggregatorStatus(eventPurgerStatus);
+        
+        //The next bucket has expired as well
+        assertFalse(result.isComplete());
+        assertEquals(0, result.getProcessed());
+    }
+    
+    @Test
+    public void purgeLastExpiredBucket() {
+        //The previous purge ended with the oldest bucket
+        when(eventPurgerStatus.getLastEventDate()).thenReturn(this.getBucketStart(this.oldestBucket + 1).minusMillis(100));
+        when(portalEventDao.deletePortalEventBucket(this.oldestBucket + 1)).thenReturn(42);
+        
+        final EventProcessingResult result = this.portalEventPurger.doPurgeRawEvents();
+        
+        verify(portalEventDao, never()).getOldestPortalEventTimestamp();
+        verify(portalEventDao).deletePortalEventBucket(this.oldestBucket + 1);
+        verify(eventPurgerStatus).setLastEventDate(this.getBucketStart(this.oldestBucket + 2).minusMillis(100));
+        
+        //The bucket being aggregated has not expired
+        assertTrue(result.isComplete());
+        assertEquals(42, result.getProcessed());
+    }
+    
+    @Test
+    public void keepPartiallyExpiredBucket() {
+        when(eventPurgerStatus.getLastEventDate()).thenReturn(this.getBucketStart(this.oldestBucket + 2).minusMillis(100));
+        
+        final EventProcessingResult result = this.portalEventPurger.doPurgeRawEvents();
+        
+        verify(portalEventDao, never()).deletePortalEventBucket(anyInt());
+        verify(portalEventDao, never()).deletePortalEventsBefore(any(DateTime.class));
+        verify(eventPurgerStatus, never()).setLastEventDate(any(DateTime.class));
+        verify(eventAggregationManagementDao).updateEventAggregatorStatus(eventPurgerStatus);
+        
+        assertTrue(result.isComplete());
+        assertEquals(0, result.getProcessed());
+    }
+    
+    private DateTime getBucketStart(int bucket) {
+        return PersistentPortalEvent.getBucketStart(bucket);
+    }
+}
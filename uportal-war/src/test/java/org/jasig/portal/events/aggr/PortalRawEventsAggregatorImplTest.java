@@ -20,22 +20,45 @@ package org.jasig.portal.events.aggr;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 import javax.persistence.EntityManager;
 
 import org.jasig.portal.IPortalInfoProvider;
 import org.jasig.portal.concurrency.locking.IClusterLockService;
 import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortletExecutionEvent;
+import org.jasig.portal.events.PortletRenderExecutionEvent;
+import org.jasig.portal.events.TestEventFactory;
 import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PortalEventPreAggregator;
 import org.jasig.portal.security.IPerson;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.Period;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -43,11 +66,13 @@ import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionOperations;
 
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.MoreExecutors;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PortalRawEventsAggregatorImplTest {
@@ -60,10 +85,16 @@ public class PortalRawEventsAggregatorImplTest {
     @Mock private IPortalInfoProvider portalInfoProvider;
     @Mock private IPortalEventDao portalEventDao;
     @Mock private EventSessionDao eventSessionDao;
+    @Mock private HibernateCacheEvictor hibernateCacheEvictor;
     
     @Mock private IEventAggregatorStatus eventAggregatorStatus;
     @Mock private IPerson person;
     @Mock private EventSession eventSession;
+    @Mock private AggregatedIntervalConfig aggregatedIntervalConfig;
+    @Mock private AggregatedGroupConfig aggregatedGroupConfig;
+    
+    private final Map<String, IEventAggregatorStatus> statuses = new HashMap<String, IEventAggregatorStatus>();
+    private final List<RawEvent> rawEvents = new ArrayList<RawEvent>();
     
     @Test
     public void aggregateRawEventsComplete()  throws Exception {
@@ -152,6 +183,411 @@ public class PortalRawEventsAggregatorImplTest {
         this.portalEventAggregator.setEventAggregationBatchSize(1000);
     }
     
+    @Test
+    public void aggregateRawEventsPartitioned() throws Exception {
+        //The aggregation delay is used to control which events are old enough to be aggregated
+        final DateTime start = DateTime.now().minusHours(1);
+        final DateTime sameMillis = start.plusMinutes(20);
+        addRawEvents(sameMillis, sameMillis, sameMillis, start.plusMinutes(25));
+        
+        final List<PortalEvent> firstEvents = new ArrayList<PortalEvent>();
+        final List<PortalEvent> secondEvents = new ArrayList<PortalEvent>();
+        setupPartitionedAggregation(start, 
+                mockAggregator(FirstPortalEventAggregator.class, firstEvents), 
+                mockAggregator(SecondPortalEventAggregator.class, secondEvents));
+        
+        //Switch over, nothing for the single threaded catch up to aggregate
+        this.portalEventAggregator.setAggregationDelay(Period.minutes(50));
+        EventProcessingResult result = portalEventAggregator.doAggregateRawEvents();
+        assertEquals(true, result.isComplete());
+        assertNotNull(getStatus("EventSessions"));
+        
+        //Resolve sessions, the batch stops in the middle of a millisecond, the rest of the millisecond is resolved too
+        this.portalEventAggregator.setAggregationDelay(Period.minutes(30));
+        result = portalEventAggregator.doAggregateRawEvents();
+        assertEquals(false, result.isComplete());
+        assertEquals(sameMillis.plusMillis(1), getStatus("EventSessions").getLastEventDate());
+        assertEquals(0, firstEvents.size());
+        
+        //Aggregate until done
+        int runs = 0;
+        do {
+            result = portalEventAggregator.doAggregateRawEvents();
+        } while (!result.isComplete() && ++runs < 10);
+        assertEquals(true, result.isComplete());
+        
+        assertEquals(getRawEvents(), firstEvents);
+        assertEquals(getRawEvents(), secondEvents);
+    }
+    
+    @Test
+    public void aggregateRawEventsSwitchToPartitionedAndBack() throws Exception {
+        final DateTime start = DateTime.now().minusHours(1);
+        final DateTime sameMillis = start.plusMinutes(1);
+        addRawEvents(sameMillis, sameMillis, sameMillis, start.plusMinutes(20));
+        
+        final List<PortalEvent> firstEvents = new ArrayList<PortalEvent>();
+        final List<PortalEvent> secondEvents = new ArrayList<PortalEvent>();
+        setupPartitionedAggregation(start, 
+                mockAggregator(FirstPortalEventAggregator.class, firstEvents), 
+                mockAggregator(SecondPortalEventAggregator.class, secondEvents));
+        
+        //Single threaded aggregation stops in the middle of a millisecond
+        this.portalEventAggregator.setAggregationThreads(1);
+        EventProcessingResult result = portalEventAggregator.doAggregateRawEvents();
+        assertEquals(false, result.isComplete());
+        assertEquals(sameMillis, getStatus(null).getLastEventDate());
+        assertEquals(2, firstEvents.size());
+        
+        //The first partitioned run catches up single threaded before switching, the rest of the millisecond is only aggregated once 
+        this.portalEventAggregator.setAggregationThreads(2);
+        this.portalEventAggregator.setAggregationDelay(Period.minutes(50));
+        result = portalEventAggregator.doAggregateRawEvents();
+        assertEquals(true, result.isComplete());
+        assertEquals(getRawEvents().subList(0, 3), firstEvents);
+        assertEquals(getRawEvents().subList(0, 3), secondEvents);
+        assertNotNull(getStatus("EventSessions"));
+        
+        this.portalEventAggregator.setAggregationDelay(Period.minutes(30));
+        int runs = 0;
+        do {
+            result = portalEventAggregator.doAggregateRawEvents();
+        } while (!result.isComplete() && ++runs < 10);
+        assertEquals(true, result.isComplete());
+        
+        //Switch back, the partitions are retired and single threaded aggregation picks up after them
+        addRawEvents(start.plusMinutes(40));
+        this.portalEventAggregator.setAggregationThreads(1);
+        this.portalEventAggregator.setAggregationDelay(Period.seconds(30));
+        runs = 0;
+        do {
+            result = portalEventAggregator.doAggregateRawEvents();
+        } while (!result.isComplete() && ++runs < 10);
+        assertEquals(true, result.isComplete());
+        assertNull(getStatus("EventSessions"));
+        
+        assertEquals(getRawEvents(), firstEvents);
+        assertEquals(getRawEvents(), secondEvents);
+    }
+    
+    @Test
+    public void aggregateRawEventsPartitionRetry() throws Exception {
+        final DateTime start = DateTime.now().minusHours(1);
+        addRawEvents(start.plusMinutes(20), start.plusMinutes(25));
+        
+        final List<PortalEvent> firstEvents = new ArrayList<PortalEvent>();
+        final List<PortalEvent> secondEvents = new ArrayList<PortalEvent>();
+        final SecondPortalEventAggregator secondAggregator = mockAggregator(SecondPortalEventAggregator.class, secondEvents);
+        setupPartitionedAggregation(start, 
+                mockAggregator(FirstPortalEventAggregator.class, firstEvents), 
+                secondAggregator);
+        
+        this.portalEventAggregator.setAggregationDelay(Period.minutes(50));
+        portalEventAggregator.doAggregateRawEvents();
+        final DateTime partitionStart = getStatus("EventSessions").getLastEventDate();
+        
+        //Resolve the sessions for all the events
+        this.portalEventAggregator.setAggregationDelay(Period.minutes(30));
+        this.portalEventAggregator.setEventAggregationBatchSize(1000);
+        portalEventAggregator.doAggregateRawEvents();
+        
+        //The second partition fails, the first partition and the overall status are not affected by it
+        doThrow(new IllegalStateException("Partition failure")).when(secondAggregator).aggregateEvent(any(PortalEvent.class), any(EventSession.class), any(EventAggregationContext.class), any(Map.class));
+        portalEventAggregator.doAggregateRawEvents();
+        assertEquals(getRawEvents(), firstEvents);
+        assertEquals(0, secondEvents.size());
+        assertEquals(partitionStart, getStatus(null).getLastEventDate());
+        
+        //The failed partition is retried from where it stopped on the next run
+        mockAggregator(secondAggregator, secondEvents);
+        final EventProcessingResult result = portalEventAggregator.doAggregateRawEvents();
+        assertEquals(true, result.isComplete());
+        assertEquals(getRawEvents(), firstEvents);
+        assertEquals(getRawEvents(), secondEvents);
+    }
+    
+    @Test
+    public void aggregateRawEventsPreAggregated() throws Exception {
+        final DateTime start = DateTime.now().minuteOfHour().roundFloorCopy();
+        
+        final List<PortalEvent> aggregatedEvents = new ArrayList<PortalEvent>();
+        setupPartitionedAggregation(start, mockAggregator(FirstPortalEventAggregator.class, aggregatedEvents));
+        this.portalEventAggregator.setAggregationThreads(1);
+        this.portalEventAggregator.setEventAggregationBatchSize(1000);
+        
+        //Pre-aggregated events are stored as raw events
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (final PortalEvent event : (Iterable<PortalEvent>)invocation.getArguments()[0]) {
+                    addRawEvent(event);
+                }
+                return null;
+            }
+        }).when(portalEventDao).storePortalEvents((Iterable<PortalEvent>)any(Iterable.class));
+        
+        //Default pre-aggregation and aggregation delay configuration
+        final PortalEventPreAggregator preAggregator = new PortalEventPreAggregator();
+        preAggregator.setPortalEventDao(portalEventDao);
+        preAggregator.setPreAggregatedEvents(Collections.<Class<? extends PortalEvent>>singleton(PortletRenderExecutionEvent.class));
+        preAggregator.afterPropertiesSet();
+        
+        //Render a portlet every second for three minutes with the flush and aggregation scheduled the way they are in the portal 
+        int renders = 0;
+        try {
+            for (int second = 0; second < 180; second++) {
+                final DateTime now = start.plusSeconds(second);
+                DateTimeUtils.setCurrentMillisFixed(now.getMillis());
+                
+                final PortalEvent event = TestEventFactory.newPortletRenderExecutionEvent(this, "serverName", "eventSessionId", person, "portlet", 1);
+                ReflectionTestUtils.setField(event, "timestampAsDate", now);
+                preAggregator.preAggregate(Collections.singletonList(event));
+                renders++;
+                
+                if (second % 5 == 0) {
+                    preAggregator.flush();
+                }
+                if (second % 10 == 0) {
+                    portalEventAggregator.doAggregateRawEvents();
+                }
+            }
+            
+            //Store everything that is left and aggregate it
+            DateTimeUtils.setCurrentMillisFixed(start.plusMinutes(5).getMillis());
+            preAggregator.destroy();
+            EventProcessingResult result;
+            int runs = 0;
+            do {
+                result = portalEventAggregator.doAggregateRawEvents();
+            } while (!result.isComplete() && ++runs < 10);
+        }
+        finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+        
+        //Every render was aggregated, either as the stored event or as one of its folded executions
+        int aggregatedRenders = 0;
+        for (final PortalEvent event : aggregatedEvents) {
+            aggregatedRenders += 1 + ((PortletExecutionEvent)event).getFoldedExecutionTimesNano().length;
+        }
+        assertEquals(renders, aggregatedRenders);
+        assertEquals(true, aggregatedEvents.size() < renders);
+    }
+    
+    /**
+     * Stubs the DAOs with in memory statuses and raw events for partitioned aggregation with a batch size of 2
+     */
+    private void setupPartitionedAggregation(DateTime lastEventDate, IPortalEventAggregator<PortalEvent>... aggregators) {
+        when(transactionOperations.execute(any(TransactionCallback.class))).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final TransactionStatus status = mock(TransactionStatus.class);
+                return ((TransactionCallback<Object>)invocation.getArguments()[0]).doInTransaction(status);
+            }
+        });
+        when(clusterLockService.isLockOwner(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME)).thenReturn(true);
+        when(portalEventDimensionPopulator.isCheckedDimensions()).thenReturn(true);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
+        when(eventSessionDao.getEventSession(any(PortalEvent.class))).thenReturn(eventSession);
+        when(eventAggregationManagementDao.getDefaultAggregatedIntervalConfig()).thenReturn(aggregatedIntervalConfig);
+        when(eventAggregationManagementDao.getDefaultAggregatedGroupConfig()).thenReturn(aggregatedGroupConfig);
+        when(hibernateCacheEvictor.trackEvictions(any(Callable.class))).then(returnsFirstArg());
+        
+        final IEventAggregatorStatus eventAggregatorStatus = new MockEventAggregatorStatus(ProcessingType.AGGREGATION);
+        eventAggregatorStatus.setLastEventDate(lastEventDate);
+        statuses.put(null, eventAggregatorStatus);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(eq(ProcessingType.AGGREGATION), anyString(), anyBoolean())).then(new Answer<IEventAggregatorStatus>() {
+            @Override
+            public IEventAggregatorStatus answer(InvocationOnMock invocation) throws Throwable {
+                final String partition = (String)invocation.getArguments()[1];
+                IEventAggregatorStatus status = statuses.get(partition);
+                if (status == null && (Boolean)invocation.getArguments()[2]) {
+                    status = new MockEventAggregatorStatus(ProcessingType.AGGREGATION);
+                    statuses.put(partition, status);
+                }
+                return status;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                statuses.keySet().retainAll(Collections.singleton(null));
+                return null;
+            }
+        }).when(eventAggregationManagementDao).deleteEventAggregatorPartitionStatuses(ProcessingType.AGGREGATION);
+        
+        when(portalEventDao.aggregatePortalEvents(any(DateTime.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                final Object[] args = invocation.getArguments();
+                final int maxEvents = (Integer)args[2];
+                final Function<PortalEvent, Boolean> handler = (Function<PortalEvent, Boolean>)args[3];
+                int events = 0;
+                for (final RawEvent rawEvent : getRawEvents((DateTime)args[0], (DateTime)args[1])) {
+                    if (rawEvent.aggregated) {
+                        continue;
+                    }
+                    if (maxEvents > 0 && events++ >= maxEvents) {
+                        break;
+                    }
+                    if (!handler.apply(rawEvent.event)) {
+                        return false;
+                    }
+                    rawEvent.aggregated = true;
+                }
+                return true;
+            }
+        });
+        when(portalEventDao.processPortalEvents(any(DateTime.class), any(DateTime.class), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                final Object[] args = invocation.getArguments();
+                final Function<PortalEvent, Boolean> handler = (Function<PortalEvent, Boolean>)args[2];
+                for (final RawEvent rawEvent : getRawEvents((DateTime)args[0], (DateTime)args[1])) {
+                    if (!handler.apply(rawEvent.event)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+        
+        this.portalEventAggregator.setPortalEventAggregators(new LinkedHashSet<IPortalEventAggregator<PortalEvent>>(Arrays.asList(aggregators)));
+        this.portalEventAggregator.setAggregationExecutor(MoreExecutors.sameThreadExecutor());
+        this.portalEventAggregator.setAggregationThreads(2);
+        this.portalEventAggregator.setEventAggregationBatchSize(2);
+    }
+    
+    private <T extends IPortalEventAggregator<PortalEvent>> T mockAggregator(Class<T> type, List<PortalEvent> aggregatedEvents) {
+        return mockAggregator(mock(type), aggregatedEvents);
+    }
+    
+    private <T extends IPortalEventAggregator<PortalEvent>> T mockAggregator(T aggregator, final List<PortalEvent> aggregatedEvents) {
+        when(aggregator.supports(any(PortalEvent.class))).thenReturn(true);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                aggregatedEvents.add((PortalEvent)invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(aggregator).aggregateEvent(any(PortalEvent.class), any(EventSession.class), any(EventAggregationContext.class), any(Map.class));
+        return aggregator;
+    }
+    
+    private IEventAggregatorStatus getStatus(String partition) {
+        return statuses.get(partition);
+    }
+    
+    private void addRawEvents(DateTime... timestamps) {
+        for (final DateTime timestamp : timestamps) {
+            final PortalEvent event = new MockPortalEvent(this, "serverName", "eventSessionId", person);
+            ReflectionTestUtils.setField(event, "timestampAsDate", timestamp);
+            addRawEvent(event);
+        }
+    }
+    
+    private void addRawEvent(PortalEvent event) {
+        rawEvents.add(new RawEvent(event));
+        Collections.sort(rawEvents, new Comparator<RawEvent>() {
+            @Override
+            public int compare(RawEvent o1, RawEvent o2) {
+                return o1.event.getTimestampAsDate().compareTo(o2.event.getTimestampAsDate());
+            }
+        });
+    }
+    
+    private List<PortalEvent> getRawEvents() {
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        for (final RawEvent rawEvent : rawEvents) {
+            events.add(rawEvent.event);
+        }
+        return events;
+    }
+    
+    private List<RawEvent> getRawEvents(DateTime start, DateTime end) {
+        final List<RawEvent> events = new ArrayList<RawEvent>();
+        for (final RawEvent rawEvent : rawEvents) {
+            final DateTime timestamp = rawEvent.event.getTimestampAsDate();
+            if (!timestamp.isBefore(start) && timestamp.isBefore(end)) {
+                events.add(rawEvent);
+            }
+        }
+        return events;
+    }
+    
+    interface FirstPortalEventAggregator extends IPortalEventAggregator<PortalEvent> {
+    }
+    
+    interface SecondPortalEventAggregator extends IPortalEventAggregator<PortalEvent> {
+    }
+    
+    private static class RawEvent {
+        private final PortalEvent event;
+        private boolean aggregated = false;
+        
+        public RawEvent(PortalEvent event) {
+            this.event = event;
+        }
+    }
+    
+    private static class MockEventAggregatorStatus implements IEventAggregatorStatus {
+        private final ProcessingType processingType;
+        private String serverName;
+        private DateTime lastStart;
+        private DateTime lastEnd;
+        private DateTime lastEventDate;
+        
+        public MockEventAggregatorStatus(ProcessingType processingType) {
+            this.processingType = processingType;
+        }
+
+        @Override
+        public ProcessingType getProcessingType() {
+            return processingType;
+        }
+
+        @Override
+        public String getServerName() {
+            return serverName;
+        }
+
+        @Override
+        public void setServerName(String serverName) {
+            this.serverName = serverName;
+        }
+
+        @Override
+        public DateTime getLastStart() {
+            return lastStart;
+        }
+
+        @Override
+        public void setLastStart(DateTime lastStart) {
+            this.lastStart = lastStart;
+        }
+
+        @Override
+        public DateTime getLastEnd() {
+            return lastEnd;
+        }
+
+        @Override
+        public void setLastEnd(DateTime lastEnd) {
+            this.lastEnd = lastEnd;
+        }
+
+        @Override
+        public DateTime getLastEventDate() {
+            return lastEventDate;
+        }
+
+        @Override
+        public void setLastEventDate(DateTime lastEventDate) {
+            this.lastEventDate = lastEventDate;
+        }
+    }
+    
     private static class MockPortalEvent extends PortalEvent {
         public MockPortalEvent(Object source, String serverName, String eventSessionId, IPerson person) {
             super(new MockPortalEventBuilder(source, serverName, eventSessionId, person));
@@ -0,0 +1,88 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testEmptyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getTotalCount());
+        assertTrue(Double.isNaN(histogram.getValueAtPercentile(50)));
+    }
+    
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[] { 0, 1, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE }) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(LatencyHistogram.getBucketLowerBound(index) <= value);
+            if (value < Long.MAX_VALUE) {
+                assertTrue(index <= LatencyHistogram.getBucketIndex(value + 1));
+            }
+        }
+    }
+    
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.recordValue(i);
+        }
+        
+        assertEquals(100000, histogram.getTotalCount());
+        assertEquals(50000, histogram.getValueAtPercentile(50), 50000 * 0.02);
+        assertEquals(90000, histogram.getValueAtPercentile(90), 90000 * 0.02);
+        assertEquals(99000, histogram.getValueAtPercentile(99), 99000 * 0.02);
+    }
+    
+    @Test
+    public void testMerge() {
+        final LatencyHistogram fast = new LatencyHistogram();
+        final LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 900; i++) {
+            fast.recordValue(10);
+        }
+        for (int i = 0; i < 100; i++) {
+            slow.recordValue(10000);
+        }
+        
+        fast.merge(slow);
+        assertEquals(1000, fast.getTotalCount());
+        assertEquals(10, fast.getValueAtPercentile(50), 1);
+        assertEquals(10000, fast.getValueAtPercentile(95), 10000 * 0.02);
+    }
+    
+    @Test
+    public void testEncoding() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(-5);
+        histogram.recordValue(1500000);
+        histogram.recordValue(Long.MAX_VALUE);
+        
+        final byte[] data = histogram.toByteArray();
+        final LatencyHistogram decoded = LatencyHistogram.fromByteArray(data);
+        assertEquals(histogram, decoded);
+        assertEquals(3, decoded.getTotalCount());
+    }
+}
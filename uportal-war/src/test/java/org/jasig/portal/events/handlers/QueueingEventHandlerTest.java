@@ -0,0 +1,94 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+
+public class QueueingEventHandlerTest {
+    @Test
+    public void testBoundedQueue() {
+        final List<List<ApplicationEvent>> batches = new ArrayList<List<ApplicationEvent>>();
+        final QueueingEventHandler<ApplicationEvent> handler = new QueueingEventHandler<ApplicationEvent>() {
+            @Override
+            protected void onApplicationEvents(Iterable<ApplicationEvent> events) {
+                final List<ApplicationEvent> batch = new ArrayList<ApplicationEvent>();
+                for (final ApplicationEvent event : events) {
+                    batch.add(event);
+                }
+                batches.add(batch);
+            }
+        };
+        handler.setBatchSize(2);
+        handler.setMaxQueueSize(3);
+        
+        for (int i = 0; i < 5; i++) {
+            handler.onApplicationEvent(new TestApplicationEvent(i));
+        }
+        
+        assertEquals(3, handler.getQueueSize());
+        assertEquals(2, handler.getDroppedEvents());
+        
+        handler.flush();
+        
+        assertEquals(0, handler.getQueueSize());
+        assertEquals(3, handler.getFlushedEvents());
+        assertEquals(0, handler.getFailedEvents());
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+        
+        //Space is available again after the flush
+        handler.onApplicationEvent(new TestApplicationEvent(5));
+        assertEquals(1, handler.getQueueSize());
+        assertEquals(2, handler.getDroppedEvents());
+    }
+    
+    @Test
+    public void testFailedFlush() {
+        final QueueingEventHandler<ApplicationEvent> handler = new QueueingEventHandler<ApplicationEvent>() {
+            @Override
+            protected void onApplicationEvents(Iterable<ApplicationEvent> events) {
+                throw new IllegalStateException("Test failure");
+            }
+        };
+        
+        handler.onApplicationEvent(new TestApplicationEvent(0));
+        handler.onApplicationEvent(new TestApplicationEvent(1));
+        handler.flush();
+        
+        assertEquals(0, handler.getQueueSize());
+        assertEquals(0, handler.getFlushedEvents());
+        assertEquals(2, handler.getFailedEvents());
+    }
+    
+    private static final class TestApplicationEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        public TestApplicationEvent(Object source) {
+            super(source);
+        }
+    }
+}
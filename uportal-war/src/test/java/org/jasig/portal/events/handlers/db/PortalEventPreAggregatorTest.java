@@ -0,0 +1,115 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortletExecutionEvent;
+import org.jasig.portal.events.PortletRenderExecutionEvent;
+import org.jasig.portal.events.TestEventFactory;
+import org.jasig.portal.security.IPerson;
+import org.joda.time.Period;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class PortalEventPreAggregatorTest {
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPreAggregation() throws Exception {
+        final IPortalEventDao portalEventDao = mock(IPortalEventDao.class);
+        final IPerson person = mock(IPerson.class);
+        
+        final PortalEventPreAggregator preAggregator = new PortalEventPreAggregator();
+        preAggregator.setPortalEventDao(portalEventDao);
+        preAggregator.setPreAggregatedEvents(Collections.<Class<? extends PortalEvent>>singleton(PortletRenderExecutionEvent.class));
+        
+        final PortalEvent loginEvent = TestEventFactory.newLoginEvent(this, "serverName", "session1", person, 
+                Collections.<String>emptySet(), Collections.<String, List<String>>emptyMap());
+        final List<PortalEvent> events = Arrays.<PortalEvent>asList(
+                loginEvent,
+                TestEventFactory.newPortletRenderExecutionEvent(this, "serverName", "session1", person, "portlet-a", 1),
+                TestEventFactory.newPortletRenderExecutionEvent(this, "serverName", "session1", person, "portlet-a", 2),
+                TestEventFactory.newPortletRenderExecutionEvent(this, "serverName", "session1", person, "portlet-b", 3),
+                TestEventFactory.newPortletRenderExecutionEvent(this, "serverName", "session2", person, "portlet-a", 4),
+                TestEventFactory.newPortletRenderExecutionEvent(this, "serverName", "session1", person, "portlet-a", 5));
+        
+        //Only the login event is left to be stored directly
+        final List<PortalEvent> unaggregated = new ArrayList<PortalEvent>();
+        for (final PortalEvent event : preAggregator.preAggregate(events)) {
+            unaggregated.add(event);
+        }
+        assertEquals(1, unaggregated.size());
+        assertSame(loginEvent, unaggregated.get(0));
+        assertEquals(5, preAggregator.getPendingEvents());
+        
+        preAggregator.destroy();
+        
+        final ArgumentCaptor<Iterable> storedCaptor = ArgumentCaptor.forClass(Iterable.class);
+        verify(portalEventDao).storePortalEvents(storedCaptor.capture());
+        
+        //Every execution time is kept, either as the event's own time or as a folded time
+        long totalExecutionTime = 0;
+        int executions = 0;
+        for (final PortalEvent event : (Iterable<PortalEvent>) storedCaptor.getValue()) {
+            final PortletExecutionEvent executionEvent = (PortletExecutionEvent) event;
+            totalExecutionTime += executionEvent.getExecutionTimeNano();
+            executions++;
+            for (final long foldedExecutionTime : executionEvent.getFoldedExecutionTimesNano()) {
+                totalExecutionTime += foldedExecutionTime;
+                executions++;
+            }
+        }
+        assertEquals(5, executions);
+        assertEquals(15, totalExecutionTime);
+        assertEquals(0, preAggregator.getPendingEvents());
+        assertEquals(5, preAggregator.getFoldedEvents() + preAggregator.getStoredEvents());
+    }
+    
+    @Test
+    public void testDisabled() {
+        final PortalEventPreAggregator preAggregator = new PortalEventPreAggregator();
+        final List<PortalEvent> events = Collections.emptyList();
+        
+        assertSame(events, preAggregator.preAggregate(events));
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testAggregationDelayTooShort() throws Exception {
+        final PortalEventPreAggregator preAggregator = new PortalEventPreAggregator();
+        preAggregator.setPreAggregatedEvents(Collections.<Class<? extends PortalEvent>>singleton(PortletRenderExecutionEvent.class));
+        preAggregator.setAggregationDelay(Period.seconds(15));
+        preAggregator.afterPropertiesSet();
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnsupportedType() {
+        final PortalEventPreAggregator preAggregator = new PortalEventPreAggregator();
+        preAggregator.setPreAggregatedEvents(Collections.<Class<? extends PortalEvent>>singleton(PortalEvent.class));
+    }
+}
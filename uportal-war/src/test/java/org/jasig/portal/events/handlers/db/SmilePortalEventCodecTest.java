@@ -0,0 +1,82 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortletRenderExecutionEvent;
+import org.jasig.portal.events.TestEventFactory;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SmilePortalEventCodecTest {
+    private JsonPortalEventCodec jsonEventCodec;
+    private SmilePortalEventCodec smileEventCodec;
+    
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        final ObjectMapper mapper = omfb.getObject();
+        
+        this.jsonEventCodec = new JsonPortalEventCodec(mapper);
+        this.smileEventCodec = new SmilePortalEventCodec(mapper);
+    }
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        final PortletRenderExecutionEvent event = TestEventFactory.newPortletRenderExecutionEvent(this, "example.com", 
+                "1234567890123_system_AAAAAAAAAAA", SystemPerson.INSTANCE, "portlet-fname", 123456789);
+        event.setFoldedExecutionTimesNano(new long[] { 1, 2, 3 });
+        
+        final PersistentPortalEvent binaryEvent = this.smileEventCodec.encode(event);
+        assertEquals(SmilePortalEventCodec.SCHEMA_VERSION_1, binaryEvent.getEventData());
+        assertTrue(this.smileEventCodec.canDecode(binaryEvent));
+        assertFalse(this.jsonEventCodec.canDecode(binaryEvent));
+        
+        final PersistentPortalEvent jsonEvent = this.jsonEventCodec.encode(event);
+        assertNull(jsonEvent.getEventDataBinary());
+        assertTrue(this.jsonEventCodec.canDecode(jsonEvent));
+        assertFalse(this.smileEventCodec.canDecode(jsonEvent));
+        assertTrue(binaryEvent.getEventDataBinary().length < jsonEvent.getEventData().length());
+        
+        final PortletRenderExecutionEvent decoded = this.smileEventCodec.decode(binaryEvent, PortletRenderExecutionEvent.class);
+        assertEquals(event.getTimestamp(), decoded.getTimestamp());
+        assertEquals(event.getServerId(), decoded.getServerId());
+        assertEquals(event.getEventSessionId(), decoded.getEventSessionId());
+        assertEquals(event.getUserName(), decoded.getUserName());
+        assertEquals(event.getFname(), decoded.getFname());
+        assertEquals(event.getExecutionTimeNano(), decoded.getExecutionTimeNano());
+        assertArrayEquals(event.getFoldedExecutionTimesNano(), decoded.getFoldedExecutionTimesNano());
+        
+        //Both formats produce the same event
+        final PortalEvent jsonDecoded = this.jsonEventCodec.decode(jsonEvent, PortalEvent.class);
+        assertEquals(jsonDecoded.toString(), decoded.toString());
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jasig.portal.groups.RDBMGroupMembershipGraph.GroupRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RDBMGroupMembershipGraphTest {
+    private static final int PERSON_TYPE = 3;
+    private static final int PORTLET_TYPE = 2;
+    
+    private RDBMGroupMembershipGraph graph;
+
+    @Before
+    public void setup() {
+        this.graph = new RDBMGroupMembershipGraph("local", ".", Long.MAX_VALUE);
+        
+        final List<GroupRecord> groups = Arrays.asList(
+                new GroupRecord("0", "system", PERSON_TYPE, "Everyone", null),
+                new GroupRecord("1", "system", PERSON_TYPE, "Staff", null),
+                new GroupRecord("2", "system", PERSON_TYPE, "Admins", null),
+                new GroupRecord("3", "system", PORTLET_TYPE, "Category", null));
+        
+        final List<String[]> memberships = Arrays.asList(
+                new String[] { "0", "local", "1", "T" },
+                new String[] { "1", "local", "2", "T" },
+                new String[] { "2", "local", "0", "T" },
+                new String[] { "0", "pags", "students", "T" },
+                new String[] { "1", "local", "staff1", "F" },
+                new String[] { "2", "local", "admin", "F" },
+                new String[] { "3", "local", "admin", "F" });
+        
+        this.graph.load(groups, memberships);
+    }
+
+    @Test
+    public void testDirectContainingGroups() throws Exception {
+        assertEquals(Arrays.asList("2"), keys(this.graph.getContainingGroupsForEntity("admin", PERSON_TYPE)));
+        assertEquals(Arrays.asList("3"), keys(this.graph.getContainingGroupsForEntity("admin", PORTLET_TYPE)));
+        assertEquals(Arrays.asList("0"), keys(this.graph.getContainingGroupsForGroup("pags", "students", PERSON_TYPE)));
+        assertEquals(Collections.emptyList(), keys(this.graph.getContainingGroupsForEntity("unknown", PERSON_TYPE)));
+        
+        assertTrue(this.graph.contains("2", null, "admin", false));
+        assertTrue(this.graph.contains("0", "pags", "students", true));
+        assertFalse(this.graph.contains("1", null, "admin", false));
+        assertFalse(this.graph.contains("1", "pags", "students", true));
+    }
+
+    @Test
+    public void testAllContainingGroups() throws Exception {
+        //Admins -> Staff -> Everyone -> Admins is a cycle
+        assertEquals(Arrays.asList("0", "1", "2"), keys(this.graph.getAllContainingGroupsForEntity("admin", PERSON_TYPE)));
+        assertEquals(Arrays.asList("3"), keys(this.graph.getAllContainingGroupsForEntity("admin", PORTLET_TYPE)));
+        assertEquals(Arrays.asList("0", "1", "2"), keys(this.graph.getAllContainingGroupsForGroup("pags", "students", PERSON_TYPE)));
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        final List<Integer> changed = new ArrayList<Integer>();
+        changed.add(this.graph.removeMember("2", "local", "0", true));
+        changed.add(this.graph.addMember("3", "local", "staff1", false));
+        this.graph.recomputeAncestors(changed);
+        
+        assertFalse(this.graph.contains("2", "local", "0", true));
+        assertEquals(Arrays.asList("0", "1", "2"), keys(this.graph.getAllContainingGroupsForEntity("admin", PERSON_TYPE)));
+        assertEquals(Arrays.asList("0", "1"), keys(this.graph.getAllContainingGroupsForEntity("staff1", PERSON_TYPE)));
+        assertEquals(Arrays.asList("0"), keys(this.graph.getAllContainingGroupsForGroup("pags", "students", PERSON_TYPE)));
+        assertEquals(Arrays.asList("3"), keys(this.graph.getContainingGroupsForEntity("staff1", PORTLET_TYPE)));
+        
+        this.graph.updateGroup(new GroupRecord("4", "admin", PERSON_TYPE, "Faculty", null));
+        changed.clear();
+        changed.add(this.graph.addMember("4", "pags", "students", true));
+        changed.add(this.graph.addMember("4", "local", "0", true));
+        this.graph.recomputeAncestors(changed);
+        
+        assertEquals(Arrays.asList("0", "1", "4"), keys(this.graph.getAllContainingGroupsForEntity("staff1", PERSON_TYPE)));
+        assertEquals(Arrays.asList("0", "4"), keys(this.graph.getAllContainingGroupsForGroup("pags", "students", PERSON_TYPE)));
+        assertEquals(Arrays.asList("4"), keys(this.graph.getContainingGroupsForGroup("local", "0", PERSON_TYPE)));
+        
+        //Changes made on this server are applied to the graph without a reload
+        assertFalse(this.graph.isStale());
+    }
+
+    @Test
+    public void testRemoteChanges() throws Exception {
+        assertFalse(this.graph.isStale());
+        
+        //Called by the cache listener when a change made on another server is replicated
+        GroupMemberVersions.stripeChanged(0);
+        assertTrue(this.graph.isStale());
+    }
+
+    private static List<String> keys(List<GroupRecord> records) {
+        final List<String> keys = new ArrayList<String>(records.size());
+        for (final GroupRecord record : records) {
+            keys.add(record.getKey());
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+}
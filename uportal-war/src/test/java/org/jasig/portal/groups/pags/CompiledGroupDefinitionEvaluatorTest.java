@@ -0,0 +1,142 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.GroupDefinition;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.TestGroup;
+import org.jasig.portal.groups.pags.testers.RegexTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.groups.pags.testers.ValueExistsTester;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledGroupDefinitionEvaluatorTest {
+    private GroupDefinition everyone;
+    private GroupDefinition students;
+    private GroupDefinition graduates;
+    private GroupDefinition staff;
+    private CompiledGroupDefinitionEvaluator evaluator;
+
+    @Before
+    public void setup() {
+        //Parent without tests, contains students and staff
+        this.everyone = newGroupDefinition("everyone");
+        this.everyone.addMember("students");
+        this.everyone.addMember("staff");
+
+        //Parent with tests, contains graduates
+        this.students = newGroupDefinition("students",
+                new StringEqualsTester("affiliation", "student"));
+        this.students.addMember("graduates");
+
+        this.graduates = newGroupDefinition("graduates",
+                new RegexTester("level", "GR.*"),
+                new StringEqualsTester("affiliation", "student"));
+
+        this.staff = newGroupDefinition("staff",
+                new ValueExistsTester("employeeId", null));
+
+        this.evaluator = new CompiledGroupDefinitionEvaluator(
+                Arrays.asList(this.everyone, this.students, this.graduates, this.staff));
+    }
+
+    @Test
+    public void testEvaluate() {
+        final IPerson graduateStudent = newPerson("affiliation", "student", "level", "GR1");
+        assertMembers(graduateStudent, "students", "graduates");
+
+        final IPerson undergraduate = newPerson("affiliation", "student", "level", "UG1");
+        assertMembers(undergraduate, "students");
+
+        final IPerson staffMember = newPerson("employeeId", "1234");
+        assertMembers(staffMember, "staff");
+
+        //Passes the graduates tests but fails the tests of the parent students group
+        final IPerson orphan = newPerson("affiliation", "alumni", "level", "GR1");
+        assertMembers(orphan);
+    }
+
+    @Test
+    public void testMatchesGroupDefinitions() {
+        final IPerson[] people = new IPerson[] {
+                newPerson("affiliation", "student", "level", "GR1"),
+                newPerson("affiliation", "student", "employeeId", "1"),
+                newPerson("level", "GR2"),
+                newPerson(),
+        };
+
+        for (final IPerson person : people) {
+            final BitSet members = this.evaluator.evaluate(person);
+            for (final GroupDefinition groupDefinition : Arrays.asList(this.everyone, this.students, this.graduates, this.staff)) {
+                final boolean expected = groupDefinition.contains(person) 
+                        && (groupDefinition != this.graduates || this.students.test(person));
+                assertEquals(groupDefinition + " " + person.getAttributeMap(), 
+                        expected, members.get(this.evaluator.getGroupIndex(groupDefinition.getKey())));
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownGroup() {
+        assertEquals(-1, this.evaluator.getGroupIndex("missing"));
+        assertTrue(this.evaluator.getGroupIndex("staff") >= 0);
+        assertEquals("staff", this.evaluator.getGroupKey(this.evaluator.getGroupIndex("staff")));
+    }
+
+    private void assertMembers(IPerson person, String... groupKeys) {
+        final BitSet members = this.evaluator.evaluate(person);
+        assertEquals(groupKeys.length, members.cardinality());
+        for (final String groupKey : groupKeys) {
+            assertTrue(groupKey, members.get(this.evaluator.getGroupIndex(groupKey)));
+        }
+        assertFalse(members.get(this.evaluator.getGroupIndex("everyone")));
+    }
+
+    private static GroupDefinition newGroupDefinition(String key, IPersonTester... testers) {
+        final GroupDefinition groupDefinition = new GroupDefinition();
+        groupDefinition.setKey(key);
+        groupDefinition.setName(key);
+        if (testers.length > 0) {
+            final TestGroup testGroup = new TestGroup();
+            for (final IPersonTester tester : testers) {
+                testGroup.addTest(tester);
+            }
+            groupDefinition.addTestGroup(testGroup);
+        }
+        return groupDefinition;
+    }
+
+    private static IPerson newPerson(String... attributes) {
+        final IPerson person = new PersonImpl();
+        for (int i = 0; i < attributes.length; i += 2) {
+            person.setAttribute(attributes[i], attributes[i + 1]);
+        }
+        return person;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class LayoutNodeIndexTest {
+    private Document document;
+
+    @Before
+    public void setup() throws Exception {
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        final DocumentBuilder db = dbf.newDocumentBuilder();
+        this.document = db.parse(getClass().getResourceAsStream("/org/jasig/portal/xml/xpath/guestLayout.xml"));
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        final LayoutNodeIndex index = LayoutNodeIndex.build(this.document);
+
+        assertEquals("u16l1s3", index.getTabId(1));
+        assertEquals("u18l1s3", index.getTabId(2));
+        assertNull(index.getTabId(3));
+        assertNull(index.getTabId(0));
+
+        assertEquals("u16l1n8", index.getSubscribeId("google-portlet"));
+        assertEquals("u16l1n8", index.getSubscribeId("u16l1s3", "google-portlet"));
+        assertNull(index.getSubscribeId("u18l1s3", "google-portlet"));
+        assertNull(index.getSubscribeId("missing-portlet"));
+
+        //Tab lookups must match the DOM traversal they replace
+        final String[] elementNames = { "folder", "channel" };
+        for (final String elementName : elementNames) {
+            final NodeList elements = this.document.getElementsByTagName(elementName);
+            for (int i = 0; i < elements.getLength(); i++) {
+                final String nodeId = ((Element) elements.item(i)).getAttribute("ID");
+                assertSame(elements.item(i), index.getNode(nodeId));
+                assertEquals(nodeId, new PortletTabIdResolver(nodeId).traverseDocument(this.document), index.getTabIdForNode(nodeId));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        final LayoutNodeIndex index = LayoutNodeIndex.build(this.document);
+        final Element rootFolder = findElement("s1");
+        final Element firstTab = findElement("u16l1s3");
+        final Element secondTab = findElement("u18l1s3");
+
+        final Element channel = this.document.createElement("channel");
+        channel.setAttribute("ID", "u18l1n20");
+        channel.setAttribute("fname", "google-portlet");
+        secondTab.appendChild(channel);
+        index.nodeAdded(channel);
+
+        assertSame(channel, index.getNode("u18l1n20"));
+        assertEquals("u16l1n8", index.getSubscribeId("google-portlet"));
+        assertEquals("u18l1n20", index.getSubscribeId("u18l1s3", "google-portlet"));
+        assertEquals("u18l1s3", index.getTabIdForNode("u18l1n20"));
+
+        rootFolder.insertBefore(secondTab, firstTab);
+        index.nodeMoved(secondTab);
+
+        assertEquals("u18l1s3", index.getTabId(1));
+        assertEquals("u16l1s3", index.getTabId(2));
+        assertEquals("u18l1n20", index.getSubscribeId("google-portlet"));
+
+        firstTab.setAttribute("hidden", "true");
+        index.nodeUpdated(firstTab);
+
+        assertEquals("u18l1s3", index.getTabId(1));
+        assertNull(index.getTabId(2));
+
+        rootFolder.removeChild(secondTab);
+        index.nodeRemoved(secondTab);
+
+        assertNull(index.getNode("u18l1s3"));
+        assertNull(index.getNode("u18l1n20"));
+        assertNull(index.getTabId(1));
+        assertEquals("u16l1n8", index.getSubscribeId("google-portlet"));
+    }
+
+    private Element findElement(String nodeId) {
+        final NodeList folders = this.document.getElementsByTagName("folder");
+        for (int i = 0; i < folders.getLength(); i++) {
+            final Element folder = (Element) folders.item(i);
+            if (nodeId.equals(folder.getAttribute("ID"))) {
+                return folder;
+            }
+        }
+        return null;
+    }
+}
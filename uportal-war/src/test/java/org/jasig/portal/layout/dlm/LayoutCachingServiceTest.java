@@ -0,0 +1,132 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.layout.IUserLayoutStore;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class LayoutCachingServiceTest {
+    private CacheManager cacheManager;
+    private Cache layoutCache;
+    private LayoutCachingService layoutCachingService;
+    private IUserLayoutStore layoutStore;
+    private IPerson person;
+    private IUserProfile profile;
+    private DistributedLayoutManager layoutManager;
+
+    @Before
+    public void setup() throws Exception {
+        this.cacheManager = new CacheManager(new Configuration().name(LayoutCachingServiceTest.class.getName()));
+        this.layoutCache = new Cache("layoutCache", 100, false, true, 0, 0);
+        this.cacheManager.addCache(this.layoutCache);
+
+        this.layoutCachingService = new LayoutCachingService();
+        this.layoutCachingService.setLayoutCache(this.layoutCache);
+        this.layoutCachingService.setSoftlyReferenceCompositeLayouts(true);
+
+        this.person = mock(IPerson.class);
+        when(this.person.getUserName()).thenReturn("user");
+        this.profile = mock(IUserProfile.class);
+        when(this.profile.getProfileId()).thenReturn(1);
+
+        //Every load from the store merges a new copy of the layout
+        this.layoutStore = mock(IUserLayoutStore.class);
+        when(this.layoutStore.getUserLayout(this.person, this.profile)).thenReturn(this.createLayout(), this.createLayout());
+
+        final IAuthorizationService authorizationService = mock(IAuthorizationService.class);
+        when(authorizationService.newPrincipal(anyString(), any(Class.class))).thenReturn(mock(IAuthorizationPrincipal.class));
+
+        this.layoutManager = new DistributedLayoutManager(this.person, this.profile);
+        this.layoutManager.setLayoutCachingService(this.layoutCachingService);
+        this.layoutManager.setDistributedLayoutStore(this.layoutStore);
+        this.layoutManager.setAuthorizationService(authorizationService);
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testReclaimedLayoutIsRebuilt() throws Exception {
+        final DistributedUserLayout layout = this.layoutManager.getDistributedUserLayout();
+        assertSame(layout, this.layoutManager.getDistributedUserLayout());
+        verify(this.layoutStore, times(1)).getUserLayout(this.person, this.profile);
+
+        //Simulate the JVM reclaiming the layout
+        assertEquals(1, this.layoutCache.getSize());
+        final Object cacheKey = this.layoutCache.getKeys().get(0);
+        ((SoftReference<?>) this.layoutCache.get(cacheKey).getObjectValue()).clear();
+        assertNull(this.layoutCachingService.getCachedLayout(this.person, this.profile));
+        assertEquals(1, this.layoutCachingService.getReclaimedLayouts());
+        assertEquals(0, this.layoutCache.getSize());
+
+        //The layout is loaded from the store again and cached in place of the reclaimed one
+        final DistributedUserLayout rebuiltLayout = this.layoutManager.getDistributedUserLayout();
+        verify(this.layoutStore, times(2)).getUserLayout(this.person, this.profile);
+        assertNotSame(layout, rebuiltLayout);
+        assertTrue(layout.getLayout().isEqualNode(rebuiltLayout.getLayout()));
+        assertSame(rebuiltLayout, this.layoutManager.getDistributedUserLayout());
+        assertEquals(1, this.layoutCachingService.getReclaimedLayouts());
+    }
+
+    private DistributedUserLayout createLayout() throws Exception {
+        final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        final Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
+        final Element layout = document.createElement("layout");
+        document.appendChild(layout);
+        final Element folder = document.createElement("folder");
+        folder.setAttribute("ID", "s2");
+        folder.setAttribute("type", "regular");
+        layout.appendChild(folder);
+        return new DistributedUserLayout(document, Collections.<String>emptySet(), null, null);
+    }
+}
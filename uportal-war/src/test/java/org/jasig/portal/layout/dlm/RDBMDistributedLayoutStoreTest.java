@@ -0,0 +1,212 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class RDBMDistributedLayoutStoreTest {
+    private CacheManager cacheManager;
+    private RDBMDistributedLayoutStore layoutStore;
+    private IAuthorizationPrincipal canRenderAll;
+    private UserView fragmentView;
+
+    @Before
+    public void setup() throws Exception {
+        this.cacheManager = new CacheManager(new Configuration().name(RDBMDistributedLayoutStoreTest.class.getName()));
+        final Cache compositeLayoutCache = new Cache("compositeLayoutCache", 100, false, true, 0, 0);
+        this.cacheManager.addCache(compositeLayoutCache);
+
+        this.layoutStore = new RDBMDistributedLayoutStore();
+        this.layoutStore.setCompositeLayoutCache(compositeLayoutCache);
+        this.layoutStore.setUseCompositeLayoutCache(true);
+
+        this.canRenderAll = mock(IAuthorizationPrincipal.class);
+        when(this.canRenderAll.canRender(anyString())).thenReturn(true);
+
+        this.fragmentView = this.createUserView();
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testCachedLayoutIsIndependentCopy() throws Exception {
+        final CacheKey key = this.getKey(this.canRenderAll, this.createPLF(), this.fragmentView);
+        assertNotNull(key);
+        assertNull(this.layoutStore.getCachedCompositeLayout(key));
+
+        final Document ILF = this.createFragmentLayout();
+        final Document original = (Document) ILF.cloneNode(true);
+        this.layoutStore.cacheCompositeLayout(key, ILF);
+
+        //The caller keeps modifying the layout it cached
+        ILF.getDocumentElement().setAttribute("modified", "true");
+
+        final Document first = this.layoutStore.getCachedCompositeLayout(key);
+        assertNotSame(ILF, first);
+        assertTrue(original.isEqualNode(first));
+
+        //Layout nodes are looked up by ID on the copy
+        final Element folder = first.getElementById("u1l1s1");
+        assertNotNull(folder);
+        assertSame(first.getDocumentElement().getFirstChild(), folder);
+
+        first.getDocumentElement().setAttribute("modified", "true");
+
+        final Document second = this.layoutStore.getCachedCompositeLayout(key);
+        assertNotSame(first, second);
+        assertTrue(original.isEqualNode(second));
+    }
+
+    @Test
+    public void testRenderPermissionsInKey() throws Exception {
+        final IAuthorizationPrincipal canRenderSome = mock(IAuthorizationPrincipal.class);
+        when(canRenderSome.canRender("1")).thenReturn(true);
+        when(canRenderSome.canRender("2")).thenReturn(false);
+
+        final Document PLF = this.createPLF();
+        final CacheKey allKey = this.getKey(this.canRenderAll, PLF, this.fragmentView);
+        final CacheKey someKey = this.getKey(canRenderSome, PLF, this.fragmentView);
+
+        assertEquals(allKey, this.getKey(this.canRenderAll, this.createPLF(), this.fragmentView));
+        assertFalse(allKey.equals(someKey));
+
+        this.layoutStore.cacheCompositeLayout(allKey, this.createFragmentLayout());
+        assertNotNull(this.layoutStore.getCachedCompositeLayout(allKey));
+        assertNull(this.layoutStore.getCachedCompositeLayout(someKey));
+    }
+
+    @Test
+    public void testRefreshedUserViewMisses() throws Exception {
+        final CacheKey key = this.getKey(this.canRenderAll, this.createPLF(), this.fragmentView);
+        this.layoutStore.cacheCompositeLayout(key, this.createFragmentLayout());
+
+        //FragmentActivator creates a new UserView when the fragment is refreshed, even if the layout is the same
+        final UserView refreshedView = this.createUserView();
+        final CacheKey refreshedKey = this.getKey(this.canRenderAll, this.createPLF(), refreshedView);
+
+        assertFalse(key.equals(refreshedKey));
+        assertNull(this.layoutStore.getCachedCompositeLayout(refreshedKey));
+    }
+
+    @Test
+    public void testDlmDirectivesNotCached() throws Exception {
+        final Document PLF = this.createPLF();
+        final Element delete = PLF.createElementNS(Constants.NS_URI, Constants.NS + "delete");
+        delete.setAttribute("name", "s1");
+        PLF.getDocumentElement().appendChild(delete);
+
+        assertNull(this.getKey(this.canRenderAll, PLF, this.fragmentView));
+    }
+
+    @Test
+    public void testOwnerAddedNodesNotCached() throws Exception {
+        final Document PLF = this.createPLF();
+        final Element tab = PLF.createElement("folder");
+        tab.setAttribute("ID", "s2");
+        tab.setAttribute("type", "regular");
+        PLF.getDocumentElement().getFirstChild().appendChild(tab);
+
+        assertNull(this.getKey(this.canRenderAll, PLF, this.fragmentView));
+
+        final Document channelPLF = this.createPLF();
+        final Element channel = channelPLF.createElement("channel");
+        channel.setAttribute("ID", "n2");
+        channel.setAttribute("chanID", "3");
+        channelPLF.getDocumentElement().getFirstChild().appendChild(channel);
+
+        assertNull(this.getKey(this.canRenderAll, channelPLF, this.fragmentView));
+    }
+
+    private CacheKey getKey(IAuthorizationPrincipal ap, Document PLF, UserView... views) {
+        final List<UserView> applicableViews = Arrays.asList(views);
+        return this.layoutStore.getCompositeLayoutCacheKey(ap, PLF, applicableViews, Locale.US);
+    }
+
+    private UserView createUserView() throws Exception {
+        final UserView userView = new UserView(1);
+        userView.layout = this.createFragmentLayout();
+        return userView;
+    }
+
+    private Document createPLF() throws Exception {
+        final Document PLF = this.newDocument();
+        final Element layout = PLF.createElement("layout");
+        layout.setAttributeNS("http://www.w3.org/2000/xmlns/", Constants.NS_DECL, Constants.NS_URI);
+        PLF.appendChild(layout);
+        final Element root = PLF.createElement("folder");
+        root.setAttribute("ID", "s1");
+        root.setAttribute("type", "root");
+        layout.appendChild(root);
+        return PLF;
+    }
+
+    private Document createFragmentLayout() throws Exception {
+        final Document fragment = this.newDocument();
+        final Element layout = fragment.createElement("layout");
+        fragment.appendChild(layout);
+        final Element folder = fragment.createElement("folder");
+        folder.setAttribute("ID", "u1l1s1");
+        folder.setIdAttribute("ID", true);
+        layout.appendChild(folder);
+        for (final String chanId : new String[] { "1", "2" }) {
+            final Element channel = fragment.createElement("channel");
+            channel.setAttribute("chanID", chanId);
+            folder.appendChild(channel);
+        }
+        return fragment;
+    }
+
+    private Document newDocument() throws Exception {
+        final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        return documentBuilderFactory.newDocumentBuilder().newDocument();
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link LayoutRowSet} against an in-memory HSQL database.
+ */
+public class LayoutRowSetTest {
+    private static final int USER_ID = 1;
+    private static final int LAYOUT_ID = 1;
+
+    private LayoutTestDatabase database;
+    private Connection con;
+
+    @Before
+    public void setup() throws Exception {
+        this.database = new LayoutTestDatabase("LayoutRowSetTest");
+        this.con = this.database.getConnection();
+        this.execute("INSERT INTO UP_USER_LAYOUT VALUES (" + USER_ID + ", " + LAYOUT_ID + ", 'Test', 1)");
+
+        this.con.setAutoCommit(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.database.close();
+    }
+
+    @Test
+    public void testInsertAndLoad() throws Exception {
+        this.createLayout().save(this.con, USER_ID, LAYOUT_ID, false);
+
+        assertEquals(Arrays.asList(
+                "1,0,2,null,Tab,regular,N",
+                "2,3,0,10,null,null,N",
+                "3,0,0,11,null,null,Y"), this.getStructs());
+        assertEquals(Arrays.asList("2:p=a", "3:q=b"), this.getParams());
+
+        //Loaded rows match the rows they were stored from
+        final LayoutRowSet storedRows = LayoutRowSet.load(this.con, USER_ID, LAYOUT_ID);
+        assertTrue(this.createLayout().update(this.con, USER_ID, LAYOUT_ID, storedRows));
+        assertEquals(3, this.getStructs().size());
+    }
+
+    @Test
+    public void testIncrementalSave() throws Exception {
+        this.createLayout().save(this.con, USER_ID, LAYOUT_ID, false);
+
+        final LayoutRowSet layout = new LayoutRowSet();
+        layout.addStruct(1, 0, 2, null, null, "Renamed", "regular", false, false, false);
+        layout.addStruct(2, 4, 0, null, 10, null, null, false, false, false);
+        layout.addStruct(4, 0, 0, null, 12, null, null, false, false, false);
+        layout.addParam(2, "p", "changed");
+        layout.addParam(4, "r", "c");
+        layout.save(this.con, USER_ID, LAYOUT_ID, true);
+
+        assertEquals(Arrays.asList(
+                "1,0,2,null,Renamed,regular,N",
+                "2,4,0,10,null,null,N",
+                "4,0,0,12,null,null,N"), this.getStructs());
+        assertEquals(Arrays.asList("2:p=changed", "4:r=c"), this.getParams());
+    }
+
+    @Test
+    public void testNullAndEmptyNameAndType() throws Exception {
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 1, 0, 0, NULL, NULL, '', NULL, 'N', 'N', 'N')");
+
+        final LayoutRowSet layout = new LayoutRowSet();
+        layout.addStruct(1, 0, 0, null, null, null, "", false, false, false);
+
+        //Equal rows are not updated, the stored values are left as they were
+        layout.save(this.con, USER_ID, LAYOUT_ID, true);
+        assertEquals(Arrays.asList("1,0,0,null,,null,N"), this.getStructs());
+
+        //Without the UP_USER_LAYOUT row to lock the layout is rewritten
+        this.execute("DELETE FROM UP_USER_LAYOUT");
+        layout.save(this.con, USER_ID, LAYOUT_ID, true);
+        assertEquals(Arrays.asList("1,0,0,null,null,,N"), this.getStructs());
+    }
+
+    @Test
+    public void testEmptyParamValueReadAsNull() throws Exception {
+        //Stored rows as read from Oracle, which returns an empty value as NULL
+        final LayoutRowSet storedRows = new LayoutRowSet();
+        storedRows.addStruct(1, 0, 0, null, 10, null, null, false, false, false);
+        storedRows.addParam(1, "p", null);
+
+        //Nothing is actually stored so any update would match no rows and fail
+        final LayoutRowSet layout = new LayoutRowSet();
+        layout.addStruct(1, 0, 0, null, 10, null, null, false, false, false);
+        layout.addParam(1, "p", "");
+        assertTrue(layout.update(this.con, USER_ID, LAYOUT_ID, storedRows));
+    }
+
+    @Test
+    public void testDuplicateKeysFallBack() throws Exception {
+        this.createLayout().save(this.con, USER_ID, LAYOUT_ID, false);
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 3, 0, 0, NULL, 11, NULL, NULL, 'N', 'N', 'Y')");
+        this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (1, 1, 3, 'q', 'b')");
+
+        //Nothing is written when the stored rows have duplicate keys
+        final LayoutRowSet storedRows = LayoutRowSet.load(this.con, USER_ID, LAYOUT_ID);
+        assertFalse(this.createLayout().update(this.con, USER_ID, LAYOUT_ID, storedRows));
+        assertEquals(4, this.getStructs().size());
+
+        //The save falls back to rewriting the layout which removes the duplicates
+        this.createLayout().save(this.con, USER_ID, LAYOUT_ID, true);
+        assertEquals(Arrays.asList(
+                "1,0,2,null,Tab,regular,N",
+                "2,3,0,10,null,null,N",
+                "3,0,0,11,null,null,Y"), this.getStructs());
+        assertEquals(Arrays.asList("2:p=a", "3:q=b"), this.getParams());
+
+        //Nothing is written when the new rows have duplicate keys
+        final LayoutRowSet duplicateLayout = this.createLayout();
+        duplicateLayout.addParam(2, "p", "other");
+        assertFalse(duplicateLayout.update(this.con, USER_ID, LAYOUT_ID, LayoutRowSet.load(this.con, USER_ID, LAYOUT_ID)));
+        assertEquals(Arrays.asList("2:p=a", "3:q=b"), this.getParams());
+    }
+
+    @Test
+    public void testUpdateCountMismatch() throws Exception {
+        this.createLayout().save(this.con, USER_ID, LAYOUT_ID, false);
+
+        //Rows that were removed by another save since they were loaded don't update
+        final LayoutRowSet storedRows = LayoutRowSet.load(this.con, USER_ID, LAYOUT_ID);
+        this.execute("DELETE FROM UP_LAYOUT_STRUCT WHERE STRUCT_ID=1");
+
+        final LayoutRowSet renamedLayout = new LayoutRowSet();
+        renamedLayout.addStruct(1, 0, 2, null, null, "Renamed", "regular", false, false, false);
+        renamedLayout.addStruct(2, 3, 0, null, 10, null, null, false, false, false);
+        renamedLayout.addStruct(3, 0, 0, null, 11, null, null, false, false, true);
+        renamedLayout.addParam(2, "p", "a");
+        renamedLayout.addParam(3, "q", "b");
+        assertFalse(renamedLayout.update(this.con, USER_ID, LAYOUT_ID, storedRows));
+
+        //Deleting a row that is already gone is also a mismatch
+        final LayoutRowSet shortLayout = new LayoutRowSet();
+        shortLayout.addStruct(2, 0, 0, null, 10, null, null, false, false, false);
+        assertFalse(shortLayout.update(this.con, USER_ID, LAYOUT_ID, storedRows));
+
+        //Saving diffs against the rows currently stored, whatever the failed updates left behind
+        this.createLayout().save(this.con, USER_ID, LAYOUT_ID, true);
+        assertEquals(Arrays.asList(
+                "1,0,2,null,Tab,regular,N",
+                "2,3,0,10,null,null,N",
+                "3,0,0,11,null,null,Y"), this.getStructs());
+    }
+
+    /**
+     * A tab containing two channels, the second channel is unremovable
+     */
+    private LayoutRowSet createLayout() {
+        final LayoutRowSet layout = new LayoutRowSet();
+        layout.addStruct(1, 0, 2, null, null, "Tab", "regular", false, false, false);
+        layout.addStruct(2, 3, 0, null, 10, null, null, false, false, false);
+        layout.addStruct(3, 0, 0, null, 11, null, null, false, false, true);
+        layout.addParam(2, "p", "a");
+        layout.addParam(3, "q", "b");
+        return layout;
+    }
+
+    private void execute(String sql) throws SQLException {
+        this.database.execute(sql);
+    }
+
+    /**
+     * @return STRUCT_ID,NEXT_STRUCT_ID,CHLD_STRUCT_ID,CHAN_ID,NAME,TYPE,UNREMOVABLE for each stored struct
+     */
+    private List<String> getStructs() throws SQLException {
+        return this.query("SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, CHAN_ID, NAME, TYPE, UNREMOVABLE "
+                + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=" + USER_ID + " AND LAYOUT_ID=" + LAYOUT_ID + " ORDER BY STRUCT_ID", ",");
+    }
+
+    /**
+     * @return STRUCT_ID:STRUCT_PARM_NM=STRUCT_PARM_VAL for each stored param
+     */
+    private List<String> getParams() throws SQLException {
+        final List<String> params = new ArrayList<String>();
+        for (final String param : this.query("SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM "
+                + "WHERE USER_ID=" + USER_ID + " AND LAYOUT_ID=" + LAYOUT_ID + " ORDER BY STRUCT_ID, STRUCT_PARM_NM", ",")) {
+            final String[] parts = param.split(",", 3);
+            params.add(parts[0] + ":" + parts[1] + "=" + parts[2]);
+        }
+        return params;
+    }
+
+    private List<String> query(String sql, String separator) throws SQLException {
+        final List<String> rows = new ArrayList<String>();
+        final Statement stmt = this.con.createStatement();
+        try {
+            final ResultSet rs = stmt.executeQuery(sql);
+            try {
+                final int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    final StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columns; i++) {
+                        if (i > 1) {
+                            row.append(separator);
+                        }
+                        row.append(rs.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            stmt.close();
+        }
+        return rows;
+    }
+}
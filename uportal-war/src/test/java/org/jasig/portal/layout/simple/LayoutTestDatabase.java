@@ -0,0 +1,81 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * In-memory HSQL database holding the UP_USER_LAYOUT, UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM tables used
+ * by the layout store tests. The tables are created without primary keys so duplicate rows, as found in
+ * some upgraded databases, can be stored.
+ */
+class LayoutTestDatabase {
+    private final Connection con;
+
+    /**
+     * Connects to the named in-memory database and creates the layout tables
+     */
+    public LayoutTestDatabase(String name) throws Exception {
+        Class.forName("org.hsqldb.jdbcDriver");
+        this.con = DriverManager.getConnection("jdbc:hsqldb:mem:" + name, "sa", "");
+
+        this.execute("CREATE TABLE UP_USER_LAYOUT (USER_ID integer NOT NULL, LAYOUT_ID integer NOT NULL, "
+                + "LAYOUT_TITLE varchar(15), INIT_STRUCT_ID integer)");
+        this.execute("CREATE TABLE UP_LAYOUT_STRUCT (USER_ID integer NOT NULL, LAYOUT_ID integer NOT NULL, "
+                + "STRUCT_ID integer NOT NULL, NEXT_STRUCT_ID integer, CHLD_STRUCT_ID integer, EXTERNAL_ID varchar(64), "
+                + "CHAN_ID integer, NAME varchar(35), TYPE varchar(35), HIDDEN varchar(1), IMMUTABLE varchar(1), "
+                + "UNREMOVABLE varchar(1))");
+        this.execute("CREATE TABLE UP_LAYOUT_PARAM (USER_ID integer NOT NULL, LAYOUT_ID integer NOT NULL, "
+                + "STRUCT_ID integer NOT NULL, STRUCT_PARM_NM varchar(35) NOT NULL, STRUCT_PARM_VAL varchar(2000) NOT NULL)");
+    }
+
+    public Connection getConnection() {
+        return this.con;
+    }
+
+    public void execute(String sql) throws SQLException {
+        final Statement stmt = this.con.createStatement();
+        try {
+            stmt.execute(sql);
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Rolls back any open transaction, drops the layout tables and closes the connection
+     */
+    public void close() throws SQLException {
+        if (!this.con.getAutoCommit()) {
+            this.con.rollback();
+            this.con.setAutoCommit(true);
+        }
+
+        this.execute("DROP TABLE UP_LAYOUT_PARAM");
+        this.execute("DROP TABLE UP_LAYOUT_STRUCT");
+        this.execute("DROP TABLE UP_USER_LAYOUT");
+        this.con.close();
+    }
+}
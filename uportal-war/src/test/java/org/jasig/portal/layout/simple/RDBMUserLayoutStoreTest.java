@@ -0,0 +1,164 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.portal.layout.dlm.RDBMDistributedLayoutStore;
+import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.rdbm.DatabaseMetaDataImpl;
+import org.jasig.portal.rdbm.IDatabaseMetadata;
+import org.jasig.portal.utils.Tuple;
+import org.jasig.portal.xml.XmlUtilitiesImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.w3c.dom.Document;
+
+/**
+ * Compares the layouts read by the single query layout loader with the layouts read by the loader
+ * that queries each table separately, using an in-memory HSQL database.
+ */
+public class RDBMUserLayoutStoreTest {
+    private static final Tuple<Integer, Integer> LAYOUT = new Tuple<Integer, Integer>(1, 1);
+    private static final Tuple<Integer, Integer> OTHER_LAYOUT = new Tuple<Integer, Integer>(2, 1);
+    private static final Tuple<Integer, Integer> EMPTY_LAYOUT = new Tuple<Integer, Integer>(3, 1);
+    private static final Tuple<Integer, Integer> MISSING_LAYOUT = new Tuple<Integer, Integer>(4, 1);
+    private static final List<Tuple<Integer, Integer>> ALL_LAYOUTS = Arrays.asList(LAYOUT, OTHER_LAYOUT, EMPTY_LAYOUT, MISSING_LAYOUT);
+
+    private LayoutTestDatabase database;
+    private Connection con;
+    private IDatabaseMetadata databaseMetadata;
+    private RDBMDistributedLayoutStore layoutStore;
+
+    @Before
+    public void setup() throws Exception {
+        this.database = new LayoutTestDatabase("RDBMUserLayoutStoreTest");
+        this.con = this.database.getConnection();
+
+        //A root folder holding a tab with two channels and a hidden header folder
+        this.execute("INSERT INTO UP_USER_LAYOUT VALUES (1, 1, 'Test', 1)");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 1, 0, 2, NULL, NULL, 'Root', 'root', 'N', 'N', 'N')");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 2, 5, 3, NULL, NULL, 'Tab', 'regular', 'N', 'N', 'N')");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 3, 4, 0, NULL, 10, NULL, NULL, 'N', 'N', 'N')");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 4, 0, 0, NULL, 11, NULL, NULL, 'N', 'Y', 'Y')");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (1, 1, 5, 0, 0, NULL, NULL, 'Header', 'header', 'Y', 'N', 'N')");
+        this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (1, 1, 2, 'width', '100%')");
+        this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (1, 1, 2, 'externalId', 'tab')");
+        this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (1, 1, 3, 'a', '1')");
+        this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (1, 1, 4, 'c', '3')");
+
+        //Another user's layout with the same struct ids
+        this.execute("INSERT INTO UP_USER_LAYOUT VALUES (2, 1, 'Other', 1)");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (2, 1, 1, 0, 2, NULL, NULL, 'Root', 'root', 'N', 'N', 'N')");
+        this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (2, 1, 2, 0, 0, NULL, 10, NULL, NULL, 'N', 'N', 'N')");
+        this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (2, 1, 2, 'a', 'other')");
+
+        //A layout without any structures
+        this.execute("INSERT INTO UP_USER_LAYOUT VALUES (3, 1, 'Empty', 1)");
+
+        this.databaseMetadata = mock(IDatabaseMetadata.class);
+        when(this.databaseMetadata.supportsOuterJoins()).thenReturn(true);
+        when(this.databaseMetadata.getJoinQuery()).thenReturn(new DatabaseMetaDataImpl.PostgreSQLDb(""));
+
+        //Channels are rendered as missing channels
+        final IPortletDefinitionRegistry portletDefinitionRegistry = mock(IPortletDefinitionRegistry.class);
+        when(portletDefinitionRegistry.getPortletDefinition(anyString())).thenReturn(null);
+
+        this.layoutStore = new RDBMDistributedLayoutStore();
+        this.layoutStore.setDatabaseMetadata(this.databaseMetadata);
+        this.layoutStore.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        this.layoutStore.setDataSource(new SingleConnectionDataSource(this.con, true));
+        this.layoutStore.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.database.close();
+    }
+
+    @Test
+    public void testSingleQueryMatchesMultiQuery() throws Exception {
+        final Map<Tuple<Integer, Integer>, Document> layouts = this.layoutStore.loadLayouts(this.con, ALL_LAYOUTS, null);
+        assertEquals(2, layouts.size());
+
+        final Statement stmt = this.con.createStatement();
+        try {
+            for (final Tuple<Integer, Integer> userLayoutId : Arrays.asList(LAYOUT, OTHER_LAYOUT)) {
+                final Document layout = this.layoutStore.loadLayout(stmt, userLayoutId.first, userLayoutId.second, null, true);
+                assertEquals(XmlUtilitiesImpl.toString(layout), XmlUtilitiesImpl.toString(layouts.get(userLayoutId)));
+            }
+
+            //Neither loader returns a layout without structures
+            assertNull(this.layoutStore.loadLayout(stmt, EMPTY_LAYOUT.first, EMPTY_LAYOUT.second, null, true));
+            assertNull(this.layoutStore.loadLayout(stmt, MISSING_LAYOUT.first, MISSING_LAYOUT.second, null, false));
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMissingLayoutRow() throws Exception {
+        final Statement stmt = this.con.createStatement();
+        try {
+            this.layoutStore.loadLayout(stmt, MISSING_LAYOUT.first, MISSING_LAYOUT.second, null, true);
+        }
+        finally {
+            stmt.close();
+        }
+    }
+
+    @Test
+    public void testPersonalUserLayoutsWithoutOuterJoins() throws Exception {
+        //Without outer joins only channel parameters are read
+        this.execute("DELETE FROM UP_LAYOUT_PARAM WHERE STRUCT_ID=2 AND USER_ID=1");
+
+        final Map<Tuple<Integer, Integer>, Document> layouts = this.layoutStore.getPersonalUserLayouts(ALL_LAYOUTS, null);
+        assertEquals(2, layouts.size());
+
+        //Each layout is loaded separately, reading the channel parameters with their own queries
+        when(this.databaseMetadata.supportsOuterJoins()).thenReturn(false);
+        final Map<Tuple<Integer, Integer>, Document> separateLayouts = this.layoutStore.getPersonalUserLayouts(ALL_LAYOUTS, null);
+
+        assertEquals(layouts.keySet(), separateLayouts.keySet());
+        for (final Map.Entry<Tuple<Integer, Integer>, Document> layoutEntry : layouts.entrySet()) {
+            assertEquals(XmlUtilitiesImpl.toString(layoutEntry.getValue()), 
+                    XmlUtilitiesImpl.toString(separateLayouts.get(layoutEntry.getKey())));
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        this.database.execute(sql);
+    }
+}
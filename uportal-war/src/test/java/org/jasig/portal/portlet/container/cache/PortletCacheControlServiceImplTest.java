@@ -18,6 +18,7 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -26,6 +27,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
@@ -56,6 +58,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpSession;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * @author Nicholas Blair
  * @version $Id$
@@ -298,6 +302,200 @@ public class PortletCacheControlServiceImplTest {
         assertNotNull(actualCachedPortletData);
     }
     
+    @Test
+    public void testStaleWhileRevalidate() {
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+        
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        
+        when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDescriptor);
+
+        when(this.urlSyntaxProvider.getPortalRequestInfo(httpRequest)).thenReturn(portalRequestInfo);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+        
+        cacheControlService.setStaleWhileRevalidate(60);
+
+        //Render and cache the output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> firstCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = firstCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final PortletRenderResult renderResult = new PortletRenderResult("title", null, 0, 1000l);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, "stale", null, null, false, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, firstCacheState, cachedPortletData);
+        
+        //Expire the cached output
+        cachedPortletData.updateExpirationTime(0);
+        
+        //First request after expiration re-renders
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> revalidateCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertNotNull(revalidateCacheState.getCachedPortletData());
+        assertFalse(revalidateCacheState.isUseCachedData());
+        
+        //Concurrent requests get the stale output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> staleCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(staleCacheState.isUseCachedData());
+        assertEquals("stale", staleCacheState.getCachedPortletData().getCachedWriterOutput());
+        
+        //Re-rendered output replaces the stale output
+        final CachedPortletData<PortletRenderResult> freshPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, "fresh", null, null, false, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, revalidateCacheState, freshPortletData);
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> freshCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(freshCacheState.isUseCachedData());
+        assertEquals("fresh", freshCacheState.getCachedPortletData().getCachedWriterOutput());
+    }
+    
+    @Test
+    public void testStaleWhileRevalidateClaimReleased() {
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+        
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        
+        when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDescriptor);
+
+        when(this.urlSyntaxProvider.getPortalRequestInfo(httpRequest)).thenReturn(portalRequestInfo);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+        
+        cacheControlService.setStaleWhileRevalidate(60);
+
+        //Render and cache the output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> firstCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = firstCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final PortletRenderResult renderResult = new PortletRenderResult("title", null, 0, 1000l);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, "stale", null, null, false, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, firstCacheState, cachedPortletData);
+        assertFalse(firstCacheState.isRenderCompletionRequired());
+        
+        //Expire the cached output
+        cachedPortletData.updateExpirationTime(0);
+        
+        //First request after expiration claims the re-render
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> revalidateCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(revalidateCacheState.isUseCachedData());
+        assertTrue(revalidateCacheState.isRenderCompletionRequired());
+        
+        //Re-render fails or produces output that is not cached, the claim is still released
+        cacheControlService.completePortletRender(revalidateCacheState);
+        assertFalse(revalidateCacheState.isRenderCompletionRequired());
+        
+        //Next request claims the re-render instead of getting stale output
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> retryCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(retryCacheState.isUseCachedData());
+        assertTrue(retryCacheState.isRenderCompletionRequired());
+    }
+    
+    @Test
+    public void testCollapsedRender() throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+        
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        
+        when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDescriptor);
+
+        when(this.urlSyntaxProvider.getPortalRequestInfo(httpRequest)).thenReturn(portalRequestInfo);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+        
+        cacheControlService.setCollapsedRenderTimeout(TimeUnit.SECONDS.toMillis(10));
+        
+        //First request renders
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> leaderCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(leaderCacheState.isUseCachedData());
+        assertTrue(leaderCacheState.isCollapsedRenderLeader());
+        
+        //Concurrent request finds the first request's render to wait on
+        final ListenableFuture<?> collapsedRender = cacheControlService.getCollapsedRender(httpRequest, portletWindowId, false);
+        assertNotNull(collapsedRender);
+        assertFalse(collapsedRender.isDone());
+        assertNull(cacheControlService.getCollapsedRender(httpRequest, portletWindowId, true));
+        
+        final CacheControl cacheControl = leaderCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        final PortletRenderResult renderResult = new PortletRenderResult("title", null, 0, 1000l);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, "rendered", null, null, false, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, leaderCacheState, cachedPortletData);
+        assertFalse(leaderCacheState.isCollapsedRenderLeader());
+        assertTrue(collapsedRender.isDone());
+        assertNull(cacheControlService.getCollapsedRender(httpRequest, portletWindowId, false));
+        
+        //Concurrent request replays the output of the first request's render
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> followerCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(followerCacheState.isUseCachedData());
+        assertFalse(followerCacheState.isCollapsedRenderLeader());
+        assertEquals("rendered", followerCacheState.getCachedPortletData().getCachedWriterOutput());
+    }
+    
+    @Test
+    public void testCollapsedRenderTimeout() throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+        
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        
+        when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDescriptor);
+
+        when(this.urlSyntaxProvider.getPortalRequestInfo(httpRequest)).thenReturn(portalRequestInfo);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+        
+        cacheControlService.setCollapsedRenderTimeout(TimeUnit.SECONDS.toMillis(10));
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> leaderCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(leaderCacheState.isCollapsedRenderLeader());
+        
+        //Concurrent request gave up waiting, it renders without taking over the collapsed render
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> followerCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(followerCacheState.isUseCachedData());
+        assertFalse(followerCacheState.isCollapsedRenderLeader());
+        assertFalse(followerCacheState.isRenderCompletionRequired());
+        
+        //First request's render fails, nothing is left for later requests to wait on
+        final ListenableFuture<?> collapsedRender = cacheControlService.getCollapsedRender(httpRequest, portletWindowId, false);
+        cacheControlService.completePortletRender(leaderCacheState);
+        assertTrue(collapsedRender.isDone());
+        assertNull(cacheControlService.getCollapsedRender(httpRequest, portletWindowId, false));
+    }
+    
     @Test
     public void testCachePrivateResourceRoundTrip() {
         MockHttpServletRequest httpRequest = new MockHttpServletRequest();
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import static org.jasig.portal.portlet.rendering.PortletExecutionHealth.EXECUTION_DENIED;
+import static org.jasig.portal.portlet.rendering.PortletExecutionHealth.NO_TRIAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jasig.portal.portlet.rendering.PortletExecutionHealth.CircuitState;
+import org.junit.Test;
+
+public class PortletExecutionHealthTest {
+    
+    @Test
+    public void testPercentile() {
+        final PortletExecutionHealth health = new PortletExecutionHealth(6, 10000);
+        final long now = 100000;
+        
+        assertEquals(-1, health.getPercentile(0.99, now));
+        
+        for (int i = 0; i < 98; i++) {
+            health.recordExecution(3, false, now);
+        }
+        health.recordExecution(100, false, now);
+        health.recordExecution(5000, false, now);
+        
+        assertEquals(100, health.getExecutions(now));
+        assertEquals(4, health.getPercentile(0.5, now));
+        assertEquals(128, health.getPercentile(0.99, now));
+        assertEquals(8192, health.getPercentile(1, now));
+    }
+    
+    @Test
+    public void testRollingWindows() {
+        final PortletExecutionHealth health = new PortletExecutionHealth(6, 10000);
+        
+        health.recordExecution(10, true, 100000);
+        health.recordExecution(10, false, 125000);
+        
+        assertEquals(2, health.getExecutions(130000));
+        assertEquals(1, health.getFailures(130000));
+        
+        //First execution is now more than 60s old
+        assertEquals(1, health.getExecutions(165000));
+        assertEquals(0, health.getFailures(165000));
+        
+        assertEquals(0, health.getExecutions(200000));
+    }
+    
+    @Test
+    public void testCircuitBreaker() {
+        final PortletExecutionHealth health = new PortletExecutionHealth(6, 10000);
+        long now = 100000;
+        
+        for (int i = 0; i < 5; i++) {
+            health.recordExecution(10, false, now);
+            assertEquals(CircuitState.CLOSED, health.updateCircuitState(false, NO_TRIAL, 10, 0.5, now));
+        }
+        for (int i = 0; i < 4; i++) {
+            health.recordExecution(10, true, now);
+            assertEquals(CircuitState.CLOSED, health.updateCircuitState(true, NO_TRIAL, 10, 0.5, now));
+        }
+        
+        //10th execution reaches the minimum with 50% failures
+        health.recordExecution(10, true, now);
+        assertEquals(CircuitState.OPEN, health.updateCircuitState(true, NO_TRIAL, 10, 0.5, now));
+        assertEquals(EXECUTION_DENIED, health.allowExecution(30000, now + 1000));
+        
+        //After the open duration one trial is allowed
+        now += 30000;
+        long trial = health.allowExecution(30000, now);
+        assertTrue(trial > NO_TRIAL);
+        assertEquals(CircuitState.HALF_OPEN, health.getCircuitState());
+        assertEquals(EXECUTION_DENIED, health.allowExecution(30000, now));
+        
+        //Failed trial re-opens
+        assertEquals(CircuitState.OPEN, health.updateCircuitState(true, trial, 10, 0.5, now));
+        
+        now += 30000;
+        trial = health.allowExecution(30000, now);
+        assertTrue(trial > NO_TRIAL);
+        
+        //Successful trial closes and clears the executions that opened the circuit
+        health.recordExecution(10, false, now);
+        assertEquals(CircuitState.CLOSED, health.updateCircuitState(false, trial, 10, 0.5, now));
+        assertEquals(0, health.getExecutions(now));
+        assertEquals(NO_TRIAL, health.allowExecution(30000, now));
+    }
+    
+    @Test
+    public void testOnlyTrialChangesHalfOpenCircuit() {
+        final PortletExecutionHealth health = new PortletExecutionHealth(6, 10000);
+        long now = 100000;
+        
+        health.recordExecution(10, true, now);
+        assertEquals(CircuitState.OPEN, health.updateCircuitState(true, NO_TRIAL, 1, 0.5, now));
+        
+        now += 30000;
+        final long trial = health.allowExecution(30000, now);
+        assertTrue(trial > NO_TRIAL);
+        
+        //Executions started before the circuit opened don't close or re-open it
+        assertEquals(CircuitState.HALF_OPEN, health.updateCircuitState(false, NO_TRIAL, 1, 0.5, now));
+        assertEquals(CircuitState.HALF_OPEN, health.updateCircuitState(true, NO_TRIAL, 1, 0.5, now));
+        
+        //A trial that expired and was replaced doesn't either
+        now += 30000;
+        final long nextTrial = health.allowExecution(30000, now);
+        assertTrue(nextTrial > trial);
+        assertEquals(CircuitState.HALF_OPEN, health.updateCircuitState(false, trial, 1, 0.5, now));
+        
+        assertEquals(CircuitState.CLOSED, health.updateCircuitState(false, nextTrial, 1, 0.5, now));
+    }
+    
+    @Test
+    public void testAbandonedTrial() {
+        final PortletExecutionHealth health = new PortletExecutionHealth(6, 10000);
+        long now = 100000;
+        
+        health.recordExecution(10, true, now);
+        assertEquals(CircuitState.OPEN, health.updateCircuitState(true, NO_TRIAL, 1, 0.5, now));
+        
+        now += 30000;
+        final long trial = health.allowExecution(30000, now);
+        assertEquals(EXECUTION_DENIED, health.allowExecution(30000, now));
+        
+        //Trial was served from the cache, the next execution becomes the trial
+        health.abandonTrial(trial);
+        final long nextTrial = health.allowExecution(30000, now);
+        assertTrue(nextTrial > trial);
+        assertEquals(EXECUTION_DENIED, health.allowExecution(30000, now));
+        assertEquals(CircuitState.HALF_OPEN, health.getCircuitState());
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class FnameLimitingPortletExecutorServiceTest {
+    private ExecutorService backingExecutor;
+    private FnameLimitingPortletExecutorService executorService;
+    
+    @Before
+    public void setup() {
+        this.backingExecutor = Executors.newCachedThreadPool();
+        this.executorService = new FnameLimitingPortletExecutorService(this.backingExecutor);
+        this.executorService.setMaxConcurrentPerFname(1);
+        this.executorService.setMaxQueuedPerFname(1);
+    }
+    
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testPerFnameLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        final Future<Object> slow1 = this.executorService.submit(createWorker("slow", release));
+        final Future<Object> slow2 = this.executorService.submit(createWorker("slow", release));
+        try {
+            this.executorService.submit(createWorker("slow", release));
+            fail("Third worker for fname should be rejected");
+        }
+        catch (RejectedExecutionException e) {
+            //expected
+        }
+        
+        //Other fnames are not affected by the slow portlet
+        final Future<Object> fast = this.executorService.submit(createWorker("fast", null));
+        assertEquals("fast", fast.get(5, TimeUnit.SECONDS));
+        
+        assertEquals(Integer.valueOf(1), this.executorService.getExecutingCounts().get("slow"));
+        assertEquals(Integer.valueOf(1), this.executorService.getQueuedCounts().get("slow"));
+        
+        release.countDown();
+        assertEquals("slow", slow1.get(5, TimeUnit.SECONDS));
+        assertEquals("slow", slow2.get(5, TimeUnit.SECONDS));
+        
+        assertEquals(Integer.valueOf(0), this.executorService.getQueuedCounts().get("slow"));
+        assertTrue(slow2.isDone());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Callable<Object> createWorker(final String fname, final CountDownLatch release) throws Exception {
+        final Callable<Object> worker = mock(Callable.class, withSettings().extraInterfaces(IPortletExecutionContext.class));
+        when(((IPortletExecutionContext) worker).getPortletFname()).thenReturn(fname);
+        when(worker.call()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (release != null) {
+                    release.await();
+                }
+                return fname;
+            }
+        });
+        return worker;
+    }
+}
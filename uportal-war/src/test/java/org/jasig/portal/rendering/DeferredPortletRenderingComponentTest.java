@@ -0,0 +1,171 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.character.stream.CharacterEventBufferReader;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletNewItemCountPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletTitlePlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeferredPortletRenderingComponentTest {
+    @InjectMocks private DeferredPortletRenderingComponent deferredPortletRenderingComponent = new DeferredPortletRenderingComponent();
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private CharacterPipelineComponent wrappedComponent;
+
+    @Test
+    public void testSlowPortletDeferred() throws Exception {
+        final HttpServletRequest request = new MockHttpServletRequest();
+        final HttpServletResponse response = new MockHttpServletResponse();
+
+        final IPortletWindowId fastWindowId = mock(IPortletWindowId.class);
+        when(fastWindowId.getStringId()).thenReturn("fast");
+        final IPortletWindowId slowWindowId = mock(IPortletWindowId.class);
+        when(slowWindowId.getStringId()).thenReturn("slow");
+
+        final PortletContentPlaceholderEventImpl slowContent = new PortletContentPlaceholderEventImpl(slowWindowId);
+        final PortletContentPlaceholderEventImpl fastContent = new PortletContentPlaceholderEventImpl(fastWindowId);
+        final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<body>"),
+                new PortletTitlePlaceholderEventImpl(slowWindowId),
+                slowContent,
+                fastContent,
+                CharacterDataEventImpl.create("</body></html>"));
+
+        when(this.wrappedComponent.getEventReader(request, response)).thenReturn(
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(events.listIterator())));
+        when(this.portletExecutionManager.isPortletOutputReady(fastWindowId, request, response)).thenReturn(true);
+        when(this.portletExecutionManager.isPortletOutputReady(slowWindowId, request, response)).thenReturn(false);
+        when(this.portletExecutionManager.waitForPortletOutput(Arrays.asList(slowWindowId), request, response)).thenReturn(slowWindowId);
+        when(this.portletExecutionManager.getPortletDefinitionTitle(slowWindowId, request, response)).thenReturn("Slow Title");
+
+        this.deferredPortletRenderingComponent.setWrappedComponent(this.wrappedComponent);
+
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = this.deferredPortletRenderingComponent.getEventReader(request, response);
+        final List<CharacterEvent> result = new ArrayList<CharacterEvent>();
+        for (final CharacterEvent event : eventReader) {
+            result.add(event);
+        }
+
+        assertEquals("<body>", ((CharacterDataEvent) result.get(0)).getData());
+        assertEquals("Slow Title", ((CharacterDataEvent) result.get(1)).getData());
+        assertEquals("<div id=\"up-deferred-slow\"></div>", ((CharacterDataEvent) result.get(2)).getData());
+        assertSame(fastContent, result.get(3));
+        assertTrue(((CharacterDataEvent) result.get(4)).getData().contains("function upFillDeferredPortlet"));
+        assertEquals("<div id=\"up-deferred-content-slow\" style=\"display:none\">", ((CharacterDataEvent) result.get(5)).getData());
+        assertSame(slowContent, result.get(6));
+        assertTrue(((CharacterDataEvent) result.get(7)).getData().contains("upFillDeferredPortlet('slow')"));
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, result.get(8));
+        assertEquals("</body></html>", ((CharacterDataEvent) result.get(9)).getData());
+        assertEquals(10, result.size());
+    }
+
+    @Test
+    public void testNewItemCountPortletNotDeferred() {
+        final HttpServletRequest request = new MockHttpServletRequest();
+        final HttpServletResponse response = new MockHttpServletResponse();
+
+        final IPortletWindowId countWindowId = mock(IPortletWindowId.class);
+        when(countWindowId.getStringId()).thenReturn("count");
+
+        final PortletNewItemCountPlaceholderEventImpl countEvent = new PortletNewItemCountPlaceholderEventImpl(countWindowId);
+        final PortletContentPlaceholderEventImpl countContent = new PortletContentPlaceholderEventImpl(countWindowId);
+        final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<body>"),
+                countEvent,
+                countContent,
+                CharacterDataEventImpl.create("</body></html>"));
+
+        when(this.wrappedComponent.getEventReader(request, response)).thenReturn(
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(events.listIterator())));
+
+        this.deferredPortletRenderingComponent.setWrappedComponent(this.wrappedComponent);
+
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = this.deferredPortletRenderingComponent.getEventReader(request, response);
+        final List<CharacterEvent> result = new ArrayList<CharacterEvent>();
+        for (final CharacterEvent event : eventReader) {
+            result.add(event);
+        }
+
+        assertEquals(events, result);
+    }
+
+    @Test
+    public void testNewItemCountAfterDeferral() throws Exception {
+        final HttpServletRequest request = new MockHttpServletRequest();
+        final HttpServletResponse response = new MockHttpServletResponse();
+
+        final IPortletWindowId slowWindowId = mock(IPortletWindowId.class);
+        when(slowWindowId.getStringId()).thenReturn("slow");
+
+        final PortletContentPlaceholderEventImpl slowContent = new PortletContentPlaceholderEventImpl(slowWindowId);
+        final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<body>"),
+                slowContent,
+                new PortletNewItemCountPlaceholderEventImpl(slowWindowId),
+                CharacterDataEventImpl.create("</body></html>"));
+
+        when(this.wrappedComponent.getEventReader(request, response)).thenReturn(
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(events.listIterator())));
+        when(this.portletExecutionManager.isPortletOutputReady(slowWindowId, request, response)).thenReturn(false);
+        when(this.portletExecutionManager.waitForPortletOutput(Arrays.asList(slowWindowId), request, response)).thenReturn(slowWindowId);
+        when(this.portletExecutionManager.getPortletNewItemCount(slowWindowId, request, response)).thenReturn(3);
+
+        this.deferredPortletRenderingComponent.setWrappedComponent(this.wrappedComponent);
+
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = this.deferredPortletRenderingComponent.getEventReader(request, response);
+        final List<CharacterEvent> result = new ArrayList<CharacterEvent>();
+        for (final CharacterEvent event : eventReader) {
+            result.add(event);
+        }
+
+        assertEquals("<div id=\"up-deferred-slow\"></div>", ((CharacterDataEvent) result.get(1)).getData());
+        assertEquals("3", ((CharacterDataEvent) result.get(2)).getData());
+        assertSame(slowContent, result.get(5));
+        verify(this.portletExecutionManager).getPortletNewItemCount(slowWindowId, request, response);
+    }
+}
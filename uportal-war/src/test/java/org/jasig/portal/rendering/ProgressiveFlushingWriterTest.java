@@ -0,0 +1,118 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.EncodedCharacterDataEventImpl;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ProgressiveFlushingWriterTest {
+    @Test
+    public void testCoalescedWrites() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final ProgressiveFlushingWriter writer = new ProgressiveFlushingWriter(out, response, 10, Collections.<String>emptySet());
+
+        writer.write(CharacterDataEventImpl.create("abc"));
+        writer.write(CharacterDataEventImpl.create(""));
+        writer.write(CharacterDataEventImpl.create("def"));
+        assertEquals(0, writer.getFlushes());
+        assertFalse(response.isCommitted());
+
+        writer.write(CharacterDataEventImpl.create("ghijk"));
+        assertEquals(1, writer.getFlushes());
+        assertTrue(response.isCommitted());
+
+        writer.write(CharacterDataEventImpl.create("l"));
+        writer.boundary();
+        writer.boundary();
+
+        assertEquals(2, writer.getFlushes());
+        assertEquals(4, writer.getWrites());
+        assertEquals(12, writer.getBytesWritten());
+        assertEquals("abcdefghijkl", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testFlushMarker() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final ProgressiveFlushingWriter writer = new ProgressiveFlushingWriter(out, response, 8192, Collections.singleton("</head>"));
+
+        writer.write(CharacterDataEventImpl.create("<html><head>"));
+        assertEquals(0, writer.getFlushes());
+
+        writer.write(CharacterDataEventImpl.create("<title>t</title></head>"));
+        assertEquals(1, writer.getFlushes());
+        assertTrue(writer.getFirstFlushTime() >= 0);
+
+        writer.write(CharacterDataEventImpl.create("<body></body></html>"));
+        assertEquals(1, writer.getFlushes());
+    }
+
+    @Test
+    public void testZeroThresholdFlushesEveryWrite() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final ProgressiveFlushingWriter writer = new ProgressiveFlushingWriter(out, response, 0, null);
+
+        writer.write(CharacterDataEventImpl.create("a"));
+        writer.write(CharacterDataEventImpl.create("b"));
+
+        assertEquals(2, writer.getFlushes());
+    }
+
+    @Test
+    public void testEncodedWrites() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final ProgressiveFlushingWriter writer = new ProgressiveFlushingWriter(out, response, 8192, null);
+
+        writer.write(CharacterDataEventImpl.create("caf\u00e9"));
+        writer.boundary();
+
+        assertEquals(5, writer.getBytesWritten());
+        assertEquals("caf\u00e9", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEncodedEventFlushMarker() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final ProgressiveFlushingWriter writer = new ProgressiveFlushingWriter(out, response, 8192, Collections.singleton("</h\u00e9ad>"));
+
+        assertTrue(writer.write(EncodedCharacterDataEventImpl.create("<h\u00e9ad>")));
+        assertEquals(0, writer.getFlushes());
+
+        assertTrue(writer.write(EncodedCharacterDataEventImpl.create("caf\u00e9</h\u00e9ad>")));
+        assertEquals(1, writer.getFlushes());
+
+        assertFalse(writer.write(EncodedCharacterDataEventImpl.create("")));
+        assertEquals("<h\u00e9ad>caf\u00e9</h\u00e9ad>", out.toString("UTF-8"));
+    }
+}
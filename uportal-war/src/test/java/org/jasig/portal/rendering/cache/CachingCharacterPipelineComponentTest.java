@@ -26,6 +26,7 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -34,7 +35,12 @@ import net.sf.ehcache.Element;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.EncodedCharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 import org.jasig.portal.rendering.PipelineEventReader;
 import org.jasig.portal.rendering.PipelineEventReaderImpl;
@@ -86,6 +92,56 @@ public class CachingCharacterPipelineComponentTest {
         verify(cache, targetComponent, elementsProvider);
     }
     
+    @Test
+    public void testCacheMissCompactsEvents() {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final IPortletWindowId portletWindowId = createMock(IPortletWindowId.class);
+        final PortletContentPlaceholderEventImpl placeholderEvent = new PortletContentPlaceholderEventImpl(portletWindowId);
+        final List<CharacterEvent> eventBuffer = Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<html>"),
+                CharacterDataEventImpl.create("<body>"),
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                CharacterDataEventImpl.create("<div>"),
+                placeholderEvent,
+                CharacterDataEventImpl.create("</div>"),
+                CharacterDataEventImpl.create("</body></html>"));
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(eventBuffer.listIterator()));
+        
+        final Ehcache cache = createMock(Ehcache.class);
+        final CharacterPipelineComponent targetComponent = createMock(CharacterPipelineComponent.class);
+        final ResourcesElementsProvider elementsProvider = createMock(ResourcesElementsProvider.class);
+        
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
+        expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
+        expect(cache.get(cacheKey)).andReturn(null);
+        expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
+        cache.put((Element)notNull());
+        expectLastCall();
+        
+        replay(cache, targetComponent, elementsProvider);
+        
+        final CachingCharacterPipelineComponent cachingComponent = new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+        
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> actualEventReader = cachingComponent.getEventReader(mockReq, mockRes);
+        final CharacterEventReader characterEventReader = actualEventReader.getEventReader();
+
+        Assert.assertEquals("<html><body>", ((CharacterDataEvent)characterEventReader.next()).getData());
+        Assert.assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, characterEventReader.next());
+        final CharacterEvent divEvent = characterEventReader.next();
+        Assert.assertTrue(divEvent instanceof EncodedCharacterDataEventImpl);
+        Assert.assertEquals("<div>", ((CharacterDataEvent)divEvent).getData());
+        Assert.assertEquals(placeholderEvent, characterEventReader.next());
+        Assert.assertEquals("</div></body></html>", ((CharacterDataEvent)characterEventReader.next()).getData());
+        Assert.assertFalse(characterEventReader.hasNext());
+        
+        verify(cache, targetComponent, elementsProvider);
+    }
+    
     @Test
     public void testCacheHit() {
         final MockHttpServletRequest mockReq = new MockHttpServletRequest();
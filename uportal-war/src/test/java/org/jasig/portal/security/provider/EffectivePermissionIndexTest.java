@@ -0,0 +1,204 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPerson;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EffectivePermissionIndexTest {
+    private static final String OWNER = "UP_TEST";
+    private static final String ACTIVITY = "VIEW";
+
+    private AuthorizationImpl authorizationService;
+    private IAuthorizationPrincipal principal;
+    private final Map<String, IAuthorizationPrincipal> principals = new HashMap<String, IAuthorizationPrincipal>();
+    private final Map<String, IGroupMember> members = new HashMap<String, IGroupMember>();
+
+    /*
+     * user -> A -> C
+     * user -> B -> C
+     */
+    @Before
+    public void setup() throws Exception {
+        this.authorizationService = mock(AuthorizationImpl.class);
+
+        this.principal = this.createNode("user", IPerson.class);
+        this.createNode("A", IEntityGroup.class);
+        this.createNode("B", IEntityGroup.class);
+        this.createNode("C", IEntityGroup.class);
+
+        this.setParents("user", "A", "B");
+        this.setParents("A", "C");
+        this.setParents("B", "C");
+        this.setParents("C");
+        when(this.authorizationService.getGroupMember(this.principal)).thenReturn(this.members.get("user"));
+    }
+
+    @Test
+    public void testUnblockedPathToGrant() throws Exception {
+        this.setPermissions("user");
+        this.setPermissions("A", this.createPermission("A", "target", IPermission.PERMISSION_TYPE_DENY));
+        this.setPermissions("B");
+        this.setPermissions("C", this.createPermission("C", "target", IPermission.PERMISSION_TYPE_GRANT));
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this.authorizationService, this.principal);
+
+        assertEquals(EffectivePermissionIndex.INHERITED_GRANT, index.resolve(OWNER, ACTIVITY, Collections.singleton("target")));
+        assertEquals(EffectivePermissionIndex.NONE, index.resolve(OWNER, ACTIVITY, Collections.singleton("other")));
+        assertEquals(EffectivePermissionIndex.NONE, index.resolve(OWNER, "OTHER", Collections.singleton("target")));
+    }
+
+    @Test
+    public void testAllPathsBlocked() throws Exception {
+        this.setPermissions("user");
+        this.setPermissions("A", this.createPermission("A", "target", IPermission.PERMISSION_TYPE_DENY));
+        this.setPermissions("B", this.createPermission("B", "target", IPermission.PERMISSION_TYPE_DENY));
+        this.setPermissions("C", this.createPermission("C", "target", IPermission.PERMISSION_TYPE_GRANT));
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this.authorizationService, this.principal);
+
+        assertEquals(EffectivePermissionIndex.NONE, index.resolve(OWNER, ACTIVITY, Collections.singleton("target")));
+    }
+
+    @Test
+    public void testExplicitPermissions() throws Exception {
+        this.setPermissions("user",
+                this.createPermission("user", "granted", IPermission.PERMISSION_TYPE_GRANT),
+                this.createPermission("user", "denied", IPermission.PERMISSION_TYPE_DENY));
+        this.setPermissions("A", this.createPermission("A", "denied", IPermission.PERMISSION_TYPE_GRANT));
+        this.setPermissions("B");
+        this.setPermissions("C");
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this.authorizationService, this.principal);
+
+        assertEquals(EffectivePermissionIndex.EXPLICIT_GRANT, index.resolve(OWNER, ACTIVITY, Collections.singleton("granted")));
+        assertEquals(EffectivePermissionIndex.EXPLICIT_DENY, index.resolve(OWNER, ACTIVITY, Collections.singleton("denied")));
+    }
+
+    @Test
+    public void testContainingGroupTargets() throws Exception {
+        this.setPermissions("user");
+        this.setPermissions("A", this.createPermission("A", "target", IPermission.PERMISSION_TYPE_DENY));
+        this.setPermissions("B");
+        this.setPermissions("C", this.createPermission("C", "targetGroup", IPermission.PERMISSION_TYPE_GRANT));
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this.authorizationService, this.principal);
+
+        assertEquals(EffectivePermissionIndex.INHERITED_GRANT, index.resolve(OWNER, ACTIVITY, Collections.singleton("targetGroup")));
+        //The DENY on A for the target blocks the GRANT on C for the target's group through A but not through B
+        assertEquals(EffectivePermissionIndex.INHERITED_GRANT, index.resolve(OWNER, ACTIVITY, Arrays.asList("target", "targetGroup")));
+    }
+
+    @Test
+    public void testPermissionDates() throws Exception {
+        final long now = System.currentTimeMillis();
+
+        final PermissionImpl expired = this.createPermission("C", "expired", IPermission.PERMISSION_TYPE_GRANT);
+        expired.setExpires(new Date(now - 60000));
+        final PermissionImpl future = this.createPermission("C", "future", IPermission.PERMISSION_TYPE_GRANT);
+        future.setEffective(new Date(now + 60000));
+
+        this.setPermissions("user");
+        this.setPermissions("A");
+        this.setPermissions("B");
+        this.setPermissions("C", expired, future);
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this.authorizationService, this.principal);
+
+        assertEquals(EffectivePermissionIndex.NONE, index.resolve(OWNER, ACTIVITY, Collections.singleton("expired")));
+        assertEquals(EffectivePermissionIndex.NONE, index.resolve(OWNER, ACTIVITY, Collections.singleton("future")));
+        assertTrue(index.isCurrent(this.authorizationService, now));
+        assertFalse(index.isCurrent(this.authorizationService, now + 60000));
+    }
+
+    @Test
+    public void testPermissionChange() throws Exception {
+        this.setPermissions("user");
+        this.setPermissions("A");
+        this.setPermissions("B");
+        this.setPermissions("C");
+
+        final EffectivePermissionIndex index = EffectivePermissionIndex.build(this.authorizationService, this.principal);
+        final long now = System.currentTimeMillis();
+        assertTrue(index.isCurrent(this.authorizationService, now));
+
+        when(this.authorizationService.getPermissionVersion("2.C")).thenReturn(1L);
+        assertFalse(index.isCurrent(this.authorizationService, now));
+    }
+
+    private IAuthorizationPrincipal createNode(String key, Class<?> type) throws Exception {
+        final IAuthorizationPrincipal nodePrincipal = mock(IAuthorizationPrincipal.class);
+        when(nodePrincipal.getKey()).thenReturn(key);
+        when(nodePrincipal.getType()).thenReturn((Class) type);
+        when(this.authorizationService.getPrincipalString(nodePrincipal)).thenReturn((IPerson.class.equals(type) ? "3." : "2.") + key);
+
+        final IGroupMember member = mock(IGroupMember.class);
+        when(member.getKey()).thenReturn(key);
+        when(member.getType()).thenReturn((Class) type);
+        when(this.authorizationService.newPrincipal(member)).thenReturn(nodePrincipal);
+
+        this.principals.put(key, nodePrincipal);
+        this.members.put(key, member);
+        return nodePrincipal;
+    }
+
+    private void setParents(String key, String... parentKeys) throws Exception {
+        final List<IGroupMember> parents = new ArrayList<IGroupMember>();
+        for (final String parentKey : parentKeys) {
+            parents.add(this.members.get(parentKey));
+        }
+        final Iterator<IGroupMember> parentItr = parents.iterator();
+        when(this.members.get(key).getContainingGroups()).thenReturn(parentItr);
+    }
+
+    private void setPermissions(String key, IPermission... permissions) throws Exception {
+        when(this.authorizationService.getPermissionsForPrincipal(this.principals.get(key), null, null, null)).thenReturn(permissions);
+    }
+
+    private PermissionImpl createPermission(String principalKey, String target, String type) {
+        final PermissionImpl permission = new PermissionImpl(OWNER);
+        permission.setPrincipal("2." + principalKey);
+        permission.setActivity(ACTIVITY);
+        permission.setTarget(target);
+        permission.setType(type);
+        return permission;
+    }
+}
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.when;
 
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
@@ -35,10 +36,12 @@ import java.util.Set;
 import javax.portlet.PortletMode;
 import javax.portlet.ResourceURL;
 import javax.portlet.WindowState;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.LayoutNodeIndex;
 import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
 import org.jasig.portal.portlet.om.IPortletEntity;
 import org.jasig.portal.portlet.om.IPortletWindow;
@@ -49,16 +52,15 @@ import org.jasig.portal.portlet.rendering.IPortletRenderer;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.jasig.portal.utils.Tuple;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
@@ -77,7 +79,6 @@ public class UrlSyntaxProviderImplTest {
     @Mock private IPortalUrlProvider portalUrlProvider;
     @Mock private IPortletEntityRegistry portletEntityRegistry;
     @Mock private IPortletWindowRegistry portletWindowRegistry;
-    @Mock private XPathOperations xpathOperations;
     @Mock private IUserInstanceManager userInstanceManager;
     @Mock private IUserInstance userInstance;
     @Mock private IUserPreferencesManager userPreferencesManager;
@@ -923,11 +924,13 @@ public class UrlSyntaxProviderImplTest {
         request.addParameter("activeTab", "1");
         
         when(this.portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
-        when(this.xpathOperations.doWithExpression(
-                Mockito.eq("/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID"),
-                Mockito.eq(Collections.singletonMap("activeTabId", "1")),
-                Mockito.<Function>anyObject()))
-                .thenReturn("n12");
+        final Document layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(
+                "<layout><folder ID=\"s1\" type=\"root\" hidden=\"false\">" +
+                "<folder ID=\"s5\" type=\"header\" hidden=\"false\"/>" +
+                "<folder ID=\"s7\" type=\"regular\" hidden=\"true\"/>" +
+                "<folder ID=\"n12\" type=\"regular\" hidden=\"false\"/>" +
+                "</folder></layout>")));
+        when(userLayout.getNodeIndex()).thenReturn(LayoutNodeIndex.build(layout));
         
         when(this.userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
         when(userInstance.getPreferencesManager()).thenReturn(userPreferencesManager);
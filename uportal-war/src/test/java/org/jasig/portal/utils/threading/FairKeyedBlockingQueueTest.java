@@ -0,0 +1,229 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FairKeyedBlockingQueueTest {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    @Test
+    public void testRoundRobinByKey() throws Exception {
+        final TestFairQueue queue = new TestFairQueue(10);
+        
+        queue.offer("a:1");
+        queue.offer("a:2");
+        queue.offer("a:3");
+        queue.offer("b:1");
+        queue.offer("c:1");
+        queue.offer("c:2");
+        
+        assertEquals(6, queue.size());
+        assertEquals(3, queue.getKeySize("a"));
+        
+        final List<String> results = new ArrayList<String>();
+        queue.drainTo(results);
+        
+        assertEquals(Arrays.asList("a:1", "b:1", "c:1", "a:2", "c:2", "a:3"), results);
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getKeySize("a"));
+        assertNull(queue.poll());
+    }
+    
+    @Test
+    public void testCapacity() throws Exception {
+        final TestFairQueue queue = new TestFairQueue(2);
+        
+        assertTrue(queue.offer("a:1"));
+        assertTrue(queue.offer("b:1"));
+        assertFalse(queue.offer("c:1"));
+        assertFalse(queue.offer("c:1", 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+        
+        assertEquals("a:1", queue.take());
+        assertTrue(queue.offer("c:1"));
+    }
+    
+    @Test
+    public void testRemove() throws Exception {
+        final TestFairQueue queue = new TestFairQueue(10);
+        
+        queue.offer("a:1");
+        queue.offer("a:2");
+        queue.offer("b:1");
+        
+        assertTrue(queue.contains("a:2"));
+        assertTrue(queue.remove("a:2"));
+        assertFalse(queue.remove("a:2"));
+        assertFalse(queue.contains("a:2"));
+        
+        final Iterator<String> itr = queue.iterator();
+        while (itr.hasNext()) {
+            if ("b:1".equals(itr.next())) {
+                itr.remove();
+            }
+        }
+        
+        assertEquals(1, queue.size());
+        assertEquals("a:1", queue.poll(10, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final TestFairQueue queue = new TestFairQueue(100);
+        final long throughput = runProducerConsumer(queue, 8, 4, 1000);
+        assertTrue(throughput > 0);
+        assertEquals(0, queue.size());
+    }
+    
+    /**
+     * Compares throughput of {@link FairKeyedBlockingQueue} and {@link QualityOfServiceBlockingQueue} with an
+     * increasing number of producer threads. Timing based so not run as part of the build.
+     */
+    @Ignore
+    @Test
+    public void benchmarkProducers() throws Exception {
+        final int elementsPerProducer = 20000;
+        for (final int producers : new int[] { 8, 32, 128 }) {
+            //Warm up
+            runProducerConsumer(new TestFairQueue(1000), producers, 8, elementsPerProducer);
+            runProducerConsumer(new TestQoSQueue(1000), producers, 8, elementsPerProducer);
+            
+            final long fair = runProducerConsumer(new TestFairQueue(1000), producers, 8, elementsPerProducer);
+            final long qos = runProducerConsumer(new TestQoSQueue(1000), producers, 8, elementsPerProducer);
+            
+            logger.info("{} producers: FairKeyedBlockingQueue={} ops/s, QualityOfServiceBlockingQueue={} ops/s", new Object[] { producers, fair, qos });
+        }
+    }
+
+    /**
+     * @return Elements transfered per second
+     */
+    protected long runProducerConsumer(final BlockingQueue<String> queue, int producers, int consumers, final int elementsPerProducer) throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            final int total = producers * elementsPerProducer;
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(total);
+            final AtomicLong consumed = new AtomicLong();
+            
+            for (int p = 0; p < producers; p++) {
+                final String key = "k" + (p % 16) + ":";
+                executorService.submit(new ThrowingRunnable() {
+                    @Override
+                    public void runWithException() throws Throwable {
+                        start.await();
+                        for (int i = 0; i < elementsPerProducer; i++) {
+                            queue.put(key + i);
+                        }
+                    }
+                });
+            }
+            for (int c = 0; c < consumers; c++) {
+                executorService.submit(new ThrowingRunnable() {
+                    @Override
+                    public void runWithException() throws Throwable {
+                        start.await();
+                        while (consumed.incrementAndGet() <= total) {
+                            queue.take();
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            
+            final long startTime = System.nanoTime();
+            start.countDown();
+            assertTrue("Timed out transfering elements", done.await(2, TimeUnit.MINUTES));
+            final long duration = Math.max(1, System.nanoTime() - startTime);
+            
+            return total * TimeUnit.SECONDS.toNanos(1) / duration;
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    private static String getKey(String e) {
+        return e.substring(0, e.indexOf(':'));
+    }
+    
+    private static final class TestFairQueue extends FairKeyedBlockingQueue<String, String> {
+        public TestFairQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return getKey(e);
+        }
+    }
+    
+    /**
+     * Same round-robin key selection used by the portlet worker QoS queue
+     */
+    private static final class TestQoSQueue extends QualityOfServiceBlockingQueue<String, String> {
+        private Iterator<String> keyIterator;
+        
+        public TestQoSQueue(int capacity) {
+            super(capacity);
+            this.keyIterator = this.getKeySet().iterator();
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return getKey(e);
+        }
+
+        @Override
+        protected String getNextElementKey() {
+            final Set<String> keySet = this.getKeySet();
+            String key;
+            do {
+                if (!this.keyIterator.hasNext()) {
+                    this.keyIterator = keySet.iterator();
+                }
+                key = this.keyIterator.next();
+            } while (this.isKeyEmpty(key));
+            return key;
+        }
+    }
+}